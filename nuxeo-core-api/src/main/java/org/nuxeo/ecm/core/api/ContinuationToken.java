@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.api;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Position in the results of a query paginated with keyset (seek) pagination.
+ * <p>
+ * A token records the ORDER BY values of the last returned row, followed by
+ * its id, so that the next page can be fetched by asking for the rows that
+ * come after them instead of skipping an offset. The number of rows already
+ * returned is recorded too, for the backends that cannot seek.
+ * <p>
+ * Tokens are opaque to callers, which should start with {@link #FIRST} and
+ * then pass the token returned with each page to get the next one.
+ *
+ * @since 5.6
+ */
+public class ContinuationToken implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Token for the first page of results. */
+    public static final ContinuationToken FIRST = new ContinuationToken(null,
+            0);
+
+    protected final Serializable[] values;
+
+    protected final long offset;
+
+    /**
+     * Constructs a token.
+     *
+     * @param values the ORDER BY values of the last row followed by its id,
+     *            or {@code null} if unknown
+     * @param offset the number of rows already returned
+     */
+    public ContinuationToken(Serializable[] values, long offset) {
+        this.values = values;
+        this.offset = offset;
+    }
+
+    /**
+     * Gets the ORDER BY values of the last row followed by its id.
+     *
+     * @return the values, or {@code null} if unknown
+     */
+    public Serializable[] getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the number of rows already returned.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(values="
+                + Arrays.toString(values) + ",offset=" + offset + ')';
+    }
+
+}
@@ -1271,6 +1271,37 @@ public interface CoreSession {
     DocumentModelList query(String query, String queryType, Filter filter,
             long limit, long offset, long countUpTo) throws ClientException;
 
+    /**
+     * Executes the given query and returns one page of the result that matches
+     * the filter, using keyset pagination.
+     * <p>
+     * Instead of an offset, a continuation token is used to find the position
+     * of the page, so that fetching any page costs the same as fetching the
+     * first one. The query must have an ORDER BY clause for the order of the
+     * pages to be defined. The token to get the next page is available through
+     * {@link DocumentModelList#getContinuationToken} on the returned list.
+     * <p>
+     * If the backend cannot seek for this query, it falls back to using the
+     * number of documents already returned as an offset. The total size is
+     * not computed.
+     *
+     * @param query the query to execute
+     * @param queryType the query type, like "NXQL"
+     * @param filter the filter to apply to result
+     * @param limit the maximum number of documents to retrieve, i.e., the page
+     *            size
+     * @param continuationToken the token returned with the previous page, or
+     *            {@link ContinuationToken#FIRST} for the first page
+     * @return the query result, whose continuation token is {@code null} if
+     *         there are no more pages
+     * @throws ClientException
+     *
+     * @since 5.6
+     */
+    DocumentModelList query(String query, String queryType, Filter filter,
+            long limit, ContinuationToken continuationToken)
+            throws ClientException;
+
     /**
      *
      * @throws ClientException
@@ -1278,6 +1309,28 @@ public interface CoreSession {
     IterableQueryResult queryAndFetch(String query, String queryType,
             Object... params) throws ClientException;
 
+    /**
+     * Executes the given query and returns a cursor streaming its results.
+     * <p>
+     * Unlike {@link #queryAndFetch}, the cursor is forward-only and the rows
+     * are fetched from the database in batches as they are consumed, so that
+     * memory use doesn't depend on the size of the result. This is meant for
+     * exports or reindexing iterating on very large results. The size of the
+     * result is unknown ({@code -1}) and it's only possible to skip forward.
+     * <p>
+     * The returned result MUST be closed when no more needed.
+     *
+     * @param query the query to execute
+     * @param queryType the query type, like "NXQL"
+     * @param params optional query-type-dependent parameters
+     * @return the streaming query result
+     * @throws ClientException
+     *
+     * @since 5.6
+     */
+    IterableQueryResult queryAndFetchStreaming(String query, String queryType,
+            Object... params) throws ClientException;
+
     /**
      * Executes the given NXQL query and returns an iterators of results.
      *
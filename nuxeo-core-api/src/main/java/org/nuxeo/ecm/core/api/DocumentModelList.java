@@ -33,4 +33,15 @@ public interface DocumentModelList extends List<DocumentModel>, Serializable {
      */
     long totalSize();
 
+    /**
+     * Gets the token to use to get the page following this one, when this
+     * list is a page obtained with keyset pagination.
+     *
+     * @return the token, or {@code null} if there are no more results or if
+     *         this list was not obtained with keyset pagination
+     * @see CoreSession#query(String, String, Filter, long, ContinuationToken)
+     * @since 5.6
+     */
+    ContinuationToken getContinuationToken();
+
 }
@@ -16,6 +16,7 @@ package org.nuxeo.ecm.core.api.impl;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 
@@ -30,6 +31,8 @@ public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
 
     protected long totalSize = -1;
 
+    protected ContinuationToken continuationToken;
+
     public DocumentModelListImpl() {
     }
 
@@ -69,4 +72,19 @@ public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
         return totalSize;
     }
 
+    /**
+     * Sets the token to use to get the page following this one, when this
+     * list is a page obtained with keyset pagination.
+     *
+     * @since 5.6
+     */
+    public void setContinuationToken(ContinuationToken continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    @Override
+    public ContinuationToken getContinuationToken() {
+        return continuationToken;
+    }
+
 }
@@ -13,8 +13,12 @@
 package org.nuxeo.ecm.core.convert.cache;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.convert.api.ConversionService;
 
@@ -33,11 +37,47 @@ public class ConversionCacheEntry {
     protected String persistPath;
     protected long sizeInKB = 0;
 
+    /** Whether the access time changed since it was last saved to disk. */
+    protected final AtomicBoolean accessTimeDirty = new AtomicBoolean();
+
     public ConversionCacheEntry(BlobHolder bh) {
         this.bh = bh;
         updateAccessTime();
     }
 
+    /**
+     * Constructs an entry for a result already persisted on disk.
+     *
+     * @param persistPath the path of the persisted result
+     * @param lastAccessTime the last access time
+     * @since 5.6
+     */
+    public ConversionCacheEntry(String persistPath, Date lastAccessTime) {
+        this.persistPath = persistPath;
+        this.lastAccessTime = lastAccessTime;
+        sizeInKB = getSize(new File(persistPath)) / 1024;
+        persisted = true;
+    }
+
+    /**
+     * Gets the size of a file, or of all the files in a directory.
+     *
+     * @since 5.6
+     */
+    protected static long getSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+
     protected void updateAccessTime() {
         lastAccessTime = new Date();
     }
@@ -47,7 +87,7 @@ public class ConversionCacheEntry {
             CachableBlobHolder cbh = (CachableBlobHolder) bh;
             persistPath = cbh.persist(basePath);
             if (persistPath != null) {
-                sizeInKB = new File(persistPath).length() / 1024;
+                sizeInKB = getSize(new File(persistPath)) / 1024;
                 persisted = true;
             }
         }
@@ -57,8 +97,34 @@ public class ConversionCacheEntry {
 
     public void remove() {
         if (persisted && persistPath != null) {
-            new File(persistPath).delete();
+            FileUtils.deleteTree(new File(persistPath));
+            new File(persistPath + ConversionCacheHolder.KEY_FILE_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Moves the persisted files aside, so that they can be deleted without
+     * holding the cache lock while a new result for the same key is persisted
+     * to the same path. Files that cannot be moved are deleted right away.
+     *
+     * @return the moved files, to be deleted
+     * @since 5.6
+     */
+    protected List<File> detach() {
+        List<File> files = new ArrayList<File>(2);
+        if (persisted && persistPath != null) {
+            String suffix = ".evicted-" + System.nanoTime();
+            for (File file : new File[] { new File(persistPath),
+                    new File(persistPath + ConversionCacheHolder.KEY_FILE_SUFFIX) }) {
+                File moved = new File(file.getPath() + suffix);
+                if (file.renameTo(moved)) {
+                    files.add(moved);
+                } else {
+                    FileUtils.deleteTree(file);
+                }
+            }
         }
+        return files;
     }
 
     public BlobHolder restore() {
@@ -72,6 +138,32 @@ public class ConversionCacheEntry {
         }
     }
 
+    /**
+     * Saves the last access time as the modification time of the key file,
+     * if it changed, so that the next index rebuild keeps the access order.
+     *
+     * @since 5.6
+     */
+    public void saveAccessTime() {
+        if (!accessTimeDirty.compareAndSet(true, false)) {
+            return;
+        }
+        if (persisted && persistPath != null) {
+            new File(persistPath + ConversionCacheHolder.KEY_FILE_SUFFIX).setLastModified(
+                    lastAccessTime.getTime());
+        }
+    }
+
+    /**
+     * Marks the access time as changed since it was last saved to disk.
+     *
+     * @return {@code true} if it was not already marked
+     * @since 5.6
+     */
+    protected boolean markAccessTimeDirty() {
+        return accessTimeDirty.compareAndSet(false, true);
+    }
+
     public long getDiskSpaceUsageInKB() {
         return sizeInKB;
     }
@@ -80,4 +172,14 @@ public class ConversionCacheEntry {
         return lastAccessTime;
     }
 
+    /**
+     * Gets the path of the persisted result.
+     *
+     * @return the path, or {@code null} if not persisted
+     * @since 5.6
+     */
+    public String getPersistPath() {
+        return persistPath;
+    }
+
 }
@@ -14,14 +14,6 @@
  */
 package org.nuxeo.ecm.core.convert.cache;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.convert.service.ConversionServiceImpl;
@@ -58,19 +50,13 @@ public class ConversionCacheGCManager {
     }
 
     public static long getCacheSizeInKB() {
-        long totalSize = 0;
-        Set<String> cacheKeys = ConversionCacheHolder.getCacheKeys();
-
-        for (String key : cacheKeys) {
-            ConversionCacheEntry cacheEntry = ConversionCacheHolder.getCacheEntry(key);
-            totalSize += cacheEntry.getDiskSpaceUsageInKB();
-        }
-        return totalSize;
+        return ConversionCacheHolder.getCacheSizeInKB();
     }
 
     public static boolean gcIfNeeded() {
         gcCalls += 1;
         log.debug("GC Thread awake, see if there is some work to be done");
+        ConversionCacheHolder.saveAccessTimes();
 
         long totalSize = getCacheSizeInKB();
         long limit = getMaxDiskSpaceUsageKB();
@@ -91,32 +77,8 @@ public class ConversionCacheGCManager {
 
     public static void doGC(long deltaInKB) {
         gcRuns += 1;
-        Set<String> cacheKeys = ConversionCacheHolder.getCacheKeys();
-
-        Map<Date, String> sortingMap = new HashMap<Date, String>();
-
-        for (String key : cacheKeys) {
-            ConversionCacheEntry cacheEntry = ConversionCacheHolder.getCacheEntry(key);
-            sortingMap.put(cacheEntry.getLastAccessedTime(), key);
-        }
-
-        List<Date> accessTimeList = new ArrayList<Date>();
-        accessTimeList.addAll(sortingMap.keySet());
-        Collections.sort(accessTimeList);
-
-        long deletedVolume = 0;
-        for (Date accessDate : accessTimeList) {
-            ConversionCacheEntry cacheEntry = ConversionCacheHolder.getCacheEntry(sortingMap.get(accessDate));
-
-            long deletePotential = cacheEntry.getDiskSpaceUsageInKB();
-
-            deletedVolume += deletePotential;
-            ConversionCacheHolder.removeFromCache(sortingMap.get(accessDate));
-
-            if (deletedVolume > deltaInKB) {
-                break;
-            }
-        }
+        int n = ConversionCacheHolder.evictLeastRecentlyUsed(deltaInKB);
+        log.debug("GC removed " + n + " cache entries");
     }
 
 }
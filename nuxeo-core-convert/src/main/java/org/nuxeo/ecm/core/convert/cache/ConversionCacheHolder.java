@@ -14,15 +14,26 @@ package org.nuxeo.ecm.core.convert.cache;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.Base64;
+import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.common.utils.Path;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.convert.api.ConversionService;
@@ -30,12 +41,41 @@ import org.nuxeo.ecm.core.convert.service.ConversionServiceImpl;
 
 /**
  * Manager for the cache system of the {@link ConversionService}.
+ * <p>
+ * Next to each persisted result, a file with the {@link #KEY_FILE_SUFFIX}
+ * suffix holds the cache key, so that the index can be rebuilt from disk at
+ * startup.
+ * <p>
+ * The index is kept in access order (least recently used first) together with
+ * the total size of the persisted results, so that the GC doesn't have to
+ * scan or sort it.
  *
  * @author tiry
  */
 public class ConversionCacheHolder {
 
-    protected static final Map<String, ConversionCacheEntry> cache = new HashMap<String, ConversionCacheEntry>();
+    /**
+     * Suffix of the file holding the cache key of a persisted result.
+     *
+     * @since 5.6
+     */
+    public static final String KEY_FILE_SUFFIX = ".cachekey";
+
+    /**
+     * The index, in access order. Lookups also modify it and are therefore
+     * synchronized on it when done under the read lock.
+     */
+    protected static final Map<String, ConversionCacheEntry> cache = new LinkedHashMap<String, ConversionCacheEntry>(
+            16, 0.75f, true);
+
+    /**
+     * The entries whose access time changed since it was last saved to disk,
+     * each queued once until saved.
+     */
+    protected static final Queue<ConversionCacheEntry> accessedEntries = new ConcurrentLinkedQueue<ConversionCacheEntry>();
+
+    /** Total size of the indexed entries, guarded by the write lock. */
+    protected static long cacheSizeInKB = 0;
 
     protected static final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
 
@@ -45,6 +85,8 @@ public class ConversionCacheHolder {
     public static int subPathPartSize = 2;
     public static long cacheHits = 0;
 
+    protected static final AtomicLong cacheMisses = new AtomicLong();
+
     // Utility class.
     private ConversionCacheHolder() {
     }
@@ -53,8 +95,34 @@ public class ConversionCacheHolder {
         return cacheHits;
     }
 
+    /**
+     * @since 5.6
+     */
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     public static int getNbCacheEntries() {
-        return cache.keySet().size();
+        cacheLock.readLock().lock();
+        try {
+            return cache.size();
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the total disk space used by the indexed entries.
+     *
+     * @since 5.6
+     */
+    public static long getCacheSizeInKB() {
+        cacheLock.readLock().lock();
+        try {
+            return cacheSizeInKB;
+        } finally {
+            cacheLock.readLock().unlock();
+        }
     }
 
     protected static List<String> getSubPathFromKey(String key) {
@@ -113,8 +181,22 @@ public class ConversionCacheHolder {
         }
 
         if (persisted) {
-            cache.put(key, cce);
+            try {
+                FileUtils.writeFile(new File(cce.getPersistPath()
+                        + KEY_FILE_SUFFIX), key);
+            } catch (Exception e) {
+                log.error("Error while trying to persist cache key", e);
+            }
+            doIndex(key, cce);
+        }
+    }
+
+    protected static void doIndex(String key, ConversionCacheEntry cce) {
+        ConversionCacheEntry old = cache.put(key, cce);
+        if (old != null) {
+            cacheSizeInKB -= old.getDiskSpaceUsageInKB();
         }
+        cacheSizeInKB += cce.getDiskSpaceUsageInKB();
     }
 
     public static void removeFromCache(String key) {
@@ -128,10 +210,10 @@ public class ConversionCacheHolder {
     }
 
     protected static void doRemoveFromCache(String key) {
-        if (cache.containsKey(key)) {
-            ConversionCacheEntry cce = cache.get(key);
+        ConversionCacheEntry cce = cache.remove(key);
+        if (cce != null) {
+            cacheSizeInKB -= cce.getDiskSpaceUsageInKB();
             cce.remove();
-            cache.remove(key);
         }
     }
 
@@ -145,7 +227,9 @@ public class ConversionCacheHolder {
     }
 
     protected static ConversionCacheEntry doGetCacheEntry(String key) {
-        return cache.get(key);
+        synchronized (cache) {
+            return cache.get(key);
+        }
     }
 
     public static BlobHolder getFromCache(String key) {
@@ -157,21 +241,198 @@ public class ConversionCacheHolder {
         }
     }
 
+    /**
+     * Gets a result from the cache without counting a hit or a miss, for a
+     * lookup repeated after a counted one.
+     *
+     * @since 5.6
+     */
+    public static BlobHolder recheckCache(String key) {
+        ConversionCacheEntry cacheEntry = getCacheEntry(key);
+        return cacheEntry == null ? null : restore(cacheEntry);
+    }
+
+    protected static BlobHolder restore(ConversionCacheEntry cacheEntry) {
+        BlobHolder result = cacheEntry.restore();
+        if (cacheEntry.markAccessTimeDirty()) {
+            accessedEntries.add(cacheEntry);
+        }
+        return result;
+    }
+
     protected static BlobHolder doGetFromCache(String key) {
-        ConversionCacheEntry cacheEntry = cache.get(key);
+        ConversionCacheEntry cacheEntry;
+        synchronized (cache) {
+            cacheEntry = cache.get(key);
+        }
         if (cacheEntry != null) {
             if (cacheHits == Long.MAX_VALUE) {
                 cacheHits = 0;
             } else {
                 cacheHits += 1;
             }
-            return cacheEntry.restore();
+            return restore(cacheEntry);
         }
+        cacheMisses.incrementAndGet();
         return null;
     }
 
+    /**
+     * Gets the keys of the cache, least recently used first. Returns a copy.
+     */
     public static Set<String> getCacheKeys() {
-        return cache.keySet();
+        cacheLock.readLock().lock();
+        try {
+            synchronized (cache) {
+                return new LinkedHashSet<String>(cache.keySet());
+            }
+        } finally {
+            cacheLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until more than the given
+     * volume has been freed, or the cache is empty.
+     * <p>
+     * Only the evicted entries are visited. Their files are moved aside under
+     * the lock, so that a concurrent {@link #addToCache} of the same key,
+     * which persists to the same path, cannot lose its files, and are deleted
+     * after the lock is released.
+     *
+     * @param deltaInKB the volume to free
+     * @return the number of removed entries
+     * @since 5.6
+     */
+    public static int evictLeastRecentlyUsed(long deltaInKB) {
+        int n = 0;
+        List<File> evicted = new ArrayList<File>();
+        cacheLock.writeLock().lock();
+        try {
+            long deletedVolume = 0;
+            for (Iterator<ConversionCacheEntry> it = cache.values().iterator(); it.hasNext();) {
+                ConversionCacheEntry cce = it.next();
+                it.remove();
+                cacheSizeInKB -= cce.getDiskSpaceUsageInKB();
+                evicted.addAll(cce.detach());
+                n++;
+                deletedVolume += cce.getDiskSpaceUsageInKB();
+                if (deletedVolume > deltaInKB) {
+                    break;
+                }
+            }
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+        for (File file : evicted) {
+            FileUtils.deleteTree(file);
+        }
+        return n;
+    }
+
+    /**
+     * Saves to disk the access times of the entries used since the last call,
+     * so that the next index rebuild keeps the access order. Cache hits only
+     * track them in memory, and queue the entry the first time it is used
+     * since its access time was last saved.
+     *
+     * @since 5.6
+     */
+    public static void saveAccessTimes() {
+        ConversionCacheEntry cce;
+        while ((cce = accessedEntries.poll()) != null) {
+            cce.saveAccessTime();
+        }
+    }
+
+    /**
+     * Forgets all the entries of the index, without deleting their files. They
+     * can be added back using {@link #rebuildIndex}.
+     *
+     * @since 5.6
+     */
+    public static void clearIndex() {
+        cacheLock.writeLock().lock();
+        try {
+            cache.clear();
+            cacheSizeInKB = 0;
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds to the index the results persisted on disk by a previous run,
+     * using their key files. The last access time of a result is the last
+     * modification time of its key file, and entries are added to the index
+     * oldest first.
+     *
+     * @return the number of entries added
+     * @since 5.6
+     */
+    public static int rebuildIndex() {
+        File base = new File(ConversionServiceImpl.getCacheBasePath());
+        cacheLock.writeLock().lock();
+        try {
+            Map<String, ConversionCacheEntry> found = new LinkedHashMap<String, ConversionCacheEntry>();
+            rebuildIndex(base, found);
+            List<Entry<String, ConversionCacheEntry>> entries = new ArrayList<Entry<String, ConversionCacheEntry>>(
+                    found.entrySet());
+            Collections.sort(entries, ACCESS_TIME_COMPARATOR);
+            for (Entry<String, ConversionCacheEntry> es : entries) {
+                doIndex(es.getKey(), es.getValue());
+            }
+            return entries.size();
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    protected static final Comparator<Entry<String, ConversionCacheEntry>> ACCESS_TIME_COMPARATOR = new Comparator<Entry<String, ConversionCacheEntry>>() {
+        @Override
+        public int compare(Entry<String, ConversionCacheEntry> e1,
+                Entry<String, ConversionCacheEntry> e2) {
+            return e1.getValue().getLastAccessedTime().compareTo(
+                    e2.getValue().getLastAccessedTime());
+        }
+    };
+
+    protected static void rebuildIndex(File dir,
+            Map<String, ConversionCacheEntry> found) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> names = new HashSet<String>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(KEY_FILE_SUFFIX)) {
+                String persistPath = file.getPath().substring(0,
+                        file.getPath().length() - KEY_FILE_SUFFIX.length());
+                if (!new File(persistPath).exists()) {
+                    file.delete();
+                    continue;
+                }
+                String key;
+                try {
+                    key = FileUtils.readFile(file);
+                } catch (Exception e) {
+                    log.error("Cannot read cache key from " + file, e);
+                    continue;
+                }
+                if (!cache.containsKey(key)) {
+                    found.put(key, new ConversionCacheEntry(persistPath,
+                            new Date(file.lastModified())));
+                }
+            } else if (file.isDirectory()
+                    && !names.contains(name + KEY_FILE_SUFFIX)) {
+                // not a persisted multi-blob result
+                rebuildIndex(file, found);
+            }
+        }
     }
 
 }
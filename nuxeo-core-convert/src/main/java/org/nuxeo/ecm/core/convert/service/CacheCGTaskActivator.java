@@ -16,6 +16,7 @@ package org.nuxeo.ecm.core.convert.service;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.convert.cache.ConversionCacheHolder;
 import org.nuxeo.ecm.core.convert.cache.GCTask;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -43,6 +44,7 @@ public class CacheCGTaskActivator implements BundleActivator, FrameworkListener
     @Override
     public void stop(BundleContext context) throws Exception {
         endGC();
+        ConversionCacheHolder.saveAccessTimes();
         context.removeFrameworkListener(this);
     }
 
@@ -54,6 +56,11 @@ public class CacheCGTaskActivator implements BundleActivator, FrameworkListener
                 interval = defaultGCIntervalInMins;
             }
             GCTask.setGCIntervalInMinutes(interval);
+            if (ConversionServiceImpl.isCacheEnabled()) {
+                int n = ConversionCacheHolder.rebuildIndex();
+                log.debug("Conversion cache index rebuilt with " + n
+                        + " entries from disk");
+            }
             startGC();
         }
     }
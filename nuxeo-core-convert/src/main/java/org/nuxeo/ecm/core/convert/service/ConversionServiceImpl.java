@@ -17,6 +17,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -55,6 +59,14 @@ public class ConversionServiceImpl extends DefaultComponent implements
 
     protected static final GlobalConfigDescriptor config = new GlobalConfigDescriptor();
 
+    /**
+     * Conversions in progress, by cache key. Concurrent requests for the same
+     * conversion wait for the one in progress instead of running it again.
+     */
+    protected static final ConcurrentMap<String, CountDownLatch> inProgress = new ConcurrentHashMap<String, CountDownLatch>();
+
+    protected static final AtomicLong conversionWaits = new AtomicLong();
+
     /**
      * Component implementation.
      */
@@ -129,6 +141,16 @@ public class ConversionServiceImpl extends DefaultComponent implements
         return config.getCachingDirectory();
     }
 
+    /**
+     * Gets the number of conversions that waited for the same conversion
+     * already in progress.
+     *
+     * @since 5.6
+     */
+    public static long getConversionWaits() {
+        return conversionWaits.get();
+    }
+
     /* Service API */
 
     @Override
@@ -162,15 +184,45 @@ public class ConversionServiceImpl extends DefaultComponent implements
 
         if (cachedResult != null) {
             return cachedResult;
+        } else if (!config.isCacheEnabled()) {
+            return desc.getConverterInstance().convert(blobHolder, parameters);
         } else {
-            Converter converter = desc.getConverterInstance();
+            CountDownLatch latch = new CountDownLatch(1);
+            CountDownLatch existing = inProgress.putIfAbsent(cacheKey, latch);
+            if (existing != null) {
+                // same conversion in progress, wait for its cached result
+                conversionWaits.incrementAndGet();
+                try {
+                    existing.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConversionException(
+                            "Interrupted while waiting for conversion", e);
+                }
+                cachedResult = ConversionCacheHolder.recheckCache(cacheKey);
+                if (cachedResult != null) {
+                    return cachedResult;
+                }
+                // failed or not cachable, convert on our own
+                return desc.getConverterInstance().convert(blobHolder,
+                        parameters);
+            }
+            try {
+                // may have been cached just before we started
+                cachedResult = ConversionCacheHolder.recheckCache(cacheKey);
+                if (cachedResult != null) {
+                    return cachedResult;
+                }
+                Converter converter = desc.getConverterInstance();
 
-            BlobHolder result = converter.convert(blobHolder, parameters);
+                BlobHolder result = converter.convert(blobHolder, parameters);
 
-            if (config.isCacheEnabled()) {
                 ConversionCacheHolder.addToCache(cacheKey, result);
+                return result;
+            } finally {
+                inProgress.remove(cacheKey, latch);
+                latch.countDown();
             }
-            return result;
         }
     }
 
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ *
+ */
+package org.nuxeo.ecm.core.convert.tests;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.convert.api.ConversionException;
+
+/**
+ * Identity converter that takes some time and counts its conversions.
+ */
+public class SlowIdentityConverter extends IdentityConverter {
+
+    public static final AtomicInteger conversions = new AtomicInteger();
+
+    @Override
+    public BlobHolder convert(BlobHolder blobHolder,
+            Map<String, Serializable> parameters) throws ConversionException {
+        conversions.incrementAndGet();
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConversionException("Interrupted", e);
+        }
+        return super.convert(blobHolder, parameters);
+    }
+
+}
@@ -14,6 +14,12 @@
 package org.nuxeo.ecm.core.convert.tests;
 
 import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -25,6 +31,8 @@ import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.convert.api.ConversionService;
+import org.nuxeo.ecm.core.convert.cache.CacheKeyGenerator;
+import org.nuxeo.ecm.core.convert.cache.ConversionCacheEntry;
 import org.nuxeo.ecm.core.convert.cache.ConversionCacheGCManager;
 import org.nuxeo.ecm.core.convert.cache.ConversionCacheHolder;
 import org.nuxeo.ecm.core.convert.extension.Converter;
@@ -53,6 +61,7 @@ public class TestCache extends NXRuntimeTestCase {
 
         int cacheSize1 = ConversionCacheHolder.getNbCacheEntries();
         long cacheHits1 = ConversionCacheHolder.getCacheHits();
+        long cacheMisses1 = ConversionCacheHolder.getCacheMisses();
 
         File file = FileUtils.getResourceFileFromContext("test-data/hello.doc");
         assertNotNull(file);
@@ -83,6 +92,8 @@ public class TestCache extends NXRuntimeTestCase {
 
         // check cache hits
         assertEquals(1, cacheHits2 - cacheHits1);
+        // the lookup repeated before converting is not counted
+        assertEquals(1, ConversionCacheHolder.getCacheMisses() - cacheMisses1);
 
         // force GC
         ConversionCacheGCManager.doGC(file.length() / 1024);
@@ -91,4 +102,134 @@ public class TestCache extends NXRuntimeTestCase {
         assertEquals(0, cacheSize3);
     }
 
+    protected BlobHolder getBlobHolder() throws Exception {
+        File file = FileUtils.getResourceFileFromContext("test-data/hello.doc");
+        Blob blob = new FileBlob(file);
+        blob.setFilename("hello.doc");
+        blob.setMimeType("application/msword");
+        return new SimpleBlobHolder(blob);
+    }
+
+    @Test
+    public void testConcurrentConversions() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.convert.tests", "OSGI-INF/converters-test-contrib3.xml");
+        final ConversionService cs = Framework.getLocalService(ConversionService.class);
+        final BlobHolder bh = getBlobHolder();
+        int conversions = SlowIdentityConverter.conversions.get();
+        long waits = ConversionServiceImpl.getConversionWaits();
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        assertNotNull(cs.convert("slowIdentity", bh, null));
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        // only one actual conversion, the others waited for it
+        assertEquals(1, SlowIdentityConverter.conversions.get() - conversions);
+        assertEquals(2, ConversionServiceImpl.getConversionWaits() - waits);
+
+        ConversionCacheHolder.removeFromCache(CacheKeyGenerator.computeKey(
+                "slowIdentity", bh, null));
+    }
+
+    @Test
+    public void testCacheIndexRebuild() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.convert.tests", "OSGI-INF/converters-test-contrib3.xml");
+        ConversionService cs = Framework.getLocalService(ConversionService.class);
+        BlobHolder bh = getBlobHolder();
+        String key = CacheKeyGenerator.computeKey("identity", bh, null);
+
+        cs.convert("identity", bh, null);
+        ConversionCacheEntry entry = ConversionCacheHolder.getCacheEntry(key);
+        assertNotNull(entry);
+        String path = entry.getPersistPath();
+        assertTrue(new File(path + ConversionCacheHolder.KEY_FILE_SUFFIX).exists());
+
+        // already indexed
+        assertEquals(0, ConversionCacheHolder.rebuildIndex());
+
+        // simulate a restart, losing the in-memory index
+        ConversionCacheHolder.clearIndex();
+        assertNull(ConversionCacheHolder.getCacheEntry(key));
+        assertEquals(0, ConversionCacheHolder.getCacheSizeInKB());
+        assertTrue(ConversionCacheHolder.rebuildIndex() >= 1);
+        entry = ConversionCacheHolder.getCacheEntry(key);
+        assertNotNull(entry);
+        assertEquals(path, entry.getPersistPath());
+        assertTrue(entry.getDiskSpaceUsageInKB() > 0);
+        assertTrue(ConversionCacheHolder.getCacheSizeInKB() >= entry.getDiskSpaceUsageInKB());
+
+        long cacheHits = ConversionCacheHolder.getCacheHits();
+        File keyFile = new File(path + ConversionCacheHolder.KEY_FILE_SUFFIX);
+        keyFile.setLastModified(1000);
+        assertNotNull(cs.convert("identity", bh, null));
+        assertEquals(1, ConversionCacheHolder.getCacheHits() - cacheHits);
+        // access time only saved to disk on demand
+        assertEquals(1000, keyFile.lastModified());
+        ConversionCacheHolder.saveAccessTimes();
+        assertTrue(keyFile.lastModified() > 1000);
+
+        ConversionCacheHolder.removeFromCache(key);
+        assertFalse(new File(path).exists());
+        assertFalse(new File(path + ConversionCacheHolder.KEY_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.convert.tests", "OSGI-INF/converters-test-contrib3.xml");
+        ConversionService cs = Framework.getLocalService(ConversionService.class);
+        BlobHolder bh = getBlobHolder();
+        ConversionCacheGCManager.doGC(Long.MAX_VALUE);
+        assertEquals(0, ConversionCacheHolder.getCacheSizeInKB());
+
+        // entries of equal size, likely created within the same millisecond
+        String[] keys = new String[3];
+        for (int i = 0; i < keys.length; i++) {
+            Map<String, Serializable> params = new HashMap<String, Serializable>();
+            params.put("n", Integer.valueOf(i));
+            cs.convert("identity", bh, params);
+            keys[i] = CacheKeyGenerator.computeKey("identity", bh, params);
+            assertNotNull(ConversionCacheHolder.getCacheEntry(keys[i]));
+        }
+        long entrySize = ConversionCacheHolder.getCacheEntry(keys[0]).getDiskSpaceUsageInKB();
+        assertTrue(entrySize > 0);
+        assertEquals(3 * entrySize, ConversionCacheHolder.getCacheSizeInKB());
+
+        // use the first one again
+        ConversionCacheHolder.getFromCache(keys[0]);
+        assertEquals(keys[0], new ArrayList<String>(ConversionCacheHolder.getCacheKeys()).get(2));
+
+        // the least recently used entry goes first, with its files
+        String path1 = ConversionCacheHolder.getCacheEntry(keys[1]).getPersistPath();
+        File dir1 = new File(path1).getParentFile();
+        assertEquals(1, ConversionCacheHolder.evictLeastRecentlyUsed(0));
+        assertNull(ConversionCacheHolder.getCacheEntry(keys[1]));
+        assertFalse(new File(path1).exists());
+        assertFalse(new File(path1 + ConversionCacheHolder.KEY_FILE_SUFFIX).exists());
+        for (String name : dir1.list()) {
+            assertFalse(name, name.contains(".evicted-"));
+        }
+        assertNotNull(ConversionCacheHolder.getCacheEntry(keys[0]));
+        assertNotNull(ConversionCacheHolder.getCacheEntry(keys[2]));
+        assertEquals(2 * entrySize, ConversionCacheHolder.getCacheSizeInKB());
+
+        ConversionCacheGCManager.doGC(entrySize);
+        assertEquals(0, ConversionCacheHolder.getNbCacheEntries());
+        assertEquals(0, ConversionCacheHolder.getCacheSizeInKB());
+    }
+
 }
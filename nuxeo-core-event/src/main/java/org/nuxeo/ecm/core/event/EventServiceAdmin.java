@@ -26,6 +26,38 @@ public interface EventServiceAdmin {
 
     int getActiveThreadsCount();
 
+    /**
+     * Gets the number of event bundles merged into already scheduled work of
+     * coalescing async listeners.
+     *
+     * @since 5.6
+     */
+    long getCoalescedBundlesCount();
+
+    /**
+     * Gets the number of events merged into already scheduled work of
+     * coalescing async listeners.
+     *
+     * @since 5.6
+     */
+    long getCoalescedEventsCount();
+
+    /**
+     * Gets the number of event bundles reconnected once for several async
+     * listeners sharing a session.
+     *
+     * @since 5.6
+     */
+    long getSharedBundlesCount();
+
+    /**
+     * Gets the total time spent reconnecting event bundles shared by several
+     * async listeners, in milliseconds.
+     *
+     * @since 5.6
+     */
+    long getSharedReconnectTimeMillis();
+
     boolean isBlockAsyncHandlers();
 
     void setBlockAsyncHandlers(boolean blockAsyncHandlers);
@@ -26,4 +26,27 @@ public interface EventStats {
 
     void logSyncExec(EventListenerDescriptor desc, long delta);
 
+    /**
+     * Logs the execution of an async or post-commit listener.
+     *
+     * @param desc the listener
+     * @param eventName the name of the (first) event of the bundle, may be
+     *            {@code null}
+     * @param deltaNanos the execution time, in nanoseconds
+     * @since 5.6
+     */
+    void logAsyncExec(EventListenerDescriptor desc, String eventName,
+            long deltaNanos);
+
+    /**
+     * Logs the execution of a synchronous listener.
+     *
+     * @param desc the listener
+     * @param eventName the name of the event
+     * @param deltaNanos the execution time, in nanoseconds
+     * @since 5.6
+     */
+    void logSyncExec(EventListenerDescriptor desc, String eventName,
+            long deltaNanos);
+
 }
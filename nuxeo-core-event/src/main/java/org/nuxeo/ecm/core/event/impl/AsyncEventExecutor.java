@@ -13,13 +13,20 @@
  */
 package org.nuxeo.ecm.core.event.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,9 +40,11 @@ import org.nuxeo.ecm.core.event.PostCommitEventListener;
 import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
 import org.nuxeo.ecm.core.event.ReconnectedEventBundle;
 import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.api.Work;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.core.work.api.Work.State;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 /**
  * Executor of async listeners passing them to the WorkManager.
@@ -44,7 +53,79 @@ public class AsyncEventExecutor {
 
     private static final Log log = LogFactory.getLog(AsyncEventExecutor.class);
 
+    /**
+     * Property to run all the async listeners interested in a bundle in a
+     * single work, sharing the reconnected session and documents.
+     *
+     * @since 5.6
+     */
+    public static final String SHARED_SESSION_PROP = "org.nuxeo.ecm.event.async.sharedSession";
+
+    /**
+     * Property to run each listener of a shared work in its own transaction,
+     * instead of running all of them in the same transaction. The session
+     * is then reconnected for each listener inside its transaction, so only
+     * the scheduling of the work is shared.
+     *
+     * @since 5.6
+     */
+    public static final String SHARED_SESSION_TX_PER_LISTENER_PROP = "org.nuxeo.ecm.event.async.sharedSession.transactionPerListener";
+
+    protected boolean sharedSession;
+
+    protected boolean transactionPerListener;
+
+    /** Number of bundles reconnected once for several listeners. */
+    protected final AtomicLong sharedBundles = new AtomicLong();
+
+    /** Total time spent reconnecting shared bundles. */
+    protected final AtomicLong sharedReconnectTimeNanos = new AtomicLong();
+
+    /** Number of bundles merged into already scheduled work. */
+    protected final AtomicLong coalescedBundles = new AtomicLong();
+
+    /** Number of events merged into already scheduled work. */
+    protected final AtomicLong coalescedEvents = new AtomicLong();
+
     public AsyncEventExecutor() {
+        sharedSession = Boolean.parseBoolean(Framework.getProperty(
+                SHARED_SESSION_PROP, "false"));
+        transactionPerListener = Boolean.parseBoolean(Framework.getProperty(
+                SHARED_SESSION_TX_PER_LISTENER_PROP, "false"));
+    }
+
+    /**
+     * @since 5.6
+     */
+    public boolean isSharedSession() {
+        return sharedSession;
+    }
+
+    /**
+     * Sets whether all the async listeners interested in a bundle run in a
+     * single work sharing the reconnected session and documents.
+     *
+     * @since 5.6
+     */
+    public void setSharedSession(boolean sharedSession) {
+        this.sharedSession = sharedSession;
+    }
+
+    /**
+     * @since 5.6
+     */
+    public boolean isTransactionPerListener() {
+        return transactionPerListener;
+    }
+
+    /**
+     * Sets whether listeners grouped in a shared work each run in their own
+     * transaction, reconnecting their own session.
+     *
+     * @since 5.6
+     */
+    public void setTransactionPerListener(boolean transactionPerListener) {
+        this.transactionPerListener = transactionPerListener;
     }
 
     public WorkManager getWorkManager() {
@@ -73,6 +154,13 @@ public class AsyncEventExecutor {
     }
 
     public void run(List<EventListenerDescriptor> listeners, EventBundle bundle) {
+        // listeners and bundles for shared session works, by compatibility key
+        Map<String, List<EventListenerDescriptor>> sharedListeners = null;
+        Map<String, List<EventBundle>> sharedFiltered = null;
+        if (sharedSession && !(bundle instanceof ReconnectedEventBundle)) {
+            sharedListeners = new LinkedHashMap<String, List<EventListenerDescriptor>>();
+            sharedFiltered = new LinkedHashMap<String, List<EventBundle>>();
+        }
         for (EventListenerDescriptor listener : listeners) {
             EventBundle filtered = new EventBundleImpl();
             for (Event event : bundle) {
@@ -90,10 +178,128 @@ public class AsyncEventExecutor {
             if (filtered.isEmpty()) {
                 continue;
             }
-            getWorkManager().schedule(new ListenerWork(listener, filtered));
+            if (sharedListeners != null && !listener.isCoalescing()) {
+                String key = getSharingKey(listener);
+                List<EventListenerDescriptor> l = sharedListeners.get(key);
+                if (l == null) {
+                    l = new ArrayList<EventListenerDescriptor>();
+                    sharedListeners.put(key, l);
+                    sharedFiltered.put(key, new ArrayList<EventBundle>());
+                }
+                l.add(listener);
+                sharedFiltered.get(key).add(filtered);
+                continue;
+            }
+            ListenerWork work = new ListenerWork(listener, filtered);
+            if (listener.isCoalescing() && coalesce(work)) {
+                continue;
+            }
+            getWorkManager().schedule(work);
+        }
+        if (sharedListeners == null) {
+            return;
+        }
+        for (String key : sharedListeners.keySet()) {
+            List<EventListenerDescriptor> l = sharedListeners.get(key);
+            List<EventBundle> f = sharedFiltered.get(key);
+            if (l.size() == 1) {
+                // nothing to share
+                getWorkManager().schedule(new ListenerWork(l.get(0), f.get(0)));
+            } else {
+                getWorkManager().schedule(
+                        new SharedSessionWork(this, bundle, l, f,
+                                transactionPerListener));
+            }
         }
     }
 
+    /**
+     * Gets the key under which listeners may share a session: only listeners
+     * whose work goes to the same queue, with the same transaction timeout
+     * and threading constraints, run in the same work.
+     *
+     * @since 5.6
+     */
+    protected String getSharingKey(EventListenerDescriptor listener) {
+        String queueId = getWorkManager().getCategoryQueueId(
+                listener.getName());
+        return queueId + ' ' + listener.getTransactionTimeout() + ' '
+                + listener.isSingleThreaded();
+    }
+
+    /**
+     * Records the time spent reconnecting a bundle shared by several
+     * listeners.
+     *
+     * @since 5.6
+     */
+    protected void logSharedReconnect(long nanos) {
+        sharedBundles.incrementAndGet();
+        sharedReconnectTimeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Gets the number of event bundles reconnected once for several
+     * listeners.
+     *
+     * @since 5.6
+     */
+    public long getSharedBundlesCount() {
+        return sharedBundles.get();
+    }
+
+    /**
+     * Gets the total time spent reconnecting event bundles shared by several
+     * listeners, in milliseconds.
+     *
+     * @since 5.6
+     */
+    public long getSharedReconnectTimeMillis() {
+        return sharedReconnectTimeNanos.get() / 1000000;
+    }
+
+    /**
+     * Merges the events of a work instance into an equivalent work instance
+     * (same listener and same documents) that is scheduled but not yet
+     * running.
+     *
+     * @return {@code true} if the events were merged and the work doesn't
+     *         need to be scheduled
+     * @since 5.6
+     */
+    protected boolean coalesce(ListenerWork work) {
+        if (work.getWorkId() == null) {
+            return false;
+        }
+        Work found = getWorkManager().find(work, State.SCHEDULED, true, null);
+        if (!(found instanceof ListenerWork)
+                || !((ListenerWork) found).merge(work.events)) {
+            return false;
+        }
+        coalescedBundles.incrementAndGet();
+        coalescedEvents.addAndGet(work.events.size());
+        return true;
+    }
+
+    /**
+     * Gets the number of event bundles that were merged into already
+     * scheduled work instead of being scheduled.
+     *
+     * @since 5.6
+     */
+    public long getCoalescedBundlesCount() {
+        return coalescedBundles.get();
+    }
+
+    /**
+     * Gets the number of events that were merged into already scheduled work.
+     *
+     * @since 5.6
+     */
+    public long getCoalescedEventsCount() {
+        return coalescedEvents.get();
+    }
+
     public int getUnfinishedCount() {
         WorkManager workManager = getWorkManager();
         int n = 0;
@@ -112,6 +318,19 @@ public class AsyncEventExecutor {
         return n;
     }
 
+    /**
+     * Gets the name of the first event of a bundle, used to break down the
+     * listener statistics.
+     *
+     * @since 5.6
+     */
+    public static String getFirstEventName(EventBundle bundle) {
+        for (Event event : bundle) {
+            return event.getName();
+        }
+        return null;
+    }
+
     protected static class ListenerWork extends AbstractWork {
 
         protected final String title;
@@ -120,6 +339,23 @@ public class AsyncEventExecutor {
 
         protected EventListenerDescriptor listener;
 
+        /**
+         * The events before reconnection, to which events can be merged while
+         * the work is scheduled. Only set if the work can be coalesced.
+         */
+        protected EventBundle events;
+
+        /**
+         * The listener name and the documents of the events, or {@code null}
+         * if the work cannot be coalesced.
+         */
+        protected final String workId;
+
+        /** When the listener started, from {@link System#nanoTime}. */
+        protected long startNanos;
+
+        protected int mergedCount;
+
         public ListenerWork(EventListenerDescriptor listener, EventBundle bundle) {
             this.listener = listener;
             if (bundle instanceof ReconnectedEventBundle) {
@@ -129,18 +365,75 @@ public class AsyncEventExecutor {
                         listener.getName());
             }
             List<String> l = new LinkedList<String>();
+            SortedSet<String> docs = new TreeSet<String>();
             for (Event event : bundle) {
                 String s = event.getName();
                 EventContext ctx = event.getContext();
+                DocumentModel source = null;
                 if (ctx instanceof DocumentEventContext) {
-                    DocumentModel source = ((DocumentEventContext) ctx).getSourceDocument();
+                    source = ((DocumentEventContext) ctx).getSourceDocument();
                     if (source != null) {
                         s += "/" + source.getRef();
                     }
                 }
                 l.add(s);
+                if (docs != null) {
+                    if (source == null || source.getId() == null) {
+                        // not a document event, cannot coalesce
+                        docs = null;
+                    } else {
+                        docs.add(source.getRepositoryName() + ':'
+                                + source.getId());
+                    }
+                }
             }
             title = "Listener " + listener.getName() + " " + l;
+            if (docs == null || bundle instanceof ReconnectedEventBundle) {
+                workId = null;
+            } else {
+                workId = listener.getName() + ' ' + docs;
+                events = bundle;
+            }
+        }
+
+        /**
+         * Merges events into this work if it's not yet running.
+         *
+         * @param other the events to merge
+         * @return {@code true} if the events were merged
+         */
+        protected boolean merge(EventBundle other) {
+            synchronized (stateMonitor) {
+                if (state != State.SCHEDULED || events == null) {
+                    return false;
+                }
+                for (Event event : other) {
+                    events.push(event);
+                }
+                mergedCount++;
+                return true;
+            }
+        }
+
+        @Override
+        public String getWorkId() {
+            return workId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (workId == null || !(other instanceof ListenerWork)) {
+                return false;
+            }
+            return workId.equals(((ListenerWork) other).workId);
+        }
+
+        @Override
+        public int hashCode() {
+            return workId == null ? super.hashCode() : workId.hashCode();
         }
 
         @Override
@@ -150,7 +443,10 @@ public class AsyncEventExecutor {
 
         @Override
         public String getTitle() {
-            return title;
+            if (mergedCount == 0) {
+                return title;
+            }
+            return title + " (+" + mergedCount + " merged)";
         }
 
         @Override
@@ -161,22 +457,243 @@ public class AsyncEventExecutor {
 
         @Override
         public void work() throws Exception {
+            startNanos = System.nanoTime();
             listener.asPostCommitListener().handleEvent(bundle);
         }
 
         @Override
         public void cleanUp(boolean ok, Exception e) {
+            long t = System.nanoTime() - startNanos;
+            // before disconnecting, as iterating reconnects the bundle
+            String eventName = startNanos == 0 ? null
+                    : getFirstEventName(bundle);
             bundle.disconnect();
             if (e != null && !(e instanceof InterruptedException)) {
                 log.error("Failed to execute async event " + bundle.getName()
                         + " on listener " + listener.getName(), e);
             }
             EventStats stats = Framework.getLocalService(EventStats.class);
-            if (stats != null) {
-                stats.logAsyncExec(listener, System.currentTimeMillis() - startTime);
+            if (stats != null && startNanos != 0) {
+                stats.logAsyncExec(listener, eventName, t);
             }
             bundle = null;
             listener = null;
+            events = null;
+        }
+    }
+
+    /**
+     * Work running several listeners on the same reconnected bundle, so that
+     * the session is opened and the documents are fetched only once.
+     * <p>
+     * Each listener gets a view of the reconnected events it accepts, and the
+     * listeners run one after the other in the same transaction. If a
+     * listener fails the transaction is rolled back, and the failed listener
+     * and the ones not run yet are rescheduled each in its own work, as if
+     * the session hadn't been shared. The listeners that already ran are not
+     * run again, their transactional writes are rolled back with the others.
+     * <p>
+     * When each listener runs in its own transaction, the session is opened
+     * inside each transaction, so only the work scheduling is shared.
+     * <p>
+     * The listeners all have compatible settings (see
+     * {@link AsyncEventExecutor#getSharingKey}), the work uses the category of
+     * the first one so that it goes to their queue.
+     *
+     * @since 5.6
+     */
+    protected static class SharedSessionWork extends AbstractWork {
+
+        protected final String title;
+
+        protected final boolean transactionPerListener;
+
+        protected AsyncEventExecutor executor;
+
+        protected ReconnectedEventBundleImpl bundle;
+
+        protected List<EventListenerDescriptor> listeners;
+
+        protected List<EventBundle> filteredBundles;
+
+        public SharedSessionWork(AsyncEventExecutor executor,
+                EventBundle bundle, List<EventListenerDescriptor> listeners,
+                List<EventBundle> filteredBundles,
+                boolean transactionPerListener) {
+            this.executor = executor;
+            this.listeners = listeners;
+            this.filteredBundles = filteredBundles;
+            this.transactionPerListener = transactionPerListener;
+            List<String> names = new ArrayList<String>(listeners.size());
+            for (EventListenerDescriptor listener : listeners) {
+                names.add(listener.getName());
+            }
+            this.bundle = new ReconnectedEventBundleImpl(bundle,
+                    names.toString());
+            title = "Listeners " + names + " " + bundle.getName();
+        }
+
+        @Override
+        public String getCategory() {
+            return listeners.get(0).getName();
+        }
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public Collection<DocumentLocation> getDocuments() {
+            // TODO
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected boolean isTransactional() {
+            return !transactionPerListener;
+        }
+
+        @Override
+        public void work() throws Exception {
+            if (transactionPerListener) {
+                workTransactionPerListener();
+                return;
+            }
+            long t0 = System.nanoTime();
+            List<Event> reconnected = bundle.getReconnectedEvents();
+            executor.logSharedReconnect(System.nanoTime() - t0);
+            Map<Event, Event> reconnectedBySource = new IdentityHashMap<Event, Event>();
+            int i = 0;
+            for (Event event : bundle.sourceEventBundle) {
+                reconnectedBySource.put(event, reconnected.get(i++));
+            }
+            EventStats stats = Framework.getLocalService(EventStats.class);
+            for (int n = 0; n < listeners.size(); n++) {
+                if (isSuspending()) {
+                    // remaining listeners are not run
+                    log.warn("Suspending, listeners not run: "
+                            + listeners.subList(n, listeners.size()));
+                    return;
+                }
+                EventListenerDescriptor listener = listeners.get(n);
+                EventBundle filtered = filteredBundles.get(n);
+                List<Event> events = new ArrayList<Event>(filtered.size());
+                for (Event event : filtered) {
+                    events.add(reconnectedBySource.get(event));
+                }
+                ReconnectedEventBundle view = new SharedReconnectedEventBundle(
+                        filtered, listener.getName(), events);
+                long t1 = System.nanoTime();
+                try {
+                    listener.asPostCommitListener().handleEvent(view);
+                } catch (Exception e) {
+                    log.error("Failed to execute async event "
+                            + bundle.getName() + " on listener "
+                            + listener.getName(), e);
+                    // don't commit partial writes, run the rest alone
+                    TransactionHelper.setTransactionRollbackOnly();
+                    rescheduleFrom(n);
+                    return;
+                } finally {
+                    if (stats != null) {
+                        stats.logAsyncExec(listener, getFirstEventName(view),
+                                System.nanoTime() - t1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs each listener in its own transaction, reconnecting its events
+         * inside that transaction.
+         */
+        protected void workTransactionPerListener() {
+            EventStats stats = Framework.getLocalService(EventStats.class);
+            for (int n = 0; n < listeners.size(); n++) {
+                if (isSuspending()) {
+                    // remaining listeners are not run
+                    log.warn("Suspending, listeners not run: "
+                            + listeners.subList(n, listeners.size()));
+                    return;
+                }
+                EventListenerDescriptor listener = listeners.get(n);
+                long t1 = System.nanoTime();
+                boolean tx = TransactionHelper.startTransaction();
+                ReconnectedEventBundleImpl listenerBundle = new ReconnectedEventBundleImpl(
+                        filteredBundles.get(n), listener.getName());
+                try {
+                    listener.asPostCommitListener().handleEvent(listenerBundle);
+                } catch (Exception e) {
+                    log.error("Failed to execute async event "
+                            + bundle.getName() + " on listener "
+                            + listener.getName(), e);
+                    if (tx) {
+                        TransactionHelper.setTransactionRollbackOnly();
+                    }
+                } finally {
+                    try {
+                        listenerBundle.disconnect();
+                    } finally {
+                        if (tx) {
+                            TransactionHelper.commitOrRollbackTransaction();
+                        }
+                    }
+                }
+                if (stats != null) {
+                    stats.logAsyncExec(listener,
+                            getFirstEventName(filteredBundles.get(n)),
+                            System.nanoTime() - t1);
+                }
+            }
+        }
+
+        /**
+         * Schedules a separate work for the failed listener and for each
+         * listener after it, which haven't run yet.
+         */
+        protected void rescheduleFrom(int failed) {
+            WorkManager workManager = executor.getWorkManager();
+            for (int n = failed; n < listeners.size(); n++) {
+                workManager.schedule(new ListenerWork(listeners.get(n),
+                        filteredBundles.get(n)));
+            }
+        }
+
+        @Override
+        public void cleanUp(boolean ok, Exception e) {
+            bundle.disconnect();
+            if (e != null && !(e instanceof InterruptedException)) {
+                log.error("Failed to execute async event " + bundle.getName()
+                        + " on listeners " + listeners, e);
+            }
+            bundle = null;
+            listeners = null;
+            filteredBundles = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * A view of some of the events of a bundle already reconnected. The
+     * session is disconnected by the owner of the whole bundle.
+     *
+     * @since 5.6
+     */
+    protected static class SharedReconnectedEventBundle extends
+            ReconnectedEventBundleImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        public SharedReconnectedEventBundle(EventBundle sourceEventBundle,
+                String listenerName, List<Event> reconnectedEvents) {
+            super(sourceEventBundle, listenerName);
+            this.reconnectedEvents = reconnectedEvents;
+        }
+
+        @Override
+        public void disconnect() {
+            // shared session, nothing to do
         }
     }
 
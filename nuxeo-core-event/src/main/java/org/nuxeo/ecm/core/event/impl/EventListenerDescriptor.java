@@ -80,6 +80,16 @@ public class EventListenerDescriptor {
     @XNode("@singlethread")
     protected boolean singleThreaded = false;
 
+    /**
+     * Applies only for async listeners. If true, events about the same
+     * documents are merged into the work already scheduled for this listener
+     * if it's not yet running, instead of scheduling a new work.
+     *
+     * @since 5.6
+     */
+    @XNode("@coalesce")
+    protected Boolean coalesce;
+
     protected Set<String> events;
 
     protected RuntimeContext rc;
@@ -202,6 +212,10 @@ public class EventListenerDescriptor {
             this.events = other.events;
         }
 
+        if (other.coalesce != null) {
+            this.coalesce = other.coalesce;
+        }
+
         if (other.transactionTimeOut != null) {
             this.transactionTimeOut = other.transactionTimeOut;
         }
@@ -227,4 +241,18 @@ public class EventListenerDescriptor {
         return singleThreaded;
     }
 
+    /**
+     * @since 5.6
+     */
+    public boolean isCoalescing() {
+        return Boolean.TRUE.equals(coalesce);
+    }
+
+    /**
+     * @since 5.6
+     */
+    public void setCoalescing(boolean coalesce) {
+        this.coalesce = Boolean.valueOf(coalesce);
+    }
+
 }
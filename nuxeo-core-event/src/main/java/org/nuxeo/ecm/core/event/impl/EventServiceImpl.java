@@ -225,10 +225,10 @@ public class EventServiceImpl implements EventService, EventServiceAdmin {
         for (EventListenerDescriptor desc : listenerDescriptors.getEnabledInlineListenersDescriptors()) {
             if (desc.acceptEvent(ename)) {
                 try {
-                    long t0 = System.currentTimeMillis();
+                    long t0 = System.nanoTime();
                     desc.asEventListener().handleEvent(event);
                     if (stats != null) {
-                        stats.logSyncExec(desc, System.currentTimeMillis() - t0);
+                        stats.logSyncExec(desc, ename, System.nanoTime() - t0);
                     }
                 } catch (Throwable t) {
                     log.error("Error during sync listener execution", t);
@@ -406,6 +406,26 @@ public class EventServiceImpl implements EventService, EventServiceAdmin {
         return asyncExec.getUnfinishedCount();
     }
 
+    @Override
+    public long getCoalescedBundlesCount() {
+        return asyncExec.getCoalescedBundlesCount();
+    }
+
+    @Override
+    public long getCoalescedEventsCount() {
+        return asyncExec.getCoalescedEventsCount();
+    }
+
+    @Override
+    public long getSharedBundlesCount() {
+        return asyncExec.getSharedBundlesCount();
+    }
+
+    @Override
+    public long getSharedReconnectTimeMillis() {
+        return asyncExec.getSharedReconnectTimeMillis();
+    }
+
     @Override
     public boolean isBlockAsyncHandlers() {
         return blockAsyncProcessing;
@@ -21,6 +21,7 @@ import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.event.EventBundle;
 import org.nuxeo.ecm.core.event.EventStats;
 import org.nuxeo.ecm.core.event.ReconnectedEventBundle;
+import org.nuxeo.ecm.core.event.impl.AsyncEventExecutor;
 import org.nuxeo.ecm.core.event.impl.EventListenerDescriptor;
 import org.nuxeo.ecm.core.event.impl.ReconnectedEventBundleImpl;
 import org.nuxeo.runtime.api.Framework;
@@ -111,18 +112,20 @@ public class PostCommitSynchronousRunner {
             EventStats stats = getEventStats();
             for (EventListenerDescriptor listener : listeners) {
                 try {
-                    long t1 = System.currentTimeMillis();
+                    long t1 = System.nanoTime();
                     txh.beginNewTransaction();
                     listener.asPostCommitListener().handleEvent(event);
                     event.disconnect();
                     txh.commitOrRollbackTransaction();
+                    long delta = System.nanoTime() - t1;
                     if (stats != null) {
                         stats.logAsyncExec(listener,
-                                System.currentTimeMillis() - t1);
+                                AsyncEventExecutor.getFirstEventName(event),
+                                delta);
                     }
                     log.debug("End of post commit sync execution for listener "
-                            + listener.getName() + " "
-                            + (System.currentTimeMillis() - t1) + "ms");
+                            + listener.getName() + " " + delta / 1000000
+                            + "ms");
                 } catch (Throwable t) {
                     log.error(
                             "Exception during post commit sync execution for listener "
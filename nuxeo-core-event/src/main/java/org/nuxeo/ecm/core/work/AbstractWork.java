@@ -337,6 +337,18 @@ public abstract class AbstractWork implements Work {
         return getClass().getSimpleName();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns {@code null} by default. Subclasses that redefine
+     * {@link #equals} should return a matching work id so that finding
+     * equivalent work doesn't need to scan the work manager queues.
+     */
+    @Override
+    public String getWorkId() {
+        return null;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" + getState() + ", "
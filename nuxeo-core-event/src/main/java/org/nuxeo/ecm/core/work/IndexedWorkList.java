@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nuxeo.ecm.core.work.api.Work;
+
+/**
+ * An insertion-ordered list of work instances, indexed by identity and by
+ * {@linkplain Work#getWorkId work id} so that finding a work instance doesn't
+ * need to scan the list.
+ * <p>
+ * Finding by equality is a hash lookup if the work has a work id, or if its
+ * class doesn't redefine {@link Object#equals} (equality is then identity).
+ * Otherwise the list is scanned.
+ * <p>
+ * All methods are synchronized on the list itself.
+ *
+ * @since 5.6
+ */
+public class IndexedWorkList {
+
+    /** Cache of whether a class redefines {@link Object#equals}. */
+    protected static final ConcurrentMap<Class<?>, Boolean> redefinesEquals = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /** Work instances in insertion order, mapped to their work id. */
+    protected final Map<IdentityKey, String> works = new LinkedHashMap<IdentityKey, String>();
+
+    /** Work instances having a work id, in insertion order for each id. */
+    protected final Map<String, List<Work>> byWorkId = new HashMap<String, List<Work>>();
+
+    /**
+     * Identity-based key for a work instance.
+     */
+    protected static class IdentityKey {
+
+        protected final Work work;
+
+        public IdentityKey(Work work) {
+            this.work = work;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(work);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey
+                    && ((IdentityKey) other).work == work;
+        }
+    }
+
+    protected static boolean redefinesEquals(Work work) {
+        Class<?> klass = work.getClass();
+        Boolean redefines = redefinesEquals.get(klass);
+        if (redefines == null) {
+            try {
+                redefines = Boolean.valueOf(klass.getMethod("equals",
+                        Object.class).getDeclaringClass() != Object.class);
+            } catch (NoSuchMethodException e) {
+                // cannot happen
+                redefines = Boolean.TRUE;
+            }
+            redefinesEquals.put(klass, redefines);
+        }
+        return redefines.booleanValue();
+    }
+
+    public synchronized void add(Work work) {
+        String workId = work.getWorkId();
+        works.put(new IdentityKey(work), workId);
+        if (workId != null) {
+            List<Work> list = byWorkId.get(workId);
+            if (list == null) {
+                list = new LinkedList<Work>();
+                byWorkId.put(workId, list);
+            }
+            list.add(work);
+        }
+    }
+
+    /**
+     * Removes a work instance, using object identity.
+     *
+     * @return {@code true} if the work instance was in the list
+     */
+    public synchronized boolean remove(Work work) {
+        IdentityKey key = new IdentityKey(work);
+        if (!works.containsKey(key)) {
+            return false;
+        }
+        String workId = works.remove(key);
+        if (workId != null) {
+            unindex(work, workId);
+        }
+        return true;
+    }
+
+    protected void unindex(Work work, String workId) {
+        List<Work> list = byWorkId.get(workId);
+        for (Iterator<Work> it = list.iterator(); it.hasNext();) {
+            if (it.next() == work) {
+                it.remove();
+                break;
+            }
+        }
+        if (list.isEmpty()) {
+            byWorkId.remove(workId);
+        }
+    }
+
+    /**
+     * Finds a work instance.
+     *
+     * @param work the work to find
+     * @param useEquals if {@code true} then use {@link Work#equals} to find
+     *            the work instance, otherwise use object identity
+     * @param pos a 1-element array to return the position in the list, or
+     *            {@code null}
+     * @return the found work instance, or {@code null} if not found
+     */
+    public synchronized Work find(Work work, boolean useEquals, int[] pos) {
+        Work found = null;
+        if (!useEquals || !redefinesEquals(work)) {
+            if (works.containsKey(new IdentityKey(work))) {
+                found = work;
+            }
+        } else {
+            String workId = work.getWorkId();
+            if (workId != null) {
+                List<Work> list = byWorkId.get(workId);
+                if (list != null) {
+                    for (Work w : list) {
+                        if (w.equals(work)) {
+                            found = w;
+                            break;
+                        }
+                    }
+                }
+            } else {
+                for (IdentityKey key : works.keySet()) {
+                    if (key.work.equals(work)) {
+                        found = key.work;
+                        break;
+                    }
+                }
+            }
+        }
+        if (pos != null) {
+            pos[0] = found == null ? -1 : indexOf(found);
+        }
+        return found;
+    }
+
+    protected int indexOf(Work work) {
+        int i = 0;
+        for (IdentityKey key : works.keySet()) {
+            if (key.work == work) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes all the work instances equal to the given one.
+     *
+     * @return the removed work instances
+     */
+    public synchronized List<Work> removeEquals(Work work) {
+        List<Work> removed = new LinkedList<Work>();
+        Work w;
+        while ((w = find(work, true, null)) != null) {
+            remove(w);
+            removed.add(w);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the work instances completed before the given time.
+     */
+    public synchronized void removeCompletedBefore(long completionTime) {
+        for (Iterator<Entry<IdentityKey, String>> it = works.entrySet().iterator(); it.hasNext();) {
+            Entry<IdentityKey, String> es = it.next();
+            Work work = es.getKey().work;
+            if (work.getCompletionTime() < completionTime) {
+                it.remove();
+                if (es.getValue() != null) {
+                    unindex(work, es.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the work instances, in insertion order. Returns a copy.
+     */
+    public synchronized List<Work> list() {
+        List<Work> list = new ArrayList<Work>(works.size());
+        for (IdentityKey key : works.keySet()) {
+            list.add(key.work);
+        }
+        return list;
+    }
+
+    public synchronized int size() {
+        return works.size();
+    }
+
+    public synchronized void clear() {
+        works.clear();
+        byWorkId.clear();
+    }
+
+}
@@ -21,11 +21,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
@@ -166,32 +166,34 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
      * A {@link ThreadPoolExecutor} that keeps available the list of scheduled,
      * running and completed tasks and provides other methods.
      * <p>
-     * The methods checking the sizes are sure not to lose tasks in transit
-     * between the various queues.
+     * The lists are indexed so that finding a work instance doesn't need to
+     * scan them, and each one is locked separately. When a task moves from a
+     * list to another, it's added to the new list before being removed from
+     * the old one, so the methods checking the non-completed tasks, which
+     * look at the scheduled list before the running one, are sure not to lose
+     * tasks in transit between the various queues.
      *
      * @since 5.6
      */
     public static class WorkThreadPoolExecutor extends ThreadPoolExecutor {
 
-        protected Object monitor = new Object();
+        protected IndexedWorkList scheduled;
 
-        protected List<Work> scheduled;
+        protected IndexedWorkList running;
 
-        protected List<Work> running;
+        protected IndexedWorkList completed;
 
-        protected List<Work> completed;
-
-        protected List<Work> suspended;
+        protected IndexedWorkList suspended;
 
         public WorkThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
                 long keepAliveTime, TimeUnit unit,
                 BlockingQueue<Runnable> queue, ThreadFactory threadFactory) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue,
                     threadFactory);
-            scheduled = new LinkedList<Work>();
-            running = new LinkedList<Work>();
-            completed = new LinkedList<Work>();
-            suspended = new LinkedList<Work>();
+            scheduled = new IndexedWorkList();
+            running = new IndexedWorkList();
+            completed = new IndexedWorkList();
+            suspended = new IndexedWorkList();
         }
 
         /**
@@ -202,19 +204,17 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * @return {@code true} if there was work to cancel
          */
         public boolean cancelScheduled(Work work) {
+            if (scheduled.find(work, true, null) == null) {
+                // avoid scanning the executor queue
+                return false;
+            }
             boolean removed = false;
             while (getQueue().remove(work)) {
                 removed = true;
             }
             if (removed) {
-                synchronized (monitor) {
-                    for (Iterator<Work> it = scheduled.iterator(); it.hasNext();) {
-                        Work w = it.next();
-                        if (work.equals(w)) {
-                            it.remove();
-                            w.setCanceled();
-                        }
-                    }
+                for (Work w : scheduled.removeEquals(work)) {
+                    w.setCanceled();
                 }
             }
             return removed;
@@ -235,70 +235,48 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * @return the found work instance
          */
         public Work find(Work work, State state, boolean useEquals, int[] pos) {
-            List<List<Work>> queues = new LinkedList<List<Work>>();
             if (state == null) {
-                queues.add(running);
-                queues.add(scheduled);
+                // scheduled first, to not miss work in transit to running
+                Work w = scheduled.find(work, useEquals, pos);
+                if (w == null) {
+                    w = running.find(work, useEquals, pos);
+                }
+                return w;
             } else if (state == State.RUNNING) {
-                queues.add(running);
+                return running.find(work, useEquals, pos);
             } else if (state == State.SCHEDULED) {
-                queues.add(scheduled);
+                return scheduled.find(work, useEquals, pos);
             } else if (state == State.COMPLETED) {
-                queues.add(completed);
+                return completed.find(work, useEquals, pos);
             } else {
                 throw new IllegalArgumentException(String.valueOf(state));
             }
-            synchronized (monitor) {
-                for (List<Work> queue : queues) {
-                    int i = -1;
-                    for (Work w : queue) {
-                        i++;
-                        boolean found = useEquals ? w.equals(work) : w == work;
-                        if (found) {
-                            if (pos != null) {
-                                pos[0] = i;
-                            }
-                            return w;
-                        }
-                    }
-                }
-            }
-            if (pos != null) {
-                pos[0] = -1;
-            }
-            return null;
         }
 
         @Override
         public void execute(Runnable r) {
-            synchronized (monitor) {
-                scheduled.add((Work) r);
-            }
+            scheduled.add((Work) r);
             super.execute(r);
         }
 
         @Override
         protected void beforeExecute(Thread t, Runnable r) {
-            synchronized (monitor) {
-                Work work = (Work) r;
-                scheduled.remove(work);
-                running.add(work);
-                work.beforeRun(); // change state
-            }
+            Work work = (Work) r;
+            running.add(work);
+            scheduled.remove(work);
+            work.beforeRun(); // change state
         }
 
         @Override
         protected void afterExecute(Runnable r, Throwable t) {
-            synchronized (monitor) {
-                Work work = (Work) r;
-                work.afterRun(t == null); // change state
-                running.remove(work);
-                if (work.getState() == State.SUSPENDED) {
-                    suspended.add(work);
-                } else {
-                    completed.add(work);
-                }
+            Work work = (Work) r;
+            work.afterRun(t == null); // change state
+            if (work.getState() == State.SUSPENDED) {
+                suspended.add(work);
+            } else {
+                completed.add(work);
             }
+            running.remove(work);
         }
 
         // called during shutdown
@@ -312,10 +290,8 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                         + work);
                 return;
             }
-            synchronized (monitor) {
-                scheduled.remove(work);
-                suspended.add(work);
-            }
+            suspended.add(work);
+            scheduled.remove(work);
         }
 
         /**
@@ -352,8 +328,8 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
             }
             // this sync would only block work scheduled after the shutdown
             List<Work> toSave;
-            synchronized (monitor) {
-                toSave = new ArrayList<Work>(suspended);
+            synchronized (suspended) {
+                toSave = suspended.list();
                 suspended.clear();
             }
             for (Work work : toSave) {
@@ -374,13 +350,11 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * Requests all running and scheduled work instances to suspend.
          */
         public void suspend() {
-            synchronized (monitor) {
-                for (Work work : running) {
-                    work.suspend();
-                }
-                for (Work work : scheduled) {
-                    work.suspend();
-                }
+            for (Work work : running.list()) {
+                work.suspend();
+            }
+            for (Work work : scheduled.list()) {
+                work.suspend();
             }
         }
 
@@ -388,58 +362,57 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * Gets the scheduled tasks. Returns a copy.
          */
         public List<Work> getScheduled() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(scheduled);
-            }
+            return scheduled.list();
         }
 
         /**
          * Gets the running tasks. Returns a copy.
          */
         public List<Work> getRunning() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(running);
-            }
+            return running.list();
         }
 
         /**
          * Gets the completed tasks. Returns a copy.
          */
         public List<Work> getCompleted() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(completed);
-            }
+            return completed.list();
         }
 
         /**
          * Gets the non-completed tasks. Returns a copy.
          */
         public List<Work> getNonCompleted() {
-            synchronized (monitor) {
-                List<Work> list = new ArrayList<Work>(running.size()
-                        + scheduled.size());
-                list.addAll(running);
-                list.addAll(scheduled);
-                return list;
+            List<Work> scheduledList = scheduled.list();
+            List<Work> list = running.list();
+            // a task in transit may be in both lists
+            Set<Work> runningSet = Collections.newSetFromMap(
+                    new IdentityHashMap<Work, Boolean>());
+            runningSet.addAll(list);
+            for (Work work : scheduledList) {
+                if (!runningSet.contains(work)) {
+                    list.add(work);
+                }
             }
+            return list;
         }
 
         /**
          * Gets the number of non-completed tasks.
+         * <p>
+         * A task in transit between the scheduled and running queues may be
+         * counted twice, but is never missed.
          */
         public int getNonCompletedWorkSize() {
-            synchronized (monitor) {
-                return scheduled.size() + running.size();
-            }
+            int size = scheduled.size();
+            return size + running.size();
         }
 
         /**
          * Clears the completed tasks.
          */
         public void clearCompleted() {
-            synchronized (monitor) {
-                completed.clear();
-            }
+            completed.clear();
         }
 
         /**
@@ -450,14 +423,7 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                 clearCompleted();
                 return;
             }
-            synchronized (monitor) {
-                for (Iterator<Work> it = completed.iterator(); it.hasNext();) {
-                    Work work = it.next();
-                    if (work.getCompletionTime() < completionTime) {
-                        it.remove();
-                    }
-                }
-            }
+            completed.removeCompletedBefore(completionTime);
         }
     }
 
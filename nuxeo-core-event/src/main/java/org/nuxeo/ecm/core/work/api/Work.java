@@ -149,6 +149,20 @@ public interface Work extends Runnable {
      */
     String getCategory();
 
+    /**
+     * Gets the identity of this work, used by the work manager to find
+     * equivalent work instances in its queues without scanning them.
+     * <p>
+     * Work instances that are {@linkplain Object#equals equal} must have the
+     * same work id, and work instances with different work ids must not be
+     * equal.
+     *
+     * @return the work id, or {@code null} if the work manager must fall back
+     *         to {@link Object#equals} comparisons
+     * @since 5.6
+     */
+    String getWorkId();
+
     /**
      * Called by the thread pool executor before the work is run. Must set the
      * proper state (RUNNING if not already SUSPENDED).
@@ -154,6 +154,11 @@ public interface WorkManager {
      * {@linkplain Work#getState state} of the work could be different than
      * what's expected if the work started or finished in the middle of the
      * call.
+     * <p>
+     * Finding by equality is a hash lookup when the work has a
+     * {@linkplain Work#getWorkId work id} or doesn't redefine
+     * {@link Work#equals}, otherwise the queue is scanned. Asking for the
+     * position always scans the queue.
      *
      * @param work the work to find
      * @param state the state defining the state to look into,
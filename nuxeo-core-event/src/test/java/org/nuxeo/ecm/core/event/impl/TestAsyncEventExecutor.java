@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.event.impl.AsyncEventExecutor.ListenerWork;
+import org.nuxeo.ecm.core.event.test.DummyPostCommitEventListener;
+import org.nuxeo.ecm.core.event.test.FailingOncePostCommitEventListener;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+public class TestAsyncEventExecutor extends NXRuntimeTestCase {
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        deployBundle("org.nuxeo.ecm.core.event");
+    }
+
+    protected static class FakeDocumentModel extends DocumentModelImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        public FakeDocumentModel(String id) {
+            super("File");
+            this.id = id;
+            repositoryName = "test";
+        }
+    }
+
+    protected static EventListenerDescriptor listener(String name) {
+        EventListenerDescriptor desc = new EventListenerDescriptor();
+        desc.name = name;
+        desc.setCoalescing(true);
+        return desc;
+    }
+
+    protected static Event event(String name, DocumentModel doc) {
+        return new EventImpl(name, new DocumentEventContext(null, null, doc));
+    }
+
+    protected static EventBundle bundle(Event... events) {
+        EventBundle bundle = new EventBundleImpl();
+        for (Event event : events) {
+            bundle.push(event);
+        }
+        return bundle;
+    }
+
+    @Test
+    public void testListenerWorkCoalescing() throws Exception {
+        EventListenerDescriptor listener = listener("foo");
+        DocumentModel doc1 = new FakeDocumentModel("1");
+        DocumentModel doc2 = new FakeDocumentModel("2");
+
+        ListenerWork work1 = new ListenerWork(listener, bundle(event(
+                "documentModified", doc1)));
+        ListenerWork work2 = new ListenerWork(listener, bundle(event(
+                "documentModified", doc1)));
+        ListenerWork work3 = new ListenerWork(listener, bundle(event(
+                "documentModified", doc2)));
+        ListenerWork work4 = new ListenerWork(listener("bar"), bundle(event(
+                "documentModified", doc1)));
+        assertNotNull(work1.getWorkId());
+        assertEquals(work1.getWorkId(), work2.getWorkId());
+        assertTrue(work1.equals(work2));
+        assertFalse(work1.equals(work3));
+        assertFalse(work1.equals(work4));
+
+        // same documents in another order
+        ListenerWork work5 = new ListenerWork(listener, bundle(
+                event("documentModified", doc1),
+                event("documentModified", doc2)));
+        ListenerWork work6 = new ListenerWork(listener, bundle(
+                event("documentCheckedIn", doc2),
+                event("documentModified", doc1)));
+        assertTrue(work5.equals(work6));
+
+        // event without document cannot be coalesced
+        ListenerWork work7 = new ListenerWork(listener, bundle(new EventImpl(
+                "foo", new EventContextImpl())));
+        assertNull(work7.getWorkId());
+        ListenerWork work8 = new ListenerWork(listener, bundle(new EventImpl(
+                "foo", new EventContextImpl())));
+        assertFalse(work7.equals(work8));
+
+        // merge while scheduled
+        assertTrue(work1.merge(work2.events));
+        assertEquals(2, work1.bundle.size());
+        assertTrue(work1.getTitle().endsWith("(+1 merged)"));
+
+        // no merge once running
+        work1.beforeRun();
+        assertFalse(work1.merge(work2.events));
+        assertEquals(2, work1.bundle.size());
+    }
+
+    @Test
+    public void testSharedSession() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.event.test",
+                "test-async-shared-listeners.xml");
+        EventServiceImpl service = (EventServiceImpl) Framework.getLocalService(EventService.class);
+        service.asyncExec.setSharedSession(true);
+        DummyPostCommitEventListener.handledCount = 0;
+        DummyPostCommitEventListener.eventCount = 0;
+
+        service.fireEvent(new EventImpl("testasync", new EventContextImpl()));
+        Event commit = new EventImpl("testnotmatched", new EventContextImpl());
+        commit.setIsCommitEvent(true);
+        service.fireEvent(commit);
+        service.waitForAsyncCompletion();
+
+        // both listeners ran on the same reconnected bundle
+        assertEquals(2, DummyPostCommitEventListener.handledCount);
+        assertEquals(2, DummyPostCommitEventListener.eventCount);
+        assertEquals(1, service.getSharedBundlesCount());
+    }
+
+    protected void fireAndWait(EventServiceImpl service) throws Exception {
+        service.fireEvent(new EventImpl("testasync", new EventContextImpl()));
+        Event commit = new EventImpl("testnotmatched", new EventContextImpl());
+        commit.setIsCommitEvent(true);
+        service.fireEvent(commit);
+        service.waitForAsyncCompletion();
+    }
+
+    @Test
+    public void testSharedSessionFailure() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.event.test",
+                "test-async-shared-failing-listeners.xml");
+        EventServiceImpl service = (EventServiceImpl) Framework.getLocalService(EventService.class);
+        service.asyncExec.setSharedSession(true);
+        DummyPostCommitEventListener.handledCount = 0;
+        FailingOncePostCommitEventListener.handledCount = 0;
+        FailingOncePostCommitEventListener.failed = false;
+
+        fireAndWait(service);
+
+        // the first listener ran before the failure and is not run again,
+        // the failed one is rerun alone, the last one runs alone
+        assertEquals(2, DummyPostCommitEventListener.handledCount);
+        assertEquals(2, FailingOncePostCommitEventListener.handledCount);
+        assertEquals(1, service.getSharedBundlesCount());
+    }
+
+    @Test
+    public void testSharedSessionTransactionPerListener() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.event.test",
+                "test-async-shared-failing-listeners.xml");
+        EventServiceImpl service = (EventServiceImpl) Framework.getLocalService(EventService.class);
+        service.asyncExec.setSharedSession(true);
+        service.asyncExec.setTransactionPerListener(true);
+        DummyPostCommitEventListener.handledCount = 0;
+        FailingOncePostCommitEventListener.handledCount = 0;
+        FailingOncePostCommitEventListener.failed = false;
+
+        fireAndWait(service);
+
+        // each listener reconnected its own bundle, the failure only
+        // affects its own transaction and nothing is rescheduled
+        assertEquals(2, DummyPostCommitEventListener.handledCount);
+        assertEquals(1, FailingOncePostCommitEventListener.handledCount);
+        assertEquals(0, service.getSharedBundlesCount());
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.event.test;
+
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+
+/**
+ * Listener failing the first time it's called, then succeeding.
+ */
+public class FailingOncePostCommitEventListener implements
+        PostCommitEventListener {
+
+    public static volatile int handledCount;
+
+    public static volatile boolean failed;
+
+    @Override
+    public void handleEvent(EventBundle events) throws ClientException {
+        handledCount += 1;
+        if (!failed) {
+            failed = true;
+            throw new ClientException("failing once");
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.nuxeo.ecm.core.work;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ecm.core.work.api.Work.State.CANCELED;
 import static org.nuxeo.ecm.core.work.api.Work.State.COMPLETED;
@@ -255,6 +256,73 @@ public class WorkManagerTest extends NXRuntimeTestCase {
         assertTrue(work7 == service.find(work7, COMPLETED, false, null));
     }
 
+    protected static class SleepWorkWithWorkId extends SleepWorkWithEquals {
+
+        public SleepWorkWithWorkId(long durationMillis, boolean debug,
+                String identity) {
+            super(durationMillis, debug, identity);
+        }
+
+        @Override
+        public String getWorkId() {
+            return identity;
+        }
+    }
+
+    @Test
+    public void testWorkManagerSchedulingWithWorkId() throws Exception {
+        int duration = 1000; // 1s
+        SleepWork work1 = new SleepWorkWithWorkId(duration, true, "1");
+        SleepWork work2 = new SleepWorkWithWorkId(duration, true, "2");
+        SleepWork work3 = new SleepWorkWithWorkId(duration, true, "3");
+        SleepWork work4 = new SleepWorkWithWorkId(duration, true, "4");
+        service.schedule(work1);
+        service.schedule(work2);
+        service.schedule(work3);
+        service.schedule(work4);
+
+        work1.debugWaitReady();
+        work2.debugWaitReady();
+        assertEquals(SCHEDULED, work3.getState());
+        assertEquals(SCHEDULED, work4.getState());
+
+        int[] pos = new int[1];
+        SleepWork work = new SleepWorkWithWorkId(duration, true, "4");
+        assertTrue(work4 == service.find(work, SCHEDULED, true, pos));
+        assertEquals(1, pos[0]);
+        assertTrue(work2 == service.find(
+                new SleepWorkWithWorkId(duration, true, "2"), null, true,
+                null));
+        assertNull(service.find(work, SCHEDULED, false, pos));
+        assertEquals(-1, pos[0]);
+        assertNull(service.find(new SleepWorkWithWorkId(duration, true, "5"),
+                null, true, null));
+
+        service.schedule(work, Scheduling.IF_NOT_RUNNING_OR_SCHEDULED);
+        assertEquals(CANCELED, work.getState());
+
+        SleepWork work5 = new SleepWorkWithWorkId(duration, true, "3");
+        service.schedule(work5, Scheduling.CANCEL_SCHEDULED);
+        assertEquals(CANCELED, work3.getState());
+        assertEquals(SCHEDULED, work5.getState());
+        assertEquals(2, service.listWork(QUEUE, SCHEDULED).size());
+
+        work1.debugStart();
+        work2.debugStart();
+        work4.debugStart();
+        work5.debugStart();
+        work1.debugFinish();
+        work2.debugFinish();
+        work4.debugFinish();
+        work5.debugFinish();
+
+        boolean completed = service.awaitCompletion(3, TimeUnit.SECONDS);
+        assertTrue(completed);
+        assertEquals(COMPLETED, work4.getState());
+        assertEquals(COMPLETED, work5.getState());
+        assertTrue(work5 == service.find(work5, COMPLETED, true, null));
+    }
+
     @Test
     public void testWorkManagerWorkCompletion() throws Exception {
         int duration = 2000; // 2s
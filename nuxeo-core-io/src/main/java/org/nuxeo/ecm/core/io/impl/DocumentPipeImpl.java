@@ -31,13 +31,13 @@ import org.nuxeo.ecm.core.io.ExportedDocument;
  */
 public class DocumentPipeImpl implements DocumentPipe {
 
-    private final List<DocumentTransformer> transformers;
+    protected final List<DocumentTransformer> transformers;
 
-    private final int pageSize;
+    protected final int pageSize;
 
-    private DocumentReader reader;
+    protected DocumentReader reader;
 
-    private DocumentWriter writer;
+    protected DocumentWriter writer;
 
 
     public DocumentPipeImpl(int pageSize) {
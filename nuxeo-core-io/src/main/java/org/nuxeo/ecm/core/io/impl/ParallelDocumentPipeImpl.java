@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.io.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.io.DocumentTranslationMap;
+import org.nuxeo.ecm.core.io.ExportedDocument;
+
+/**
+ * A document pipe where the reader, the transformers and the writer run
+ * concurrently.
+ * <p>
+ * The reader runs in the calling thread and hands each document (or page of
+ * documents) to a pool of transformer threads. The writer runs in its own
+ * thread and receives the transformed documents in the exact order in which
+ * they were read, so a parent is always written before its children. Reader
+ * and writer are connected by a bounded queue: when the writer falls behind,
+ * the reader blocks instead of accumulating documents in memory.
+ * <p>
+ * With more than one transformer thread, the transformers must be
+ * thread-safe. The writer must not depend on the transaction of the calling
+ * thread; otherwise use {@link DocumentPipeImpl}.
+ * <p>
+ * After {@link #run}, the per-stage counters tell which stage is the
+ * bottleneck: the stage with the highest time per document, and a queue that
+ * is mostly full means that the writer (or the transformers) can't keep up.
+ *
+ * @since 5.6
+ */
+public class ParallelDocumentPipeImpl extends DocumentPipeImpl {
+
+    private static final Log log = LogFactory.getLog(ParallelDocumentPipeImpl.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    /** Marker for the end of the read documents. */
+    protected static final Future<ExportedDocument[]> END = new FutureTask<ExportedDocument[]>(
+            new Callable<ExportedDocument[]>() {
+                @Override
+                public ExportedDocument[] call() {
+                    return null;
+                }
+            });
+
+    protected static final AtomicInteger pipeNumber = new AtomicInteger();
+
+    protected final int transformerThreads;
+
+    protected final int queueSize;
+
+    protected BlockingQueue<Future<ExportedDocument[]>> queue;
+
+    protected volatile Throwable writerError;
+
+    protected final AtomicLong readCount = new AtomicLong();
+
+    protected final AtomicLong readTimeNanos = new AtomicLong();
+
+    protected final AtomicLong transformCount = new AtomicLong();
+
+    protected final AtomicLong transformTimeNanos = new AtomicLong();
+
+    protected final AtomicLong writeCount = new AtomicLong();
+
+    protected final AtomicLong writeTimeNanos = new AtomicLong();
+
+    protected final AtomicLong readerWaitTimeNanos = new AtomicLong();
+
+    protected final AtomicLong queueDepthTotal = new AtomicLong();
+
+    protected final AtomicLong queueDepthSamples = new AtomicLong();
+
+    protected final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * Constructs a parallel pipe.
+     *
+     * @param pageSize the number of documents read at a time, or 0 to read
+     *            them one by one
+     * @param transformerThreads the number of transformer threads
+     * @param queueSize the maximum number of documents (or pages) read but not
+     *            yet written
+     */
+    public ParallelDocumentPipeImpl(int pageSize, int transformerThreads,
+            int queueSize) {
+        super(pageSize);
+        if (transformerThreads < 1) {
+            throw new IllegalArgumentException("transformerThreads: "
+                    + transformerThreads);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize: " + queueSize);
+        }
+        this.transformerThreads = transformerThreads;
+        this.queueSize = queueSize;
+    }
+
+    public ParallelDocumentPipeImpl(int pageSize) {
+        this(pageSize, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_QUEUE_SIZE);
+    }
+
+    public ParallelDocumentPipeImpl() {
+        this(0);
+    }
+
+    @Override
+    public DocumentTranslationMap run() throws Exception {
+        if (reader == null) {
+            throw new IllegalArgumentException("Pipe reader cannot be null");
+        }
+        if (writer == null) {
+            throw new IllegalArgumentException("Pipe writer cannot be null");
+        }
+
+        queue = new ArrayBlockingQueue<Future<ExportedDocument[]>>(queueSize);
+        writerError = null;
+        int n = pipeNumber.incrementAndGet();
+        ExecutorService transformerExecutor = null;
+        if (!transformers.isEmpty()) {
+            transformerExecutor = Executors.newFixedThreadPool(
+                    transformerThreads, new DaemonThreadFactory(
+                            "Nuxeo-DocumentPipe-" + n + "-transformer-"));
+        }
+        List<DocumentTranslationMap> maps = new ArrayList<DocumentTranslationMap>();
+        WriterThread writerThread = new WriterThread(
+                "Nuxeo-DocumentPipe-" + n + "-writer", maps);
+        writerThread.start();
+        boolean ended = false;
+        try {
+            readDocs(transformerExecutor);
+            ended = true;
+            enqueue(END);
+        } finally {
+            if (!ended) {
+                // stop the writer even if the queue is full
+                queue.clear();
+                queue.offer(END);
+            }
+            writerThread.join();
+            if (transformerExecutor != null) {
+                transformerExecutor.shutdownNow();
+            }
+            logStats();
+        }
+        if (writerError != null) {
+            if (writerError instanceof Exception) {
+                throw (Exception) writerError;
+            }
+            throw (Error) writerError;
+        }
+        return DocumentTranslationMapImpl.merge(maps);
+    }
+
+    protected void readDocs(ExecutorService transformerExecutor)
+            throws Exception {
+        while (writerError == null) {
+            long t0 = System.nanoTime();
+            ExportedDocument[] docs;
+            if (pageSize == 0) {
+                ExportedDocument doc = reader.read();
+                docs = doc == null ? null : new ExportedDocument[] { doc };
+            } else {
+                docs = reader.read(pageSize);
+            }
+            readTimeNanos.addAndGet(System.nanoTime() - t0);
+            if (docs == null) {
+                break;
+            }
+            if (docs.length == 0) {
+                continue;
+            }
+            readCount.addAndGet(docs.length);
+            Future<ExportedDocument[]> future;
+            if (transformerExecutor == null) {
+                FutureTask<ExportedDocument[]> task = new FutureTask<ExportedDocument[]>(
+                        new TransformTask(docs));
+                task.run();
+                future = task;
+            } else {
+                future = transformerExecutor.submit(new TransformTask(docs));
+            }
+            enqueue(future);
+        }
+    }
+
+    /**
+     * Waits for room in the queue, unless the writer failed.
+     */
+    protected void enqueue(Future<ExportedDocument[]> future)
+            throws InterruptedException {
+        long t0 = System.nanoTime();
+        while (!queue.offer(future, 100, TimeUnit.MILLISECONDS)) {
+            if (writerError != null) {
+                return;
+            }
+        }
+        readerWaitTimeNanos.addAndGet(System.nanoTime() - t0);
+        int depth = queue.size();
+        queueDepthTotal.addAndGet(depth);
+        queueDepthSamples.incrementAndGet();
+        for (;;) {
+            int max = maxQueueDepth.get();
+            if (depth <= max || maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    protected class TransformTask implements Callable<ExportedDocument[]> {
+
+        protected final ExportedDocument[] docs;
+
+        public TransformTask(ExportedDocument[] docs) {
+            this.docs = docs;
+        }
+
+        @Override
+        public ExportedDocument[] call() throws IOException {
+            if (!transformers.isEmpty()) {
+                long t0 = System.nanoTime();
+                if (pageSize == 0) {
+                    applyTransforms(docs[0]);
+                } else {
+                    applyTransforms(docs);
+                }
+                transformTimeNanos.addAndGet(System.nanoTime() - t0);
+                transformCount.addAndGet(docs.length);
+            }
+            return docs;
+        }
+    }
+
+    protected class WriterThread extends Thread {
+
+        protected final List<DocumentTranslationMap> maps;
+
+        public WriterThread(String name, List<DocumentTranslationMap> maps) {
+            super(name);
+            this.maps = maps;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    Future<ExportedDocument[]> future = queue.take();
+                    if (future == END) {
+                        break;
+                    }
+                    ExportedDocument[] docs;
+                    try {
+                        docs = future.get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
+                    }
+                    long t0 = System.nanoTime();
+                    DocumentTranslationMap map;
+                    if (pageSize == 0) {
+                        map = writer.write(docs[0]);
+                    } else {
+                        map = writer.write(docs);
+                    }
+                    writeTimeNanos.addAndGet(System.nanoTime() - t0);
+                    writeCount.addAndGet(docs.length);
+                    if (map != null) {
+                        maps.add(map);
+                    }
+                }
+            } catch (Throwable t) {
+                log.error("Error in document pipe writer", t);
+                writerError = t;
+            }
+        }
+    }
+
+    protected static class DaemonThreadFactory implements ThreadFactory {
+
+        protected final AtomicInteger threadNumber = new AtomicInteger();
+
+        protected final String prefix;
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix
+                    + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    protected void logStats() {
+        if (!log.isDebugEnabled()) {
+            return;
+        }
+        log.debug(String.format(
+                "Document pipe: read %d docs in %d ms, transformed %d docs "
+                        + "in %d ms (%d threads), wrote %d docs in %d ms, "
+                        + "reader waited %d ms, queue depth avg %.1f max %d/%d",
+                Long.valueOf(getReadCount()),
+                Long.valueOf(getReadTimeMillis()),
+                Long.valueOf(getTransformCount()),
+                Long.valueOf(getTransformTimeMillis()),
+                Integer.valueOf(transformerThreads),
+                Long.valueOf(getWriteCount()),
+                Long.valueOf(getWriteTimeMillis()),
+                Long.valueOf(getReaderWaitTimeMillis()),
+                Double.valueOf(getAverageQueueDepth()),
+                Integer.valueOf(getMaxQueueDepth()),
+                Integer.valueOf(queueSize)));
+    }
+
+    /**
+     * Gets the number of documents read.
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * Gets the time spent in the reader.
+     */
+    public long getReadTimeMillis() {
+        return readTimeNanos.get() / 1000000;
+    }
+
+    /**
+     * Gets the number of documents transformed.
+     */
+    public long getTransformCount() {
+        return transformCount.get();
+    }
+
+    /**
+     * Gets the time spent in the transformers, summed over all the
+     * transformer threads.
+     */
+    public long getTransformTimeMillis() {
+        return transformTimeNanos.get() / 1000000;
+    }
+
+    /**
+     * Gets the number of documents written.
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Gets the time spent in the writer.
+     */
+    public long getWriteTimeMillis() {
+        return writeTimeNanos.get() / 1000000;
+    }
+
+    /**
+     * Gets the time the reader spent waiting for room in the queue.
+     */
+    public long getReaderWaitTimeMillis() {
+        return readerWaitTimeNanos.get() / 1000000;
+    }
+
+    /**
+     * Gets the current number of documents (or pages) read and not yet
+     * written.
+     */
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Gets the average queue depth seen by the reader after each read.
+     */
+    public double getAverageQueueDepth() {
+        long samples = queueDepthSamples.get();
+        return samples == 0 ? 0 : (double) queueDepthTotal.get() / samples;
+    }
+
+    /**
+     * Gets the maximum queue depth seen by the reader.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getTransformerThreads() {
+        return transformerThreads;
+    }
+
+}
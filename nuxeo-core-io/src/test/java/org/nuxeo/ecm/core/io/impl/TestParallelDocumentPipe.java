@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.io.DocumentTransformer;
+import org.nuxeo.ecm.core.io.DocumentTranslationMap;
+import org.nuxeo.ecm.core.io.ExportedDocument;
+
+/**
+ * Tests the parallel document pipe with in-memory readers and writers.
+ */
+public class TestParallelDocumentPipe {
+
+    protected static class CountingReader extends AbstractDocumentReader {
+
+        protected final int max;
+
+        protected int n;
+
+        public CountingReader(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public ExportedDocument read() {
+            if (n == max) {
+                return null;
+            }
+            ExportedDocumentImpl doc = new ExportedDocumentImpl();
+            doc.setId(String.valueOf(n++));
+            return doc;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    protected static class RecordingWriter extends AbstractDocumentWriter {
+
+        protected final List<String> ids = new ArrayList<String>();
+
+        protected int failAt = -1;
+
+        @Override
+        public DocumentTranslationMap write(ExportedDocument doc)
+                throws IOException {
+            if (ids.size() == failAt) {
+                throw new IOException("failing at " + failAt);
+            }
+            ids.add(doc.getId());
+            DocumentTranslationMap map = new DocumentTranslationMapImpl(
+                    "old", "new");
+            map.put(new IdRef(doc.getId()), new IdRef("new-" + doc.getId()));
+            return map;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Transformer taking a random time, so that documents don't finish
+     * their transformation in read order.
+     */
+    protected static class RandomDelayTransformer implements
+            DocumentTransformer {
+
+        protected final Random random = new Random(1234);
+
+        protected final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public boolean transform(ExportedDocument doc) throws IOException {
+            int delay;
+            synchronized (random) {
+                delay = random.nextInt(3);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            ids.add(doc.getId());
+            return true;
+        }
+    }
+
+    protected static List<String> ids(int max) {
+        List<String> ids = new ArrayList<String>(max);
+        for (int i = 0; i < max; i++) {
+            ids.add(String.valueOf(i));
+        }
+        return ids;
+    }
+
+    protected void checkPipe(int pageSize) throws Exception {
+        ParallelDocumentPipeImpl pipe = new ParallelDocumentPipeImpl(pageSize,
+                4, 3);
+        pipe.setReader(new CountingReader(200));
+        RecordingWriter writer = new RecordingWriter();
+        pipe.setWriter(writer);
+        RandomDelayTransformer transformer = new RandomDelayTransformer();
+        pipe.addTransformer(transformer);
+
+        DocumentTranslationMap map = pipe.run();
+
+        // written in read order
+        assertEquals(ids(200), writer.ids);
+        assertEquals(200, transformer.ids.size());
+        assertEquals(200, map.getDocRefMap().size());
+        assertEquals(new IdRef("new-42"), map.getDocRefMap().get(
+                new IdRef("42")));
+        assertEquals(200, pipe.getReadCount());
+        assertEquals(200, pipe.getTransformCount());
+        assertEquals(200, pipe.getWriteCount());
+        assertTrue(pipe.getMaxQueueDepth() <= 3);
+        assertEquals(0, pipe.getQueueDepth());
+    }
+
+    @Test
+    public void testPipe() throws Exception {
+        checkPipe(0);
+    }
+
+    @Test
+    public void testPipePaged() throws Exception {
+        checkPipe(7);
+    }
+
+    @Test
+    public void testPipeWithoutTransformer() throws Exception {
+        ParallelDocumentPipeImpl pipe = new ParallelDocumentPipeImpl(10);
+        pipe.setReader(new CountingReader(95));
+        RecordingWriter writer = new RecordingWriter();
+        pipe.setWriter(writer);
+        pipe.run();
+        assertEquals(ids(95), writer.ids);
+        assertEquals(0, pipe.getTransformCount());
+    }
+
+    @Test
+    public void testWriterError() throws Exception {
+        ParallelDocumentPipeImpl pipe = new ParallelDocumentPipeImpl(0, 2, 2);
+        // the reader would block forever on a full queue if not stopped
+        pipe.setReader(new CountingReader(Integer.MAX_VALUE));
+        RecordingWriter writer = new RecordingWriter();
+        writer.failAt = 50;
+        pipe.setWriter(writer);
+        pipe.addTransformer(new RandomDelayTransformer());
+        try {
+            pipe.run();
+            fail("should fail");
+        } catch (IOException e) {
+            assertEquals("failing at 50", e.getMessage());
+        }
+        assertEquals(ids(50), writer.ids);
+    }
+
+}
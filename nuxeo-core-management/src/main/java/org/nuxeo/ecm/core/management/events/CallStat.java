@@ -13,38 +13,125 @@
  */
 package org.nuxeo.ecm.core.management.events;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Simple class to store Listeners call statistics.
+ * <p>
+ * Since 5.6, updates are lock-free, and execution times are kept in a
+ * {@link LatencyHistogram}, globally and for each event name, together with
+ * the number of calls for each second of the last minute.
  *
  * @author Thierry Delprat
  */
 public class CallStat {
 
-    long accumulatedTime = 0;
-
-    int callCount = 0;
+    /** The number of seconds over which {@link #getRecentRate} is computed. */
+    public static final int WINDOW_SECONDS = 60;
 
     final String label;
 
+    protected final LatencyHistogram histogram = new LatencyHistogram();
+
+    protected final ConcurrentMap<String, LatencyHistogram> eventHistograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** The second (since epoch) each window slot is counting for. */
+    protected final AtomicLongArray windowSeconds = new AtomicLongArray(
+            WINDOW_SECONDS);
+
+    protected final AtomicLongArray windowCounts = new AtomicLongArray(
+            WINDOW_SECONDS);
+
     public CallStat(String label) {
         this.label = label;
     }
 
     void update(long delta) {
-        callCount++;
-        accumulatedTime += delta;
+        record(null, delta * 1000000);
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param eventName the event name, or {@code null} if unknown
+     * @param nanos the execution time, in nanoseconds
+     * @since 5.6
+     */
+    public void record(String eventName, long nanos) {
+        histogram.record(nanos);
+        if (eventName != null) {
+            LatencyHistogram h = eventHistograms.get(eventName);
+            if (h == null) {
+                LatencyHistogram old = eventHistograms.putIfAbsent(eventName,
+                        h = new LatencyHistogram());
+                if (old != null) {
+                    h = old;
+                }
+            }
+            h.record(nanos);
+        }
+        // the window is approximate: a count may be lost when a slot is
+        // recycled concurrently
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % WINDOW_SECONDS);
+        long slotSecond = windowSeconds.get(slot);
+        if (slotSecond != second
+                && windowSeconds.compareAndSet(slot, slotSecond, second)) {
+            windowCounts.set(slot, 0);
+        }
+        windowCounts.incrementAndGet(slot);
     }
 
     public long getAccumulatedTime() {
-        return accumulatedTime;
+        return histogram.getSum() / 1000000;
     }
 
     public int getCallCount() {
-        return callCount;
+        return (int) histogram.getCount();
     }
 
     public String getLabel() {
         return label;
     }
 
+    /**
+     * Gets the histogram of the execution times.
+     *
+     * @since 5.6
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the histograms of the execution times for each event name.
+     *
+     * @since 5.6
+     */
+    public Map<String, LatencyHistogram> getEventHistograms() {
+        return Collections.unmodifiableMap(eventHistograms);
+    }
+
+    /**
+     * Gets the average number of calls per second over the last
+     * {@link #WINDOW_SECONDS} seconds.
+     *
+     * @since 5.6
+     */
+    public double getRecentRate() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long second = windowSeconds.get(i);
+            if (second > now - WINDOW_SECONDS && second <= now) {
+                total += windowCounts.get(i);
+            }
+        }
+        return (double) total / WINDOW_SECONDS;
+    }
+
 }
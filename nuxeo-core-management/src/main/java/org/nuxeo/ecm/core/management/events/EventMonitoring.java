@@ -61,6 +61,31 @@ public class EventMonitoring implements EventMonitoringMBean {
         return getAdminService().getEventsInQueueCount();
     }
 
+    @Override
+    public long getCoalescedBundlesCount() {
+        return getAdminService().getCoalescedBundlesCount();
+    }
+
+    @Override
+    public long getCoalescedEventsCount() {
+        return getAdminService().getCoalescedEventsCount();
+    }
+
+    @Override
+    public long getSharedBundlesCount() {
+        return getAdminService().getSharedBundlesCount();
+    }
+
+    @Override
+    public long getSharedBundleReconnectTime() {
+        EventServiceAdmin admin = getAdminService();
+        long count = admin.getSharedBundlesCount();
+        if (count == 0) {
+            return 0;
+        }
+        return admin.getSharedReconnectTimeMillis() / count;
+    }
+
     @Override
     public String getAsyncHandlersExecTime() {
         return EventStatsHolder.getAsyncHandlersExecTime();
@@ -71,6 +96,11 @@ public class EventMonitoring implements EventMonitoringMBean {
         return EventStatsHolder.getSyncHandlersExecTime();
     }
 
+    @Override
+    public String getHandlerExecTimeByEvent(String listenerName) {
+        return EventStatsHolder.getHandlerExecTimeByEvent(listenerName);
+    }
+
     @Override
     public boolean isBlockAsyncHandlers() {
         return getAdminService().isBlockAsyncHandlers();
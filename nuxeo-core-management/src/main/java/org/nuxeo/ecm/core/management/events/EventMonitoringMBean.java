@@ -30,6 +30,30 @@ public interface EventMonitoringMBean {
      */
     int getActiveThreadsCount();
 
+    /**
+     * Gets the number of event bundles merged into already scheduled work of
+     * coalescing async listeners.
+     */
+    long getCoalescedBundlesCount();
+
+    /**
+     * Gets the number of events merged into already scheduled work of
+     * coalescing async listeners.
+     */
+    long getCoalescedEventsCount();
+
+    /**
+     * Gets the number of event bundles reconnected once for several async
+     * listeners sharing a session.
+     */
+    long getSharedBundlesCount();
+
+    /**
+     * Gets the average time spent reconnecting an event bundle shared by
+     * several async listeners, in milliseconds.
+     */
+    long getSharedBundleReconnectTime();
+
     /**
      * Tells if time tracking is active for Async event handlers.
      */
@@ -52,7 +76,8 @@ public interface EventMonitoringMBean {
     void setSyncHandlersTrackingEnabled(boolean collectSyncHandlersExecTime);
 
     /**
-     * Returns the statistics for Async Handlers.
+     * Returns the statistics for Async Handlers: calls, total time,
+     * percentiles of the execution time and rate over the last minute.
      */
     String getAsyncHandlersExecTime();
 
@@ -61,6 +86,13 @@ public interface EventMonitoringMBean {
      */
     String getSyncHandlersExecTime();
 
+    /**
+     * Returns the statistics of a handler for each event name.
+     *
+     * @since 5.6
+     */
+    String getHandlerExecTimeByEvent(String listenerName);
+
     /**
      * Resets the statistics.
      */
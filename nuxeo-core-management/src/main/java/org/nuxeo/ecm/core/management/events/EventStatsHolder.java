@@ -14,25 +14,30 @@
 package org.nuxeo.ecm.core.management.events;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.nuxeo.ecm.core.event.impl.EventListenerDescriptor;
 
 /**
  * Helper class to store statistics about listeners calls.
+ * <p>
+ * Since 5.6 the statistics are updated without locking, so that they can be
+ * left enabled in production.
  *
  * @author Thierry Delprat
  */
 public class EventStatsHolder {
 
-    protected static boolean collectAsyncHandlersExecTime = false;
+    protected static volatile boolean collectAsyncHandlersExecTime = false;
 
-    protected static boolean collectSyncHandlersExecTime = false;
+    protected static volatile boolean collectSyncHandlersExecTime = false;
 
-    protected static Map<String, CallStat> syncStats = new HashMap<String, CallStat>();
+    protected static volatile ConcurrentMap<String, CallStat> syncStats = new ConcurrentHashMap<String, CallStat>();
 
-    protected static Map<String, CallStat> aSyncStats = new HashMap<String, CallStat>();
+    protected static volatile ConcurrentMap<String, CallStat> aSyncStats = new ConcurrentHashMap<String, CallStat>();
 
     private EventStatsHolder() {
     }
@@ -60,48 +65,63 @@ public class EventStatsHolder {
      * @since 5.6
      */
     public static void clearStats() {
-        synchronized(aSyncStats) {
-            EventStatsHolder.aSyncStats.clear();
-        }
+        EventStatsHolder.aSyncStats.clear();
     }
 
     public static void logAsyncExec(EventListenerDescriptor desc, long delta) {
+        logAsyncExec(desc, null, delta * 1000000);
+    }
+
+    /**
+     * @since 5.6
+     */
+    public static void logAsyncExec(EventListenerDescriptor desc,
+            String eventName, long deltaNanos) {
         if (!collectAsyncHandlersExecTime) {
             return;
         }
         String name = desc.getName();
-        synchronized (aSyncStats) {
-            CallStat stat = aSyncStats.get(name);
-            if (stat == null) {
-                String label = desc.asPostCommitListener().getClass()
-                        .getSimpleName();
-                if (desc.getIsAsync()) {
-                    label += "(async)";
-                } else {
-                    label += "(sync)";
-                }
-                stat = new CallStat(label);
-                aSyncStats.put(name, stat);
+        CallStat stat = aSyncStats.get(name);
+        if (stat == null) {
+            String label = desc.asPostCommitListener().getClass()
+                    .getSimpleName();
+            if (desc.getIsAsync()) {
+                label += "(async)";
+            } else {
+                label += "(sync)";
             }
-            stat.update(delta);
+            stat = getOrCreate(aSyncStats, name, label);
         }
+        stat.record(eventName, deltaNanos);
     }
 
     public static void logSyncExec(EventListenerDescriptor desc, long delta) {
+        logSyncExec(desc, null, delta * 1000000);
+    }
+
+    /**
+     * @since 5.6
+     */
+    public static void logSyncExec(EventListenerDescriptor desc,
+            String eventName, long deltaNanos) {
         if (!collectSyncHandlersExecTime) {
             return;
         }
         String name = desc.getName();
-        synchronized (syncStats) {
-            CallStat stat = syncStats.get(name);
-            if (stat == null) {
-                String label = desc.asEventListener().getClass()
-                        .getSimpleName();
-                stat = new CallStat(label);
-                syncStats.put(name, stat);
-            }
-            stat.update(delta);
+        CallStat stat = syncStats.get(name);
+        if (stat == null) {
+            String label = desc.asEventListener().getClass()
+                    .getSimpleName();
+            stat = getOrCreate(syncStats, name, label);
         }
+        stat.record(eventName, deltaNanos);
+    }
+
+    protected static CallStat getOrCreate(ConcurrentMap<String, CallStat> stats,
+            String name, String label) {
+        CallStat stat = new CallStat(label);
+        CallStat old = stats.putIfAbsent(name, stat);
+        return old == null ? stat : old;
     }
 
     public static String getAsyncHandlersExecTime() {
@@ -128,38 +148,71 @@ public class EventStatsHolder {
 
     protected static String getStringSummary(Map<String, CallStat> stats) {
         StringBuffer sb = new StringBuffer();
-        synchronized (stats) {
 
-            long totalTime = 0;
-            for (String name : stats.keySet()) {
-                totalTime += stats.get(name).getAccumulatedTime();
-            }
+        long totalTime = 0;
+        for (CallStat stat : stats.values()) {
+            totalTime += stat.getAccumulatedTime();
+        }
 
-            for (String name : stats.keySet()) {
-                CallStat stat = stats.get(name);
-                sb.append(name);
-                sb.append(" - ");
-                sb.append(stat.getLabel());
-                sb.append(" - ");
-                sb.append(stat.getCallCount());
-                sb.append(" calls - ");
-                sb.append(stat.getAccumulatedTime());
-                sb.append("ms - ");
-                String pcent = String.format("%.2f", 100.0 * stat.getAccumulatedTime() / totalTime);
-                sb.append(pcent);
-                sb.append("%\n");
-            }
+        for (Entry<String, CallStat> es : stats.entrySet()) {
+            CallStat stat = es.getValue();
+            sb.append(es.getKey());
+            sb.append(" - ");
+            sb.append(stat.getLabel());
+            sb.append(" - ");
+            sb.append(stat.getCallCount());
+            sb.append(" calls - ");
+            sb.append(stat.getAccumulatedTime());
+            sb.append("ms - ");
+            String pcent = String.format("%.2f", 100.0 * stat.getAccumulatedTime() / totalTime);
+            sb.append(pcent);
+            sb.append("% - ");
+            appendLatencies(sb, stat.getHistogram());
+            sb.append(String.format(" - %.2f calls/s", stat.getRecentRate()));
+            sb.append("\n");
         }
         return sb.toString();
     }
 
-    public static void resetHandlersExecTime() {
-        synchronized (syncStats) {
-            syncStats = new HashMap<String, CallStat>();
+    protected static void appendLatencies(StringBuffer sb, LatencyHistogram h) {
+        sb.append(String.format("p50 %.3fms p95 %.3fms p99 %.3fms max %.3fms",
+                h.getPercentile(50) / 1e6, h.getPercentile(95) / 1e6,
+                h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+    }
+
+    /**
+     * Gets the statistics of a listener for each event name.
+     *
+     * @param listenerName the listener name
+     * @return the summary, one line per event name
+     * @since 5.6
+     */
+    public static String getHandlerExecTimeByEvent(String listenerName) {
+        StringBuffer sb = new StringBuffer();
+        CallStat stat = syncStats.get(listenerName);
+        if (stat == null) {
+            stat = aSyncStats.get(listenerName);
         }
-        synchronized (aSyncStats) {
-            aSyncStats = new HashMap<String, CallStat>();
+        if (stat == null) {
+            return "";
         }
+        for (Entry<String, LatencyHistogram> es : stat.getEventHistograms().entrySet()) {
+            LatencyHistogram h = es.getValue();
+            sb.append(es.getKey());
+            sb.append(" - ");
+            sb.append(h.getCount());
+            sb.append(" calls - ");
+            sb.append(h.getSum() / 1000000);
+            sb.append("ms - ");
+            appendLatencies(sb, h);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    public static void resetHandlersExecTime() {
+        syncStats = new ConcurrentHashMap<String, CallStat>();
+        aSyncStats = new ConcurrentHashMap<String, CallStat>();
     }
 
 }
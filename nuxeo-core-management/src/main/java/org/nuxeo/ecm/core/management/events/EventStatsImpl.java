@@ -30,4 +30,16 @@ public class EventStatsImpl implements EventStats {
         EventStatsHolder.logSyncExec(desc, delta);
     }
 
+    @Override
+    public void logAsyncExec(EventListenerDescriptor desc, String eventName,
+            long deltaNanos) {
+        EventStatsHolder.logAsyncExec(desc, eventName, deltaNanos);
+    }
+
+    @Override
+    public void logSyncExec(EventListenerDescriptor desc, String eventName,
+            long deltaNanos) {
+        EventStatsHolder.logSyncExec(desc, eventName, deltaNanos);
+    }
+
 }
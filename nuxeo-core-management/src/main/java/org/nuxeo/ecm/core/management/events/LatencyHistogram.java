@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.management.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, lock-free histogram of execution times.
+ * <p>
+ * Times are recorded in nanoseconds into buckets covering each power of two
+ * with {@link #SUB_BUCKETS} linear sub-buckets, so percentiles are accurate
+ * to about 25%. Recording is a few atomic increments and never blocks.
+ *
+ * @since 5.6
+ */
+public class LatencyHistogram {
+
+    protected static final int SUB_BITS = 2;
+
+    protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    protected static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    protected final AtomicLong count = new AtomicLong();
+
+    protected final AtomicLong sum = new AtomicLong();
+
+    protected final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(getBucket(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get())) {
+            if (max.compareAndSet(m, nanos)) {
+                break;
+            }
+        }
+    }
+
+    protected static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Gets the highest value falling into a bucket. */
+    protected static long getBucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Gets the sum of the recorded times, in nanoseconds. */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /** Gets the highest recorded time, in nanoseconds. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets an approximation of a percentile of the recorded times.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the time, in nanoseconds
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            total += snapshot[i] = counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(getBucketMax(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+}
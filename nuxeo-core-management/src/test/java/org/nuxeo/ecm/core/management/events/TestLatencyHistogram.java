@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nuxeo - initial API and implementation
+ */
+package org.nuxeo.ecm.core.management.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketBoundaries() throws Exception {
+        // small values have their own bucket
+        for (int i = 0; i < LatencyHistogram.SUB_BUCKETS; i++) {
+            assertEquals(i, LatencyHistogram.getBucket(i));
+            assertEquals(i, LatencyHistogram.getBucketMax(i));
+        }
+        // each value falls into a bucket whose max is at least the value, and
+        // the next value after the max falls into the next bucket
+        int previous = LatencyHistogram.SUB_BUCKETS - 1;
+        for (int shift = LatencyHistogram.SUB_BITS; shift < 63; shift++) {
+            long value = 1L << shift;
+            int bucket = LatencyHistogram.getBucket(value);
+            assertEquals(previous + 1, bucket);
+            assertEquals(value - 1,
+                    LatencyHistogram.getBucketMax(bucket - 1));
+            previous = bucket + LatencyHistogram.SUB_BUCKETS - 1;
+            assertEquals(previous,
+                    LatencyHistogram.getBucket((value << 1) - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE,
+                LatencyHistogram.getBucketMax(LatencyHistogram.BUCKETS - 1));
+        // relative error bounded by the sub-buckets
+        for (long value = 1; value < 1000000; value = value * 3 + 1) {
+            long max = LatencyHistogram.getBucketMax(LatencyHistogram.getBucket(value));
+            assertTrue(max >= value);
+            assertTrue(max - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        h.record(-5); // counted as 0
+        assertEquals(1001, h.getCount());
+        assertEquals(500500000L, h.getSum());
+        assertEquals(1000000L, h.getMax());
+        assertEquals(0, h.getPercentile(0));
+        assertApprox(500000, h.getPercentile(50));
+        assertApprox(900000, h.getPercentile(90));
+        assertApprox(990000, h.getPercentile(99));
+        // never above the max
+        assertEquals(1000000L, h.getPercentile(100));
+    }
+
+    protected static void assertApprox(long expected, long actual) {
+        assertTrue("expected about " + expected + ", got " + actual,
+                actual >= expected
+                        && actual <= expected + expected
+                                / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        final int nthreads = 8;
+        final int n = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[nthreads];
+        for (int t = 0; t < nthreads; t++) {
+            final long base = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        h.record(base + i % 100);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(nthreads * n, h.getCount());
+        long expectedSum = 0;
+        for (int t = 0; t < nthreads; t++) {
+            expectedSum += (long) n * t + (long) (n / 100) * (99 * 100 / 2);
+        }
+        assertEquals(expectedSum, h.getSum());
+        assertEquals(nthreads - 1 + 99, h.getMax());
+        long total = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            total += h.counts.get(i);
+        }
+        assertEquals(nthreads * n, total);
+    }
+
+}
@@ -17,6 +17,7 @@ import java.security.Principal;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.impl.FacetFilter;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
 
@@ -27,7 +28,10 @@ import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
  * This includes filtering on the BROWSE permission for the given principal,
  * filtering on facets, and applying query transformers.
  * <p>
- * You can also include a limit and offset, to get a subset of the total.
+ * You can also include a limit and offset, to get a subset of the total, or a
+ * limit and a continuation token to use keyset pagination.
+ * <p>
+ * For cursors, you can ask for the results to be streamed.
  *
  * @author Florent Guillaume
  */
@@ -54,6 +58,10 @@ public class QueryFilter implements Serializable {
 
     protected final long offset;
 
+    protected final ContinuationToken continuationToken;
+
+    protected final boolean streaming;
+
     /**
      * Constructs a query filter.
      * <p>
@@ -63,6 +71,42 @@ public class QueryFilter implements Serializable {
             String[] permissions, FacetFilter facetFilter,
             Collection<SQLQuery.Transformer> queryTransformers, long limit,
             long offset) {
+        this(principal, principals, permissions, facetFilter,
+                queryTransformers, limit, offset, null);
+    }
+
+    /**
+     * Constructs a query filter using keyset pagination.
+     * <p>
+     * Note that the principal MUST be {@link Serializable}.
+     *
+     * @param continuationToken the position after which to return results,
+     *            or {@code null} for offset pagination
+     * @since 5.6
+     */
+    public QueryFilter(Principal principal, String[] principals,
+            String[] permissions, FacetFilter facetFilter,
+            Collection<SQLQuery.Transformer> queryTransformers, long limit,
+            long offset, ContinuationToken continuationToken) {
+        this(principal, principals, permissions, facetFilter,
+                queryTransformers, limit, offset, continuationToken, false);
+    }
+
+    /**
+     * Constructs a query filter.
+     * <p>
+     * Note that the principal MUST be {@link Serializable}.
+     *
+     * @param continuationToken the position after which to return results,
+     *            or {@code null} for offset pagination
+     * @param streaming {@code true} if a cursor should stream the results
+     *            instead of allowing random access to them
+     * @since 5.6
+     */
+    public QueryFilter(Principal principal, String[] principals,
+            String[] permissions, FacetFilter facetFilter,
+            Collection<SQLQuery.Transformer> queryTransformers, long limit,
+            long offset, ContinuationToken continuationToken, boolean streaming) {
         this.principal = principal;
         this.principals = principals;
         this.permissions = permissions;
@@ -70,6 +114,8 @@ public class QueryFilter implements Serializable {
         this.queryTransformers = queryTransformers;
         this.limit = limit;
         this.offset = offset;
+        this.continuationToken = continuationToken;
+        this.streaming = streaming;
     }
 
     public static QueryFilter withoutLimitOffset(QueryFilter other) {
@@ -110,4 +156,23 @@ public class QueryFilter implements Serializable {
         return offset;
     }
 
+    /**
+     * Gets the continuation token, if keyset pagination is used.
+     *
+     * @since 5.6
+     */
+    public ContinuationToken getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * Checks if a cursor should stream the results, using a forward-only
+     * cursor fetching them as they are consumed.
+     *
+     * @since 5.6
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
 }
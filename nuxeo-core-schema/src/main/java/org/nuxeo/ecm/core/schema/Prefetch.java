@@ -15,10 +15,7 @@ import static org.apache.commons.lang.ObjectUtils.NULL;
 import static org.nuxeo.ecm.core.schema.types.ComplexTypeImpl.canonicalXPath;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.nuxeo.ecm.core.schema.types.Schema;
 import org.nuxeo.runtime.api.Framework;
@@ -26,103 +23,100 @@ import org.nuxeo.runtime.api.Framework;
 /**
  * Information about what's to be prefetched: individual properties and whole
  * schemas.
+ * <p>
+ * Since 5.6 the keys are held in a {@link PrefetchLayout} shared between
+ * documents, and each prefetch only holds an array of values indexed by the
+ * slots of its layout.
  */
 public class Prefetch implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    /**
-     * map of prefix:name -> value
-     * <p>
-     * key can be a canonical xpath like prefix:name/0/othername
-     * <p>
-     * null values are stored as actual nulls
-     */
-    public Map<String, Serializable> values;
+    private static final Serializable[] EMPTY_VALUES = new Serializable[0];
 
     /**
-     * map of schema -> list of prefix:name
+     * The layout of the keys: prefix:name, or a canonical xpath like
+     * prefix:name/0/othername, with their schema and name.
      */
-    public Map<String, List<String>> keysBySchema;
+    protected PrefetchLayout layout;
 
     /**
-     * map of schema -> name -> prefix:name
+     * The values for each slot of the layout.
+     * <p>
+     * null values are stored as actual nulls, values absent or cleared are
+     * stored as {@link org.apache.commons.lang.ObjectUtils#NULL}.
      */
-    public Map<String, Map<String, String>> keysBySchemaAndName;
+    protected Serializable[] values;
+
+    /** The number of values not absent. */
+    protected int count;
 
     public Prefetch() {
-        values = new HashMap<String, Serializable>();
-        keysBySchema = new HashMap<String, List<String>>();
-        keysBySchemaAndName = new HashMap<String, Map<String, String>>();
+        layout = PrefetchLayout.EMPTY;
+        values = EMPTY_VALUES;
     }
 
     public boolean isEmpty() {
-        return values.isEmpty();
+        return count == 0;
     }
 
     public void put(String prefixedName, String schemaName, String name,
             Serializable value) {
-        values.put(prefixedName, value);
-        if (schemaName != null) {
-            Map<String, String> keysByName = keysBySchemaAndName.get(schemaName);
-            if (keysByName == null) {
-                keysBySchemaAndName.put(schemaName,
-                        keysByName = new HashMap<String, String>());
-            }
-            keysByName.put(name, prefixedName);
-            List<String> keys = keysBySchema.get(schemaName);
-            if (keys == null) {
-                keysBySchema.put(schemaName, keys = new LinkedList<String>());
-            }
-            keys.add(prefixedName);
+        int slot = layout.size();
+        layout = layout.with(prefixedName, schemaName, name);
+        if (slot >= values.length) {
+            int newLength = Math.max(8, values.length * 2);
+            values = Arrays.copyOf(values, newLength);
+            Arrays.fill(values, slot + 1, newLength, NULL);
         }
+        values[slot] = value;
+        count++;
     }
 
-    public Serializable get(String xpath) {
-        xpath = canonicalXPath(xpath);
-        if (values.containsKey(xpath)) {
-            return values.get(xpath);
+    /**
+     * Trims the values to the size of the layout, to be called when all the
+     * values have been put.
+     *
+     * @since 5.6
+     */
+    public void trimToSize() {
+        if (values.length > layout.size()) {
+            values = Arrays.copyOf(values, layout.size());
         }
-        return NULL;
+    }
+
+    protected Serializable get(int slot) {
+        return slot == -1 ? NULL : values[slot];
+    }
+
+    public Serializable get(String xpath) {
+        return get(layout.getSlot(canonicalXPath(xpath)));
     }
 
     public Serializable get(String schemaName, String name) {
-        Map<String, String> keysByName = keysBySchemaAndName.get(schemaName);
-        if (keysByName != null) {
-            String prefixedName = keysByName.get(name);
-            if (prefixedName != null && values.containsKey(prefixedName)) {
-                return values.get(prefixedName);
-            }
-        }
-        return NULL;
+        return get(layout.getSlot(schemaName, name));
     }
 
     public boolean isPrefetched(String xpath) {
-        xpath = canonicalXPath(xpath);
-        return values.containsKey(xpath);
+        return get(xpath) != NULL;
     }
 
     public boolean isPrefetched(String schemaName, String name) {
-        Map<String, String> keysByName = keysBySchemaAndName.get(schemaName);
-        if (keysByName == null) {
-            return false;
-        }
-        String prefixedName = keysByName.get(name);
-        if (prefixedName == null) {
-            return false;
-        }
-        return values.containsKey(prefixedName);
+        return get(schemaName, name) != NULL;
     }
 
     /**
      * Clears the prefetches for a given schema.
      */
     public void clearPrefetch(String schemaName) {
-        keysBySchemaAndName.remove(schemaName);
-        List<String> keys = keysBySchema.remove(schemaName);
-        if (keys != null) {
-            for (String prefixedName : keys) {
-                values.remove(prefixedName);
+        int[] slots = layout.getSlots(schemaName);
+        if (slots == null) {
+            return;
+        }
+        for (int slot : slots) {
+            if (values[slot] != NULL) {
+                values[slot] = NULL;
+                count--;
             }
         }
     }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.schema;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The layout of a {@link Prefetch}: the ordered list of its keys, each with
+ * its schema and name, and the index of the slot holding its value.
+ * <p>
+ * Layouts are shared between documents: they form a tree where each layout
+ * extends its parent with one more slot, so documents prefetching the same
+ * keys in the same order (the common case for documents of the same type)
+ * end up with the same layout instance. Each document only holds its values.
+ * <p>
+ * The lookup maps of a layout are computed lazily, only for the layouts
+ * actually used by documents.
+ *
+ * @since 5.6
+ */
+public class PrefetchLayout implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of shared layouts, after which they aren't shared. */
+    public static final int MAX_SHARED = 10000;
+
+    protected static final AtomicInteger sharedCount = new AtomicInteger();
+
+    /** The empty layout, root of all the shared layouts. */
+    public static final PrefetchLayout EMPTY = new PrefetchLayout(null, null,
+            null, null, true);
+
+    protected final PrefetchLayout parent;
+
+    /** The number of slots. */
+    protected final int size;
+
+    protected final String key;
+
+    protected final String schemaName;
+
+    protected final String name;
+
+    /** The shared children, or {@code null} if this layout isn't shared. */
+    protected final transient ConcurrentMap<String, PrefetchLayout> children;
+
+    protected transient volatile Index index;
+
+    /** The lookup maps for a layout. */
+    protected static class Index {
+
+        /** prefix:name -> slot */
+        protected final Map<String, Integer> slotsByKey = new HashMap<String, Integer>();
+
+        /** schema -> name -> slot */
+        protected final Map<String, Map<String, Integer>> slotsBySchemaAndName = new HashMap<String, Map<String, Integer>>();
+
+        /** schema -> slots */
+        protected final Map<String, int[]> slotsBySchema = new HashMap<String, int[]>();
+    }
+
+    protected PrefetchLayout(PrefetchLayout parent, String key,
+            String schemaName, String name, boolean shared) {
+        this.parent = parent;
+        this.size = parent == null ? 0 : parent.size + 1;
+        this.key = key;
+        this.schemaName = schemaName;
+        this.name = name;
+        children = shared ? new ConcurrentHashMap<String, PrefetchLayout>()
+                : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the layout extending this one with a slot for the given key.
+     */
+    public PrefetchLayout with(String key, String schemaName, String name) {
+        if (children == null) {
+            return new PrefetchLayout(this, key, schemaName, name, false);
+        }
+        PrefetchLayout child = children.get(key);
+        if (child == null) {
+            boolean shared = sharedCount.get() < MAX_SHARED;
+            child = new PrefetchLayout(this, key, schemaName, name, shared);
+            if (!shared) {
+                return child;
+            }
+            PrefetchLayout old = children.putIfAbsent(key, child);
+            if (old == null) {
+                sharedCount.incrementAndGet();
+            } else {
+                child = old;
+            }
+        }
+        if (equal(schemaName, child.schemaName) && equal(name, child.name)) {
+            return child;
+        }
+        return new PrefetchLayout(this, key, schemaName, name, false);
+    }
+
+    protected Object readResolve() {
+        return parent == null ? EMPTY : this;
+    }
+
+    protected static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    protected Index getIndex() {
+        Index idx = index;
+        if (idx == null) {
+            idx = new Index();
+            Map<String, int[]> slotsBySchema = new HashMap<String, int[]>();
+            // walk from the last slot, the last occurrence of a key wins
+            for (PrefetchLayout l = this; l.parent != null; l = l.parent) {
+                int slot = l.size - 1;
+                if (!idx.slotsByKey.containsKey(l.key)) {
+                    idx.slotsByKey.put(l.key, Integer.valueOf(slot));
+                }
+                if (l.schemaName == null) {
+                    continue;
+                }
+                Map<String, Integer> slotsByName = idx.slotsBySchemaAndName.get(l.schemaName);
+                if (slotsByName == null) {
+                    idx.slotsBySchemaAndName.put(l.schemaName,
+                            slotsByName = new HashMap<String, Integer>());
+                }
+                if (!slotsByName.containsKey(l.name)) {
+                    slotsByName.put(l.name, Integer.valueOf(slot));
+                }
+                int[] slots = slotsBySchema.get(l.schemaName);
+                if (slots == null) {
+                    slots = new int[0];
+                }
+                int[] newSlots = new int[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 1, slots.length);
+                newSlots[0] = slot;
+                slotsBySchema.put(l.schemaName, newSlots);
+            }
+            idx.slotsBySchema.putAll(slotsBySchema);
+            index = idx;
+        }
+        return idx;
+    }
+
+    /**
+     * Gets the slot for a key (canonical xpath), or -1.
+     */
+    public int getSlot(String key) {
+        Integer slot = getIndex().slotsByKey.get(key);
+        return slot == null ? -1 : slot.intValue();
+    }
+
+    /**
+     * Gets the slot for a schema and name, or -1.
+     */
+    public int getSlot(String schemaName, String name) {
+        Map<String, Integer> slotsByName = getIndex().slotsBySchemaAndName.get(schemaName);
+        if (slotsByName == null) {
+            return -1;
+        }
+        Integer slot = slotsByName.get(name);
+        return slot == null ? -1 : slot.intValue();
+    }
+
+    /**
+     * Gets the slots for a schema, or {@code null}.
+     */
+    public int[] getSlots(String schemaName) {
+        return getIndex().slotsBySchema.get(schemaName);
+    }
+
+}
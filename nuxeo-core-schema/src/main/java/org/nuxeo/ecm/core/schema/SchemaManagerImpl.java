@@ -24,6 +24,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,31 +44,68 @@ import org.nuxeo.runtime.api.Framework;
  * <p>
  * Holds basic types (String, Integer, etc.), schemas, document types and
  * facets.
+ * <p>
+ * The registries are kept in an immutable {@link Registry} snapshot that is
+ * replaced as a whole on each registration (copy-on-write), so that lookups
+ * don't need any lock. The caches derived from the registries (fields by
+ * prefixed name, subtypes, types by facet) belong to the snapshot, and are
+ * therefore reset by any registration.
  */
 public class SchemaManagerImpl implements SchemaManager {
 
     private static final Log log = LogFactory.getLog(SchemaManagerImpl.class);
 
-    private final Map<String, Type> typeReg = new HashMap<String, Type>();
+    /**
+     * An immutable snapshot of the registries, and the caches computed from
+     * them.
+     *
+     * @since 5.6
+     */
+    protected static final class Registry {
 
-    private final Map<String, Schema> schemaReg = new HashMap<String, Schema>();
+        protected final Map<String, Type> types;
 
-    private final Map<String, Schema> uri2schemaReg = new HashMap<String, Schema>();
+        protected final Map<String, Schema> schemas;
 
-    private final Map<String, Schema> prefix2schemaReg = new HashMap<String, Schema>();
+        protected final Map<String, Schema> uriToSchema;
 
-    private final Map<String, DocumentType> docTypeReg = new HashMap<String, DocumentType>();
+        protected final Map<String, Schema> prefixToSchema;
 
-    private final Map<String, CompositeType> facetReg = new HashMap<String, CompositeType>();
+        protected final Map<String, DocumentType> docTypes;
 
-    private final Map<String, Set<String>> inheritanceCache = new HashMap<String, Set<String>>();
+        protected final Map<String, CompositeType> facets;
 
-    private final Map<String, List<DocumentTypeDescriptor>> pendingDocTypes;
+        protected final ConcurrentMap<String, Field> fields = new ConcurrentHashMap<String, Field>();
+
+        protected final ConcurrentMap<String, Set<String>> inheritance = new ConcurrentHashMap<String, Set<String>>();
 
-    private final Map<String, Field> fields = new HashMap<String, Field>();
+        /** Facet -> docTypes having this facet. */
+        protected volatile Map<String, Set<String>> typesByFacet;
+
+        protected Registry() {
+            types = new HashMap<String, Type>();
+            schemas = new HashMap<String, Schema>();
+            uriToSchema = new HashMap<String, Schema>();
+            prefixToSchema = new HashMap<String, Schema>();
+            docTypes = new HashMap<String, DocumentType>();
+            facets = new HashMap<String, CompositeType>();
+        }
+
+        /** Copy constructor, without the caches. */
+        protected Registry(Registry other) {
+            types = new HashMap<String, Type>(other.types);
+            schemas = new HashMap<String, Schema>(other.schemas);
+            uriToSchema = new HashMap<String, Schema>(other.uriToSchema);
+            prefixToSchema = new HashMap<String, Schema>(other.prefixToSchema);
+            docTypes = new HashMap<String, DocumentType>(other.docTypes);
+            facets = new HashMap<String, CompositeType>(other.facets);
+        }
+    }
 
-    /** Facet -> docTypes having this facet. */
-    private Map<String, Set<String>> facetsCache;
+    /** The current snapshot, replaced under the lock on {@code this}. */
+    private volatile Registry registry = new Registry();
+
+    private final Map<String, List<DocumentTypeDescriptor>> pendingDocTypes;
 
     private File schemaDir;
 
@@ -120,18 +159,31 @@ public class SchemaManagerImpl implements SchemaManager {
         }
     }
 
+    /**
+     * Gets a copy of the current snapshot, to be modified then published
+     * with {@link #publish}. Must be called with the lock held.
+     */
+    protected Registry copyRegistry() {
+        return new Registry(registry);
+    }
+
+    protected void publish(Registry reg) {
+        registry = reg;
+    }
+
     @Override
     public Type getType(String schema, String name) {
+        Registry reg = registry;
         if (SchemaNames.BUILTIN.equals(schema)) {
-            return typeReg.get(name);
+            return reg.types.get(name);
         } else if (SchemaNames.DOCTYPES.equals(schema)) {
-            return docTypeReg.get(name);
+            return reg.docTypes.get(name);
         } else if (SchemaNames.SCHEMAS.equals(schema)) {
-            return schemaReg.get(name);
+            return reg.schemas.get(name);
         } else if (SchemaNames.FACETS.equals(schema)) {
-            return facetReg.get(name);
+            return reg.facets.get(name);
         } else {
-            Schema ownerSchema = schemaReg.get(schema);
+            Schema ownerSchema = reg.schemas.get(schema);
             if (ownerSchema != null) {
                 return ownerSchema.getType(name);
             }
@@ -140,18 +192,26 @@ public class SchemaManagerImpl implements SchemaManager {
     }
 
     @Override
-    public void registerType(Type type) {
+    public synchronized void registerType(Type type) {
         String schema = type.getSchemaName();
         if (SchemaNames.BUILTIN.equals(schema)) {
-            typeReg.put(type.getName(), type);
+            Registry reg = copyRegistry();
+            reg.types.put(type.getName(), type);
+            publish(reg);
         } else if (SchemaNames.SCHEMAS.equals(schema)) {
-            schemaReg.put(type.getName(), (Schema) type);
+            Registry reg = copyRegistry();
+            reg.schemas.put(type.getName(), (Schema) type);
+            publish(reg);
         } else if (SchemaNames.DOCTYPES.equals(schema)) {
-            docTypeReg.put(type.getName(), (DocumentType) type);
+            Registry reg = copyRegistry();
+            reg.docTypes.put(type.getName(), (DocumentType) type);
+            publish(reg);
         } else if (SchemaNames.FACETS.equals(schema)) {
-            facetReg.put(type.getName(), (CompositeType) type);
+            Registry reg = copyRegistry();
+            reg.facets.put(type.getName(), (CompositeType) type);
+            publish(reg);
         } else {
-            Schema ownerSchema = schemaReg.get(schema);
+            Schema ownerSchema = registry.schemas.get(schema);
             if (ownerSchema != null) {
                 ownerSchema.registerType(type);
             }
@@ -159,24 +219,28 @@ public class SchemaManagerImpl implements SchemaManager {
     }
 
     @Override
-    public Type unregisterType(String name) {
-        return typeReg.remove(name);
+    public synchronized Type unregisterType(String name) {
+        Registry reg = copyRegistry();
+        Type type = reg.types.remove(name);
+        publish(reg);
+        return type;
     }
 
     @Override
     public Type getType(String name) {
-        return typeReg.get(name);
+        return registry.types.get(name);
     }
 
     @Override
     public Type[] getTypes() {
-        return typeReg.values().toArray(new Type[typeReg.size()]);
+        Map<String, Type> types = registry.types;
+        return types.values().toArray(new Type[types.size()]);
     }
 
     @Override
     public Type[] getTypes(String schema) {
-        Schema ownerSchema = schemaReg.get(schema);
-        if (schema != null) {
+        Schema ownerSchema = registry.schemas.get(schema);
+        if (ownerSchema != null) {
             return ownerSchema.getTypes();
         }
         return null;
@@ -184,70 +248,66 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public int getTypesCount() {
-        return typeReg.size();
+        return registry.types.size();
     }
 
     @Override
-    public void registerSchema(Schema schema) {
-        synchronized (schemaReg) {
-            Namespace ns = schema.getNamespace();
-            uri2schemaReg.put(ns.uri, schema);
-            prefix2schemaReg.put(ns.prefix, schema);
-            schemaReg.put(schema.getName(), schema);
-        }
+    public synchronized void registerSchema(Schema schema) {
+        Registry reg = copyRegistry();
+        Namespace ns = schema.getNamespace();
+        reg.uriToSchema.put(ns.uri, schema);
+        reg.prefixToSchema.put(ns.prefix, schema);
+        reg.schemas.put(schema.getName(), schema);
+        publish(reg);
     }
 
     @Override
-    public Schema unregisterSchema(String name) {
-        Schema schema = schemaReg.get(name);
+    public synchronized Schema unregisterSchema(String name) {
+        Schema schema = registry.schemas.get(name);
         if (schema == null) {
             return null;
         }
         Namespace ns = schema.getNamespace();
         log.info("Unregister schema: " + name);
-        synchronized (schemaReg) {
-            uri2schemaReg.remove(ns.uri);
-            prefix2schemaReg.remove(ns.prefix);
-            return schemaReg.remove(name);
-        }
+        Registry reg = copyRegistry();
+        reg.uriToSchema.remove(ns.uri);
+        reg.prefixToSchema.remove(ns.prefix);
+        reg.schemas.remove(name);
+        publish(reg);
+        return schema;
     }
 
     @Override
     public Schema getSchema(String name) {
-        synchronized (schemaReg) {
-            return schemaReg.get(name);
-        }
+        return registry.schemas.get(name);
     }
 
     @Override
     public Schema getSchemaFromPrefix(String schemaPrefix) {
-        synchronized (schemaReg) {
-            return prefix2schemaReg.get(schemaPrefix);
-        }
+        return registry.prefixToSchema.get(schemaPrefix);
     }
 
     @Override
     public Schema getSchemaFromURI(String schemaURI) {
-        synchronized (schemaReg) {
-            return uri2schemaReg.get(schemaURI);
-        }
+        return registry.uriToSchema.get(schemaURI);
     }
 
     @Override
     public Field getField(String prefixedName) {
-        Field field = fields.get(prefixedName);
+        Registry reg = registry;
+        Field field = reg.fields.get(prefixedName);
         if (field == null) {
             QName qname = QName.valueOf(prefixedName);
             String prefix = qname.getPrefix();
-            Schema schema = getSchemaFromPrefix(prefix);
+            Schema schema = reg.prefixToSchema.get(prefix);
             if (schema == null) {
                 // try using the name
-                schema = getSchema(prefix);
+                schema = reg.schemas.get(prefix);
             }
             if (schema != null) {
                 field = schema.getField(qname.getLocalName());
                 if (field != null) {
-                    fields.put(prefixedName, field);
+                    reg.fields.put(prefixedName, field);
                 }
             }
         }
@@ -256,16 +316,13 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public Schema[] getSchemas() {
-        synchronized (schemaReg) {
-            return schemaReg.values().toArray(new Schema[schemaReg.size()]);
-        }
+        Map<String, Schema> schemas = registry.schemas;
+        return schemas.values().toArray(new Schema[schemas.size()]);
     }
 
     @Override
     public int getSchemasCount() {
-        synchronized (schemaReg) {
-            return schemaReg.size();
-        }
+        return registry.schemas.size();
     }
 
     public void setPrefetchInfo(PrefetchInfo prefetchInfo) {
@@ -279,66 +336,62 @@ public class SchemaManagerImpl implements SchemaManager {
     // Document Types
 
     @Override
-    public void registerDocumentType(DocumentType docType) {
+    public synchronized void registerDocumentType(DocumentType docType) {
         log.info("Register document type: " + docType.getName());
-        synchronized (docTypeReg) {
-            docTypeReg.put(docType.getName(), docType);
-            facetsCache = null;
-        }
-    }
-
-    public void registerDocumentType(DocumentTypeDescriptor dtd) {
-        synchronized (docTypeReg) {
-            DocumentType superType = null;
-            if (dtd.superTypeName != null) {
-                superType = docTypeReg.get(dtd.superTypeName);
-                if (superType == null) {
-                    postponeDocTypeRegistration(dtd);
-                    return;
-                }
+        Registry reg = copyRegistry();
+        reg.docTypes.put(docType.getName(), docType);
+        publish(reg);
+    }
+
+    public synchronized void registerDocumentType(DocumentTypeDescriptor dtd) {
+        DocumentType superType = null;
+        if (dtd.superTypeName != null) {
+            superType = registry.docTypes.get(dtd.superTypeName);
+            if (superType == null) {
+                postponeDocTypeRegistration(dtd);
+                return;
             }
-            registerDocumentType(superType, dtd);
         }
-    }
-
-    private DocumentType registerDocumentType(DocumentType superType,
-            DocumentTypeDescriptor dtd) {
-        synchronized (docTypeReg) {
-            try {
-                Set<String> schemaNames = SchemaDescriptor.getSchemaNames(dtd.schemas);
-                // add schemas from facets
-                for (String facetName : dtd.facets) {
-                    CompositeType facet = getFacet(facetName);
-                    if (facet != null) {
-                        schemaNames.addAll(Arrays.asList(facet.getSchemaNames()));
-                    } else {
-                        log.warn("Document type " + dtd.name
-                                + " uses undeclared facet: " + facetName);
-                        // register it with no schemas
-                        CompositeType ct = new CompositeTypeImpl(
-                                (TypeRef<CompositeType>) null,
-                                SchemaNames.FACETS, facetName, null);
-                        registerFacet(ct);
-                    }
+        registerDocumentType(superType, dtd);
+    }
+
+    private synchronized DocumentType registerDocumentType(
+            DocumentType superType, DocumentTypeDescriptor dtd) {
+        try {
+            Set<String> schemaNames = SchemaDescriptor.getSchemaNames(dtd.schemas);
+            // add schemas from facets
+            for (String facetName : dtd.facets) {
+                CompositeType facet = getFacet(facetName);
+                if (facet != null) {
+                    schemaNames.addAll(Arrays.asList(facet.getSchemaNames()));
+                } else {
+                    log.warn("Document type " + dtd.name
+                            + " uses undeclared facet: " + facetName);
+                    // register it with no schemas
+                    CompositeType ct = new CompositeTypeImpl(
+                            (TypeRef<CompositeType>) null,
+                            SchemaNames.FACETS, facetName, null);
+                    registerFacet(ct);
                 }
-                DocumentType docType = new DocumentTypeImpl(superType,
-                        dtd.name, schemaNames.toArray(new String[0]),
-                        dtd.facets);
-                docType.setChildrenTypes(dtd.childrenTypes);
-                // use global prefetch info if not a local one was defined
-                docType.setPrefetchInfo(dtd.prefetch != null ? new PrefetchInfo(
-                        dtd.prefetch) : prefetchInfo);
-                docTypeReg.put(dtd.name, docType);
-                facetsCache = null;
-                log.info("Registered document type: " + dtd.name);
-                registerPendingDocTypes(docType);
-                return docType;
-            } catch (Exception e) {
-                log.error("Error registering document type: " + dtd.name, e);
-                // TODO: use component dependencies instead?
             }
-            return null;
+            DocumentType docType = new DocumentTypeImpl(superType,
+                    dtd.name, schemaNames.toArray(new String[0]),
+                    dtd.facets);
+            docType.setChildrenTypes(dtd.childrenTypes);
+            // use global prefetch info if not a local one was defined
+            docType.setPrefetchInfo(dtd.prefetch != null ? new PrefetchInfo(
+                    dtd.prefetch) : prefetchInfo);
+            Registry reg = copyRegistry();
+            reg.docTypes.put(dtd.name, docType);
+            publish(reg);
+            log.info("Registered document type: " + dtd.name);
+            registerPendingDocTypes(docType);
+            return docType;
+        } catch (Exception e) {
+            log.error("Error registering document type: " + dtd.name, e);
+            // TODO: use component dependencies instead?
         }
+        return null;
     }
 
     private void registerPendingDocTypes(DocumentType superType) {
@@ -351,43 +404,15 @@ public class SchemaManagerImpl implements SchemaManager {
         }
     }
 
-    private void removeFromFacetsCache(DocumentType docType) {
-        if (facetsCache == null) {
-            return;
-        }
-        String name = docType.getName();
-        for (String facet : docType.getFacets()) {
-            Set<String> types = facetsCache.get(facet);
-            types.remove(name);
-            if (types.isEmpty()) {
-                facetsCache.remove(facet); // Consistency
-            }
-        }
-    }
-
-    private void removeFromInheritanceCache(DocumentType docType) {
-        String name = docType.getName();
-        for (String type : inheritanceCache.keySet()) {
-            Set<String> types = inheritanceCache.get(type);
-            types.remove(name);
-        }
-        // The only case where an entry becomes empty.
-        inheritanceCache.remove(name);
-    }
-
     @Override
-    public DocumentType unregisterDocumentType(String name) {
+    public synchronized DocumentType unregisterDocumentType(String name) {
         log.info("Unregister document type: " + name);
         // TODO handle the case when the doctype to unreg is in the reg.
         // pending queue
-        synchronized (docTypeReg) {
-            DocumentType docType = docTypeReg.remove(name);
-            if (docType != null) {
-                removeFromFacetsCache(docType);
-                removeFromInheritanceCache(docType);
-            }
-            return docType;
-        }
+        Registry reg = copyRegistry();
+        DocumentType docType = reg.docTypes.remove(name);
+        publish(reg);
+        return docType;
     }
 
     private void postponeDocTypeRegistration(DocumentTypeDescriptor dtd) {
@@ -401,32 +426,26 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public DocumentType getDocumentType(String name) {
-        synchronized (docTypeReg) {
-            return docTypeReg.get(name);
-        }
+        return registry.docTypes.get(name);
     }
 
     @Override
     public DocumentType[] getDocumentTypes() {
-        synchronized (docTypeReg) {
-            return docTypeReg.values().toArray(
-                    new DocumentType[docTypeReg.size()]);
-        }
+        Map<String, DocumentType> docTypes = registry.docTypes;
+        return docTypes.values().toArray(new DocumentType[docTypes.size()]);
     }
 
     @Override
     public int getDocumentTypesCount() {
-        synchronized (docTypeReg) {
-            return docTypeReg.size();
-        }
+        return registry.docTypes.size();
     }
 
     @Override
-    public void registerFacet(CompositeType facet) {
-        synchronized (facetReg) {
-            facetReg.put(facet.getName(), facet);
-            log.info("Registered facet: " + facet.getName());
-        }
+    public synchronized void registerFacet(CompositeType facet) {
+        Registry reg = copyRegistry();
+        reg.facets.put(facet.getName(), facet);
+        publish(reg);
+        log.info("Registered facet: " + facet.getName());
     }
 
     public void registerFacet(FacetDescriptor fd) {
@@ -437,42 +456,30 @@ public class SchemaManagerImpl implements SchemaManager {
     }
 
     @Override
-    public CompositeType unregisterFacet(String name) {
-        synchronized (facetReg) {
-            log.info("Unregistered facet: " + name);
-            return facetReg.remove(name);
-        }
+    public synchronized CompositeType unregisterFacet(String name) {
+        log.info("Unregistered facet: " + name);
+        Registry reg = copyRegistry();
+        CompositeType facet = reg.facets.remove(name);
+        publish(reg);
+        return facet;
     }
 
     @Override
     public CompositeType getFacet(String name) {
-        synchronized (facetReg) {
-            return facetReg.get(name);
-        }
+        return registry.facets.get(name);
     }
 
     @Override
     public CompositeType[] getFacets() {
-        synchronized (facetReg) {
-            return facetReg.values().toArray(new CompositeType[facetReg.size()]);
-        }
+        Map<String, CompositeType> facets = registry.facets;
+        return facets.values().toArray(new CompositeType[facets.size()]);
     }
 
     // Misc
 
     @Override
-    public void clear() {
-        synchronized (docTypeReg) {
-            docTypeReg.clear();
-            if (facetsCache != null) {
-                facetsCache.clear();
-            }
-        }
-        synchronized (schemaReg) {
-            schemaReg.clear();
-        }
-        typeReg.clear();
-        facetReg.clear();
+    public synchronized void clear() {
+        publish(new Registry());
     }
 
     public void setSchemaDirectory(File dir) {
@@ -504,71 +511,61 @@ public class SchemaManagerImpl implements SchemaManager {
      */
     @Override
     public Set<String> getDocumentTypeNamesForFacet(String facet) {
-        if (facetsCache == null) {
-            initFacetsCache();
-        }
-        return facetsCache.get(facet);
-    }
-
-    private void initFacetsCache() {
-        if (facetsCache != null) {
-            // another thread just did it
-            return;
-        }
-        synchronized (this) {
-            facetsCache = new HashMap<String, Set<String>>();
-            for (DocumentType dt : getDocumentTypes()) {
-                for (String facet : dt.getFacets()) {
-                    Set<String> dts = facetsCache.get(facet);
+        Registry reg = registry;
+        Map<String, Set<String>> typesByFacet = reg.typesByFacet;
+        if (typesByFacet == null) {
+            // several threads may compute it concurrently, which is harmless
+            typesByFacet = new HashMap<String, Set<String>>();
+            for (DocumentType dt : reg.docTypes.values()) {
+                for (String f : dt.getFacets()) {
+                    Set<String> dts = typesByFacet.get(f);
                     if (dts == null) {
                         dts = new HashSet<String>();
-                        facetsCache.put(facet, dts);
+                        typesByFacet.put(f, dts);
                     }
                     dts.add(dt.getName());
                 }
             }
+            reg.typesByFacet = typesByFacet;
         }
+        return typesByFacet.get(facet);
     }
 
     /**
-     * Implementation details: there is a cache on each server for this Assumes
-     * that types never change in the lifespan of this server process and that
-     * the Core server has finished loading its types.
+     * Implementation details: the result is cached in the current snapshot of
+     * the registries, and recomputed after a document type registration.
      * <p>
      * This is tested in nuxeo-core and SearchBackendTestCase (hence compass
      * plugin).
      */
     @Override
     public Set<String> getDocumentTypeNamesExtending(String docTypeName) {
-        Set<String> res = inheritanceCache.get(docTypeName);
+        return getDocumentTypeNamesExtending(registry, docTypeName);
+    }
+
+    protected static Set<String> getDocumentTypeNamesExtending(Registry reg,
+            String docTypeName) {
+        Set<String> res = reg.inheritance.get(docTypeName);
         if (res != null) {
             return res;
         }
-        synchronized (inheritanceCache) {
-            // recheck in case another thread just did it
-            res = inheritanceCache.get(docTypeName);
-            if (res != null) {
-                return res;
-            }
-
-            if (getDocumentType(docTypeName) == null) {
-                return null;
+        if (!reg.docTypes.containsKey(docTypeName)) {
+            return null;
+        }
+        res = new HashSet<String>();
+        res.add(docTypeName);
+        for (DocumentType dt : reg.docTypes.values()) {
+            Type parent = dt.getSuperType();
+            if (parent == null) {
+                // Must be the root document
+                continue;
             }
-            res = new HashSet<String>();
-            res.add(docTypeName);
-            for (DocumentType dt : getDocumentTypes()) {
-                Type parent = dt.getSuperType();
-                if (parent == null) {
-                    // Must be the root document
-                    continue;
-                }
-                if (docTypeName.equals(parent.getName())) {
-                    res.addAll(getDocumentTypeNamesExtending(dt.getName()));
-                }
+            if (docTypeName.equals(parent.getName())) {
+                res.addAll(getDocumentTypeNamesExtending(reg, dt.getName()));
             }
-            inheritanceCache.put(docTypeName, res);
-            return res;
         }
+        Set<String> old = reg.inheritance.putIfAbsent(docTypeName, res);
+        return old == null ? res : old;
     }
 
     @Override
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.schema;
+
+import static org.apache.commons.lang.ObjectUtils.NULL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class TestPrefetch {
+
+    protected static Prefetch prefetch(String title) {
+        Prefetch prefetch = new Prefetch();
+        prefetch.put("dc:title", "dublincore", "title", title);
+        prefetch.put("dc:description", "dublincore", "description", null);
+        prefetch.put("common:icon", "common", "icon", "icon.png");
+        prefetch.put("ecm:foo/0/bar", null, null, "x");
+        prefetch.trimToSize();
+        return prefetch;
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        Prefetch prefetch = prefetch("foo");
+        assertFalse(prefetch.isEmpty());
+        assertEquals("foo", prefetch.get("dc:title"));
+        assertEquals("foo", prefetch.get("dublincore", "title"));
+        assertTrue(prefetch.isPrefetched("dc:description"));
+        assertNull(prefetch.get("dc:description"));
+        assertEquals("x", prefetch.get("ecm:foo/bar[0]"));
+        assertSame(NULL, prefetch.get("dc:nosuchprop"));
+        assertSame(NULL, prefetch.get("nosuchschema", "title"));
+        assertFalse(prefetch.isPrefetched("dublincore", "nosuchprop"));
+
+        prefetch.clearPrefetch("dublincore");
+        assertFalse(prefetch.isPrefetched("dc:title"));
+        assertFalse(prefetch.isPrefetched("dublincore", "description"));
+        assertEquals("icon.png", prefetch.get("common", "icon"));
+        assertFalse(prefetch.isEmpty());
+        prefetch.clearPrefetch("common");
+        assertFalse(prefetch.isEmpty()); // ecm:foo has no schema
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        Prefetch prefetch = new Prefetch();
+        assertTrue(prefetch.isEmpty());
+        assertSame(NULL, prefetch.get("dc:title"));
+        prefetch.clearPrefetch("dublincore");
+        prefetch.put("dc:title", "dublincore", "title", "foo");
+        prefetch.clearPrefetch("dublincore");
+        assertTrue(prefetch.isEmpty());
+    }
+
+    @Test
+    public void testSharedLayout() throws Exception {
+        Prefetch p1 = prefetch("foo");
+        Prefetch p2 = prefetch("bar");
+        assertSame(p1.layout, p2.layout);
+        assertEquals(4, p1.values.length);
+        assertEquals("foo", p1.get("dc:title"));
+        assertEquals("bar", p2.get("dc:title"));
+        // clearing one doesn't affect the other
+        p1.clearPrefetch("dublincore");
+        assertEquals("bar", p2.get("dc:title"));
+
+        // other keys give another layout
+        Prefetch p3 = new Prefetch();
+        p3.put("dc:title", "dublincore", "title", "baz");
+        p3.put("dc:creator", "dublincore", "creator", "bob");
+        assertNotSame(p1.layout, p3.layout);
+        assertEquals("baz", p3.get("dc:title"));
+        assertEquals("bob", p3.get("dublincore", "creator"));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        Prefetch prefetch = prefetch("foo");
+        prefetch.clearPrefetch("common");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(prefetch);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+                baos.toByteArray()));
+        Prefetch res = (Prefetch) ois.readObject();
+        assertEquals("foo", res.get("dublincore", "title"));
+        assertTrue(res.isPrefetched("dc:description"));
+        assertFalse(res.isPrefetched("common:icon"));
+        // still usable
+        res.put("dc:creator", "dublincore", "creator", "bob");
+        assertEquals("bob", res.get("dc:creator"));
+    }
+
+}
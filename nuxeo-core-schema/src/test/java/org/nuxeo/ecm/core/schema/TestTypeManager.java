@@ -15,19 +15,27 @@
 package org.nuxeo.ecm.core.schema;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.nuxeo.ecm.core.schema.types.Schema;
+import org.nuxeo.ecm.core.schema.types.SchemaImpl;
 import org.nuxeo.ecm.core.schema.types.Type;
+import org.nuxeo.ecm.core.schema.types.primitives.StringType;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
 public class TestTypeManager extends NXRuntimeTestCase {
 
+    private static final Log log = LogFactory.getLog(TestTypeManager.class);
+
     SchemaManagerImpl typeManager;
 
     @Before
@@ -226,4 +234,65 @@ public class TestTypeManager extends NXRuntimeTestCase {
         checkInheritanceCache();
     }
 
+    /*
+     * Lookups don't block and see consistent registries while types are
+     * being registered.
+     */
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        Schema schema = new SchemaImpl("myschema", new Namespace(
+                "http://example.com/my", "my"));
+        schema.addField("title", StringType.INSTANCE.getRef());
+        typeManager.registerSchema(schema);
+        SchemaDescriptor[] schemas = new SchemaDescriptor[0];
+        typeManager.registerDocumentType(new DocumentTypeDescriptor(
+                TypeConstants.DOCUMENT, "Parent", schemas, new String[0]));
+
+        final int nThreads = 8;
+        final long duration = 500; // ms
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        long end = System.currentTimeMillis() + duration;
+                        long n = 0;
+                        while (System.currentTimeMillis() < end) {
+                            for (int j = 0; j < 1000; j++) {
+                                assertNotNull(typeManager.getField("my:title"));
+                                assertNotNull(typeManager.getDocumentType("Parent"));
+                                assertTrue(typeManager.getDocumentTypeNamesExtending(
+                                        "Document").contains("Parent"));
+                            }
+                            n += 1000;
+                        }
+                        lookups.addAndGet(n);
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        // registrations while reading
+        for (int i = 0; i < 50; i++) {
+            typeManager.registerDocumentType(new DocumentTypeDescriptor(
+                    "Parent", "Child" + i, schemas, new String[0]));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals(52, typeManager.getDocumentTypeNamesExtending("Document").size());
+        log.info(String.format("%d threads: %.0f lookups/s", nThreads,
+                lookups.get() * 1000.0 / duration));
+    }
+
 }
@@ -32,13 +32,13 @@ public class DerbyFunctions extends EmbeddedFunctions {
 
     public static short isAccessAllowedString(String id, String principals,
             String permissions) throws SQLException {
-        return isAccessAllowed(id, split(principals), split(permissions)) ? (short) 1
+        return isAccessAllowed(id, principals, permissions) ? (short) 1
                 : (short) 0;
     }
 
     public static short isAccessAllowedLong(Long id, String principals,
             String permissions) throws SQLException {
-        return isAccessAllowed(id, split(principals), split(permissions)) ? (short) 1
+        return isAccessAllowed(id, principals, permissions) ? (short) 1
                 : (short) 0;
     }
 
@@ -21,8 +21,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
@@ -227,6 +230,312 @@ public class EmbeddedFunctions {
         }
     }
 
+    /**
+     * The memoized access checks of the statement currently executing in this
+     * thread, see {@link #prepareAccessChecks}.
+     */
+    protected static final ThreadLocal<AccessChecks> accessChecks = new ThreadLocal<AccessChecks>();
+
+    /**
+     * Starts a new scope for memoized access checks in the current thread.
+     * <p>
+     * Called by the mapper just before running a query that checks access on
+     * each document, the following calls to
+     * {@link #isAccessAllowed(Connection, Serializable, String, String)} for
+     * the same principals then share their decisions until the next call.
+     * Embedded databases evaluate the functions in the thread executing the
+     * statement, so the scope is that of a single query. The mapper ends it
+     * once the query is done by calling this with {@code null} principals, or
+     * at the end of the transaction if the query result was not closed in its
+     * thread. A scope used from another database session than the one it was
+     * first used with is dropped.
+     *
+     * @param principals the principals of the query, separated by {@code |},
+     *            or {@code null} to end the current scope
+     */
+    public static void prepareAccessChecks(String principals) {
+        AccessChecks checks = accessChecks.get();
+        if (checks != null) {
+            checks.closeStatements();
+        }
+        if (principals == null) {
+            accessChecks.remove();
+        } else {
+            accessChecks.set(new AccessChecks(principals));
+        }
+    }
+
+    /**
+     * Checks if access to a document is allowed, using the default connection.
+     * <p>
+     * Decisions are memoized if a scope was started for these principals by
+     * {@link #prepareAccessChecks}.
+     *
+     * @param id the id of the document
+     * @param principals the allowed identities, separated by {@code |}
+     * @param permissions the allowed permissions, separated by {@code |}
+     */
+    public static boolean isAccessAllowed(Serializable id, String principals,
+            String permissions) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:default:connection");
+        try {
+            return isAccessAllowed(conn, id, principals, permissions);
+        } finally {
+            AccessChecks checks = accessChecks.get();
+            if (checks != null) {
+                // statements don't outlive the default connection
+                checks.closeStatements();
+            }
+            conn.close();
+        }
+    }
+
+    /**
+     * Checks if access to a document is allowed.
+     * <p>
+     * Decisions are memoized if a scope was started for these principals by
+     * {@link #prepareAccessChecks}, in which case the statements used are also
+     * kept for the next calls.
+     *
+     * @param conn the database connection
+     * @param id the id of the document
+     * @param principals the allowed identities, separated by {@code |}
+     * @param permissions the allowed permissions, separated by {@code |}
+     */
+    public static boolean isAccessAllowed(Connection conn, Serializable id,
+            String principals, String permissions) throws SQLException {
+        return isAccessAllowed(conn, null, id, principals, permissions);
+    }
+
+    /**
+     * Checks if access to a document is allowed, the memoized decisions being
+     * only used for the database session they were started with.
+     *
+     * @param conn the database connection
+     * @param session the database session of the connection, or {@code null}
+     *            if it cannot be known, in which case the scope is trusted to
+     *            be ended by the mapper
+     * @param id the id of the document
+     * @param principals the allowed identities, separated by {@code |}
+     * @param permissions the allowed permissions, separated by {@code |}
+     */
+    protected static boolean isAccessAllowed(Connection conn, Object session,
+            Serializable id, String principals, String permissions)
+            throws SQLException {
+        AccessChecks checks = accessChecks.get();
+        if (checks != null && !checks.bind(session)) {
+            // left over from a query on another connection of this thread,
+            // its decisions and statements are stale
+            checks.closeStatements();
+            accessChecks.remove();
+            checks = null;
+        }
+        if (checks == null || !checks.principals.equals(principals)) {
+            return isAccessAllowed(conn, id, split(principals),
+                    split(permissions));
+        }
+        return checks.isAccessAllowed(conn, id, permissions);
+    }
+
+    /**
+     * Access checks memoized for one set of principals.
+     * <p>
+     * The decision inherited from each ancestor is remembered, so that once a
+     * document has been checked its siblings only need to look at their own
+     * ACLs. Each level of the hierarchy is read with a single statement.
+     */
+    protected static class AccessChecks {
+
+        /** Maximum number of memoized decisions before starting over. */
+        private static final int MAX_SIZE = 10000;
+
+        private static final String SELECT_LEVEL = "SELECT H.PARENTID, A.\"GRANT\", A.\"PERMISSION\", A.\"USER\""
+                + " FROM HIERARCHY H LEFT OUTER JOIN \"ACLS\" A ON A.ID = H.ID"
+                + " WHERE H.ID = ? ORDER BY A.POS";
+
+        private static final String SELECT_VERSIONABLE = "SELECT VERSIONABLEID FROM VERSIONS WHERE ID = ?";
+
+        protected final String principals;
+
+        protected final Set<String> principalsSet;
+
+        protected String permissions;
+
+        protected Set<String> permissionsSet;
+
+        /** Decisions for the checked documents themselves. */
+        protected final Map<Serializable, Boolean> allowed = new HashMap<Serializable, Boolean>();
+
+        /** Decisions inherited by the children of the ancestors. */
+        protected final Map<Serializable, Boolean> inherited = new HashMap<Serializable, Boolean>();
+
+        protected PreparedStatement levelPs;
+
+        protected PreparedStatement versionablePs;
+
+        /** Parent id of the last level read. */
+        protected Serializable parentId;
+
+        /** The database session of the first check, once known. */
+        protected Object session;
+
+        public AccessChecks(String principals) {
+            this.principals = principals;
+            principalsSet = split(principals);
+        }
+
+        /**
+         * Binds these checks to the database session of the first check.
+         *
+         * @return {@code false} if they are bound to another session
+         */
+        public boolean bind(Object session) {
+            if (session == null) {
+                return true;
+            }
+            if (this.session == null) {
+                this.session = session;
+            }
+            return this.session == session;
+        }
+
+        public boolean isAccessAllowed(Connection conn, Serializable id,
+                String permissions) throws SQLException {
+            if (!permissions.equals(this.permissions)) {
+                this.permissions = permissions;
+                permissionsSet = split(permissions);
+                allowed.clear();
+                inherited.clear();
+            }
+            Boolean decision = allowed.get(id);
+            if (decision != null) {
+                return decision.booleanValue();
+            }
+            decision = readLevel(conn, id);
+            if (decision == null) {
+                Serializable pid = parentId;
+                if (pid == null) {
+                    // we may have a version on our hands, find the live doc
+                    pid = getVersionableId(conn, id);
+                }
+                decision = pid == null ? Boolean.FALSE : getInherited(conn,
+                        pid);
+            }
+            if (allowed.size() >= MAX_SIZE) {
+                allowed.clear();
+            }
+            allowed.put(id, decision);
+            if (isLogEnabled()) {
+                logDebug("isAccessAllowed " + id + " " + principals + " "
+                        + permissions + " => " + decision);
+            }
+            return decision.booleanValue();
+        }
+
+        /**
+         * Gets the decision for an ancestor, walking up until a memoized or
+         * conclusive level is found, and memoizes it for the whole path.
+         */
+        protected Boolean getInherited(Connection conn, Serializable id)
+                throws SQLException {
+            List<Serializable> path = new LinkedList<Serializable>();
+            Boolean decision;
+            while (true) {
+                decision = inherited.get(id);
+                if (decision != null) {
+                    break;
+                }
+                path.add(id);
+                decision = readLevel(conn, id);
+                if (decision != null) {
+                    break;
+                }
+                id = parentId;
+                if (id == null) {
+                    // we reached the root, deny access
+                    decision = Boolean.FALSE;
+                    break;
+                }
+            }
+            if (inherited.size() + path.size() > MAX_SIZE) {
+                inherited.clear();
+            }
+            for (Serializable pid : path) {
+                inherited.put(pid, decision);
+            }
+            return decision;
+        }
+
+        /**
+         * Reads the ACLs and parent of a document.
+         *
+         * @return the decision at this level, or {@code null} if nothing
+         *         conclusive was found, in which case {@link #parentId} is set
+         */
+        protected Boolean readLevel(Connection conn, Serializable id)
+                throws SQLException {
+            if (levelPs == null) {
+                levelPs = conn.prepareStatement(SELECT_LEVEL);
+            }
+            levelPs.setObject(1, id);
+            ResultSet rs = levelPs.executeQuery();
+            try {
+                parentId = null;
+                while (rs.next()) {
+                    parentId = (Serializable) rs.getObject(1);
+                    String user = rs.getString(4);
+                    if (user == null) {
+                        // no ACLs at this level
+                        continue;
+                    }
+                    boolean grant = rs.getShort(2) != 0;
+                    String permission = rs.getString(3);
+                    if (principalsSet.contains(user)
+                            && permissionsSet.contains(permission)) {
+                        return Boolean.valueOf(grant);
+                    }
+                }
+                return null;
+            } finally {
+                rs.close();
+            }
+        }
+
+        protected Serializable getVersionableId(Connection conn,
+                Serializable id) throws SQLException {
+            if (versionablePs == null) {
+                versionablePs = conn.prepareStatement(SELECT_VERSIONABLE);
+            }
+            versionablePs.setObject(1, id);
+            ResultSet rs = versionablePs.executeQuery();
+            try {
+                if (rs.next()) {
+                    return (Serializable) rs.getObject(1);
+                }
+                // no such id
+                return null;
+            } finally {
+                rs.close();
+            }
+        }
+
+        public void closeStatements() {
+            levelPs = close(levelPs);
+            versionablePs = close(versionablePs);
+        }
+
+        protected static PreparedStatement close(PreparedStatement ps) {
+            if (ps != null) {
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                    // the connection may already be gone, ignore
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Extracts the words from a string for simple fulltext indexing.
      *
@@ -356,7 +665,7 @@ public class EmbeddedFunctions {
         return set;
     }
 
-    private static final String join(Collection<String> strings, char sep) {
+    protected static final String join(Collection<String> strings, char sep) {
         if (strings == null || strings.isEmpty()) {
             return "";
         }
@@ -23,12 +23,16 @@ import java.sql.Types;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -38,14 +42,14 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Hit;
+import org.apache.lucene.search.Hits;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Searcher;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.h2.api.CloseListener;
 import org.h2.message.Message;
 import org.h2.store.fs.FileSystem;
 import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
 import org.h2.util.IOUtils;
 import org.h2.util.StringUtils;
 import org.h2.value.DataType;
@@ -58,8 +62,24 @@ import org.h2.value.DataType;
  */
 public class H2Fulltext {
 
+    private static final Log log = LogFactory.getLog(H2Fulltext.class);
+
     private static final Map<String, IndexWriter> indexWriters = new ConcurrentHashMap<String, IndexWriter>();
 
+    /** Searchers shared between searches, by index path. */
+    private static final Map<String, SharedSearcher> searchers = new HashMap<String, SharedSearcher>();
+
+    /** Incremented each time an index is written to, by index path. */
+    private static final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Index definitions, by database URL and index name. */
+    private static final Map<String, IndexInfo> indexInfos = new ConcurrentHashMap<String, IndexInfo>();
+
+    /** Index paths, by database URL. */
+    private static final Map<String, String> indexPaths = new ConcurrentHashMap<String, String>();
+
+    private static final Map<String, Analyzer> analyzers = new ConcurrentHashMap<String, Analyzer>();
+
     private static final String FT_SCHEMA = "NXFT";
 
     private static final String FT_TABLE = FT_SCHEMA + ".INDEXES";
@@ -74,6 +94,9 @@ public class H2Fulltext {
 
     private static final String COL_KEY = "KEY";
 
+    /** URL of the connection used by H2 to find a function's columns. */
+    private static final String COLUMNLIST_URL_PREFIX = "jdbc:columnlist:";
+
     // Utility class.
     private H2Fulltext() {
     }
@@ -173,6 +196,7 @@ public class H2Fulltext {
         ps.setString(5, analyzer);
         ps.execute();
         ps.close();
+        clearIndexInfos();
         createTrigger(conn, schema, table);
     }
 
@@ -180,6 +204,7 @@ public class H2Fulltext {
      * Re-creates the fulltext index for this database.
      */
     public static void reindex(Connection conn) throws SQLException {
+        clearIndexInfos();
         removeAllTriggers(conn);
         removeIndexFiles(conn);
         Statement st = conn.createStatement();
@@ -268,6 +293,7 @@ public class H2Fulltext {
         Statement st = conn.createStatement();
         st.execute("DROP SCHEMA IF EXISTS " + FT_SCHEMA);
         st.close();
+        clearIndexInfos();
         removeAllTriggers(conn);
         removeIndexFiles(conn);
     }
@@ -289,63 +315,151 @@ public class H2Fulltext {
      * <pre>
      *   SELECT * FROM NXFT_SEARCH(name, 'text');
      * </pre>
+     * <p>
+     * The searcher is shared between calls and only reopened when the index
+     * has changed since it was last opened. The hits are read lazily as the
+     * result set is consumed.
      *
      * @param conn the connection
      * @param indexName the index name
      * @param text the search query
      * @return the result set
      */
-    @SuppressWarnings("unchecked")
     public static ResultSet search(Connection conn, String indexName,
             String text) throws SQLException {
         DatabaseMetaData meta = conn.getMetaData();
         if (indexName == null) {
             indexName = DEFAULT_INDEX_NAME;
         }
+        String url = meta.getURL();
+        IndexInfo info = getIndexInfo(conn, url, indexName);
+
+        if (url.startsWith(COLUMNLIST_URL_PREFIX)) {
+            // this is just to query the result set columns
+            SimpleResultSet rs = new SimpleResultSet();
+            rs.addColumn(COL_KEY, info.primaryKeyType, 0, 0);
+            return rs;
+        }
+
+        String indexPath = getIndexPath(conn, url);
+        SharedSearcher searcher = null;
+        try {
+            BooleanQuery query = new BooleanQuery();
+            QueryParser parser = new QueryParser(fieldForIndex(indexName),
+                    getAnalyzer(info.analyzer));
+            query.add(parser.parse(text), BooleanClause.Occur.MUST);
+
+            searcher = getSearcher(indexPath, info.analyzer);
+            Hits hits = searcher.searcher.search(query);
+            SimpleResultSet rs = new SimpleResultSet(new HitsRowSource(
+                    searcher, hits, info.primaryKeyType));
+            rs.addColumn(COL_KEY, info.primaryKeyType, 0, 0);
+            return rs;
+        } catch (Exception e) {
+            if (searcher != null) {
+                searcher.release();
+            }
+            throw convertException(e);
+        }
+    }
 
+    /**
+     * Gets the table and analyzer of an index, and the type of the table's
+     * primary key, from the cache or from the database.
+     */
+    private static IndexInfo getIndexInfo(Connection conn, String url,
+            String indexName) throws SQLException {
+        // the column list URL is the same for all databases, don't cache it
+        String key = url.startsWith(COLUMNLIST_URL_PREFIX) ? null : url
+                + ' ' + indexName;
+        IndexInfo info = key == null ? null : indexInfos.get(key);
+        if (info != null) {
+            return info;
+        }
         // find schema, table and analyzer
         PreparedStatement ps = conn.prepareStatement("SELECT SCHEMA, TABLE, ANALYZER FROM "
                 + FT_TABLE + " WHERE NAME = ?");
         ps.setString(1, indexName);
         ResultSet res = ps.executeQuery();
         if (!res.next()) {
+            ps.close();
             throw new SQLException("No such index: " + indexName);
         }
         String schema = res.getString(1);
         String table = res.getString(2);
         String analyzer = res.getString(3);
         ps.close();
+        int type = getPrimaryKeyType(conn.getMetaData(), schema, table);
+        info = new IndexInfo(analyzer, type);
+        if (key != null) {
+            indexInfos.put(key, info);
+        }
+        return info;
+    }
 
-        int type = getPrimaryKeyType(meta, schema, table);
-        SimpleResultSet rs = new SimpleResultSet();
-        rs.addColumn(COL_KEY, type, 0, 0);
+    /**
+     * Forgets all the cached index definitions, after they've been changed.
+     */
+    private static void clearIndexInfos() {
+        indexInfos.clear();
+    }
 
-        if (meta.getURL().startsWith("jdbc:columnlist:")) {
-            // this is just to query the result set columns
-            return rs;
+    /**
+     * Gets a searcher for the index, reopening it if documents have been
+     * indexed since it was opened. The searcher must be released by the
+     * caller.
+     */
+    private static SharedSearcher getSearcher(String indexPath,
+            String analyzer) throws SQLException, IOException {
+        synchronized (searchers) {
+            // read before flushing, later changes will cause a reopen
+            long generation = getGeneration(indexPath).get();
+            SharedSearcher searcher = searchers.get(indexPath);
+            if (searcher == null || searcher.generation != generation) {
+                getIndexWriter(indexPath, analyzer).flush();
+                IndexReader reader;
+                if (searcher == null) {
+                    reader = IndexReader.open(indexPath);
+                } else {
+                    reader = searcher.reader.reopen();
+                }
+                if (searcher != null && reader == searcher.reader) {
+                    // nothing actually committed
+                    searcher.generation = generation;
+                } else {
+                    SharedSearcher old = searcher;
+                    searcher = new SharedSearcher(reader, generation);
+                    searchers.put(indexPath, searcher);
+                    if (old != null) {
+                        old.release();
+                    }
+                }
+            }
+            searcher.acquire();
+            return searcher;
         }
+    }
 
-        String indexPath = getIndexPath(conn);
-        try {
-            BooleanQuery query = new BooleanQuery();
-            QueryParser parser = new QueryParser(fieldForIndex(indexName),
-                    getAnalyzer(analyzer));
-            query.add(parser.parse(text), BooleanClause.Occur.MUST);
+    private static void closeSearcher(String indexPath) {
+        SharedSearcher searcher;
+        synchronized (searchers) {
+            searcher = searchers.remove(indexPath);
+        }
+        if (searcher != null) {
+            searcher.release();
+        }
+    }
 
-            getIndexWriter(indexPath, analyzer).flush();
-            Searcher searcher = new IndexSearcher(indexPath);
-            Iterator<Hit> it = searcher.search(query).iterator();
-            for (; it.hasNext();) {
-                Hit hit = it.next();
-                Object key = asObject(hit.get(FIELD_KEY), type);
-                rs.addRow(new Object[] { key });
+    private static AtomicLong getGeneration(String indexPath) {
+        AtomicLong generation = generations.get(indexPath);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong();
+            generation = generations.putIfAbsent(indexPath, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
             }
-            // TODO keep it open if possible
-            searcher.close();
-        } catch (Exception e) {
-            throw convertException(e);
         }
-        return rs;
+        return generation;
     }
 
     private static int getPrimaryKeyType(DatabaseMetaData meta, String schema,
@@ -378,11 +492,26 @@ public class H2Fulltext {
     }
 
     private static Analyzer getAnalyzer(String analyzer) throws SQLException {
-        try {
-            return (Analyzer) Class.forName(analyzer).newInstance();
-        } catch (Exception e) {
-            throw new SQLException(e.toString());
+        Analyzer a = analyzers.get(analyzer);
+        if (a == null) {
+            try {
+                a = (Analyzer) Class.forName(analyzer).newInstance();
+            } catch (Exception e) {
+                throw new SQLException(e.toString());
+            }
+            analyzers.put(analyzer, a);
+        }
+        return a;
+    }
+
+    private static String getIndexPath(Connection conn, String url)
+            throws SQLException {
+        String path = indexPaths.get(url);
+        if (path == null) {
+            path = getIndexPath(conn);
+            indexPaths.put(url, path);
         }
+        return path;
     }
 
     private static String getIndexPath(Connection conn) throws SQLException {
@@ -409,10 +538,8 @@ public class H2Fulltext {
                         indexWriter = new IndexWriter(indexPath,
                                 getAnalyzer(analyzer), recreate);
                     } catch (LockObtainFailedException e) {
-                        // log.error("Cannot open fulltext index", e);
-                        System.err.println("Cannot open fulltext index "
-                                + indexPath);
-                        e.printStackTrace();
+                        log.error("Cannot open fulltext index " + indexPath,
+                                e);
                         throw convertException(e);
                     } catch (IOException e) {
                         throw convertException(e);
@@ -426,6 +553,7 @@ public class H2Fulltext {
 
     private static void removeIndexFiles(Connection conn) throws SQLException {
         String path = getIndexPath(conn);
+        closeSearcher(path);
         IndexWriter index = indexWriters.remove(path);
         if (index != null) {
             try {
@@ -513,6 +641,113 @@ public class H2Fulltext {
         }
     }
 
+    /**
+     * Cached definition of an index.
+     */
+    private static class IndexInfo {
+
+        private final String analyzer;
+
+        private final int primaryKeyType;
+
+        private IndexInfo(String analyzer, int primaryKeyType) {
+            this.analyzer = analyzer;
+            this.primaryKeyType = primaryKeyType;
+        }
+    }
+
+    /**
+     * A searcher shared by concurrent searches. The reader is closed when the
+     * searcher has been replaced in the cache and no search uses it anymore.
+     */
+    private static class SharedSearcher {
+
+        private final IndexReader reader;
+
+        private final IndexSearcher searcher;
+
+        /** Index generation when the reader was last known to be current. */
+        private long generation;
+
+        /** One reference is held by the cache. */
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private SharedSearcher(IndexReader reader, long generation) {
+            this.reader = reader;
+            this.generation = generation;
+            searcher = new IndexSearcher(reader);
+        }
+
+        private void acquire() {
+            refCount.incrementAndGet();
+        }
+
+        private void release() {
+            if (refCount.decrementAndGet() == 0) {
+                try {
+                    searcher.close();
+                    reader.close();
+                } catch (IOException e) {
+                    log.error("Cannot close fulltext searcher", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the hits as the result set is read, and releases the
+     * searcher when done.
+     */
+    private static class HitsRowSource implements SimpleRowSource {
+
+        private SharedSearcher searcher;
+
+        private final Hits hits;
+
+        private final int primaryKeyType;
+
+        private int next;
+
+        private HitsRowSource(SharedSearcher searcher, Hits hits,
+                int primaryKeyType) {
+            this.searcher = searcher;
+            this.hits = hits;
+            this.primaryKeyType = primaryKeyType;
+        }
+
+        @Override
+        public Object[] readRow() throws SQLException {
+            if (searcher == null || next >= hits.length()) {
+                close();
+                return null;
+            }
+            String key;
+            try {
+                key = hits.doc(next++).get(FIELD_KEY);
+            } catch (IOException e) {
+                close();
+                throw convertException(e);
+            }
+            return new Object[] { asObject(key, primaryKeyType) };
+        }
+
+        @Override
+        public void reset() throws SQLException {
+            if (searcher == null) {
+                throw new SQLException("Fulltext result set is closed");
+            }
+            next = 0;
+        }
+
+        @Override
+        public void close() {
+            if (searcher != null) {
+                searcher.release();
+                searcher = null;
+            }
+        }
+    }
+
     /**
      * Trigger used to update the lucene index upon row change.
      */
@@ -522,6 +757,8 @@ public class H2Fulltext {
 
         private IndexWriter indexWriter;
 
+        private AtomicLong generation;
+
         /** Starting at 0. */
         private int primaryKeyIndex;
 
@@ -538,6 +775,7 @@ public class H2Fulltext {
         public void init(Connection conn, String schema, String triggerName,
                 String table, boolean before, int opType) throws SQLException {
             indexPath = getIndexPath(conn);
+            generation = getGeneration(indexPath);
             DatabaseMetaData meta = conn.getMetaData();
 
             // find primary key name
@@ -633,6 +871,8 @@ public class H2Fulltext {
             } catch (IOException e) {
                 throw convertException(e);
             }
+            // searchers opened before this must be reopened
+            generation.incrementAndGet();
         }
 
         private void insert(Object[] row) throws SQLException {
@@ -681,6 +921,7 @@ public class H2Fulltext {
                     indexWriter.close();
                     indexWriter = null;
                     indexWriters.remove(indexPath);
+                    closeSearcher(indexPath);
                 } catch (Exception e) {
                     throw convertException(e);
                 }
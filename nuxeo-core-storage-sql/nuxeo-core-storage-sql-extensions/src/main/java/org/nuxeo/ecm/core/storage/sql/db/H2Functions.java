@@ -13,6 +13,9 @@
 package org.nuxeo.ecm.core.storage.sql.db;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -20,11 +23,21 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.h2.jdbc.JdbcConnection;
 import org.h2.tools.SimpleResultSet;
 
 /**
@@ -57,12 +70,25 @@ public class H2Functions extends EmbeddedFunctions {
 
     public static boolean isAccessAllowedString(Connection conn, String id,
             String principals, String permissions) throws SQLException {
-        return isAccessAllowed(conn, id, split(principals), split(permissions));
+        return isAccessAllowed(conn, getSession(conn), id, principals,
+                permissions);
     }
 
     public static boolean isAccessAllowedLong(Connection conn, Long id,
             String principals, String permissions) throws SQLException {
-        return isAccessAllowed(conn, id, split(principals), split(permissions));
+        return isAccessAllowed(conn, getSession(conn), id, principals,
+                permissions);
+    }
+
+    /**
+     * Gets the session of a connection given to a function, the connection
+     * itself being a new object for each call.
+     */
+    protected static Object getSession(Connection conn) {
+        if (conn instanceof JdbcConnection) {
+            return ((JdbcConnection) conn).getSession();
+        }
+        return null;
     }
 
     /**
@@ -72,6 +98,7 @@ public class H2Functions extends EmbeddedFunctions {
     public static void clusterInvalidateString(Connection conn, String id,
             String fragments, int kind) throws SQLException {
         PreparedStatement ps = null;
+        PreparedStatement psi = null;
         try {
             // find other node ids
             String sql = "SELECT \"NODEID\" FROM \"CLUSTER_NODES\" "
@@ -88,25 +115,32 @@ public class H2Functions extends EmbeddedFunctions {
             if (isLogEnabled()) {
                 logDebug("  -> " + nodeIds);
             }
+            if (nodeIds.isEmpty()) {
+                return;
+            }
             // invalidate
             sql = "INSERT INTO \"CLUSTER_INVALS\" "
                     + "(\"NODEID\", \"ID\", \"FRAGMENTS\", \"KIND\") "
                     + "VALUES (?, ?, ?, ?)";
+            psi = conn.prepareStatement(sql);
             for (Long nodeId : nodeIds) {
                 if (isLogEnabled()) {
                     logDebug(sql, nodeId, id, fragments, kind);
                 }
-                ps = conn.prepareStatement(sql);
-                ps.setLong(1, nodeId);
-                ps.setObject(2, id);
-                ps.setString(3, fragments);
-                ps.setInt(4, kind);
-                ps.execute();
+                psi.setLong(1, nodeId);
+                psi.setObject(2, id);
+                psi.setString(3, fragments);
+                psi.setInt(4, kind);
+                psi.addBatch();
             }
+            psi.executeBatch();
         } finally {
             if (ps != null) {
                 ps.close();
             }
+            if (psi != null) {
+                psi.close();
+            }
         }
     }
 
@@ -141,11 +175,23 @@ public class H2Functions extends EmbeddedFunctions {
             if (isLogEnabled()) {
                 debugValues = new LinkedList<Serializable>();
             }
+            // coalesce the fragments invalidated for each id and kind, as a
+            // document touched by several transactions has several rows
+            Map<Long, Map<String, Set<String>>> invals = new TreeMap<Long, Map<String, Set<String>>>();
             while (rs.next()) {
                 String id = rs.getString(1);
                 String fragments = rs.getString(2);
-                long kind = rs.getLong(3);
-                result.addRow(new Object[] { id, fragments, Long.valueOf(kind) });
+                Long kind = Long.valueOf(rs.getLong(3));
+                Map<String, Set<String>> byId = invals.get(kind);
+                if (byId == null) {
+                    invals.put(kind,
+                            byId = new LinkedHashMap<String, Set<String>>());
+                }
+                Set<String> frags = byId.get(id);
+                if (frags == null) {
+                    byId.put(id, frags = new LinkedHashSet<String>());
+                }
+                frags.addAll(split(fragments, ' '));
                 if (debugValues != null) {
                     debugValues.add(id + ',' + fragments + ',' + kind);
                 }
@@ -153,6 +199,13 @@ public class H2Functions extends EmbeddedFunctions {
             if (debugValues != null) {
                 logDebug("  -> " + debugValues);
             }
+            for (Entry<Long, Map<String, Set<String>>> es : invals.entrySet()) {
+                Long kind = es.getKey();
+                for (Entry<String, Set<String>> en : es.getValue().entrySet()) {
+                    result.addRow(new Object[] { en.getKey(),
+                            join(en.getValue(), ' '), kind });
+                }
+            }
 
             // remove processed invalidations
             sql = "DELETE FROM \"CLUSTER_INVALS\" WHERE \"NODEID\" = SESSION_ID()";
@@ -334,4 +387,722 @@ public class H2Functions extends EmbeddedFunctions {
         return buf.toString();
     }
 
+    // ----- read acls -----
+
+    /** Separator between the entries of a read acl. */
+    protected static final char READ_ACL_SEP = '|';
+
+    /** Read acl of a document without any read permission. */
+    protected static final String EMPTY_READ_ACL = "_empty";
+
+    /** Max number of principals lists for which allowed acls are cached. */
+    protected static final int READ_ACLS_CACHE_MAX = 1000;
+
+    /**
+     * Whether read acl ids are allowed, by database URL and principals. The
+     * allowed state of a given acl never changes, as acl ids are digests of
+     * the acls, so these decisions stay valid whatever the transaction and
+     * never need to be invalidated. Which acl ids exist is not cached, as it
+     * depends on the transaction.
+     */
+    protected static final Map<String, Map<String, Boolean>> readAclDecisions = new ConcurrentHashMap<String, Map<String, Boolean>>();
+
+    /**
+     * Gets the read acls that allow access to the given principals.
+     * <p>
+     * Usually called through:
+     *
+     * <pre>
+     *   SELECT * FROM NX_GET_READ_ACLS_FOR(?)
+     * </pre>
+     *
+     * @param principals the principals, separated by |
+     * @return a result set with column ACL_ID
+     */
+    public static ResultSet getReadAclsFor(Connection conn, String principals)
+            throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        SimpleResultSet result = new SimpleResultSet();
+        result.addColumn("ACL_ID", Types.VARCHAR, 0, 0);
+        if (meta.getURL().startsWith("jdbc:columnlist:")) {
+            // this is just to query the result set columns
+            return result;
+        }
+        String key = meta.getURL() + ' ' + principals;
+        Map<String, Boolean> decisions = readAclDecisions.get(key);
+        if (decisions == null) {
+            if (readAclDecisions.size() >= READ_ACLS_CACHE_MAX) {
+                readAclDecisions.clear();
+            }
+            decisions = new ConcurrentHashMap<String, Boolean>();
+            readAclDecisions.put(key, decisions);
+        }
+        // the acl ids visible to this transaction
+        List<String> aclIds = new ArrayList<String>();
+        boolean unknown = false;
+        Statement st = conn.createStatement();
+        try {
+            String sql = "SELECT ACL_ID FROM ACLR";
+            if (isLogEnabled()) {
+                logDebug(sql);
+            }
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()) {
+                String aclId = rs.getString(1);
+                aclIds.add(aclId);
+                unknown = unknown || !decisions.containsKey(aclId);
+            }
+            if (unknown) {
+                // evaluate the acls not seen yet
+                Set<String> users = split(principals);
+                sql = "SELECT ACL_ID, ACL FROM ACLR";
+                if (isLogEnabled()) {
+                    logDebug(sql);
+                }
+                rs = st.executeQuery(sql);
+                while (rs.next()) {
+                    String aclId = rs.getString(1);
+                    if (!decisions.containsKey(aclId)) {
+                        decisions.put(aclId, Boolean.valueOf(isReadAclAllowed(
+                                rs.getString(2), users)));
+                    }
+                }
+            }
+        } finally {
+            st.close();
+        }
+        for (String aclId : aclIds) {
+            if (Boolean.TRUE.equals(decisions.get(aclId))) {
+                result.addRow(new Object[] { aclId });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a read acl allows access to the given principals. The first
+     * entry matching one of the principals decides.
+     */
+    protected static boolean isReadAclAllowed(String acl,
+            Set<String> principals) {
+        if (acl == null) {
+            return false;
+        }
+        int len = acl.length();
+        int start = 0;
+        while (start < len) {
+            int end = acl.indexOf(READ_ACL_SEP, start);
+            if (end == -1) {
+                end = len;
+            }
+            boolean deny = acl.charAt(start) == '-';
+            String user = acl.substring(deny ? start + 1 : start, end);
+            if (principals.contains(user)) {
+                return !deny;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Computes the read acls of the documents logged as modified since the
+     * last call.
+     * <p>
+     * Usually called through:
+     *
+     * <pre>
+     *   CALL NX_UPDATE_READ_ACLS()
+     * </pre>
+     */
+    public static void updateReadAcls(Connection conn) throws SQLException {
+        ReadAclsUpdater updater = new ReadAclsUpdater(conn);
+        try {
+            updater.update();
+        } finally {
+            updater.close();
+        }
+    }
+
+    /**
+     * Recomputes the read acls of all the documents.
+     * <p>
+     * Usually called through:
+     *
+     * <pre>
+     *   CALL NX_REBUILD_READ_ACLS()
+     * </pre>
+     */
+    public static void rebuildReadAcls(Connection conn) throws SQLException {
+        ReadAclsUpdater updater = new ReadAclsUpdater(conn);
+        try {
+            updater.rebuild();
+        } finally {
+            updater.close();
+        }
+    }
+
+    /**
+     * Computes and stores the read acls of documents.
+     * <p>
+     * A read acl is the list of the read entries of the document's ACLs and of
+     * its ancestors' ACLs, in order, each principal being prefixed by - for a
+     * deny. It is stored once in ACLR under its digest, which is what
+     * HIERARCHY_READ_ACL references.
+     */
+    protected static class ReadAclsUpdater {
+
+        protected static final int BATCH_SIZE = 1000;
+
+        protected final Connection conn;
+
+        protected final Set<String> permissions = new HashSet<String>();
+
+        /** Merged read acls of ancestors, by id. */
+        protected final Map<String, String> ancestorReadAcls = new HashMap<String, String>();
+
+        protected final Set<String> aclIds = new HashSet<String>();
+
+        protected final PreparedStatement psAcls;
+
+        protected final PreparedStatement psParent;
+
+        protected final PreparedStatement psVersionable;
+
+        protected final PreparedStatement psChildren;
+
+        protected final PreparedStatement psMergeAclr;
+
+        protected final PreparedStatement psMergeReadAcl;
+
+        protected int batched;
+
+        protected ReadAclsUpdater(Connection conn) throws SQLException {
+            this.conn = conn;
+            Statement st = conn.createStatement();
+            try {
+                ResultSet rs = st.executeQuery("SELECT PERMISSION FROM ACLR_PERMISSION");
+                while (rs.next()) {
+                    permissions.add(rs.getString(1));
+                }
+            } finally {
+                st.close();
+            }
+            psAcls = conn.prepareStatement("SELECT \"GRANT\", \"PERMISSION\", \"USER\" FROM \"ACLS\" "
+                    + "WHERE ID = ? ORDER BY POS");
+            psParent = conn.prepareStatement("SELECT PARENTID FROM HIERARCHY WHERE ID = ?");
+            psVersionable = conn.prepareStatement("SELECT VERSIONABLEID FROM VERSIONS WHERE ID = ?");
+            psChildren = conn.prepareStatement("SELECT ID FROM HIERARCHY WHERE PARENTID = ? AND ISPROPERTY = 0");
+            psMergeAclr = conn.prepareStatement("MERGE INTO ACLR (ACL_ID, ACL) KEY (ACL_ID) VALUES (?, ?)");
+            psMergeReadAcl = conn.prepareStatement("MERGE INTO HIERARCHY_READ_ACL (ID, ACL_ID) KEY (ID) VALUES (?, ?)");
+        }
+
+        protected void close() throws SQLException {
+            psAcls.close();
+            psParent.close();
+            psVersionable.close();
+            psChildren.close();
+            psMergeAclr.close();
+            psMergeReadAcl.close();
+        }
+
+        protected void update() throws SQLException {
+            Set<String> created = new LinkedHashSet<String>();
+            Set<String> modified = new LinkedHashSet<String>();
+            long maxId = -1;
+            Statement st = conn.createStatement();
+            try {
+                ResultSet rs = st.executeQuery("SELECT ID, HIERARCHY_ID, IS_NEW FROM ACLR_MODIFIED ORDER BY ID");
+                while (rs.next()) {
+                    maxId = rs.getLong(1);
+                    String id = rs.getString(2);
+                    if (rs.getInt(3) == 1) {
+                        created.add(id);
+                    } else {
+                        modified.add(id);
+                    }
+                }
+            } finally {
+                st.close();
+            }
+            if (maxId == -1) {
+                return;
+            }
+            if (isLogEnabled()) {
+                logDebug("updateReadAcls created: " + created + " modified: "
+                        + modified);
+            }
+            Set<String> done = new HashSet<String>();
+            // new documents
+            for (String id : created) {
+                if (!modified.contains(id) && exists(id) && done.add(id)) {
+                    store(id);
+                }
+            }
+            // documents whose ACLs or location changed, and their descendants
+            LinkedList<String> todo = new LinkedList<String>(modified);
+            while (!todo.isEmpty()) {
+                String id = todo.removeFirst();
+                if (!done.add(id) || !exists(id)) {
+                    continue;
+                }
+                store(id);
+                psChildren.setString(1, id);
+                ResultSet rs = psChildren.executeQuery();
+                while (rs.next()) {
+                    todo.add(rs.getString(1));
+                }
+                rs.close();
+            }
+            flush();
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM ACLR_MODIFIED WHERE ID <= ?");
+            try {
+                ps.setLong(1, maxId);
+                ps.execute();
+            } finally {
+                ps.close();
+            }
+        }
+
+        protected void rebuild() throws SQLException {
+            Statement st = conn.createStatement();
+            try {
+                st.execute("DELETE FROM HIERARCHY_READ_ACL");
+                st.execute("DELETE FROM ACLR");
+                st.execute("DELETE FROM ACLR_MODIFIED");
+                ResultSet rs = st.executeQuery("SELECT ID FROM HIERARCHY WHERE ISPROPERTY = 0");
+                while (rs.next()) {
+                    store(rs.getString(1));
+                }
+                flush();
+            } finally {
+                st.close();
+            }
+        }
+
+        protected boolean exists(String id) throws SQLException {
+            psParent.setString(1, id);
+            ResultSet rs = psParent.executeQuery();
+            boolean exists = rs.next();
+            rs.close();
+            return exists;
+        }
+
+        /**
+         * Computes and stores the read acl of a document.
+         */
+        protected void store(String id) throws SQLException {
+            String acl = getReadAcl(id);
+            String aclId = digest(acl);
+            if (aclIds.add(aclId)) {
+                psMergeAclr.setString(1, aclId);
+                psMergeAclr.setString(2, acl);
+                psMergeAclr.execute();
+            }
+            psMergeReadAcl.setString(1, id);
+            psMergeReadAcl.setString(2, aclId);
+            psMergeReadAcl.addBatch();
+            if (++batched >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        protected void flush() throws SQLException {
+            if (batched > 0) {
+                psMergeReadAcl.executeBatch();
+                batched = 0;
+            }
+        }
+
+        protected String getReadAcl(String id) throws SQLException {
+            String parentId = getParentId(id);
+            if (parentId == null) {
+                // we may have a version on our hands, use the live doc
+                psVersionable.setString(1, id);
+                ResultSet rs = psVersionable.executeQuery();
+                if (rs.next()) {
+                    parentId = rs.getString(1);
+                }
+                rs.close();
+            }
+            String acl = merge(getLocalReadAcl(id),
+                    parentId == null ? null : getAncestorReadAcl(parentId));
+            return acl == null ? EMPTY_READ_ACL : acl;
+        }
+
+        protected String getAncestorReadAcl(String id) throws SQLException {
+            if (ancestorReadAcls.containsKey(id)) {
+                return ancestorReadAcls.get(id);
+            }
+            String parentId = getParentId(id);
+            String acl = merge(getLocalReadAcl(id),
+                    parentId == null ? null : getAncestorReadAcl(parentId));
+            ancestorReadAcls.put(id, acl);
+            return acl;
+        }
+
+        protected String getParentId(String id) throws SQLException {
+            psParent.setString(1, id);
+            ResultSet rs = psParent.executeQuery();
+            String parentId = rs.next() ? rs.getString(1) : null;
+            rs.close();
+            return parentId;
+        }
+
+        protected String getLocalReadAcl(String id) throws SQLException {
+            psAcls.setString(1, id);
+            ResultSet rs = psAcls.executeQuery();
+            StringBuilder buf = new StringBuilder();
+            while (rs.next()) {
+                boolean grant = rs.getShort(1) != 0;
+                String permission = rs.getString(2);
+                String user = rs.getString(3);
+                if (!permissions.contains(permission)) {
+                    continue;
+                }
+                if (buf.length() > 0) {
+                    buf.append(READ_ACL_SEP);
+                }
+                if (!grant) {
+                    buf.append('-');
+                }
+                buf.append(user);
+            }
+            rs.close();
+            return buf.length() == 0 ? null : buf.toString();
+        }
+
+        protected static String merge(String acl, String parentAcl) {
+            if (acl == null) {
+                return parentAcl;
+            }
+            if (parentAcl == null) {
+                return acl;
+            }
+            return acl + READ_ACL_SEP + parentAcl;
+        }
+
+        protected static String digest(String acl) throws SQLException {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new SQLException(e.toString());
+            }
+            byte[] bytes;
+            try {
+                bytes = md.digest(acl.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new SQLException(e.toString());
+            }
+            StringBuilder buf = new StringBuilder(2 * bytes.length);
+            for (byte b : bytes) {
+                buf.append(HEX_DIGITS[(b >> 4) & 0xF]);
+                buf.append(HEX_DIGITS[b & 0xF]);
+            }
+            return buf.toString();
+        }
+
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    }
+
+    /**
+     * Trigger on ACLS logging the documents whose read acl must be recomputed.
+     */
+    public static class LogAclsModifiedTrigger implements org.h2.api.Trigger {
+
+        private int idIndex;
+
+        @Override
+        public void init(Connection conn, String schema, String triggerName,
+                String table, boolean before, int opType) throws SQLException {
+            idIndex = getColumnIndex(conn, schema, table, "ID");
+        }
+
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+                throws SQLException {
+            if (oldRow != null) {
+                logAclrModified(conn, oldRow[idIndex], false);
+            }
+            if (newRow != null
+                    && (oldRow == null || !newRow[idIndex].equals(oldRow[idIndex]))) {
+                logAclrModified(conn, newRow[idIndex], false);
+            }
+        }
+
+        public void close() {
+        }
+
+        public void remove() {
+        }
+    }
+
+    /**
+     * Trigger on HIERARCHY logging the documents whose read acl must be
+     * computed, because they're new or have been moved.
+     */
+    public static class LogHierarchyModifiedTrigger implements
+            org.h2.api.Trigger {
+
+        private int idIndex;
+
+        private int parentIdIndex;
+
+        private int isPropertyIndex;
+
+        @Override
+        public void init(Connection conn, String schema, String triggerName,
+                String table, boolean before, int opType) throws SQLException {
+            idIndex = getColumnIndex(conn, schema, table, "ID");
+            parentIdIndex = getColumnIndex(conn, schema, table, "PARENTID");
+            isPropertyIndex = getColumnIndex(conn, schema, table, "ISPROPERTY");
+        }
+
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+                throws SQLException {
+            if (newRow == null || isTrue(newRow[isPropertyIndex])) {
+                return;
+            }
+            if (oldRow == null) {
+                logAclrModified(conn, newRow[idIndex], true);
+            } else if (!equal(oldRow[parentIdIndex], newRow[parentIdIndex])) {
+                logAclrModified(conn, newRow[idIndex], false);
+            }
+        }
+
+        public void close() {
+        }
+
+        public void remove() {
+        }
+    }
+
+    protected static void logAclrModified(Connection conn, Object id,
+            boolean isNew) throws SQLException {
+        String sql = "INSERT INTO ACLR_MODIFIED (HIERARCHY_ID, IS_NEW) VALUES (?, ?)";
+        if (isLogEnabled()) {
+            logDebug(sql, id, Boolean.valueOf(isNew));
+        }
+        PreparedStatement ps = conn.prepareStatement(sql);
+        try {
+            ps.setObject(1, id);
+            ps.setInt(2, isNew ? 1 : 0);
+            ps.execute();
+        } finally {
+            ps.close();
+        }
+    }
+
+    // ----- ancestors -----
+
+    /**
+     * Fills the ANCESTORS table from the hierarchy.
+     * <p>
+     * Usually called through:
+     *
+     * <pre>
+     *   CALL NX_INIT_ANCESTORS()
+     * </pre>
+     */
+    public static void initAncestors(Connection conn) throws SQLException {
+        Map<String, String> parents = new HashMap<String, String>();
+        Statement st = conn.createStatement();
+        PreparedStatement ps = null;
+        try {
+            st.execute("DELETE FROM ANCESTORS");
+            ResultSet rs = st.executeQuery("SELECT ID, PARENTID FROM HIERARCHY WHERE ISPROPERTY = 0");
+            while (rs.next()) {
+                parents.put(rs.getString(1), rs.getString(2));
+            }
+            rs.close();
+            ps = conn.prepareStatement("INSERT INTO ANCESTORS (HIERARCHY_ID, ANCESTOR) VALUES (?, ?)");
+            int batched = 0;
+            for (String id : parents.keySet()) {
+                Set<String> done = new HashSet<String>();
+                String ancestor = parents.get(id);
+                while (ancestor != null && done.add(ancestor)) {
+                    ps.setString(1, id);
+                    ps.setString(2, ancestor);
+                    ps.addBatch();
+                    if (++batched >= ReadAclsUpdater.BATCH_SIZE) {
+                        ps.executeBatch();
+                        batched = 0;
+                    }
+                    ancestor = parents.get(ancestor);
+                }
+            }
+            if (batched > 0) {
+                ps.executeBatch();
+            }
+        } finally {
+            st.close();
+            if (ps != null) {
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * Trigger on HIERARCHY maintaining the ANCESTORS table when documents are
+     * created or moved. Deletions cascade through the foreign key.
+     */
+    public static class AncestorsTrigger implements org.h2.api.Trigger {
+
+        private int idIndex;
+
+        private int parentIdIndex;
+
+        private int isPropertyIndex;
+
+        @Override
+        public void init(Connection conn, String schema, String triggerName,
+                String table, boolean before, int opType) throws SQLException {
+            idIndex = getColumnIndex(conn, schema, table, "ID");
+            parentIdIndex = getColumnIndex(conn, schema, table, "PARENTID");
+            isPropertyIndex = getColumnIndex(conn, schema, table, "ISPROPERTY");
+        }
+
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+                throws SQLException {
+            if (newRow == null || isTrue(newRow[isPropertyIndex])) {
+                return;
+            }
+            String id = (String) newRow[idIndex];
+            String parentId = (String) newRow[parentIdIndex];
+            if (oldRow == null) {
+                if (parentId != null) {
+                    insertAncestors(conn, id, getAncestors(conn, parentId));
+                }
+                return;
+            }
+            if (equal(oldRow[parentIdIndex], parentId)) {
+                return;
+            }
+            // moved: the ancestors above the document change for it and all
+            // its descendants
+            Set<String> oldAncestors = getAncestorsOf(conn, id);
+            Set<String> newAncestors = parentId == null ? Collections.<String> emptySet()
+                    : getAncestors(conn, parentId);
+            Map<String, Set<String>> updated = new LinkedHashMap<String, Set<String>>();
+            updated.put(id, newAncestors);
+            for (String descendant : getDescendants(conn, id)) {
+                Set<String> ancestors = getAncestorsOf(conn, descendant);
+                ancestors.removeAll(oldAncestors);
+                ancestors.addAll(newAncestors);
+                updated.put(descendant, ancestors);
+            }
+            PreparedStatement ps = conn.prepareStatement("DELETE FROM ANCESTORS WHERE HIERARCHY_ID = ?");
+            try {
+                for (String uid : updated.keySet()) {
+                    ps.setString(1, uid);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+            for (Entry<String, Set<String>> en : updated.entrySet()) {
+                insertAncestors(conn, en.getKey(), en.getValue());
+            }
+        }
+
+        public void close() {
+        }
+
+        public void remove() {
+        }
+
+        /** The parent and its ancestors. */
+        protected static Set<String> getAncestors(Connection conn,
+                String parentId) throws SQLException {
+            Set<String> ancestors = getAncestorsOf(conn, parentId);
+            ancestors.add(parentId);
+            return ancestors;
+        }
+
+        protected static Set<String> getAncestorsOf(Connection conn, String id)
+                throws SQLException {
+            return selectIds(conn,
+                    "SELECT ANCESTOR FROM ANCESTORS WHERE HIERARCHY_ID = ?", id);
+        }
+
+        protected static Set<String> getDescendants(Connection conn, String id)
+                throws SQLException {
+            return selectIds(conn,
+                    "SELECT HIERARCHY_ID FROM ANCESTORS WHERE ANCESTOR = ?", id);
+        }
+
+        protected static Set<String> selectIds(Connection conn, String sql,
+                String id) throws SQLException {
+            if (isLogEnabled()) {
+                logDebug(sql, id);
+            }
+            Set<String> ids = new LinkedHashSet<String>();
+            PreparedStatement ps = conn.prepareStatement(sql);
+            try {
+                ps.setString(1, id);
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            } finally {
+                ps.close();
+            }
+            return ids;
+        }
+
+        protected static void insertAncestors(Connection conn, String id,
+                Set<String> ancestors) throws SQLException {
+            if (ancestors.isEmpty()) {
+                return;
+            }
+            PreparedStatement ps = conn.prepareStatement("INSERT INTO ANCESTORS (HIERARCHY_ID, ANCESTOR) VALUES (?, ?)");
+            try {
+                for (String ancestor : ancestors) {
+                    ps.setString(1, id);
+                    ps.setString(2, ancestor);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+        }
+    }
+
+    // ----- trigger helpers -----
+
+    protected static int getColumnIndex(Connection conn, String schema,
+            String table, String column) throws SQLException {
+        ResultSet rs = conn.getMetaData().getColumns(null, schema, table,
+                column);
+        try {
+            if (!rs.next()) {
+                throw new SQLException("No column " + column + " in " + schema
+                        + '.' + table);
+            }
+            // starting at 0
+            return rs.getInt("ORDINAL_POSITION") - 1;
+        } finally {
+            rs.close();
+        }
+    }
+
+    protected static boolean isTrue(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return false;
+    }
+
+    protected static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
 }
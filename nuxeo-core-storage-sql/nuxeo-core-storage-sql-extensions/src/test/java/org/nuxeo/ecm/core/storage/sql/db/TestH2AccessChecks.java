@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestH2AccessChecks {
+
+    private static final Log log = LogFactory.getLog(TestH2AccessChecks.class);
+
+    private static final int NFOLDERS = 10;
+
+    private static final int NCHILDREN = 500;
+
+    protected Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        conn = DriverManager.getConnection("jdbc:h2:mem:accesschecks", "sa",
+                "");
+        Statement st = conn.createStatement();
+        st.execute("CREATE TABLE HIERARCHY(ID VARCHAR PRIMARY KEY, PARENTID VARCHAR)");
+        st.execute("CREATE TABLE \"ACLS\"(ID VARCHAR, POS INT, \"GRANT\" BOOLEAN,"
+                + " \"PERMISSION\" VARCHAR, \"USER\" VARCHAR)");
+        st.execute("CREATE TABLE VERSIONS(ID VARCHAR PRIMARY KEY, VERSIONABLEID VARCHAR)");
+        st.execute("CREATE ALIAS NX_ACCESS_ALLOWED FOR \""
+                + H2Functions.class.getName() + ".isAccessAllowedString\"");
+        st.execute("CREATE ALIAS NX_PREPARE_ACCESS_CHECKS FOR \""
+                + H2Functions.class.getName() + ".prepareAccessChecks\"");
+        st.close();
+
+        // a wide tree: root / folderN / docN-M
+        conn.setAutoCommit(false);
+        insertHierarchy("root", null);
+        insertAce("root", 0, true, "Browse", "bob");
+        for (int i = 0; i < NFOLDERS; i++) {
+            String folder = "folder" + i;
+            insertHierarchy(folder, "root");
+            for (int j = 0; j < NCHILDREN; j++) {
+                insertHierarchy("doc" + i + "-" + j, folder);
+            }
+        }
+        // bob is denied in folder0, except for one document
+        insertAce("folder0", 0, false, "Browse", "bob");
+        insertAce("doc0-0", 0, true, "Browse", "bob");
+        // a version of a document of folder1
+        insertHierarchy("ver", null);
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO VERSIONS (ID, VERSIONABLEID) VALUES (?, ?)");
+        ps.setString(1, "ver");
+        ps.setString(2, "doc1-0");
+        ps.execute();
+        ps.close();
+        conn.commit();
+        conn.setAutoCommit(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        EmbeddedFunctions.prepareAccessChecks(null);
+        if (conn != null) {
+            Statement st = conn.createStatement();
+            st.execute("SHUTDOWN");
+            st.close();
+            conn.close();
+        }
+    }
+
+    protected void insertHierarchy(String id, String parentId)
+            throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO HIERARCHY (ID, PARENTID) VALUES (?, ?)");
+        ps.setString(1, id);
+        ps.setString(2, parentId);
+        ps.execute();
+        ps.close();
+    }
+
+    protected void insertAce(String id, int pos, boolean grant,
+            String permission, String user) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO \"ACLS\""
+                + " (ID, POS, \"GRANT\", \"PERMISSION\", \"USER\")"
+                + " VALUES (?, ?, ?, ?, ?)");
+        ps.setString(1, id);
+        ps.setInt(2, pos);
+        ps.setBoolean(3, grant);
+        ps.setString(4, permission);
+        ps.setString(5, user);
+        ps.execute();
+        ps.close();
+    }
+
+    protected void prepare(String principals) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("CALL NX_PREPARE_ACCESS_CHECKS(?)");
+        ps.setString(1, principals);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    protected Set<String> query(String principals, String permissions)
+            throws SQLException {
+        return query(conn, principals, permissions);
+    }
+
+    protected Set<String> query(Connection conn, String principals,
+            String permissions) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("SELECT ID FROM HIERARCHY"
+                + " WHERE NX_ACCESS_ALLOWED(ID, ?, ?)");
+        ps.setString(1, principals);
+        ps.setString(2, permissions);
+        ResultSet rs = ps.executeQuery();
+        Set<String> ids = new HashSet<String>();
+        while (rs.next()) {
+            ids.add(rs.getString(1));
+        }
+        ps.close();
+        return ids;
+    }
+
+    @Test
+    public void testMemoizedSameAsUnmemoized() throws Exception {
+        Set<String> expected = query("bob|Everyone", "Browse|Read");
+        // root, folders but folder0, docs but folder0's except one, version
+        assertEquals(1 + (NFOLDERS - 1) + (NFOLDERS - 1) * NCHILDREN + 1 + 1,
+                expected.size());
+        assertTrue(expected.contains("doc0-0"));
+        assertFalse(expected.contains("doc0-1"));
+        assertTrue(expected.contains("ver"));
+
+        prepare("bob|Everyone");
+        assertEquals(expected, query("bob|Everyone", "Browse|Read"));
+        // same scope, other permissions
+        assertEquals(Collections.<String> emptySet(),
+                query("bob|Everyone", "Write"));
+        assertEquals(expected, query("bob|Everyone", "Browse|Read"));
+        // other principals than the prepared ones
+        assertEquals(Collections.<String> emptySet(),
+                query("alice", "Browse"));
+    }
+
+    @Test
+    public void testNewScopeSeesChanges() throws Exception {
+        prepare("bob");
+        assertTrue(query("bob", "Browse").contains("doc1-1"));
+        insertAce("folder1", 0, false, "Browse", "bob");
+        prepare("bob");
+        assertFalse(query("bob", "Browse").contains("doc1-1"));
+    }
+
+    @Test
+    public void testEndScope() throws Exception {
+        Set<String> expected = query("bob", "Browse");
+        prepare("bob");
+        assertEquals(expected, query("bob", "Browse"));
+        assertNotNull(EmbeddedFunctions.accessChecks.get());
+        prepare(null);
+        assertNull(EmbeddedFunctions.accessChecks.get());
+        assertEquals(expected, query("bob", "Browse"));
+    }
+
+    @Test
+    public void testScopeNotUsedByOtherConnection() throws Exception {
+        prepare("bob");
+        assertTrue(query("bob", "Browse").contains("doc1-1"));
+        // scope not ended, as when a result is closed by its finalizer
+        insertAce("folder1", 0, false, "Browse", "bob");
+        Connection other = DriverManager.getConnection(
+                "jdbc:h2:mem:accesschecks", "sa", "");
+        try {
+            assertFalse(query(other, "bob", "Browse").contains("doc1-1"));
+            assertNull(EmbeddedFunctions.accessChecks.get());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testWideTreeThroughput() throws Exception {
+        int nqueries = 20;
+        // warm up
+        query("bob", "Browse");
+
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < nqueries; i++) {
+            query("bob", "Browse");
+        }
+        long unmemoized = System.currentTimeMillis() - t0;
+
+        t0 = System.currentTimeMillis();
+        for (int i = 0; i < nqueries; i++) {
+            prepare("bob");
+            query("bob", "Browse");
+        }
+        long memoized = System.currentTimeMillis() - t0;
+
+        log.warn(String.format("%d secured queries over %d documents:"
+                + " %d ms unmemoized, %d ms memoized",
+                Integer.valueOf(nqueries),
+                Integer.valueOf(NFOLDERS * NCHILDREN),
+                Long.valueOf(unmemoized), Long.valueOf(memoized)));
+    }
+
+}
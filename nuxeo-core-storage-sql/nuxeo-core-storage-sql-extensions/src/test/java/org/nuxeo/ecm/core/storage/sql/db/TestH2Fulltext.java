@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.db;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestH2Fulltext {
+
+    private static final Log log = LogFactory.getLog(TestH2Fulltext.class);
+
+    private static final String INDEX = "PUBLIC_FULLTEXT_default";
+
+    private static final String ANALYZER = "org.apache.lucene.analysis.standard.StandardAnalyzer";
+
+    protected File dir;
+
+    protected Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        dir = new File("target/h2fulltext");
+        deleteRecursive(dir);
+        dir.mkdirs();
+        conn = DriverManager.getConnection("jdbc:h2:"
+                + new File(dir, "db").getAbsolutePath(), "sa", "");
+        Statement st = conn.createStatement();
+        st.execute("CREATE ALIAS IF NOT EXISTS NXFT_INIT FOR \""
+                + H2Fulltext.class.getName() + ".init\"");
+        st.execute("CALL NXFT_INIT()");
+        st.execute("CREATE TABLE DOC(ID VARCHAR PRIMARY KEY, TXT VARCHAR)");
+        st.execute(String.format(
+                "CALL NXFT_CREATE_INDEX('%s', 'PUBLIC', 'DOC', ('TXT'), '%s')",
+                INDEX, ANALYZER));
+        st.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (conn != null) {
+            Statement st = conn.createStatement();
+            st.execute("CALL NXFT_DROP_ALL()");
+            st.execute("SHUTDOWN");
+            st.close();
+            conn.close();
+        }
+        deleteRecursive(dir);
+    }
+
+    protected static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    protected void insert(String id, String text) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO DOC (ID, TXT) VALUES (?, ?)");
+        ps.setString(1, id);
+        ps.setString(2, text);
+        ps.execute();
+        ps.close();
+    }
+
+    protected Set<String> search(String text) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement("SELECT * FROM NXFT_SEARCH(?, ?)");
+        ps.setString(1, INDEX);
+        ps.setString(2, text);
+        ResultSet rs = ps.executeQuery();
+        Set<String> ids = new HashSet<String>();
+        while (rs.next()) {
+            ids.add(rs.getString(1));
+        }
+        ps.close();
+        return ids;
+    }
+
+    protected static Set<String> set(String... ids) {
+        Set<String> set = new HashSet<String>();
+        for (String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Test
+    public void testSearchSeesChanges() throws Exception {
+        insert("1", "the quick brown fox");
+        insert("2", "the lazy dog");
+        assertEquals(set("1"), search("fox"));
+        assertEquals(set("1", "2"), search("the"));
+
+        // the shared searcher must be reopened
+        insert("3", "another fox");
+        assertEquals(set("1", "3"), search("fox"));
+
+        Statement st = conn.createStatement();
+        st.execute("UPDATE DOC SET TXT = 'a cat' WHERE ID = '1'");
+        st.execute("DELETE FROM DOC WHERE ID = '2'");
+        st.close();
+        assertEquals(set("3"), search("fox"));
+        assertEquals(set(), search("lazy"));
+        assertEquals(set("1"), search("cat"));
+    }
+
+    @Test
+    public void testSearchThroughput() throws Exception {
+        int ndocs = 1000;
+        int nsearches = 2000;
+        conn.setAutoCommit(false);
+        for (int i = 0; i < ndocs; i++) {
+            insert(String.valueOf(i), "document number" + (i % 10) + " word"
+                    + i);
+        }
+        conn.commit();
+        conn.setAutoCommit(true);
+
+        // warm up
+        assertEquals(ndocs / 10, search("number3").size());
+
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < nsearches; i++) {
+            Set<String> ids = search("word" + (i % ndocs));
+            assertEquals(1, ids.size());
+        }
+        long elapsed = System.currentTimeMillis() - t0;
+        log.warn(String.format("%d fulltext searches over %d documents"
+                + " in %d ms: %.1f searches/s", Integer.valueOf(nsearches),
+                Integer.valueOf(ndocs), Long.valueOf(elapsed),
+                Double.valueOf(nsearches * 1000.0 / Math.max(elapsed, 1))));
+    }
+
+}
@@ -29,6 +29,7 @@ import org.nuxeo.ecm.core.storage.sql.BinaryManagerStatus;
 import org.nuxeo.ecm.core.storage.sql.Repository;
 import org.nuxeo.ecm.core.storage.sql.RepositoryManagement;
 import org.nuxeo.ecm.core.storage.sql.RepositoryResolver;
+import org.nuxeo.ecm.core.storage.sql.RowCacheStatus;
 import org.nuxeo.ecm.core.storage.sql.net.MapperClientInfo;
 
 /**
@@ -142,6 +143,35 @@ public class RepositoryStatus implements RepositoryStatusMBean {
         return buf.toString();
     }
 
+    @Override
+    public String listSharedCacheStatistics() {
+        List<RepositoryManagement> repositories;
+        try {
+            repositories = getRepositories();
+        } catch (NamingException e) {
+            log.error("Error getting repositories", e);
+            return "Error!";
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append("Shared cache statistics for SQL repositories:<br />");
+        for (RepositoryManagement repository : repositories) {
+            buf.append("<b>").append(repository.getName()).append("</b>: ");
+            RowCacheStatus status = repository.getSharedCacheStatus();
+            if (status == null) {
+                buf.append("disabled");
+            } else {
+                buf.append("size=").append(status.getSize());
+                buf.append(" hits=").append(status.getHits());
+                buf.append(" misses=").append(status.getMisses());
+                buf.append(" evictions=").append(status.getEvictions());
+                buf.append(" invalidations=").append(
+                        status.getInvalidations());
+            }
+            buf.append("<br />");
+        }
+        return buf.toString();
+    }
+
     @Override
     public String listRemoteSessions() {
         List<RepositoryManagement> repositories;
@@ -39,6 +39,13 @@ public interface RepositoryStatusMBean {
      */
     String clearCaches();
 
+    /**
+     * Lists the statistics of the repository-wide shared caches.
+     *
+     * @since 5.6
+     */
+    String listSharedCacheStatistics();
+
     /**
      * GC the unused binaries.
      *
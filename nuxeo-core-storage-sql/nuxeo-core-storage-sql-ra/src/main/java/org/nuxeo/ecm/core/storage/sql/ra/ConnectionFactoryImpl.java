@@ -35,6 +35,7 @@ import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.BinaryGarbageCollector;
 import org.nuxeo.ecm.core.storage.sql.ConnectionSpecImpl;
 import org.nuxeo.ecm.core.storage.sql.Repository;
+import org.nuxeo.ecm.core.storage.sql.RowCacheStatus;
 import org.nuxeo.ecm.core.storage.sql.Session;
 import org.nuxeo.ecm.core.storage.sql.coremodel.SQLRepository;
 import org.nuxeo.ecm.core.storage.sql.coremodel.SQLSecurityManager;
@@ -286,6 +287,11 @@ public class ConnectionFactoryImpl implements Repository,
         return managedConnectionFactory.clearCaches();
     }
 
+    @Override
+    public RowCacheStatus getSharedCacheStatus() {
+        return managedConnectionFactory.getSharedCacheStatus();
+    }
+
     @Override
     public void processClusterInvalidationsNext() {
         managedConnectionFactory.processClusterInvalidationsNext();
@@ -14,7 +14,9 @@ package org.nuxeo.ecm.core.storage.sql.ra;
 
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.resource.ResourceException;
 import javax.resource.cci.ConnectionFactory;
@@ -359,6 +361,12 @@ public class ConnectionImpl implements Session {
         return getSession().getLock(id);
     }
 
+    @Override
+    public Map<Serializable, Lock> getLocks(Collection<Serializable> ids)
+            throws StorageException {
+        return getSession().getLocks(ids);
+    }
+
     @Override
     public Lock setLock(Serializable id, Lock lock)
             throws StorageException {
@@ -388,4 +396,10 @@ public class ConnectionImpl implements Session {
         getSession().rebuildReadAcls();
     }
 
+    @Override
+    public long getSecurityGeneration() {
+        // a closed handle never has a valid generation
+        return session == null ? -1 : session.getSecurityGeneration();
+    }
+
 }
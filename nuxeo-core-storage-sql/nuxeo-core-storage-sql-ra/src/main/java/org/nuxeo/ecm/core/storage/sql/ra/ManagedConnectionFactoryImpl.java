@@ -41,6 +41,7 @@ import org.nuxeo.ecm.core.storage.sql.ConnectionSpecImpl;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
 import org.nuxeo.ecm.core.storage.sql.RepositoryImpl;
 import org.nuxeo.ecm.core.storage.sql.RepositoryManagement;
+import org.nuxeo.ecm.core.storage.sql.RowCacheStatus;
 import org.nuxeo.ecm.core.storage.sql.SessionImpl;
 import org.nuxeo.ecm.core.storage.sql.net.MapperClientInfo;
 
@@ -238,6 +239,14 @@ public class ManagedConnectionFactoryImpl implements ManagedConnectionFactory,
         return repository.clearCaches();
     }
 
+    @Override
+    public RowCacheStatus getSharedCacheStatus() {
+        if (repository == null) {
+            return null;
+        }
+        return repository.getSharedCacheStatus();
+    }
+
     @Override
     public void processClusterInvalidationsNext() {
         if (repository != null) {
@@ -52,11 +52,13 @@ import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.storage.PartialList;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.FulltextIndexDescriptor;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.ServerDescriptor;
 import org.nuxeo.ecm.core.storage.sql.jdbc.ClusterNodeHandler;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCBackend;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnection;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnectionPropagator;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCMapper;
+import org.nuxeo.ecm.core.storage.sql.net.SocketClusterInvalidator;
 
 public class TestSQLBackend extends SQLBackendTestCase {
 
@@ -977,6 +979,142 @@ public class TestSQLBackend extends SQLBackendTestCase {
         assertEquals("glop", title2.getString());
     }
 
+    protected Repository newPushClusteringRepository(long clusteringDelay,
+            int port, int peerPort) throws Exception {
+        RepositoryDescriptor descriptor = newDescriptor(clusteringDelay, false);
+        descriptor.clusteringInvalidatorClass = SocketClusterInvalidator.class;
+        descriptor.clusteringListen = new ServerDescriptor();
+        descriptor.clusteringListen.host = "127.0.0.1";
+        descriptor.clusteringListen.port = port;
+        ServerDescriptor connect = new ServerDescriptor();
+        connect.host = "127.0.0.1";
+        connect.port = peerPort;
+        descriptor.clusteringConnect = Collections.singletonList(connect);
+        RepositoryImpl repo = new RepositoryImpl(descriptor);
+        RepositoryResolver.registerTestRepository(repo);
+        return repo;
+    }
+
+    @Test
+    public void testClusteringPushInvalidations() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+
+        repository.close();
+        // get two clustered repositories pushing invalidations to each other
+        // the delay doesn't matter as the database is not polled
+        long DELAY = 60000; // ms
+        repository = newPushClusteringRepository(DELAY, 9741, 9742);
+        repository2 = newPushClusteringRepository(DELAY, 9742, 9741);
+
+        Session session1 = repository.getConnection();
+        Session session2 = repository2.getConnection();
+
+        // in session1, create base folder
+        Node root1 = session1.getRootNode();
+        Node folder1 = session1.addChildNode(root1, "foo", null, "TestDoc",
+                false);
+        SimpleProperty title1 = folder1.getSimpleProperty("tst:title");
+        session1.save();
+
+        // in session2, retrieve folder
+        Node root2 = session2.getRootNode();
+        Node folder2 = session2.getChildNode(root2, "foo", false);
+        SimpleProperty title2 = folder2.getSimpleProperty("tst:title");
+        assertNull(title2.getString());
+
+        // in session1 change title
+        title1.setValue("yo");
+        session1.save();
+
+        // session2 sees it as soon as the invalidations are pushed
+        long start = System.currentTimeMillis();
+        do {
+            session2.save(); // process invalidations (non-transactional)
+            if ("yo".equals(title2.getString())) {
+                break;
+            }
+            Thread.sleep(10);
+        } while (System.currentTimeMillis() - start < 5000);
+        assertEquals("yo", title2.getString());
+        assertTrue(System.currentTimeMillis() - start < DELAY);
+
+        // and the other way around
+        title2.setValue("glop");
+        session2.save();
+        start = System.currentTimeMillis();
+        do {
+            session1.save();
+            if ("glop".equals(title1.getString())) {
+                break;
+            }
+            Thread.sleep(10);
+        } while (System.currentTimeMillis() - start < 5000);
+        assertEquals("glop", title1.getString());
+    }
+
+    /**
+     * Measures the commit latency when many documents are touched in a
+     * transaction, with clustering enabled so that cluster invalidations are
+     * written for each of them.
+     */
+    @Test
+    public void testClusteringManyInvalidations() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        if (!DatabaseHelper.DATABASE.supportsClustering()) {
+            System.out.println("Skipping clustering test for unsupported database: "
+                    + DatabaseHelper.DATABASE.getClass().getName());
+            return;
+        }
+
+        repository.close();
+        // get two clustered repositories
+        long DELAY = 10; // ms
+        repository = newRepository(DELAY, false);
+        repository2 = newRepository(DELAY, false);
+
+        Session session1 = repository.getConnection();
+        Session session2 = repository2.getConnection();
+        session2.save();
+        Node root1 = session1.getRootNode();
+
+        for (int n : new int[] { 10, 100, 500 }) {
+            Node folder1 = session1.addChildNode(root1, "folder" + n, null,
+                    "TestDoc", false);
+            List<Node> nodes = new ArrayList<Node>(n);
+            for (int i = 0; i < n; i++) {
+                nodes.add(session1.addChildNode(folder1, "doc" + i, null,
+                        "TestDoc", false));
+            }
+            long t0 = System.nanoTime();
+            session1.save();
+            long t1 = System.nanoTime();
+            for (Node node : nodes) {
+                node.setSimpleProperty("tst:title", "title");
+            }
+            long t2 = System.nanoTime();
+            session1.save();
+            long t3 = System.nanoTime();
+            log.info(String.format(
+                    "Clustered save of %d documents: create %.1fms, update %.1fms",
+                    n, (t1 - t0) / 1000000.0, (t3 - t2) / 1000000.0));
+
+            // the other node sees the changes
+            Thread.sleep(DELAY + 1); // wait invalidation delay
+            session2.save(); // process invalidations
+            Node folder2 = session2.getNodeById(folder1.getId());
+            List<Node> children = session2.getChildren(folder2, null, false);
+            assertEquals(n, children.size());
+            assertEquals("title",
+                    children.get(0).getSimpleProperty("tst:title").getString());
+        }
+    }
+
     @Test
     public void testRollback() throws Exception {
         Session session = repository.getConnection();
@@ -2802,6 +2940,140 @@ public class TestSQLBackend extends SQLBackendTestCase {
         runParallelLocking(nodeId, repository, repository2);
     }
 
+    @Test
+    public void testGetLocks() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        List<Serializable> ids = new ArrayList<Serializable>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(session.addChildNode(root, "foo" + i, null, "TestDoc",
+                    false).getId());
+        }
+        session.save();
+
+        assertNull(session.setLock(ids.get(1), new Lock("bob", null)));
+        assertNull(session.setLock(ids.get(3), new Lock("pete", null)));
+        // some locks cached, some not
+        assertNull(session.getLock(ids.get(2)));
+
+        Map<Serializable, Lock> locks = session.getLocks(ids);
+        assertEquals(2, locks.size());
+        assertEquals("bob", locks.get(ids.get(1)).getOwner());
+        assertEquals("pete", locks.get(ids.get(3)).getOwner());
+        // now all from the cache
+        locks = session.getLocks(ids);
+        assertEquals(2, locks.size());
+
+        session.removeLock(ids.get(1), null, false);
+        locks = session.getLocks(ids);
+        assertEquals(1, locks.size());
+        assertEquals("pete", locks.get(ids.get(3)).getOwner());
+        session.close();
+    }
+
+    @Test
+    public void testLockingClusteredCache() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        if (!DatabaseHelper.DATABASE.supportsClustering()) {
+            System.out.println("Skipping clustered lock cache test for unsupported database: "
+                    + DatabaseHelper.DATABASE.getClass().getName());
+            return;
+        }
+
+        Serializable nodeId = createNode();
+
+        // get two clustered repositories
+        repository.close();
+        long DELAY = 50; // ms
+        repository = newRepository(DELAY, false);
+        repository2 = newRepository(DELAY, false);
+        Session session1 = repository.getConnection();
+        Session session2 = repository2.getConnection();
+
+        // cache the absence of lock in both nodes
+        assertNull(session1.getLock(nodeId));
+        assertNull(session2.getLock(nodeId));
+
+        assertNull(session2.setLock(nodeId, new Lock("bob", null)));
+        Thread.sleep(DELAY + 1);
+        Lock lock = session1.getLock(nodeId);
+        assertNotNull(lock);
+        assertEquals("bob", lock.getOwner());
+
+        assertNotNull(session1.removeLock(nodeId, null, false));
+        Thread.sleep(DELAY + 1);
+        assertNull(session2.getLock(nodeId));
+
+        session1.close();
+        session2.close();
+    }
+
+    @Test
+    public void testGetLockParallel() throws Throwable {
+        // cached lock reads from many threads
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        final List<Serializable> ids = new ArrayList<Serializable>();
+        for (int i = 0; i < 200; i++) {
+            Node node = session.addChildNode(root, "foo" + i, null,
+                    "TestDoc", false);
+            ids.add(node.getId());
+        }
+        session.save();
+        for (int i = 0; i < ids.size(); i += 2) {
+            session.setLock(ids.get(i), new Lock("bob", null));
+        }
+        session.close();
+
+        int NTHREADS = 64;
+        final long TIME = 1000; // ms
+        final CyclicBarrier barrier = new CyclicBarrier(NTHREADS);
+        final Throwable[] throwables = new Throwable[NTHREADS];
+        final int[] counts = new int[NTHREADS];
+        Thread[] threads = new Thread[NTHREADS];
+        for (int t = 0; t < NTHREADS; t++) {
+            final int n = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Session s = repository.getConnection();
+                        try {
+                            barrier.await(30, TimeUnit.SECONDS);
+                            long start = System.currentTimeMillis();
+                            int i = n;
+                            do {
+                                int k = i++ % ids.size();
+                                Lock lock = s.getLock(ids.get(k));
+                                assertEquals(k % 2 == 0, lock != null);
+                                counts[n]++;
+                            } while (System.currentTimeMillis() - start < TIME);
+                        } finally {
+                            s.close();
+                        }
+                    } catch (Throwable e) {
+                        throwables[n] = e;
+                        barrier.reset(); // break barrier
+                    }
+                }
+            }, "t" + t);
+            threads[t].start();
+        }
+        int count = 0;
+        for (int t = 0; t < NTHREADS; t++) {
+            threads[t].join();
+            if (throwables[t] != null) {
+                throw throwables[t];
+            }
+            count += counts[t];
+        }
+        log.warn("Parallel lock reads per second with " + NTHREADS
+                + " threads: " + count);
+    }
+
     protected Serializable createNode() throws Exception {
         Session session = repository.getConnection();
         Node root = session.getRootNode();
@@ -179,6 +179,23 @@ public class TestSQLBinariesIndexing extends TXSQLRepositoryTestCase {
         assertEquals(1, indexedDocs().size());
     }
 
+    @Test
+    public void testManyDocumentsAreIndexed() throws Exception {
+        // more documents than a single job id lookup (100), sharing their
+        // blob
+        int n = 105;
+        for (int i = 0; i < n; i++) {
+            DocumentModel other = session.createDocumentModel("/",
+                    "other" + i, "File");
+            other.getAdapter(BlobHolder.class).setBlob(new StringBlob("test"));
+            session.createDocument(other);
+        }
+
+        waitForIndexing();
+
+        assertEquals(n + 1, indexedDocs().size());
+    }
+
     @Test
     public void testVersionsAreIndexed() throws Exception {
         assertEquals(1, requestedDocs().size());
@@ -1801,6 +1801,78 @@ public class TestSQLRepositoryAPI extends SQLRepositoryTestCase {
         assertTrue(session.exists(childFile.getRef()));
     }
 
+    @Test
+    public void testCreateDocuments() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = new DocumentModelImpl(root.getPathAsString(),
+                "folder", "Folder");
+        folder = session.createDocument(folder);
+        String path = folder.getPathAsString();
+        session.createDocument(new DocumentModelImpl(path, "a", "File"));
+        session.save();
+
+        DocumentModel[] docs = {
+                new DocumentModelImpl(path, "a", "File"),
+                new DocumentModelImpl(path, "a", "Note"),
+                new DocumentModelImpl(path, "b", "File"),
+                new DocumentModelImpl(root.getPathAsString(), "a", "File"),
+                new DocumentModelImpl(path, null, "File") };
+        docs = session.createDocument(docs);
+        session.save();
+
+        assertEquals(5, docs.length);
+        assertTrue(docs[0].getName().startsWith("a."));
+        assertTrue(docs[1].getName().startsWith("a."));
+        assertFalse(docs[0].getName().equals(docs[1].getName()));
+        assertEquals("Note", docs[1].getType());
+        assertEquals("b", docs[2].getName());
+        assertEquals("a", docs[3].getName());
+        assertNotNull(docs[4].getName());
+        assertEquals(root.getRef(), docs[3].getParentRef());
+        Set<String> names = new HashSet<String>();
+        for (DocumentModel child : session.getChildren(folder.getRef())) {
+            names.add(child.getName());
+        }
+        assertEquals(5, names.size());
+        assertTrue(names.contains("a"));
+        assertTrue(names.contains(docs[0].getName()));
+        assertTrue(names.contains(docs[4].getName()));
+    }
+
+    @Test
+    public void testCreateDocumentsWithParentInBatch() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel[] docs = {
+                new DocumentModelImpl(root.getPathAsString(), "parent",
+                        "Folder"),
+                new DocumentModelImpl("/parent", "child", "File"),
+                new DocumentModelImpl("/parent", "child", "Note") };
+        docs = session.createDocument(docs);
+        session.save();
+
+        assertEquals(root.getRef(), docs[0].getParentRef());
+        assertEquals(docs[0].getRef(), docs[1].getParentRef());
+        assertEquals(docs[0].getRef(), docs[2].getParentRef());
+        assertEquals("child", docs[1].getName());
+        assertTrue(docs[2].getName().startsWith("child."));
+        assertEquals(2, session.getChildren(docs[0].getRef()).size());
+
+        // import a folder and a child of it in the same batch
+        String folderId = "aaaaaaaa-1234-1234-1234-fedcba987654";
+        String childId = "bbbbbbbb-1234-1234-1234-fedcba987654";
+        DocumentModel folder = new DocumentModelImpl((String) null, "Folder",
+                folderId, new Path("imported"), null, null, root.getRef(),
+                null, null, null, null);
+        DocumentModel child = new DocumentModelImpl((String) null, "File",
+                childId, new Path("child"), null, null, new IdRef(folderId),
+                null, null, null, null);
+        session.importDocuments(Arrays.asList(folder, child));
+        session.save();
+        child = session.getDocument(new IdRef(childId));
+        assertEquals("child", child.getName());
+        assertEquals(folderId, child.getParentRef().toString());
+    }
+
     @Test
     public void testGetDataModel() throws ClientException {
         DocumentModel root = session.getRootDocument();
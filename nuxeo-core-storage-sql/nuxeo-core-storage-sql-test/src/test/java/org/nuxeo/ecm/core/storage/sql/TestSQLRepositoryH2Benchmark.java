@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.nuxeo.ecm.core.api.security.SecurityConstants.READ;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
+import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
+
+/**
+ * Timings of secured queries on H2, using the read ACL and ancestors tables.
+ * <p>
+ * Excluded from the default test run, run it with
+ * {@code mvn test -Dtest=TestSQLRepositoryH2Benchmark}.
+ */
+public class TestSQLRepositoryH2Benchmark extends SQLRepositoryTestCase {
+
+    private static final Log log = LogFactory.getLog(TestSQLRepositoryH2Benchmark.class);
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        deployContrib("org.nuxeo.ecm.core.storage.sql.test.tests",
+                "OSGI-INF/test-repo-core-types-contrib.xml");
+        openSession();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        closeSession();
+        super.tearDown();
+    }
+
+    protected void setACEs(DocumentModel doc, ACE... aces)
+            throws ClientException {
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.setACEs(aces);
+        acp.addACL(acl);
+        doc.setACP(acp, true);
+    }
+
+    @Test
+    public void testSecuredStartsWithQuery() throws ClientException {
+        if (!(database instanceof DatabaseH2)) {
+            return;
+        }
+        int nfolders = 20;
+        int ndocs = 50;
+        DocumentModel root = session.getRootDocument();
+        DocumentModel base = new DocumentModelImpl(root.getPathAsString(),
+                "base", "Folder");
+        base = session.createDocument(base);
+        for (int i = 0; i < nfolders; i++) {
+            DocumentModel folder = new DocumentModelImpl(
+                    base.getPathAsString(), "folder" + i, "Folder");
+            folder = session.createDocument(folder);
+            // joe can read one folder out of two
+            setACEs(folder, new ACE("joe", READ, i % 2 == 0));
+            for (int j = 0; j < ndocs; j++) {
+                session.createDocument(new DocumentModelImpl(
+                        folder.getPathAsString(), "doc" + j, "File"));
+            }
+            session.save();
+        }
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            String query = "SELECT * FROM File WHERE ecm:path STARTSWITH '/base'";
+            int n = 20;
+            long t0 = System.currentTimeMillis();
+            for (int i = 0; i < n; i++) {
+                assertEquals(nfolders / 2 * ndocs,
+                        joeSession.query(query).size());
+            }
+            long elapsed = System.currentTimeMillis() - t0;
+            log.warn("Secured STARTSWITH query over " + nfolders * ndocs
+                    + " documents: " + elapsed / n + " ms");
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
+}
@@ -34,6 +34,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import javax.naming.NamingException;
@@ -47,6 +48,7 @@ import org.junit.Test;
 import org.nuxeo.ecm.core.api.AbstractSession;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ClientException;
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.Filter;
@@ -777,6 +779,96 @@ public class TestSQLRepositoryQuery extends SQLRepositoryTestCase {
         assertTrue(dml.totalSize() < 0);
     }
 
+    protected static class NoFolderFilter implements Filter {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean accept(DocumentModel doc) {
+            return !"Folder".equals(doc.getType());
+        }
+    }
+
+    @Test
+    public void testQueryLimitsPostFiltered() throws Exception {
+        DocumentModelList dml;
+        createDocs();
+
+        // filter not expressible in the query
+        Filter filter = new NoFolderFilter();
+        String sql = "SELECT * FROM Document ORDER BY ecm:name";
+
+        dml = session.query(sql, filter, 0, 0, 0);
+        assertEquals(4, dml.size());
+        assertEquals(4, dml.totalSize());
+
+        dml = session.query(sql, filter, 2, 1, -1);
+        assertEquals(2, dml.size());
+        assertEquals("testfile2", dml.get(0).getName());
+        assertEquals("testfile3", dml.get(1).getName());
+        assertEquals(4, dml.totalSize());
+
+        dml = session.query(sql, filter, 2, 3, -1);
+        assertEquals(1, dml.size());
+        assertEquals("testfile4", dml.get(0).getName());
+        assertEquals(4, dml.totalSize());
+
+        dml = session.query(sql, filter, 2, 0, 4);
+        assertEquals(2, dml.size());
+        assertEquals(4, dml.totalSize());
+
+        // truncated count
+        dml = session.query(sql, filter, 2, 0, 3);
+        assertEquals(2, dml.size());
+        assertTrue(dml.totalSize() < 0);
+
+        // ordering by path is done by hand
+        sql = "SELECT * FROM Document ORDER BY ecm:path";
+        dml = session.query(sql, filter, 2, 0, -1);
+        assertEquals(2, dml.size());
+        assertEquals("testfile1", dml.get(0).getName());
+        assertEquals("testfile2", dml.get(1).getName());
+        assertEquals(4, dml.totalSize());
+    }
+
+    @Test
+    public void testQueryPostFilteredSeveralPages() throws Exception {
+        int n = AbstractSession.POST_FILTER_CHUNK_SIZE * 2 + 10;
+        DocumentModel folder = session.createDocumentModel("/", "folder",
+                "Folder");
+        folder = session.createDocument(folder);
+        for (int i = 0; i < n; i++) {
+            DocumentModel doc = session.createDocumentModel("/folder",
+                    String.format("doc%03d", Integer.valueOf(i)), "File");
+            session.createDocument(doc);
+        }
+        session.save();
+        Filter filter = new NoFolderFilter();
+
+        // without ORDER BY, pages are ordered by id
+        String sql = "SELECT * FROM Document";
+        DocumentModelList dml = session.query(sql, filter, 0, 0, -1);
+        assertEquals(n, dml.size());
+        assertEquals(n, dml.totalSize());
+        Set<String> ids = new HashSet<String>();
+        for (DocumentModel doc : dml) {
+            ids.add(doc.getId());
+        }
+        assertEquals(n, ids.size());
+
+        // page spanning two backend pages
+        sql = "SELECT * FROM Document ORDER BY ecm:name";
+        dml = session.query(sql, filter, 20,
+                AbstractSession.POST_FILTER_CHUNK_SIZE - 10, -1);
+        assertEquals(20, dml.size());
+        assertEquals(String.format("doc%03d",
+                Integer.valueOf(AbstractSession.POST_FILTER_CHUNK_SIZE - 10)),
+                dml.get(0).getName());
+        assertEquals(String.format("doc%03d",
+                Integer.valueOf(AbstractSession.POST_FILTER_CHUNK_SIZE + 9)),
+                dml.get(19).getName());
+        assertEquals(n, dml.totalSize());
+    }
+
     // from TestSQLWithPath
     @Test
     public void testEcmPathEqual() throws Exception {
@@ -1351,6 +1443,40 @@ public class TestSQLRepositoryQuery extends SQLRepositoryTestCase {
         assertEquals(whole.get(1).getId(), secondPage.get(0).getId());
     }
 
+    @Test
+    public void testQueryKeysetPaging() throws Exception {
+        createDocs();
+        checkKeysetPaging("SELECT * FROM Document ORDER BY dc:title");
+        checkKeysetPaging("SELECT * FROM Document ORDER BY dc:title DESC");
+        checkKeysetPaging("SELECT * FROM Document ORDER BY dc:modified, ecm:name");
+        checkKeysetPaging("SELECT * FROM Document ORDER BY ecm:path");
+    }
+
+    protected void checkKeysetPaging(String query) throws Exception {
+        List<String> expected = new LinkedList<String>();
+        String wholeQuery = query.endsWith(" DESC") ? query
+                + ", ecm:uuid DESC" : query + ", ecm:uuid";
+        if (query.endsWith("ecm:path")) {
+            wholeQuery = query;
+        }
+        for (DocumentModel doc : session.query(wholeQuery)) {
+            expected.add(doc.getId());
+        }
+        assertTrue(expected.size() > 2);
+        List<String> actual = new LinkedList<String>();
+        ContinuationToken token = ContinuationToken.FIRST;
+        while (token != null) {
+            DocumentModelList page = session.query(query, NXQL.NXQL, null, 2,
+                    token);
+            assertTrue(page.size() <= 2);
+            for (DocumentModel doc : page) {
+                actual.add(doc.getId());
+            }
+            token = page.getContinuationToken();
+        }
+        assertEquals(expected, actual);
+    }
+
     @Test
     public void testQuerySpecialFields() throws Exception {
         // ecm:isProxy and ecm:isCheckedInVersion are already tested in
@@ -2038,6 +2164,41 @@ public class TestSQLRepositoryQuery extends SQLRepositoryTestCase {
         res.close();
     }
 
+    @Test
+    public void testQueryIterableStreaming() throws Exception {
+        createDocs();
+
+        IterableQueryResult res = session.queryAndFetchStreaming(
+                "SELECT ecm:uuid, ecm:name FROM File ORDER BY ecm:name", "NXQL");
+        List<Serializable> names = new LinkedList<Serializable>();
+        for (Map<String, Serializable> x : res) {
+            names.add(x.get("ecm:name"));
+        }
+        res.close();
+        assertEquals(Arrays.asList("testfile1", "testfile2", "testfile4"),
+                names);
+
+        // forward-only cursor behavior
+        res = session.queryAndFetchStreaming(
+                "SELECT ecm:uuid, ecm:name FROM File ORDER BY ecm:name", "NXQL");
+        Iterator<Map<String, Serializable>> it = res.iterator();
+        assertEquals(-1, res.size());
+        assertEquals(0, res.pos());
+        res.skipTo(2);
+        assertEquals(2, res.pos());
+        assertTrue(it.hasNext());
+        assertEquals("testfile4", it.next().get("ecm:name"));
+        assertEquals(3, res.pos());
+        assertFalse(it.hasNext());
+        try {
+            res.skipTo(0);
+            fail("Should not be able to skip backward");
+        } catch (UnsupportedOperationException e) {
+            // ok
+        }
+        res.close();
+    }
+
     @Test
     public void testQueryIterableWithTransformer() throws Exception {
         createDocs();
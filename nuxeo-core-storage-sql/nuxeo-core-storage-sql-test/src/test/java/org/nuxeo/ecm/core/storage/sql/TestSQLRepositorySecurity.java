@@ -29,6 +29,7 @@ import static org.nuxeo.ecm.core.api.security.SecurityConstants.WRITE_SECURITY;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -44,7 +45,9 @@ import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.DocumentSecurityException;
+import org.nuxeo.ecm.core.api.Filter;
 import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.api.Sorter;
 import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
 import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
@@ -550,6 +553,176 @@ public class TestSQLRepositorySecurity extends SQLRepositoryTestCase {
         assertTrue(permissions.contains("Everything"));
     }
 
+    protected static List<String> getNames(DocumentModelList list) {
+        List<String> names = new ArrayList<String>();
+        for (DocumentModel doc : list) {
+            names.add(doc.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    protected void setACEs(DocumentModel doc, ACE... aces)
+            throws ClientException {
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.setACEs(aces);
+        acp.addACL(acl);
+        doc.setACP(acp, true);
+    }
+
+    @Test
+    public void testGetChildrenSecurity() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = new DocumentModelImpl(root.getPathAsString(),
+                "folder", "Folder");
+        folder = session.createDocument(folder);
+        setACEs(folder, new ACE("joe", READ, true));
+        String path = folder.getPathAsString();
+        session.createDocument(new DocumentModelImpl(path, "doc1", "File"));
+        DocumentModel doc2 = new DocumentModelImpl(path, "doc2", "File");
+        doc2 = session.createDocument(doc2);
+        setACEs(doc2, new ACE(EVERYONE, EVERYTHING, false));
+        DocumentModel doc3 = new DocumentModelImpl(path, "doc3", "File");
+        doc3 = session.createDocument(doc3);
+        setACEs(doc3, new ACE("joe", BROWSE, true), new ACE(EVERYONE,
+                EVERYTHING, false));
+        session.createDocument(new DocumentModelImpl(path, "sub", "Folder"));
+        session.save();
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            DocumentRef ref = folder.getRef();
+            // Read is checked without the read ACLs, which are only valid
+            // for Browse: doc3 only grants Browse
+            assertEquals(Arrays.asList("doc1", "sub"),
+                    getNames(joeSession.getChildren(ref)));
+            assertEquals(Arrays.asList("doc1"),
+                    getNames(joeSession.getChildren(ref, "File")));
+            assertEquals(Arrays.asList("doc1", "doc3", "sub"),
+                    getNames(joeSession.getChildren(ref, null, BROWSE)));
+            Filter filter = new Filter() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean accept(DocumentModel doc) {
+                    return !doc.getName().startsWith("sub");
+                }
+            };
+            Sorter sorter = new Sorter() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public int compare(DocumentModel doc1, DocumentModel doc2) {
+                    return doc2.getName().compareTo(doc1.getName());
+                }
+            };
+            DocumentModelList children = joeSession.getChildren(ref, null,
+                    BROWSE, filter, sorter);
+            assertEquals(2, children.size());
+            assertEquals("doc3", children.get(0).getName());
+            assertEquals("doc1", children.get(1).getName());
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
+    @Test
+    public void testMergedACPCacheInvalidation() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder1 = new DocumentModelImpl(root.getPathAsString(),
+                "folder1", "Folder");
+        folder1 = session.createDocument(folder1);
+        DocumentModel folder2 = new DocumentModelImpl(root.getPathAsString(),
+                "folder2", "Folder");
+        folder2 = session.createDocument(folder2);
+        DocumentModel sub = new DocumentModelImpl(folder1.getPathAsString(),
+                "sub", "Folder");
+        sub = session.createDocument(sub);
+        DocumentModel doc = new DocumentModelImpl(sub.getPathAsString(),
+                "doc", "File");
+        doc = session.createDocument(doc);
+        DocumentRef ref = doc.getRef();
+        setACEs(folder1, new ACE("joe", READ, true));
+        session.save();
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            assertTrue(joeSession.hasPermission(ref, READ));
+
+            // ACL change on an ancestor, seen by the session doing it
+            setACEs(folder1, new ACE("joe", READ, false));
+            assertEquals(DENY, session.getACP(ref).getAccess("joe", READ));
+            session.save();
+            // and by the other session after invalidations
+            joeSession.save();
+            assertFalse(joeSession.hasPermission(ref, READ));
+
+            setACEs(folder1, new ACE("joe", READ, true));
+            session.save();
+            joeSession.save();
+            assertTrue(joeSession.hasPermission(ref, READ));
+
+            // move to a place where joe has no rights
+            session.move(sub.getRef(), folder2.getRef(), null);
+            assertEquals(UNKNOWN, session.getACP(ref).getAccess("joe", READ));
+            session.save();
+            joeSession.save();
+            assertFalse(joeSession.hasPermission(ref, READ));
+
+            // the returned merged ACP is a copy
+            ACP acp = session.getACP(ref);
+            acp.getOrCreateACL().add(new ACE("joe", READ, true));
+            assertEquals(UNKNOWN, session.getACP(ref).getAccess("joe", READ));
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
+    @Test
+    public void testReadAclAndPathAfterMove() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder1 = new DocumentModelImpl(root.getPathAsString(),
+                "folder1", "Folder");
+        folder1 = session.createDocument(folder1);
+        DocumentModel folder2 = new DocumentModelImpl(root.getPathAsString(),
+                "folder2", "Folder");
+        folder2 = session.createDocument(folder2);
+        setACEs(folder2, new ACE("joe", READ, true));
+        DocumentModel sub = new DocumentModelImpl(folder1.getPathAsString(),
+                "sub", "Folder");
+        sub = session.createDocument(sub);
+        session.createDocument(new DocumentModelImpl(sub.getPathAsString(),
+                "doc", "File"));
+        session.save();
+
+        String inFolder1 = "SELECT * FROM File WHERE ecm:path STARTSWITH '/folder1'";
+        String inFolder2 = "SELECT * FROM File WHERE ecm:path STARTSWITH '/folder2'";
+        assertEquals(1, session.query(inFolder1).size());
+        assertEquals(0, session.query(inFolder2).size());
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            assertEquals(0, joeSession.query("SELECT * FROM File").size());
+
+            // move under a folder readable by joe
+            session.move(sub.getRef(), folder2.getRef(), null);
+            session.save();
+            assertEquals(0, session.query(inFolder1).size());
+            assertEquals(1, session.query(inFolder2).size());
+            joeSession.save();
+            assertEquals(1, joeSession.query(inFolder2).size());
+
+            // ACL change on an ancestor
+            setACEs(folder2, new ACE("joe", READ, false));
+            session.save();
+            joeSession.save();
+            assertEquals(0, joeSession.query(inFolder2).size());
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
     @Test
     public void testReadAclSecurity() throws ClientException {
         // Check that all permissions that contain Browse enable to list a
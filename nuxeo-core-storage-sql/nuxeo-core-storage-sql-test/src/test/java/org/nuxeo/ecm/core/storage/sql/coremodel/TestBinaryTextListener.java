@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.coremodel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.ecm.core.convert.api.ConversionService;
+import org.nuxeo.ecm.core.storage.sql.coremodel.BinaryTextListener.Job;
+
+/**
+ * Text extraction of the jobs of a bundle, with a fake conversion service
+ * returning the mime type and content of the converted blob.
+ */
+public class TestBinaryTextListener {
+
+    /** The blobs converted, in any order. */
+    protected List<String> converted;
+
+    protected BinaryTextListener listener;
+
+    @Before
+    public void setUp() {
+        converted = Collections.synchronizedList(new ArrayList<String>());
+        ConversionService conversionService = (ConversionService) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { ConversionService.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Exception {
+                        if (!method.getName().equals("convert")) {
+                            throw new UnsupportedOperationException(
+                                    method.getName());
+                        }
+                        Blob blob = ((BlobHolder) args[1]).getBlob();
+                        String text = blob.getMimeType() + " "
+                                + blob.getString();
+                        converted.add(text);
+                        return new SimpleBlobHolder(new StringBlob(text));
+                    }
+                });
+        listener = new BinaryTextListener(conversionService);
+        BinaryTextListener.textCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BinaryTextListener.textCache.clear();
+    }
+
+    protected static Blob blob(String content, String mimeType, String digest) {
+        Blob blob = new StringBlob(content, mimeType);
+        blob.setDigest(digest);
+        return blob;
+    }
+
+    @Test
+    public void testExtractTexts() throws Exception {
+        Blob a1 = blob("aaa", "text/plain", "digesta");
+        // same bytes in another document
+        Blob a2 = blob("aaa", "text/plain", "digesta");
+        // same bytes with another mime type
+        Blob a3 = blob("aaa", "text/html", "digesta");
+        // no digest, shared by two jobs
+        Blob b = blob("bbb", "text/plain", null);
+        Job job1 = new Job("1", "default", Arrays.asList(a1, b));
+        Job job2 = new Job("2", "default", Arrays.asList(a2, a3));
+        Job job3 = new Job("3", "title", Arrays.asList(b));
+
+        Map<Job, String> texts = listener.extractTexts(Arrays.asList(job1,
+                job2, job3));
+
+        assertEquals("text/plain aaa text/plain bbb", texts.get(job1));
+        assertEquals("text/plain aaa text/html aaa", texts.get(job2));
+        assertEquals("text/plain bbb", texts.get(job3));
+        // each distinct blob converted once
+        assertEquals(3, converted.size());
+
+        // digests are cached for the next bundles, with their mime type
+        Job job4 = new Job("4", "default", Arrays.asList(
+                blob("aaa", "text/html", "digesta"),
+                blob("aaa", "application/xml", "digesta")));
+        texts = listener.extractTexts(Collections.singletonList(job4));
+        assertEquals("text/html aaa application/xml aaa", texts.get(job4));
+        assertEquals(4, converted.size());
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.coremodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.sql.coremodel.BinaryTextListener.ExtractedTextCache;
+
+public class TestExtractedTextCache {
+
+    @Test
+    public void testMaxEntries() {
+        ExtractedTextCache cache = new ExtractedTextCache(3, 1000);
+        cache.put("a", "aaa");
+        cache.put("b", "bbb");
+        cache.put("c", "ccc");
+        // access a so that b is the least recently used
+        assertEquals("aaa", cache.get("a"));
+        cache.put("d", "ddd");
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("aaa", cache.get("a"));
+        assertEquals("ccc", cache.get("c"));
+        assertEquals("ddd", cache.get("d"));
+    }
+
+    @Test
+    public void testMaxChars() {
+        ExtractedTextCache cache = new ExtractedTextCache(100, 10);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("c", "cccc");
+        // a evicted to keep 8 chars
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        // replacing a text accounts for the old one
+        cache.put("b", "b");
+        cache.put("d", "ddddd");
+        assertEquals(3, cache.size());
+        // too big for the cache
+        cache.put("e", "eeeeeeeeeeee");
+        assertNull(cache.get("e"));
+        assertEquals(3, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -15,6 +15,7 @@ package org.nuxeo.ecm.core.storage.sql.coremodel;
 import org.nuxeo.ecm.core.api.security.ACE;
 import org.nuxeo.ecm.core.api.security.ACL;
 import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
 import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
 import org.nuxeo.ecm.core.storage.sql.ACLRow;
@@ -165,4 +166,48 @@ public class TestSQLSecurityManager {
         assertNull(aclrow.group);
     }
 
+    @Test
+    public void testCompiledACP() {
+        ACPImpl acp = new ACPImpl();
+        ACL acl = new ACLImpl("local");
+        acl.add(new ACE("bob", "Read", false));
+        acl.add(new ACE("members", "Write", true));
+        acp.addACL(acl);
+        acl = new ACLImpl(ACL.INHERITED_ACL);
+        acl.add(new ACE("bob", "Everything", true));
+        acl.add(new ACE("Everyone", "Browse", true));
+        acl.add(new ACE("pete", "RestrictedRead", true));
+        acl.add(new ACE("Everyone", "Everything", false));
+        acp.addACL(acl);
+        CompiledACP compiled = new CompiledACP(acp);
+
+        String[][] principals = { {}, { "bob" }, { "pete" },
+                { "joe", "members" }, { "bob", "members" }, { "Everyone" } };
+        String[][] permissions = { {}, { "Read" }, { "Write" },
+                { "Browse", "Read" }, { "RestrictedRead" }, { "Everything" },
+                { "Zap" } };
+        for (String[] pr : principals) {
+            for (String[] pe : permissions) {
+                assertEquals(pr.length + " " + pe.length, acp.getAccess(pr,
+                        pe), compiled.getAccess(pr, pe));
+            }
+        }
+        assertEquals(Access.DENY, compiled.getAccess("bob", "Read"));
+        assertEquals(Access.GRANT, compiled.getAccess("bob", "Write"));
+        assertEquals(Access.GRANT, compiled.getAccess("pete",
+                "RestrictedRead"));
+        assertEquals(Access.UNKNOWN, compiled.getAccess("joe",
+                "RestrictedRead"));
+
+        // copies are independent
+        ACP copy = compiled.getACP();
+        copy.getACL("local").clear();
+        assertEquals(2, compiled.getACP().getACL("local").size());
+
+        CompiledACP empty = new CompiledACP(null);
+        assertTrue(empty.isEmpty());
+        assertNull(empty.getACP());
+        assertEquals(Access.UNKNOWN, empty.getAccess("bob", "Read"));
+    }
+
 }
@@ -15,6 +15,8 @@ package org.nuxeo.ecm.core.storage;
 import java.io.Serializable;
 import java.util.List;
 
+import org.nuxeo.ecm.core.api.ContinuationToken;
+
 /**
  * The bundling of a list and a total size.
  * <p>
@@ -28,6 +30,13 @@ public class PartialList<E> implements Serializable {
 
     public final long totalSize;
 
+    /**
+     * The token to get the next page, for keyset pagination.
+     *
+     * @since 5.6
+     */
+    public final ContinuationToken continuationToken;
+
     /**
      * Constructs a partial list.
      * <p>
@@ -37,8 +46,25 @@ public class PartialList<E> implements Serializable {
      * @param totalSize the total size
      */
     public PartialList(List<E> list, long totalSize) {
+        this(list, totalSize, null);
+    }
+
+    /**
+     * Constructs a partial list for a page obtained with keyset pagination.
+     * <p>
+     * The list MUST be {@link Serializable}.
+     *
+     * @param list the list (MUST be {@link Serializable})
+     * @param totalSize the total size
+     * @param continuationToken the token to get the next page, or
+     *            {@code null} if there are no more results
+     * @since 5.6
+     */
+    public PartialList(List<E> list, long totalSize,
+            ContinuationToken continuationToken) {
         this.list = list;
         this.totalSize = totalSize;
+        this.continuationToken = continuationToken;
     }
 
 }
@@ -40,8 +40,16 @@ public class CachingMapper extends CachingRowMapper implements Mapper {
             InvalidationsPropagator cachePropagator,
             InvalidationsPropagator eventPropagator,
             InvalidationsQueue repositoryEventQueue) {
+        this(model, mapper, cachePropagator, eventPropagator,
+                repositoryEventQueue, null);
+    }
+
+    public CachingMapper(Model model, Mapper mapper,
+            InvalidationsPropagator cachePropagator,
+            InvalidationsPropagator eventPropagator,
+            InvalidationsQueue repositoryEventQueue, SharedRowCache sharedCache) {
         super(model, mapper, cachePropagator, eventPropagator,
-                repositoryEventQueue);
+                repositoryEventQueue, sharedCache);
         this.mapper = mapper;
     }
 
@@ -158,6 +166,9 @@ public class CachingMapper extends CachingRowMapper implements Mapper {
 
     @Override
     public void start(Xid xid, int flags) throws XAException {
+        if (flags == TMNOFLAGS) {
+            sharedCacheTransactionStarted();
+        }
         mapper.start(xid, flags);
     }
 
@@ -169,12 +180,21 @@ public class CachingMapper extends CachingRowMapper implements Mapper {
 
     @Override
     public int prepare(Xid xid) throws XAException {
-        return mapper.prepare(xid);
+        int res = mapper.prepare(xid);
+        if (res == XA_RDONLY) {
+            // commit() won't be called
+            sharedCacheTransactionEnded();
+        }
+        return res;
     }
 
     @Override
     public void commit(Xid xid, boolean onePhase) throws XAException {
-        mapper.commit(xid, onePhase);
+        try {
+            mapper.commit(xid, onePhase);
+        } finally {
+            sharedCacheTransactionEnded();
+        }
     }
 
     // rollback interacts with caches so is in RowMapper
@@ -62,6 +62,18 @@ public class CachingRowMapper implements RowMapper {
     // references to it which would prevent its GCing
     private final Map<RowId, Row> cache;
 
+    /**
+     * The repository-wide cache of committed rows, shared by all mappers, or
+     * {@code null} if not enabled.
+     */
+    private final SharedRowCache sharedCache;
+
+    /**
+     * The shared cache generation when the current transaction started, or
+     * {@code -1} outside a transaction.
+     */
+    protected long transactionGeneration = -1;
+
     private final Model model;
 
     /**
@@ -132,14 +144,23 @@ public class CachingRowMapper implements RowMapper {
 
     private boolean cacheStatistics;
 
-    @SuppressWarnings("unchecked")
     public CachingRowMapper(Model model, RowMapper rowMapper,
             InvalidationsPropagator cachePropagator,
             InvalidationsPropagator eventPropagator,
             InvalidationsQueue repositoryEventQueue) {
+        this(model, rowMapper, cachePropagator, eventPropagator,
+                repositoryEventQueue, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public CachingRowMapper(Model model, RowMapper rowMapper,
+            InvalidationsPropagator cachePropagator,
+            InvalidationsPropagator eventPropagator,
+            InvalidationsQueue repositoryEventQueue, SharedRowCache sharedCache) {
         this.model = model;
         this.rowMapper = rowMapper;
         cache = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.SOFT);
+        this.sharedCache = sharedCache;
         localInvalidations = new Invalidations();
         cacheQueue = new InvalidationsQueue("mapper-" + this);
         this.cachePropagator = cachePropagator;
@@ -166,7 +187,7 @@ public class CachingRowMapper implements RowMapper {
         return row.tableName == ABSENT; // == is ok
     }
 
-    protected void cachePut(Row row) {
+    protected Row cachePut(Row row) {
         row = row.clone();
         // for ACL collections, make sure the order is correct
         // (without the cache, the query to get a list of collection does an
@@ -176,6 +197,7 @@ public class CachingRowMapper implements RowMapper {
             row.values = sortACLRows((ACLRow[]) row.values);
         }
         cache.put(new RowId(row), row);
+        return row;
     }
 
     protected ACLRow[] sortACLRows(ACLRow[] acls) {
@@ -185,26 +207,76 @@ public class CachingRowMapper implements RowMapper {
         return list.toArray(res);
     }
 
-    protected void cachePutAbsent(RowId rowId) {
-        cache.put(new RowId(rowId), new Row(ABSENT, (Serializable) null));
+    protected Row cachePutAbsent(RowId rowId) {
+        Row row = new Row(ABSENT, (Serializable) null);
+        cache.put(new RowId(rowId), row);
+        return row;
     }
 
-    protected void cachePutAbsentIfNull(RowId rowId, Row row) {
+    protected Row cachePutAbsentIfNull(RowId rowId, Row row) {
         if (row != null) {
-            cachePut(row);
+            return cachePut(row);
         } else {
-            cachePutAbsent(rowId);
+            return cachePutAbsent(rowId);
         }
     }
 
-    protected void cachePutAbsentIfRowId(RowId rowId) {
+    protected Row cachePutAbsentIfRowId(RowId rowId) {
         if (rowId instanceof Row) {
-            cachePut((Row) rowId);
+            return cachePut((Row) rowId);
         } else {
-            cachePutAbsent(rowId);
+            return cachePutAbsent(rowId);
         }
     }
 
+    /**
+     * Gets the shared cache generation, to be called before reading rows from
+     * the underlying mapper.
+     * <p>
+     * In a transaction this is the generation when it started: with snapshot
+     * or repeatable read isolation, rows are read as of the transaction
+     * start, so they may predate any later invalidation.
+     */
+    protected long sharedCacheGeneration() {
+        if (sharedCache == null) {
+            return 0;
+        }
+        if (transactionGeneration != -1) {
+            return transactionGeneration;
+        }
+        return sharedCache.getGeneration();
+    }
+
+    /**
+     * Called when a new transaction starts, before the underlying mapper.
+     */
+    protected void sharedCacheTransactionStarted() {
+        if (sharedCache != null) {
+            transactionGeneration = sharedCache.getGeneration();
+        }
+    }
+
+    /**
+     * Called when the transaction is committed or rolled back.
+     */
+    protected void sharedCacheTransactionEnded() {
+        transactionGeneration = -1;
+    }
+
+    /**
+     * Puts a row read from the underlying mapper in the shared cache.
+     * <p>
+     * The row is the instance held by our own cache, which is never modified.
+     * Nothing is shared if this mapper has uncommitted writes, as the read
+     * may have seen them.
+     */
+    protected void sharedCachePut(RowId rowId, Row row, long gen) {
+        if (sharedCache == null || !localInvalidations.isEmpty()) {
+            return;
+        }
+        sharedCache.put(new RowId(rowId), row, gen);
+    }
+
     protected Row cacheGet(RowId rowId) {
         Split split = null;
         if (cacheStatistics) {
@@ -213,6 +285,16 @@ public class CachingRowMapper implements RowMapper {
         }
 
         Row row = cache.get(rowId);
+        // with uncommitted writes the shared cache may hold rows we changed
+        // or removed, and our own entries may have been evicted
+        if (row == null && sharedCache != null
+                && localInvalidations.isEmpty()) {
+            row = sharedCache.get(rowId);
+            if (row != null) {
+                // instances held by the caches are never modified
+                cache.put(new RowId(rowId), row);
+            }
+        }
         if (row != null && !isAbsent(row)) {
             row = row.clone();
         }
@@ -273,6 +355,9 @@ public class CachingRowMapper implements RowMapper {
     public InvalidationsPair receiveInvalidations() throws StorageException {
         // invalidations from the underlying mapper (remote, cluster)
         InvalidationsPair invals = rowMapper.receiveInvalidations();
+        if (invals != null && sharedCache != null) {
+            sharedCache.invalidate(invals.cacheInvalidations);
+        }
 
         // add local accumulated invalidations to remote ones
         Invalidations invalidations = cacheQueue.getInvalidations();
@@ -322,6 +407,11 @@ public class CachingRowMapper implements RowMapper {
         }
 
         if (invalidations != null && !invalidations.isEmpty()) {
+            // the writes are committed, remove stale shared rows
+            if (sharedCache != null) {
+                sharedCache.invalidate(invalidations);
+            }
+
             // send to underlying mapper
             rowMapper.sendInvalidations(invalidations);
 
@@ -371,6 +461,7 @@ public class CachingRowMapper implements RowMapper {
         } finally {
             cache.clear();
             localInvalidations.clear();
+            sharedCacheTransactionEnded();
         }
     }
 
@@ -408,10 +499,12 @@ public class CachingRowMapper implements RowMapper {
                 split = stopWatch.start();
             }
             // ask missing ones to underlying row mapper
+            long gen = sharedCacheGeneration();
             List<? extends RowId> fetched = rowMapper.read(todo, cacheOnly);
             // add them to the cache
             for (RowId rowId : fetched) {
-                cachePutAbsentIfRowId(rowId);
+                Row row = cachePutAbsentIfRowId(rowId);
+                sharedCachePut(rowId, row, gen);
             }
             // merge results
             res.addAll(fetched);
@@ -474,8 +567,10 @@ public class CachingRowMapper implements RowMapper {
     public Row readSimpleRow(RowId rowId) throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            long gen = sharedCacheGeneration();
             row = rowMapper.readSimpleRow(rowId);
-            cachePutAbsentIfNull(rowId, row);
+            Row cached = cachePutAbsentIfNull(rowId, row);
+            sharedCachePut(rowId, cached, gen);
             return row;
         } else if (isAbsent(row)) {
             return null;
@@ -489,10 +584,12 @@ public class CachingRowMapper implements RowMapper {
             throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            long gen = sharedCacheGeneration();
             Serializable[] array = rowMapper.readCollectionRowArray(rowId);
             assert array != null;
             row = new Row(rowId.tableName, rowId.id, array);
-            cachePut(row);
+            Row cached = cachePut(row);
+            sharedCachePut(rowId, cached, gen);
             return row.values;
         } else if (isAbsent(row)) {
             return null;
@@ -505,10 +602,12 @@ public class CachingRowMapper implements RowMapper {
     public List<Row> readSelectionRows(SelectionType selType,
             Serializable selId, Serializable filter, Serializable criterion,
             boolean limitToOne) throws StorageException {
+        long gen = sharedCacheGeneration();
         List<Row> rows = rowMapper.readSelectionRows(selType, selId, filter,
                 criterion, limitToOne);
         for (Row row : rows) {
-            cachePut(row);
+            Row cached = cachePut(row);
+            sharedCachePut(row, cached, gen);
         }
         return rows;
     }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import org.nuxeo.ecm.core.storage.StorageException;
+
+/**
+ * Transport of invalidations between the nodes of a cluster.
+ * <p>
+ * Invalidations can either be pulled, the cluster node asking for them with
+ * {@link #receiveInvalidations} at the beginning of each transaction, or
+ * pushed, the invalidator delivering them to the propagator given at
+ * initialization as soon as they arrive.
+ *
+ * @since 5.6
+ */
+public interface ClusterInvalidator {
+
+    /**
+     * Initializes the invalidator for a cluster node.
+     *
+     * @param clusterNodeMapper the mapper dedicated to cluster node
+     *            operations, to be used synchronized
+     * @param repositoryDescriptor the repository descriptor
+     * @param propagator the propagator to which pushed invalidations are
+     *            delivered
+     */
+    void initialize(Mapper clusterNodeMapper,
+            RepositoryDescriptor repositoryDescriptor,
+            InvalidationsPropagator propagator) throws StorageException;
+
+    /**
+     * Closes this invalidator, leaving the cluster.
+     */
+    void close() throws StorageException;
+
+    /**
+     * Called when the connection of the cluster node mapper was reset.
+     */
+    void connectionWasReset() throws StorageException;
+
+    /**
+     * Makes the next call to {@link #receiveInvalidations} fetch the
+     * invalidations, even if the clustering delay hasn't expired.
+     */
+    void processInvalidationsNext();
+
+    /**
+     * Receives invalidations from other cluster nodes.
+     *
+     * @return the invalidations, or {@code null} if there are none to process
+     *         now
+     */
+    Invalidations receiveInvalidations() throws StorageException;
+
+    /**
+     * Sends invalidations to other cluster nodes.
+     */
+    void sendInvalidations(Invalidations invalidations)
+            throws StorageException;
+
+}
@@ -13,9 +13,17 @@ package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.Serializable;
 import java.sql.SQLException;
-import java.util.LinkedHashMap;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -28,16 +36,23 @@ import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.XidImpl;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Invalidations.InvalidationsPair;
 
 /**
  * Manager of locks that serializes access to them.
  * <p>
  * The public methods called by the session are {@link #setLock},
- * {@link #removeLock} and {@link #getLock}. Method {@link #shutdown} must be
- * called when done with the lock manager.
+ * {@link #removeLock}, {@link #getLock} and {@link #getLocks}. Method
+ * {@link #shutdown} must be called when done with the lock manager.
+ * <p>
+ * Locks are cached in a concurrent map, so that reading a cached lock doesn't
+ * take any lock. Changes to the lock of a given document are serialized
+ * through a striped lock, and access to the mapper is serialized through
+ * {@link #serializationLock}.
  * <p>
  * In cluster mode, changes are executed in a begin/commit so that tests/updates
- * can be atomic.
+ * can be atomic, they always check the database, and they are sent to the
+ * other cluster nodes as invalidations so that their cache can be updated.
  * <p>
  * Transaction management can be done by hand because we're dealing with a
  * low-level {@link Mapper} and not something wrapped by a JCA pool.
@@ -59,46 +74,66 @@ public class LockManager {
      */
     protected final boolean clusteringEnabled;
 
+    /**
+     * Delay between checks for invalidations from other cluster nodes.
+     */
+    protected final long clusteringDelay;
+
     /**
      * Lock serializing access to the mapper.
      */
     protected final ReentrantLock serializationLock;
 
+    /**
+     * Number of stripes for per-document locks, a power of two.
+     */
+    protected static final int STRIPES = 64;
+
+    /**
+     * Striped per-document locks, serializing changes to the lock of a
+     * document and the cache updates for it.
+     */
+    protected final ReentrantLock[] stripes;
+
     /**
      * Counter to avoid having two identical transaction ids.
-     * <p>
-     * Used under {@link #serializationLock}.
      */
     protected static AtomicLong txCounter = new AtomicLong();
 
     protected static final Lock NULL_LOCK = new Lock(null, null);
 
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
     protected final boolean caching;
 
+    protected final int cacheSize;
+
     /**
-     * A cache of locks, used only in non-cluster mode, when this lock manager
-     * is the only one dealing with locks.
+     * A cache of locks, read without locking.
      * <p>
-     * Used under {@link #serializationLock}.
+     * Written under the stripe lock of the document. When the cache grows
+     * beyond {@link #cacheSize}, arbitrary entries are evicted.
      */
-    protected final LRUCache<Serializable, Lock> lockCache;
-
-    protected static final int CACHE_SIZE = 100;
+    protected final ConcurrentMap<Serializable, Lock> lockCache;
 
-    protected static class LRUCache<K, V> extends LinkedHashMap<K, V> {
-        private static final long serialVersionUID = 1L;
-
-        private final int max;
+    /**
+     * Incremented when locks are changed or invalidated, so that a value read
+     * from the database before that isn't put in the cache afterwards.
+     */
+    protected final AtomicLong cacheGeneration = new AtomicLong();
 
-        public LRUCache(int max) {
-            super(max, 1.0f, true);
-            this.max = max;
-        }
+    /** Last time invalidations from other cluster nodes were checked. */
+    protected volatile long lastInvalidationsCheck;
 
-        @Override
-        protected boolean removeEldestEntry(Entry<K, V> eldest) {
-            return size() > max;
-        }
+    /**
+     * Creates a lock manager using the given mapper.
+     * <p>
+     * The mapper will from then on be only used and closed by the lock manager.
+     * <p>
+     * {@link #shutdown} must be called when done with the lock manager.
+     */
+    public LockManager(Mapper mapper, boolean clusteringEnabled) {
+        this(mapper, clusteringEnabled, 0, DEFAULT_CACHE_SIZE);
     }
 
     /**
@@ -107,13 +142,28 @@ public class LockManager {
      * The mapper will from then on be only used and closed by the lock manager.
      * <p>
      * {@link #shutdown} must be called when done with the lock manager.
+     *
+     * @param mapper the mapper
+     * @param clusteringEnabled whether clustering is enabled
+     * @param clusteringDelay the delay between checks of cluster
+     *            invalidations
+     * @param cacheSize the maximum number of cached locks, {@code 0} to
+     *            disable caching
+     * @since 5.6
      */
-    public LockManager(Mapper mapper, boolean clusteringEnabled) {
+    public LockManager(Mapper mapper, boolean clusteringEnabled,
+            long clusteringDelay, int cacheSize) {
         this.mapper = mapper;
         this.clusteringEnabled = clusteringEnabled;
+        this.clusteringDelay = clusteringDelay;
         serializationLock = new ReentrantLock(true); // fair
-        caching = !clusteringEnabled;
-        lockCache = caching ? new LRUCache<Serializable, Lock>(CACHE_SIZE)
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.cacheSize = cacheSize;
+        caching = cacheSize > 0;
+        lockCache = caching ? new ConcurrentHashMap<Serializable, Lock>()
                 : null;
     }
 
@@ -129,27 +179,140 @@ public class LockManager {
         }
     }
 
+    protected ReentrantLock getStripe(Serializable id) {
+        int h = id.hashCode();
+        // spread bits, as in ConcurrentHashMap
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[h & (STRIPES - 1)];
+    }
+
     /**
      * Gets the lock on a document.
      */
-    public Lock getLock(final Serializable id) throws StorageException {
-        serializationLock.lock();
+    public Lock getLock(Serializable id) throws StorageException {
+        if (!caching) {
+            return readLock(id);
+        }
+        processClusterInvalidations();
+        Lock lock = lockCache.get(id);
+        if (lock != null) {
+            return lock == NULL_LOCK ? null : lock;
+        }
+        long generation = cacheGeneration.get();
+        lock = readLock(id);
+        ReentrantLock stripe = getStripe(id);
+        stripe.lock();
         try {
-            Lock lock;
-            if (caching && (lock = lockCache.get(id)) != null) {
-                return lock == NULL_LOCK ? null : lock;
+            if (cacheGeneration.get() == generation) {
+                putInCache(id, lock);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        return lock;
+    }
+
+    /**
+     * Gets the locks on several documents, hitting the database at most once.
+     *
+     * @param ids the document ids
+     * @return a map of the locks, only containing locked documents
+     * @since 5.6
+     */
+    public Map<Serializable, Lock> getLocks(Collection<Serializable> ids)
+            throws StorageException {
+        Map<Serializable, Lock> locks = new HashMap<Serializable, Lock>();
+        List<RowId> rowIds = new ArrayList<RowId>(ids.size());
+        if (caching) {
+            processClusterInvalidations();
+        }
+        for (Serializable id : ids) {
+            Lock lock = caching ? lockCache.get(id) : null;
+            if (lock == null) {
+                rowIds.add(new RowId(Model.LOCK_TABLE_NAME, id));
+            } else if (lock != NULL_LOCK) {
+                locks.put(id, lock);
             }
+        }
+        if (rowIds.isEmpty()) {
+            return locks;
+        }
+        long generation = cacheGeneration.get();
+        List<? extends RowId> rows;
+        serializationLock.lock();
+        try {
             // no transaction needed, single operation
-            lock = mapper.getLock(id);
+            rows = mapper.read(rowIds, false);
+        } finally {
+            serializationLock.unlock();
+        }
+        for (RowId rowId : rows) {
+            Lock lock = null;
+            if (rowId instanceof Row) {
+                Row row = (Row) rowId;
+                lock = new Lock((String) row.get(Model.LOCK_OWNER_KEY),
+                        (Calendar) row.get(Model.LOCK_CREATED_KEY));
+                locks.put(rowId.id, lock);
+            }
             if (caching) {
-                lockCache.put(id, lock == null ? NULL_LOCK : lock);
+                ReentrantLock stripe = getStripe(rowId.id);
+                stripe.lock();
+                try {
+                    if (cacheGeneration.get() == generation) {
+                        putInCache(rowId.id, lock);
+                    }
+                } finally {
+                    stripe.unlock();
+                }
             }
-            return lock;
+        }
+        return locks;
+    }
+
+    /**
+     * Reads a lock from the database.
+     */
+    protected Lock readLock(Serializable id) throws StorageException {
+        serializationLock.lock();
+        try {
+            // no transaction needed, single operation
+            return mapper.getLock(id);
         } finally {
             serializationLock.unlock();
         }
     }
 
+    /**
+     * Puts a lock in the cache.
+     * <p>
+     * Called under the stripe lock of the document.
+     */
+    protected void putInCache(Serializable id, Lock lock) {
+        lockCache.put(id, lock == null ? NULL_LOCK : lock);
+        if (lockCache.size() > cacheSize) {
+            // evict arbitrary entries, they'll be read again if needed
+            int n = lockCache.size() - cacheSize * 3 / 4;
+            for (Iterator<Serializable> it = lockCache.keySet().iterator(); n > 0
+                    && it.hasNext(); n--) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Updates the cache after a change of the lock of a document.
+     * <p>
+     * Called under the stripe lock of the document.
+     */
+    protected void lockChanged(Serializable id, Lock lock) {
+        cacheGeneration.incrementAndGet();
+        if (caching) {
+            putInCache(id, lock);
+        }
+    }
+
     /**
      * Locks a document.
      */
@@ -213,10 +376,12 @@ public class LockManager {
 
     protected Lock setLockInternal(final Serializable id, final Lock lock)
             throws StorageException {
-        serializationLock.lock();
+        ReentrantLock stripe = getStripe(id);
+        stripe.lock();
         try {
             Lock oldLock;
-            if (caching && (oldLock = lockCache.get(id)) != null
+            if (caching && !clusteringEnabled
+                    && (oldLock = lockCache.get(id)) != null
                     && oldLock != NULL_LOCK) {
                 return oldLock;
             }
@@ -226,12 +391,16 @@ public class LockManager {
                     return mapper.setLock(id, lock);
                 }
             });
-            if (caching && oldLock == null) {
-                lockCache.put(id, lock == null ? NULL_LOCK : lock);
+            if (oldLock == null) {
+                lockChanged(id, lock);
+                sendInvalidation(id);
+            } else if (caching) {
+                // failed, but we now know the existing lock
+                putInCache(id, oldLock);
             }
             return oldLock;
         } finally {
-            serializationLock.unlock();
+            stripe.unlock();
         }
     }
 
@@ -240,10 +409,12 @@ public class LockManager {
      */
     public Lock removeLock(final Serializable id, final String owner)
             throws StorageException {
-        serializationLock.lock();
+        ReentrantLock stripe = getStripe(id);
+        stripe.lock();
         try {
             Lock oldLock = null;
-            if (caching && (oldLock = lockCache.get(id)) == NULL_LOCK) {
+            if (caching && !clusteringEnabled
+                    && (oldLock = lockCache.get(id)) == NULL_LOCK) {
                 return null;
             }
             if (oldLock != null && !canLockBeRemoved(oldLock, owner)) {
@@ -260,30 +431,48 @@ public class LockManager {
                 } else {
                     // we know the previous lock, we can force
                     // no transaction needed, single operation
-                    mapper.removeLock(id, owner, true);
+                    serializationLock.lock();
+                    try {
+                        mapper.removeLock(id, owner, true);
+                    } finally {
+                        serializationLock.unlock();
+                    }
                 }
             }
-            if (caching) {
-                if (oldLock != null && oldLock.getFailed()) {
-                    // failed, but we now know the existing lock
-                    lockCache.put(id, new Lock(oldLock, false));
-                } else {
-                    lockCache.put(id, NULL_LOCK);
+            if (oldLock != null && oldLock.getFailed()) {
+                // failed, but we now know the existing lock
+                if (caching) {
+                    putInCache(id, new Lock(oldLock, false));
+                }
+            } else {
+                lockChanged(id, null);
+                if (oldLock != null) {
+                    sendInvalidation(id);
                 }
             }
             return oldLock;
         } finally {
-            serializationLock.unlock();
+            stripe.unlock();
         }
     }
 
     /**
      * Calls the callable, inside a transaction if in cluster mode.
      * <p>
-     * Called under {@link #serializationLock}.
+     * Takes {@link #serializationLock}.
      */
     protected Lock callInTransaction(Callable<Lock> callable)
             throws StorageException {
+        serializationLock.lock();
+        try {
+            return callInTransactionInternal(callable);
+        } finally {
+            serializationLock.unlock();
+        }
+    }
+
+    protected Lock callInTransactionInternal(Callable<Lock> callable)
+            throws StorageException {
         Xid xid = null;
         boolean txStarted = false;
         boolean txSuccess = false;
@@ -331,15 +520,89 @@ public class LockManager {
         }
     }
 
-    public void clearCaches() {
-        serializationLock.lock();
+    /**
+     * Sends the invalidation of the lock of a document to the other cluster
+     * nodes.
+     */
+    protected void sendInvalidation(Serializable id) throws StorageException {
+        if (!clusteringEnabled) {
+            return;
+        }
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(Model.LOCK_TABLE_NAME, id));
+        mapper.sendInvalidations(invalidations);
+    }
+
+    /**
+     * Processes the invalidations received from other cluster nodes, if the
+     * clustering delay has expired.
+     * <p>
+     * If the mapper is busy, the invalidations will be processed on a later
+     * call.
+     */
+    protected void processClusterInvalidations() throws StorageException {
+        if (!clusteringEnabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (lastInvalidationsCheck + clusteringDelay > now) {
+            return;
+        }
+        if (!serializationLock.tryLock()) {
+            return;
+        }
+        InvalidationsPair invals;
         try {
-            if (caching) {
-                lockCache.clear();
-            }
+            lastInvalidationsCheck = now;
+            invals = mapper.receiveInvalidations();
         } finally {
             serializationLock.unlock();
         }
+        if (invals != null) {
+            invalidate(invals.cacheInvalidations);
+        }
+    }
+
+    /**
+     * Removes from the cache the locks of the documents invalidated.
+     */
+    protected void invalidate(Invalidations invalidations) {
+        if (invalidations == null || invalidations.isEmpty()) {
+            return;
+        }
+        cacheGeneration.incrementAndGet();
+        if (invalidations.all) {
+            lockCache.clear();
+            return;
+        }
+        invalidate(invalidations.modified);
+        invalidate(invalidations.deleted);
+    }
+
+    protected void invalidate(Set<RowId> rowIds) {
+        if (rowIds == null) {
+            return;
+        }
+        for (RowId rowId : rowIds) {
+            if (!Model.LOCK_TABLE_NAME.equals(rowId.tableName)
+                    && !Model.HIER_TABLE_NAME.equals(rowId.tableName)) {
+                continue;
+            }
+            ReentrantLock stripe = getStripe(rowId.id);
+            stripe.lock();
+            try {
+                lockCache.remove(rowId.id);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    public void clearCaches() {
+        cacheGeneration.incrementAndGet();
+        if (caching) {
+            lockCache.clear();
+        }
     }
 
     /**
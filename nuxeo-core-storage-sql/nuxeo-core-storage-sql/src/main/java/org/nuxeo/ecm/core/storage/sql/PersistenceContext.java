@@ -170,6 +170,7 @@ public class PersistenceContext {
         for (SelectionContext sel : selections) {
             sel.clearCaches();
         }
+        session.securityChanged();
         int n = pristine.size();
         pristine.clear();
         return n;
@@ -422,6 +423,9 @@ public class PersistenceContext {
         }
         if (invalidations.all) {
             clearLocalCaches();
+        } else if (affectsSecurity(invalidations.modified)
+                || affectsSecurity(invalidations.deleted)) {
+            session.securityChanged();
         }
         if (invalidations.modified != null) {
             for (RowId rowId : invalidations.modified) {
@@ -444,6 +448,23 @@ public class PersistenceContext {
         }
     }
 
+    /**
+     * Checks if some invalidated rows may change merged ACLs: ACLs themselves
+     * or hierarchy (moves, removals).
+     */
+    protected static boolean affectsSecurity(Set<RowId> rowIds) {
+        if (rowIds == null) {
+            return false;
+        }
+        for (RowId rowId : rowIds) {
+            if (Model.ACL_TABLE_NAME.equals(rowId.tableName)
+                    || Model.HIER_TABLE_NAME.equals(rowId.tableName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void checkInvalidationsConflict() {
         // synchronized (receivedInvalidations) {
         // if (receivedInvalidations.modified != null) {
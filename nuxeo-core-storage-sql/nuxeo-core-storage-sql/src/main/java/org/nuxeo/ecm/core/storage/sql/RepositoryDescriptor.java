@@ -133,6 +133,22 @@ public class RepositoryDescriptor {
     @XNode("clustering@delay")
     public long clusteringDelay;
 
+    /* @since 5.6 */
+    @XNode("clustering/invalidator@class")
+    public Class<? extends ClusterInvalidator> clusteringInvalidatorClass;
+
+    /* @since 5.6 */
+    @XNode("clustering/invalidator/listen")
+    public ServerDescriptor clusteringListen;
+
+    /* @since 5.6 */
+    @XNodeList(value = "clustering/invalidator/connect", type = ArrayList.class, componentType = ServerDescriptor.class)
+    public List<ServerDescriptor> clusteringConnect = Collections.emptyList();
+
+    /* @since 5.6 */
+    @XNode("clustering/invalidator/secret")
+    public String clusteringSecret;
+
     @XNodeList(value = "schema/field", type = ArrayList.class, componentType = FieldDescriptor.class)
     public List<FieldDescriptor> schemaFields = Collections.emptyList();
 
@@ -172,6 +188,39 @@ public class RepositoryDescriptor {
     @XNode("aclOptimizations@readAclMaxSize")
     public int readAclMaxSize = 4096;
 
+    /* @since 5.6 */
+    @XNode("sharedCache@enabled")
+    public boolean sharedCacheEnabled = false;
+
+    /* @since 5.6 */
+    @XNode("sharedCache@maxSize")
+    public int sharedCacheMaxSize = SharedRowCache.DEFAULT_MAX_SIZE;
+
+    /* @since 5.6 */
+    @XNode("queryCache@enabled")
+    public boolean queryCacheEnabled = true;
+
+    /* @since 5.6 */
+    @XNode("queryCache@maxSize")
+    public int queryCacheMaxSize = 1000;
+
+    /* @since 5.6 */
+    @XNode("streaming@fetchSize")
+    public int streamingFetchSize = 0;
+
+    /* @since 5.6 */
+    @XNode("lockManager@cacheSize")
+    public int lockManagerCacheSize = LockManager.DEFAULT_CACHE_SIZE;
+
+    /**
+     * The permissions granting Browse, for which the read acls are computed.
+     * Not configurable, filled from the security service when the repository
+     * is created.
+     *
+     * @since 5.6
+     */
+    public String[] browsePermissions;
+
     @XNode("binaryManager@class")
     public Class<? extends BinaryManager> binaryManagerClass;
 
@@ -197,6 +246,10 @@ public class RepositoryDescriptor {
         backendClass = other.backendClass;
         clusteringEnabled = other.clusteringEnabled;
         clusteringDelay = other.clusteringDelay;
+        clusteringInvalidatorClass = other.clusteringInvalidatorClass;
+        clusteringListen = other.clusteringListen;
+        clusteringConnect = other.clusteringConnect;
+        clusteringSecret = other.clusteringSecret;
         noDDL = other.noDDL;
         schemaFields = other.schemaFields;
         fulltextDisabled = other.fulltextDisabled;
@@ -206,6 +259,13 @@ public class RepositoryDescriptor {
         pathOptimizationsEnabled = other.pathOptimizationsEnabled;
         aclOptimizationsEnabled = other.aclOptimizationsEnabled;
         readAclMaxSize = other.readAclMaxSize;
+        sharedCacheEnabled = other.sharedCacheEnabled;
+        sharedCacheMaxSize = other.sharedCacheMaxSize;
+        queryCacheEnabled = other.queryCacheEnabled;
+        queryCacheMaxSize = other.queryCacheMaxSize;
+        streamingFetchSize = other.streamingFetchSize;
+        lockManagerCacheSize = other.lockManagerCacheSize;
+        browsePermissions = other.browsePermissions;
         binaryStorePath = other.binaryStorePath;
         binaryManagerClass = other.binaryManagerClass;
         binaryManagerKey = other.binaryManagerKey;
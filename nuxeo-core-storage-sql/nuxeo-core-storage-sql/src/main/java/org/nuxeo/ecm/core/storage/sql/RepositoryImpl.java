@@ -95,6 +95,9 @@ public class RepositoryImpl implements Repository {
     /** Single event queue global to the repository. */
     private final InvalidationsQueue repositoryEventQueue;
 
+    /** Row cache shared by all the sessions, or {@code null} if disabled. */
+    private final SharedRowCache sharedCache;
+
     private Model model;
 
     private boolean serverStarted;
@@ -115,6 +118,12 @@ public class RepositoryImpl implements Repository {
         eventPropagator = new InvalidationsPropagator();
         repositoryEventQueue = new InvalidationsQueue("repo-"
                 + repositoryDescriptor.name);
+        if (repositoryDescriptor.sharedCacheEnabled) {
+            sharedCache = new SharedRowCache(
+                    repositoryDescriptor.sharedCacheMaxSize);
+        } else {
+            sharedCache = null;
+        }
         try {
             schemaManager = Framework.getService(SchemaManager.class);
         } catch (Exception e) {
@@ -366,7 +375,9 @@ public class RepositoryImpl implements Repository {
             Mapper lockManagerMapper = backend.newMapper(model, null,
                     credentials, true);
             lockManager = new LockManager(lockManagerMapper,
-                    repositoryDescriptor.clusteringEnabled);
+                    repositoryDescriptor.clusteringEnabled,
+                    repositoryDescriptor.clusteringDelay,
+                    repositoryDescriptor.lockManagerCacheSize);
         }
 
         SessionPathResolver pathResolver = new SessionPathResolver();
@@ -381,7 +392,7 @@ public class RepositoryImpl implements Repository {
     protected SessionImpl newSession(Model model, Mapper mapper,
             Credentials credentials) throws StorageException {
         mapper = new CachingMapper(model, mapper, cachePropagator,
-                eventPropagator, repositoryEventQueue);
+                eventPropagator, repositoryEventQueue, sharedCache);
         return new SessionImpl(this, model, mapper, credentials);
     }
 
@@ -439,6 +450,9 @@ public class RepositoryImpl implements Repository {
         closeAllSessions();
 
         model = null;
+        if (sharedCache != null) {
+            sharedCache.clear();
+        }
 
         deactivateServletMapper();
         deactivateBinaryManagerServlet();
@@ -483,9 +497,20 @@ public class RepositoryImpl implements Repository {
         if (lockManager != null) {
             lockManager.clearCaches();
         }
+        if (sharedCache != null) {
+            n += sharedCache.clear();
+        }
         return n;
     }
 
+    @Override
+    public RowCacheStatus getSharedCacheStatus() {
+        if (sharedCache == null) {
+            return null;
+        }
+        return sharedCache.getStatus();
+    }
+
     @Override
     public void processClusterInvalidationsNext() {
         // TODO pass through or something
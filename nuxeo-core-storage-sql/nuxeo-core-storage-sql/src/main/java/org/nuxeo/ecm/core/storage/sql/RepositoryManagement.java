@@ -38,6 +38,14 @@ public interface RepositoryManagement {
      */
     int clearCaches();
 
+    /**
+     * Gets the statistics of the row cache shared by all sessions.
+     *
+     * @return the statistics, or {@code null} if there is no shared cache
+     * @since 5.6
+     */
+    RowCacheStatus getSharedCacheStatus();
+
     /**
      * Makes sure that the next transaction will process cluster invalidations.
      */
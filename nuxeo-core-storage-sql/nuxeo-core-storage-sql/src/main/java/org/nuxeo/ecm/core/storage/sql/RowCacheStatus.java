@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+/**
+ * Statistics of a {@link SharedRowCache}.
+ */
+public class RowCacheStatus {
+
+    public long size;
+
+    public long hits;
+
+    public long misses;
+
+    public long evictions;
+
+    public long invalidations;
+
+    /**
+     * The number of rows in the cache.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of lookups that found a row.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of lookups that didn't find a row.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of rows evicted because the cache was full.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * The number of invalidations processed.
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(size=" + size + ",hits=" + hits
+                + ",misses=" + misses + ",evictions=" + evictions
+                + ",invalidations=" + invalidations + ')';
+    }
+
+}
@@ -14,7 +14,9 @@ package org.nuxeo.ecm.core.storage.sql;
 
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.resource.cci.Connection;
 
@@ -494,6 +496,19 @@ public interface Session extends Connection {
      */
     Lock getLock(Serializable id) throws StorageException;
 
+    /**
+     * Gets the lock state of several documents.
+     * <p>
+     * Documents that are not locked or don't exist are absent from the
+     * returned map.
+     *
+     * @param ids the document ids
+     * @return a map of the existing locks
+     * @since 5.6
+     */
+    Map<Serializable, Lock> getLocks(Collection<Serializable> ids)
+            throws StorageException;
+
     /**
      * Sets a lock on a document.
      * <p>
@@ -552,4 +567,18 @@ public interface Session extends Connection {
      */
     void rebuildReadAcls() throws StorageException;
 
+    /**
+     * Gets the current security generation of the session.
+     * <p>
+     * The generation changes every time something that may affect the merged
+     * ACLs of documents happens: local ACL or hierarchy change, rollback, or
+     * reception of invalidations for ACLs or hierarchy. Caches of security
+     * information can store it and compare it later to check if they're
+     * still valid.
+     *
+     * @return the security generation
+     * @since 5.6
+     */
+    long getSecurityGeneration();
+
 }
@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.resource.ResourceException;
 import javax.resource.cci.ConnectionMetaData;
@@ -71,6 +72,11 @@ public class SessionImpl implements Session, XAResource {
 
     private static final Log log = LogFactory.getLog(SessionImpl.class);
 
+    /**
+     * Number of children loaded at a time by {@link #getChildren}.
+     */
+    protected static final int CHILDREN_BATCH_SIZE = 500;
+
     private final RepositoryImpl repository;
 
     private final Mapper mapper;
@@ -94,6 +100,15 @@ public class SessionImpl implements Session, XAResource {
 
     private boolean readAclsChanged;
 
+    /**
+     * Source of security generations, shared by all sessions so that a
+     * generation identifies a single session state even when a connection
+     * handle is reassociated to another session.
+     */
+    private static final AtomicLong securityGenerations = new AtomicLong();
+
+    private long securityGeneration;
+
     private String threadName;
 
     public SessionImpl(RepositoryImpl repository, Model model, Mapper mapper,
@@ -106,6 +121,7 @@ public class SessionImpl implements Session, XAResource {
         context = new PersistenceContext(model, mapper, this);
         live = true;
         readAclsChanged = false;
+        securityGeneration = securityGenerations.incrementAndGet();
 
         try {
             eventProducer = Framework.getService(EventProducer.class);
@@ -888,15 +904,25 @@ public class SessionImpl implements Session, XAResource {
         checkLive();
         List<SimpleFragment> fragments = context.getChildren(parent.getId(),
                 name, complexProp);
-        List<Node> nodes = new ArrayList<Node>(fragments.size());
+        List<Serializable> ids = new ArrayList<Serializable>(fragments.size());
         for (SimpleFragment fragment : fragments) {
-            Node node = getNodeById(fragment.getId());
-            if (node == null) {
-                // cannot happen
-                log.error("Child node cannot be created: " + fragment.getId());
-                continue;
+            ids.add(fragment.getId());
+        }
+        // load the children and their prefetched fragments in bulk
+        List<Node> nodes = new ArrayList<Node>(ids.size());
+        for (int i = 0; i < ids.size(); i += CHILDREN_BATCH_SIZE) {
+            List<Serializable> batch = ids.subList(i,
+                    Math.min(i + CHILDREN_BATCH_SIZE, ids.size()));
+            List<Node> batchNodes = getNodesByIds(batch, true);
+            for (int j = 0; j < batchNodes.size(); j++) {
+                Node node = batchNodes.get(j);
+                if (node == null) {
+                    // cannot happen
+                    log.error("Child node cannot be created: " + batch.get(j));
+                    continue;
+                }
+                nodes.add(node);
             }
-            nodes.add(node);
         }
         return nodes;
     }
@@ -1100,6 +1126,12 @@ public class SessionImpl implements Session, XAResource {
         return repository.getLockManager().getLock(id);
     }
 
+    @Override
+    public Map<Serializable, Lock> getLocks(Collection<Serializable> ids)
+            throws StorageException {
+        return repository.getLockManager().getLocks(ids);
+    }
+
     @Override
     public Lock setLock(Serializable id, Lock lock) throws StorageException {
         if (lock == null) {
@@ -1117,6 +1149,7 @@ public class SessionImpl implements Session, XAResource {
     @Override
     public void requireReadAclsUpdate() {
         readAclsChanged = true;
+        securityChanged();
     }
 
     @Override
@@ -1131,6 +1164,19 @@ public class SessionImpl implements Session, XAResource {
         readAclsChanged = false;
     }
 
+    @Override
+    public long getSecurityGeneration() {
+        return securityGeneration;
+    }
+
+    /**
+     * Called when something that may change merged ACLs happened, to
+     * invalidate the security information cached by callers.
+     */
+    protected void securityChanged() {
+        securityGeneration = securityGenerations.incrementAndGet();
+    }
+
     private void computeRootNode() throws StorageException {
         String repositoryId = "default"; // TODO use repo name
         Serializable rootId = mapper.getRootId(repositoryId);
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A second-level cache of {@link Row}s shared by all the sessions of a
+ * repository.
+ * <p>
+ * The cache only holds rows that are known to be committed in the database.
+ * It is bounded in size, and split into independently locked segments, each
+ * of which evicts its least recently used rows when full.
+ * <p>
+ * To avoid caching a row read from the database before a concurrent commit
+ * and put in the cache after that commit's invalidations, callers get the
+ * current {@link #getGeneration generation} before reading from the database
+ * and pass it to {@link #put}; the put is ignored if invalidations happened in
+ * between. In a transaction, the generation is the one at the transaction
+ * start, as its reads may come from a snapshot taken then.
+ */
+public class SharedRowCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    protected final Segment[] segments;
+
+    protected final int segmentMask;
+
+    /** Incremented on every invalidation. */
+    protected final AtomicLong generation = new AtomicLong();
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong evictions = new AtomicLong();
+
+    protected final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * A segment of the cache, a LRU map used under its own synchronization.
+     */
+    protected class Segment extends LinkedHashMap<RowId, Row> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final int maxSize;
+
+        public Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RowId, Row> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public SharedRowCache(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public SharedRowCache(int maxSize, int concurrencyLevel) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        }
+        // number of segments: power of two not more than concurrency level
+        int n = 1;
+        while (n < concurrencyLevel && n * 2 <= maxSize) {
+            n <<= 1;
+        }
+        segments = new Segment[n];
+        int segmentSize = (maxSize + n - 1) / n;
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        segmentMask = n - 1;
+    }
+
+    protected Segment segmentFor(RowId rowId) {
+        int h = rowId.hashCode();
+        // spread bits, as in ConcurrentHashMap
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Gets the current generation, to be passed to {@link #put}.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Gets a cached row.
+     * <p>
+     * The returned row is the one held by the cache and must not be modified.
+     *
+     * @return the row, or {@code null} if not in the cache
+     */
+    public Row get(RowId rowId) {
+        Segment segment = segmentFor(rowId);
+        Row row;
+        synchronized (segment) {
+            row = segment.get(rowId);
+        }
+        if (row == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return row;
+    }
+
+    /**
+     * Puts a row in the cache, unless invalidations have been processed since
+     * the given generation was obtained.
+     * <p>
+     * The row must not be modified by the caller afterwards.
+     *
+     * @param rowId the key
+     * @param row the row
+     * @param gen the generation obtained before reading the row
+     */
+    public void put(RowId rowId, Row row, long gen) {
+        Segment segment = segmentFor(rowId);
+        synchronized (segment) {
+            // checked under segment lock, invalidate increments the
+            // generation before taking the lock to remove
+            if (generation.get() != gen) {
+                return;
+            }
+            segment.put(rowId, row);
+        }
+    }
+
+    /**
+     * Removes from the cache the rows modified or deleted by the given
+     * invalidations.
+     */
+    public void invalidate(Invalidations invals) {
+        if (invals == null || invals.isEmpty()) {
+            return;
+        }
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        if (invals.all) {
+            clearSegments();
+            return;
+        }
+        if (invals.modified != null) {
+            for (RowId rowId : invals.modified) {
+                remove(rowId);
+            }
+        }
+        if (invals.deleted != null) {
+            for (RowId rowId : invals.deleted) {
+                remove(rowId);
+            }
+        }
+    }
+
+    protected void remove(RowId rowId) {
+        Segment segment = segmentFor(rowId);
+        synchronized (segment) {
+            segment.remove(rowId);
+        }
+    }
+
+    /**
+     * Clears the cache.
+     *
+     * @return the number of rows removed
+     */
+    public int clear() {
+        generation.incrementAndGet();
+        return clearSegments();
+    }
+
+    protected int clearSegments() {
+        int n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.size();
+                segment.clear();
+            }
+        }
+        return n;
+    }
+
+    public int getSize() {
+        int n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gets the cache statistics.
+     */
+    public RowCacheStatus getStatus() {
+        RowCacheStatus status = new RowCacheStatus();
+        status.size = getSize();
+        status.hits = hits.get();
+        status.misses = misses.get();
+        status.evictions = evictions.get();
+        status.invalidations = invalidations.get();
+        return status;
+    }
+
+}
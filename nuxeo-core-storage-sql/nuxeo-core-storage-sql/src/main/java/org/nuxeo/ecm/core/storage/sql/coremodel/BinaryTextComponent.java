@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.coremodel;
+
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+/**
+ * Component registering the {@link BinaryTextListener}, it stops the text
+ * extraction threads when deactivated.
+ */
+public class BinaryTextComponent extends DefaultComponent {
+
+    @Override
+    public void deactivate(ComponentContext context) throws Exception {
+        BinaryTextListener.shutdownExtractionExecutor();
+        super.deactivate(context);
+    }
+
+}
@@ -13,10 +13,26 @@
 package org.nuxeo.ecm.core.storage.sql.coremodel;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,9 +42,8 @@ import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentException;
 import org.nuxeo.ecm.core.api.DocumentModel;
-import org.nuxeo.ecm.core.api.DocumentModelList;
-import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
 import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
 import org.nuxeo.ecm.core.convert.api.ConversionService;
@@ -37,6 +52,7 @@ import org.nuxeo.ecm.core.event.EventBundle;
 import org.nuxeo.ecm.core.event.EventContext;
 import org.nuxeo.ecm.core.event.PostCommitEventListener;
 import org.nuxeo.ecm.core.event.ReconnectedEventBundle;
+import org.nuxeo.ecm.core.query.sql.NXQL;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.ModelFulltext;
 import org.nuxeo.ecm.core.utils.BlobsExtractor;
@@ -57,9 +73,172 @@ public class BinaryTextListener implements PostCommitEventListener {
 
     private static final String ANY2TEXT = "any2text";
 
+    /** Number of job ids looked up by a single query. */
+    protected static final int JOBID_BATCH_SIZE = 100;
+
+    /**
+     * Property for the number of threads extracting text from blobs. Defaults
+     * to the number of processors, at most 4.
+     */
+    public static final String EXTRACTION_THREADS_PROP = "org.nuxeo.vcs.fulltext.extraction.threads";
+
+    /**
+     * Pool shared by all the listener instances, created on first use and
+     * shut down when the component is deactivated. Its threads are daemon
+     * threads stopped when idle.
+     */
+    protected static ExecutorService extractionExecutor;
+
+    protected static synchronized ExecutorService getExtractionExecutor() {
+        if (extractionExecutor == null) {
+            int nthreads = getExtractionThreads();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(nthreads,
+                    nthreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ExtractionThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            extractionExecutor = executor;
+        }
+        return extractionExecutor;
+    }
+
+    /**
+     * Shuts down the extraction pool, running extractions are interrupted.
+     */
+    protected static synchronized void shutdownExtractionExecutor() {
+        if (extractionExecutor != null) {
+            extractionExecutor.shutdownNow();
+            extractionExecutor = null;
+        }
+    }
+
+    protected static int getExtractionThreads() {
+        int def = Math.max(1,
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        String prop = Framework.getProperty(EXTRACTION_THREADS_PROP);
+        if (prop == null || prop.trim().length() == 0) {
+            return def;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(prop.trim()));
+        } catch (NumberFormatException e) {
+            log.error("Invalid value for " + EXTRACTION_THREADS_PROP + ": "
+                    + prop);
+            return def;
+        }
+    }
+
+    protected static class ExtractionThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Nuxeo-BinaryText-"
+                    + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Texts extracted from blobs, keyed by converter, blob digest and mime
+     * type.
+     */
+    protected static final ExtractedTextCache textCache = new ExtractedTextCache(
+            ExtractedTextCache.DEFAULT_MAX_ENTRIES,
+            ExtractedTextCache.DEFAULT_MAX_CHARS);
+
     protected final ConversionService conversionService;
 
+    /**
+     * A LRU cache of extracted texts, bounded both in number of entries and
+     * in total number of characters.
+     * <p>
+     * All methods are synchronized.
+     */
+    protected static class ExtractedTextCache {
+
+        public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+        public static final long DEFAULT_MAX_CHARS = 10 * 1024 * 1024;
+
+        protected final int maxEntries;
+
+        protected final long maxChars;
+
+        protected long chars;
+
+        protected final LinkedHashMap<String, String> texts = new LinkedHashMap<String, String>(
+                16, 0.75f, true);
+
+        public ExtractedTextCache(int maxEntries, long maxChars) {
+            this.maxEntries = maxEntries;
+            this.maxChars = maxChars;
+        }
+
+        public synchronized String get(String key) {
+            return texts.get(key);
+        }
+
+        public synchronized void put(String key, String text) {
+            if (text.length() > maxChars) {
+                return;
+            }
+            String old = texts.put(key, text);
+            if (old != null) {
+                chars -= old.length();
+            }
+            chars += text.length();
+            for (Iterator<String> it = texts.values().iterator(); it.hasNext()
+                    && (texts.size() > maxEntries || chars > maxChars);) {
+                chars -= it.next().length();
+                it.remove();
+            }
+        }
+
+        public synchronized int size() {
+            return texts.size();
+        }
+
+        public synchronized void clear() {
+            texts.clear();
+            chars = 0;
+        }
+    }
+
+    /**
+     * The blobs of a document for a fulltext index, and their text.
+     */
+    protected static class Job {
+
+        protected final String id;
+
+        protected final String indexName;
+
+        protected final List<Blob> blobs;
+
+        public Job(String id, String indexName, List<Blob> blobs) {
+            this.id = id;
+            this.indexName = indexName;
+            this.blobs = blobs;
+        }
+    }
+
     public BinaryTextListener() throws ClientException {
+        this(lookupConversionService());
+    }
+
+    /**
+     * @since 5.6
+     */
+    protected BinaryTextListener(ConversionService conversionService) {
+        this.conversionService = conversionService;
+    }
+
+    protected static ConversionService lookupConversionService()
+            throws ClientException {
+        ConversionService conversionService;
         try {
             conversionService = Framework.getService(ConversionService.class);
         } catch (Exception e) {
@@ -68,6 +247,7 @@ public class BinaryTextListener implements PostCommitEventListener {
         if (conversionService == null) {
             throw new ClientException("No conversion service");
         }
+        return conversionService;
     }
 
     @Override
@@ -105,8 +285,9 @@ public class BinaryTextListener implements PostCommitEventListener {
             throw new ClientException("Null CoreSession");
         }
 
-        // we have all the info from the bundle, now do the extraction
-        boolean save = false;
+        // we have all the info from the bundle, now collect the blobs
+        List<Job> jobs = new LinkedList<Job>();
+        Set<String> jobIds = new HashSet<String>();
         BlobsExtractor extractor = new BlobsExtractor();
         for (Serializable id : ids) {
             IdRef docRef = new IdRef((String) id);
@@ -143,32 +324,146 @@ public class BinaryTextListener implements PostCommitEventListener {
                         fulltextInfo.propPathsExcludedByIndexBinary.get(indexName),
                         fulltextInfo.indexesAllBinary.contains(indexName));
                 List<Blob> blobs = extractor.getBlobs(indexedDoc);
-                String text = blobsToText(blobs, (String) id);
-                String impactedQuery =
-                    String.format("SELECT * from Document where ecm:fulltextJobId = '%s'",
-                            indexedDoc.getId());
-                DocumentModelList impactedDocs = session.query(impactedQuery);
-                for (DocumentModel impactedDoc : impactedDocs) {
-                    try {
-                        DocumentRef ref = impactedDoc.getRef();
-                        session.setDocumentSystemProp(ref,
-                                SQLDocument.FULLTEXT_JOBID_SYS_PROP,
-                                null);
-                        session.setDocumentSystemProp(ref,
-                                SQLDocument.BINARY_TEXT_SYS_PROP + getFulltextIndexSuffix(indexName),
-                                text);
-                    } catch (DocumentException e) {
-                        log.error("Couldn't set fulltext on: " + id, e);
-                        continue;
-                    }
+                jobs.add(new Job(indexedDoc.getId(), indexName, blobs));
+            }
+            jobIds.add(indexedDoc.getId());
+        }
+        if (jobIds.isEmpty()) {
+            return;
+        }
+
+        // extract the texts in parallel, then find the impacted documents
+        Map<Job, String> texts = extractTexts(jobs);
+        Map<String, List<String>> impactedDocIds = getImpactedDocIds(session,
+                jobIds);
+
+        for (Job job : jobs) {
+            List<String> docIds = impactedDocIds.get(job.id);
+            if (docIds == null) {
+                continue;
+            }
+            String text = texts.get(job);
+            for (String docId : docIds) {
+                try {
+                    IdRef ref = new IdRef(docId);
+                    session.setDocumentSystemProp(ref,
+                            SQLDocument.FULLTEXT_JOBID_SYS_PROP, null);
+                    session.setDocumentSystemProp(ref,
+                            SQLDocument.BINARY_TEXT_SYS_PROP
+                                    + getFulltextIndexSuffix(job.indexName),
+                            text);
+                } catch (DocumentException e) {
+                    log.error("Couldn't set fulltext on: " + job.id, e);
+                    continue;
                 }
             }
+        }
+        session.save();
+    }
 
-            save = true;
+    /**
+     * Extracts the texts of the blobs of all the jobs.
+     * <p>
+     * Each distinct blob is converted only once, in parallel, unless its text
+     * is already in the cache.
+     *
+     * @return the text of each job
+     */
+    protected Map<Job, String> extractTexts(List<Job> jobs)
+            throws ClientException {
+        // one task per distinct blob
+        Map<Object, Future<String>> futures = new HashMap<Object, Future<String>>();
+        Map<Blob, Object> blobKeys = new IdentityHashMap<Blob, Object>();
+        ExecutorService executor = getExtractionExecutor();
+        for (Job job : jobs) {
+            for (final Blob blob : job.blobs) {
+                final String key = getCacheKey(blob);
+                Object blobKey = key == null ? blob : key;
+                blobKeys.put(blob, blobKey);
+                if (futures.containsKey(blobKey)) {
+                    continue;
+                }
+                final String docId = job.id;
+                Callable<String> task = new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return getText(blob, key, docId);
+                    }
+                };
+                futures.put(blobKey, executor.submit(task));
+            }
         }
-        if (save) {
-            session.save();
+        // wait for the tasks
+        Map<Object, String> blobTexts = new HashMap<Object, String>();
+        try {
+            for (Entry<Object, Future<String>> es : futures.entrySet()) {
+                blobTexts.put(es.getKey(), es.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException(e);
+        } catch (ExecutionException e) {
+            throw new ClientException(e.getCause());
+        } finally {
+            for (Future<String> future : futures.values()) {
+                future.cancel(true);
+            }
         }
+        Map<Job, String> texts = new HashMap<Job, String>();
+        for (Job job : jobs) {
+            List<String> strings = new ArrayList<String>(job.blobs.size());
+            for (Blob blob : job.blobs) {
+                String string = blobTexts.get(blobKeys.get(blob));
+                if (string != null) {
+                    strings.add(string);
+                }
+            }
+            texts.put(job, StringUtils.join(strings, " "));
+        }
+        return texts;
+    }
+
+    /**
+     * Finds the documents whose fulltext job ids are the given ones, using
+     * batched queries.
+     *
+     * @return a map of job id to the ids of the documents having it
+     */
+    protected Map<String, List<String>> getImpactedDocIds(CoreSession session,
+            Set<String> jobIds) throws ClientException {
+        Map<String, List<String>> impacted = new HashMap<String, List<String>>();
+        List<String> list = new ArrayList<String>(jobIds);
+        for (int start = 0; start < list.size(); start += JOBID_BATCH_SIZE) {
+            int end = Math.min(start + JOBID_BATCH_SIZE, list.size());
+            StringBuilder buf = new StringBuilder();
+            buf.append(String.format("SELECT %s, %s FROM Document WHERE %s IN (",
+                    NXQL.ECM_UUID, NXQL.ECM_FULLTEXT_JOBID,
+                    NXQL.ECM_FULLTEXT_JOBID));
+            for (int i = start; i < end; i++) {
+                if (i != start) {
+                    buf.append(", ");
+                }
+                buf.append('\'');
+                buf.append(list.get(i).replace("'", "\\'"));
+                buf.append('\'');
+            }
+            buf.append(')');
+            IterableQueryResult res = session.queryAndFetch(buf.toString(),
+                    NXQL.NXQL);
+            try {
+                for (Map<String, Serializable> map : res) {
+                    String jobId = (String) map.get(NXQL.ECM_FULLTEXT_JOBID);
+                    List<String> docIds = impacted.get(jobId);
+                    if (docIds == null) {
+                        impacted.put(jobId, docIds = new LinkedList<String>());
+                    }
+                    docIds.add((String) map.get(NXQL.ECM_UUID));
+                }
+            } finally {
+                res.close();
+            }
+        }
+        return impacted;
     }
 
     @SuppressWarnings("unchecked")
@@ -181,35 +476,67 @@ public class BinaryTextListener implements PostCommitEventListener {
         return (ModelFulltext) eventContext.getArguments()[1];
     }
 
-    protected String blobsToText(List<Blob> blobs, String docId) {
-        List<String> strings = new LinkedList<String>();
-        for (Blob blob : blobs) {
-            try {
-                SimpleBlobHolder bh = new SimpleBlobHolder(blob);
-                BlobHolder result = conversionService.convert(ANY2TEXT, bh,
-                        null);
-                if (result == null) {
-                    continue;
-                }
-                blob = result.getBlob();
-                if (blob == null) {
-                    continue;
-                }
-                String string = new String(blob.getByteArray(), "UTF-8");
+    /**
+     * Gets the key under which the text of a blob is cached, or {@code null}
+     * if the blob has no digest.
+     * <p>
+     * The mime type is part of the key, as it decides which converter is
+     * used for the same bytes.
+     */
+    protected static String getCacheKey(Blob blob) {
+        String digest = blob.getDigest();
+        if (digest == null) {
+            return null;
+        }
+        String mimeType = blob.getMimeType();
+        return ANY2TEXT + ':' + digest + ':'
+                + (mimeType == null ? "" : mimeType);
+    }
+
+    /**
+     * Gets the text of a blob, from the cache or by converting it.
+     * <p>
+     * Called from the extraction threads, once per distinct blob of the
+     * bundle. Subclasses changing how the text of a blob is extracted should
+     * override this method.
+     *
+     * @param blob the blob
+     * @param key the cache key, or {@code null} for no caching
+     * @param docId the document id, for logging
+     * @return the text, or {@code null} if it could not be extracted
+     */
+    protected String getText(Blob blob, String key, String docId) {
+        if (key != null) {
+            String string = textCache.get(key);
+            if (string != null) {
+                return string.length() == 0 ? null : string;
+            }
+        }
+        try {
+            SimpleBlobHolder bh = new SimpleBlobHolder(blob);
+            BlobHolder result = conversionService.convert(ANY2TEXT, bh, null);
+            String string;
+            Blob textBlob = result == null ? null : result.getBlob();
+            if (textBlob == null) {
+                string = "";
+            } else {
+                string = new String(textBlob.getByteArray(), "UTF-8");
                 // strip '\0 chars from text
                 if (string.indexOf('\0') >= 0) {
                     string = string.replace("\0", " ");
                 }
-                strings.add(string);
-            } catch (Exception e) {
-                String msg = "Could not extract fulltext of file '"
-                        + blob.getFilename() + "' for document: " + docId;
-                log.warn(msg);
-                log.debug(msg, e);
-                continue;
             }
+            if (key != null) {
+                textCache.put(key, string);
+            }
+            return string.length() == 0 ? null : string;
+        } catch (Exception e) {
+            String msg = "Could not extract fulltext of file '"
+                    + blob.getFilename() + "' for document: " + docId;
+            log.warn(msg);
+            log.debug(msg, e);
+            return null;
         }
-        return StringUtils.join(strings, " ");
     }
 
     public String getFulltextIndexSuffix(String indexName) {
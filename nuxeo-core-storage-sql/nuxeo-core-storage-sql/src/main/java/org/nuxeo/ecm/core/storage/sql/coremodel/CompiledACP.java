@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.coremodel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.security.ACE;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
+
+/**
+ * An immutable compiled form of a merged ACP, answering access checks for a
+ * set of principals and a set of permissions without scanning the ACEs.
+ * <p>
+ * The ACEs of all the ACLs are numbered in order. For each principal and
+ * each permission appearing in the ACEs, a bitset records the ACEs that
+ * match it. The principals bitsets are or-ed together, the permissions
+ * bitsets as well, and the first ACE present in both gives the access. This
+ * follows the semantics of {@link ACP#getAccess(String[], String[])}:
+ * {@link SecurityConstants#EVERYONE} matches all principals, and
+ * {@link SecurityConstants#EVERYTHING} matches all permissions except
+ * {@link SecurityConstants#RESTRICTED_READ}.
+ *
+ * @since 5.6
+ */
+public class CompiledACP {
+
+    /** The merged ACP, never given out without copying it. */
+    protected final ACP acp;
+
+    protected final boolean[] granted;
+
+    /** ACEs for each principal, except everyone. */
+    protected final Map<String, BitSet> byPrincipal = new HashMap<String, BitSet>();
+
+    /** ACEs for each permission, except everything. */
+    protected final Map<String, BitSet> byPermission = new HashMap<String, BitSet>();
+
+    protected final BitSet everyone = new BitSet();
+
+    protected final BitSet everything = new BitSet();
+
+    /**
+     * Compiles a merged ACP.
+     *
+     * @param acp the merged ACP, or {@code null} if there is none; it must
+     *            not be modified afterwards
+     */
+    public CompiledACP(ACP acp) {
+        this.acp = acp;
+        List<ACE> aces = new ArrayList<ACE>();
+        if (acp != null) {
+            for (ACL acl : acp.getACLs()) {
+                for (ACE ace : acl) {
+                    aces.add(ace);
+                }
+            }
+        }
+        granted = new boolean[aces.size()];
+        for (int i = 0; i < granted.length; i++) {
+            ACE ace = aces.get(i);
+            granted[i] = ace.isGranted();
+            String principal = ace.getUsername();
+            if (SecurityConstants.EVERYONE.equals(principal)) {
+                everyone.set(i);
+            } else {
+                bits(byPrincipal, principal).set(i);
+            }
+            String permission = ace.getPermission();
+            if (SecurityConstants.EVERYTHING.equals(permission)) {
+                everything.set(i);
+            } else {
+                bits(byPermission, permission).set(i);
+            }
+        }
+    }
+
+    protected static BitSet bits(Map<String, BitSet> map, String key) {
+        BitSet bits = map.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            map.put(key, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Gets a copy of the merged ACP, that the caller is free to modify.
+     *
+     * @return the merged ACP, or {@code null} if there is none
+     */
+    public ACP getACP() {
+        return acp == null ? null : (ACP) acp.clone();
+    }
+
+    public boolean isEmpty() {
+        return acp == null;
+    }
+
+    public Access getAccess(String principal, String permission) {
+        return getAccess(new String[] { principal },
+                new String[] { permission });
+    }
+
+    public Access getAccess(String[] principals, String[] permissions) {
+        if (granted.length == 0 || principals.length == 0
+                || permissions.length == 0) {
+            return Access.UNKNOWN;
+        }
+        BitSet principalBits = (BitSet) everyone.clone();
+        for (String principal : principals) {
+            if (SecurityConstants.EVERYONE.equals(principal)) {
+                continue;
+            }
+            BitSet bits = byPrincipal.get(principal);
+            if (bits != null) {
+                principalBits.or(bits);
+            }
+        }
+        if (principalBits.isEmpty()) {
+            return Access.UNKNOWN;
+        }
+        BitSet permissionBits = new BitSet();
+        for (String permission : permissions) {
+            // RESTRICTED_READ is not implied by EVERYTHING
+            if (!SecurityConstants.RESTRICTED_READ.equals(permission)) {
+                permissionBits.or(everything);
+            }
+            if (SecurityConstants.EVERYTHING.equals(permission)) {
+                continue;
+            }
+            BitSet bits = byPermission.get(permission);
+            if (bits != null) {
+                permissionBits.or(bits);
+            }
+        }
+        principalBits.and(permissionBits);
+        int i = principalBits.nextSetBit(0);
+        if (i < 0) {
+            return Access.UNKNOWN;
+        }
+        return granted[i] ? Access.GRANT : Access.DENY;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.coremodel;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.ContinuationToken;
+import org.nuxeo.ecm.core.api.DocumentException;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentModelFactory;
+import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.ecm.core.model.Document;
+import org.nuxeo.ecm.core.model.DocumentIterator;
+import org.nuxeo.ecm.core.model.EmptyDocumentIterator;
+import org.nuxeo.ecm.core.query.QueryException;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.storage.PartialList;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Session;
+
+/**
+ * Query result whose ids are fetched from the mapper one page at a time, each
+ * page being a query for the ids following the previous page.
+ * <p>
+ * The whole result is never held in memory, except by
+ * {@link #getDocumentModels} which returns all the documents.
+ *
+ * @since 5.6
+ */
+public class PagedSQLQueryResult extends SQLQueryResult {
+
+    private static final Log log = LogFactory.getLog(PagedSQLQueryResult.class);
+
+    /** Page size used when iterating one document at a time. */
+    protected static final int PAGE_SIZE = 100;
+
+    protected final Session storageSession;
+
+    protected final String query;
+
+    protected final String queryType;
+
+    protected final QueryFilter queryFilter;
+
+    /** The position of the next page, or {@code null} when done. */
+    protected ContinuationToken token = ContinuationToken.FIRST;
+
+    /** The ids of the current page not yet returned. */
+    protected Iterator<Serializable> pageIt = Collections.<Serializable> emptyList().iterator();
+
+    public PagedSQLQueryResult(SQLSession sqlSession, Session session,
+            String query, String queryType, QueryFilter queryFilter) {
+        super(sqlSession, new PartialList<Serializable>(
+                Collections.<Serializable> emptyList(), -1), null, 0, 0);
+        storageSession = session;
+        this.query = query;
+        this.queryType = queryType;
+        this.queryFilter = queryFilter;
+    }
+
+    /**
+     * Queries the ids of the next page, empty when done.
+     */
+    protected List<Serializable> nextPageIds(int max) throws QueryException {
+        if (token == null) {
+            return Collections.emptyList();
+        }
+        QueryFilter pageFilter = new QueryFilter(queryFilter.getPrincipal(),
+                queryFilter.getPrincipals(), queryFilter.getPermissions(),
+                queryFilter.getFacetFilter(),
+                queryFilter.getQueryTransformers(), max, 0, token);
+        PartialList<Serializable> page;
+        try {
+            page = storageSession.query(query, queryType, pageFilter, 0);
+        } catch (StorageException e) {
+            throw new QueryException(e.getMessage(), e);
+        }
+        // no token when the page is not full
+        token = page.continuationToken;
+        return page.list;
+    }
+
+    /**
+     * Checks if there are more ids, fetching the next page if needed.
+     */
+    protected boolean hasNextId() throws QueryException {
+        while (!pageIt.hasNext() && token != null) {
+            pageIt = nextPageIds(PAGE_SIZE).iterator();
+        }
+        return pageIt.hasNext();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        try {
+            return !hasNextId();
+        } catch (QueryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Document> nextDocuments(int max) throws QueryException {
+        List<Document> docs = Collections.emptyList();
+        // loop in case all the documents of a page have been deleted
+        while (docs.isEmpty()) {
+            // first the ids left from a page read by next()
+            List<Serializable> ids = new ArrayList<Serializable>();
+            while (pageIt.hasNext() && ids.size() < max) {
+                ids.add(pageIt.next());
+            }
+            if (ids.isEmpty()) {
+                ids = nextPageIds(max);
+                if (ids.isEmpty()) {
+                    break;
+                }
+            }
+            try {
+                docs = session.getDocumentsById(ids);
+            } catch (DocumentException e) {
+                throw new QueryException("Could not fetch documents for ids: "
+                        + ids, e);
+            }
+        }
+        return docs;
+    }
+
+    @Override
+    public DocumentModelList getDocumentModels() throws QueryException {
+        String[] schemas = { "common" };
+        List<DocumentModel> list = new ArrayList<DocumentModel>();
+        List<Document> docs;
+        while (!(docs = nextDocuments(PAGE_SIZE)).isEmpty()) {
+            for (Document doc : docs) {
+                try {
+                    list.add(DocumentModelFactory.createDocumentModel(doc,
+                            schemas));
+                } catch (DocumentException e) {
+                    log.error("Could not create document model for doc: "
+                            + doc, e);
+                }
+            }
+        }
+        return new DocumentModelListImpl(list, list.size());
+    }
+
+    @Override
+    public DocumentIterator getDocuments(int start) {
+        // initial skip
+        for (int i = 0; i < start; i++) {
+            if (!next()) {
+                return EmptyDocumentIterator.INSTANCE;
+            }
+        }
+
+        return new DocumentIterator() {
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                currentId = pageIt.next();
+                try {
+                    return session.getDocumentById(currentId);
+                } catch (DocumentException e) {
+                    log.error(e.getMessage());
+                    return next();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    return hasNextId();
+                } catch (QueryException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public long getSize() {
+                return UNKNOWN_SIZE;
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    @Override
+    public boolean next() {
+        try {
+            if (!hasNextId()) {
+                return false;
+            }
+        } catch (QueryException e) {
+            throw new RuntimeException(e);
+        }
+        currentId = pageIt.next();
+        return true;
+    }
+
+}
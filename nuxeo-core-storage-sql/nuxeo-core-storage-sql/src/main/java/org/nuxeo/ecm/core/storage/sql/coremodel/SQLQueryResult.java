@@ -21,11 +21,13 @@ import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.DocumentException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelFactory;
 import org.nuxeo.ecm.core.api.DocumentModelList;
 import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
+import org.nuxeo.ecm.core.model.ChunkedQueryResult;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.DocumentIterator;
 import org.nuxeo.ecm.core.model.EmptyDocumentIterator;
@@ -36,7 +38,7 @@ import org.nuxeo.ecm.core.storage.PartialList;
 /**
  * @author Florent Guillaume
  */
-public class SQLQueryResult implements QueryResult {
+public class SQLQueryResult implements ChunkedQueryResult {
 
     private static final Log log = LogFactory.getLog(SQLQueryResult.class);
 
@@ -48,6 +50,11 @@ public class SQLQueryResult implements QueryResult {
 
     protected final long totalSize;
 
+    protected ContinuationToken continuationToken;
+
+    /** Whether limit/offset by hand must compute a continuation token. */
+    protected final boolean continuation;
+
     /** When not null, order documents models by path asc (true) or desc (false) */
     protected final Boolean orderByPath;
 
@@ -59,13 +66,26 @@ public class SQLQueryResult implements QueryResult {
 
     public SQLQueryResult(SQLSession session, PartialList<Serializable> pl,
             Boolean orderByPath, long limit, long offset) {
+        this(session, pl, orderByPath, limit, offset, false);
+    }
+
+    /**
+     * @param continuation {@code true} if the limit and offset done by hand
+     *            come from keyset pagination, in which case a continuation
+     *            token using the offset is returned
+     * @since 5.6
+     */
+    public SQLQueryResult(SQLSession session, PartialList<Serializable> pl,
+            Boolean orderByPath, long limit, long offset, boolean continuation) {
         this.session = session;
         it = pl.list.iterator();
         size = pl.list.size();
         this.totalSize = pl.totalSize;
+        continuationToken = pl.continuationToken;
         this.orderByPath = orderByPath;
         this.limit = (int) limit;
         this.offset = (int) offset;
+        this.continuation = continuation;
     }
 
     @Override
@@ -124,8 +144,88 @@ public class SQLQueryResult implements QueryResult {
             if (limit < size) {
                 list.subList(limit, size).clear();
             }
+            if (continuation) {
+                continuationToken = list.size() < limit ? null
+                        : new ContinuationToken(null, offset + list.size());
+            }
+        }
+        DocumentModelListImpl dms = new DocumentModelListImpl(list, totalSize);
+        dms.setContinuationToken(continuationToken);
+        return dms;
+    }
+
+    /**
+     * Loads the next documents in bulk. When ordering by path, all the
+     * documents have to be loaded to be sorted, so they're all returned in the
+     * first chunk.
+     *
+     * @since 5.6
+     */
+    @Override
+    public List<Document> nextDocuments(int max) throws QueryException {
+        List<Document> docs = Collections.emptyList();
+        // loop in case all the documents of a chunk have been deleted
+        while (docs.isEmpty() && it.hasNext()) {
+            List<Serializable> ids = new ArrayList<Serializable>(
+                    orderByPath == null ? Math.min(max, (int) size) : (int) size);
+            while (it.hasNext() && (orderByPath != null || ids.size() < max)) {
+                ids.add(it.next());
+            }
+            try {
+                docs = session.getDocumentsById(ids);
+            } catch (DocumentException e) {
+                throw new QueryException("Could not fetch documents for ids: "
+                        + ids, e);
+            }
+        }
+        if (orderByPath != null && !docs.isEmpty()) {
+            Collections.sort(docs, new DocumentPathComparator(
+                    orderByPath.booleanValue()));
+            if (limit != 0) {
+                // do limit/offset by hand
+                int size = docs.size();
+                docs.subList(0, offset > size ? size : offset).clear();
+                size = docs.size();
+                if (limit < size) {
+                    docs.subList(limit, size).clear();
+                }
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Compares documents by path, documents without path being last.
+     *
+     * @since 5.6
+     */
+    public static class DocumentPathComparator implements Comparator<Document> {
+
+        private final int sign;
+
+        public DocumentPathComparator(boolean asc) {
+            this.sign = asc ? 1 : -1;
+        }
+
+        @Override
+        public int compare(Document doc1, Document doc2) {
+            String p1;
+            String p2;
+            try {
+                p1 = doc1.getPath();
+                p2 = doc2.getPath();
+            } catch (DocumentException e) {
+                throw new RuntimeException(e);
+            }
+            if (p1 == null && p2 == null) {
+                return sign * doc1.getUUID().compareTo(doc2.getUUID());
+            } else if (p1 == null) {
+                return sign;
+            } else if (p2 == null) {
+                return -1 * sign;
+            }
+            return sign * p1.compareTo(p2);
         }
-        return new DocumentModelListImpl(list, totalSize);
     }
 
     public static class PathComparator implements Comparator<DocumentModel> {
@@ -19,7 +19,9 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.xmap.XMap;
+import org.nuxeo.ecm.core.NXCore;
 import org.nuxeo.ecm.core.api.DocumentException;
+import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.model.Repository;
 import org.nuxeo.ecm.core.model.Session;
 import org.nuxeo.ecm.core.repository.RepositoryDescriptor;
@@ -75,6 +77,8 @@ public class SQLRepository implements Repository {
         org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor sqldescr = (org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor) xmap.load(new FileInputStream(
                 filename));
         sqldescr.name = descriptor.getName();
+        sqldescr.browsePermissions = NXCore.getSecurityService().getPermissionsToCheck(
+                SecurityConstants.BROWSE);
         return sqldescr;
     }
 
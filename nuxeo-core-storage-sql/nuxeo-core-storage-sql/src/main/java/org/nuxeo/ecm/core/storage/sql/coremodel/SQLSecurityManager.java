@@ -31,14 +31,14 @@ import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.Property;
+import org.nuxeo.ecm.core.security.MultipleAccessSecurityManager;
 import org.nuxeo.ecm.core.security.SecurityException;
-import org.nuxeo.ecm.core.security.SecurityManager;
 import org.nuxeo.ecm.core.storage.sql.ACLRow;
 
 /**
  * @author Florent Guillaume
  */
-public class SQLSecurityManager implements SecurityManager {
+public class SQLSecurityManager implements MultipleAccessSecurityManager {
 
     /*
      * ----- org.nuxeo.ecm.core.security.SecurityManager -----
@@ -76,6 +76,48 @@ public class SQLSecurityManager implements SecurityManager {
 
     @Override
     public ACP getMergedACP(Document doc) throws SecurityException {
+        return getCompiledACP(doc).getACP();
+    }
+
+    @Override
+    public boolean checkPermission(Document doc, String username,
+            String permission) throws SecurityException {
+        return getAccess(doc, username, permission).toBoolean();
+    }
+
+    @Override
+    public Access getAccess(Document doc, String username, String permission)
+            throws SecurityException {
+        return getCompiledACP(doc).getAccess(username, permission);
+    }
+
+    @Override
+    public Access getAccess(Document doc, String[] principals,
+            String[] permissions) throws SecurityException {
+        return getCompiledACP(doc).getAccess(principals, permissions);
+    }
+
+    /*
+     * ----- internal methods -----
+     */
+
+    /**
+     * Gets the compiled merged ACP of a document, from the session cache if
+     * possible.
+     */
+    protected CompiledACP getCompiledACP(Document doc)
+            throws SecurityException {
+        Map<String, CompiledACP> cache = ((SQLSession) doc.getSession()).getCompiledACPs();
+        String id = doc.getUUID();
+        CompiledACP compiled = cache.get(id);
+        if (compiled == null) {
+            compiled = new CompiledACP(computeMergedACP(doc));
+            cache.put(id, compiled);
+        }
+        return compiled;
+    }
+
+    protected ACP computeMergedACP(Document doc) throws SecurityException {
         try {
             Document base = doc.isVersion() ? doc.getSourceDocument() : doc;
             if (base == null) {
@@ -106,24 +148,6 @@ public class SQLSecurityManager implements SecurityManager {
         }
     }
 
-    @Override
-    public boolean checkPermission(Document doc, String username,
-            String permission) throws SecurityException {
-        return getAccess(doc, username, permission).toBoolean();
-    }
-
-    @Override
-    public Access getAccess(Document doc, String username, String permission)
-            throws SecurityException {
-        ACP acp = getMergedACP(doc);
-        return acp == null ? Access.UNKNOWN : acp.getAccess(username,
-                permission);
-    }
-
-    /*
-     * ----- internal methods -----
-     */
-
     // unit tested
     protected static ACP aclRowsToACP(ACLRow[] acls) {
         ACP acp = new ACPImpl();
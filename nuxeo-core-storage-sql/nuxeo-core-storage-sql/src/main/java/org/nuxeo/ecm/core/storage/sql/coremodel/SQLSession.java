@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -33,19 +34,21 @@ import javax.resource.ResourceException;
 import javax.transaction.xa.XAResource;
 
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentException;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.api.VersionModel;
 import org.nuxeo.ecm.core.api.impl.blob.StreamingBlob;
+import org.nuxeo.ecm.core.model.ChunkedQuery;
+import org.nuxeo.ecm.core.model.ChunkedQueryResult;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.NoSuchDocumentException;
 import org.nuxeo.ecm.core.model.NoSuchPropertyException;
 import org.nuxeo.ecm.core.model.Property;
 import org.nuxeo.ecm.core.model.Repository;
 import org.nuxeo.ecm.core.model.Session;
-import org.nuxeo.ecm.core.query.FilterableQuery;
 import org.nuxeo.ecm.core.query.Query;
 import org.nuxeo.ecm.core.query.QueryException;
 import org.nuxeo.ecm.core.query.QueryFilter;
@@ -53,6 +56,8 @@ import org.nuxeo.ecm.core.query.QueryParseException;
 import org.nuxeo.ecm.core.query.QueryResult;
 import org.nuxeo.ecm.core.query.UnsupportedQueryTypeException;
 import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
 import org.nuxeo.ecm.core.schema.DocumentType;
 import org.nuxeo.ecm.core.schema.SchemaManager;
 import org.nuxeo.ecm.core.schema.TypeConstants;
@@ -91,6 +96,26 @@ public class SQLSession implements Session {
 
     private final String userSessionId;
 
+    /** Maximum number of merged ACPs kept by the session. */
+    protected static final int COMPILED_ACPS_MAX = 1000;
+
+    /**
+     * Merged ACPs by document id, see {@link #getCompiledACPs}.
+     */
+    protected final Map<String, CompiledACP> compiledACPs = new LinkedHashMap<String, CompiledACP>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, CompiledACP> eldest) {
+            return size() > COMPILED_ACPS_MAX;
+        }
+    };
+
+    /** Security generation for which {@link #compiledACPs} are valid. */
+    protected long compiledACPsGeneration;
+
     public SQLSession(org.nuxeo.ecm.core.storage.sql.Session session,
             Repository repository, Map<String, Serializable> context)
             throws DocumentException {
@@ -519,7 +544,7 @@ public class SQLSession implements Session {
             "(.*)\\s+ORDER\\s+BY\\s+" + NXQL.ECM_PATH + "\\s+DESC\\s*$",
             Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
-    protected class SQLSessionQuery implements FilterableQuery {
+    protected class SQLSessionQuery implements ChunkedQuery {
 
         protected final String query;
 
@@ -572,21 +597,57 @@ public class SQLSession implements Session {
                 }
                 long limit = 0;
                 long offset = 0;
+                boolean continuation = false;
                 if (orderByPath != null) {
                     query = matcher.group(1);
                     limit = queryFilter.getLimit();
-                    offset = queryFilter.getOffset();
+                    ContinuationToken token = queryFilter.getContinuationToken();
+                    if (token == null) {
+                        offset = queryFilter.getOffset();
+                    } else {
+                        // cannot seek on path, use the offset
+                        offset = token.getOffset();
+                        continuation = limit != 0;
+                    }
                     queryFilter = QueryFilter.withoutLimitOffset(queryFilter);
                 }
                 PartialList<Serializable> list = session.query(query,
                         queryType, queryFilter, countUpTo);
                 return new SQLQueryResult(SQLSession.this, list, orderByPath,
-                        limit, offset);
+                        limit, offset, continuation);
             } catch (StorageException e) {
                 throw new QueryException(e.getMessage(), e);
             }
         }
 
+        /**
+         * Gets the ids one page at a time, using keyset pagination when the
+         * ORDER BY allows it. A query without ORDER BY is ordered by id so
+         * that the pages are stable. Queries ordered by path, which are
+         * sorted by hand, or having their own limit still get all their ids
+         * at once.
+         */
+        @Override
+        public ChunkedQueryResult executeChunked(QueryFilter queryFilter)
+                throws QueryException {
+            queryFilter = QueryFilter.withoutLimitOffset(queryFilter);
+            String query = this.query;
+            if (!NXQL.NXQL.equals(queryType)
+                    || ORDER_BY_PATH_ASC.matcher(query).matches()
+                    || ORDER_BY_PATH_DESC.matcher(query).matches()) {
+                return (ChunkedQueryResult) execute(queryFilter, 0);
+            }
+            SQLQuery sqlQuery = SQLQueryParser.parse(query);
+            if (sqlQuery.limit != 0 || sqlQuery.offset != 0) {
+                return (ChunkedQueryResult) execute(queryFilter, 0);
+            }
+            if (sqlQuery.orderBy == null) {
+                query += " ORDER BY " + NXQL.ECM_UUID;
+            }
+            return new PagedSQLQueryResult(SQLSession.this, session, query,
+                    queryType, queryFilter);
+        }
+
         public IterableQueryResult executeAndFetch(QueryFilter queryFilter,
                 Object... params) throws QueryException {
             try {
@@ -1093,6 +1154,22 @@ public class SQLSession implements Session {
         session.requireReadAclsUpdate();
     }
 
+    /**
+     * Gets the merged ACPs cached by this session, keyed by document id.
+     * <p>
+     * The cache is per session and not per repository, as merged ACPs reflect
+     * the uncommitted changes of the session. It is emptied whenever the
+     * security generation of the underlying session changes.
+     */
+    protected Map<String, CompiledACP> getCompiledACPs() {
+        long generation = session.getSecurityGeneration();
+        if (generation != compiledACPsGeneration) {
+            compiledACPs.clear();
+            compiledACPsGeneration = generation;
+        }
+        return compiledACPs;
+    }
+
     /**
      * @param blob
      * @return
@@ -14,8 +14,8 @@ package org.nuxeo.ecm.core.storage.sql.jdbc;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.nuxeo.ecm.core.storage.ConnectionResetException;
 import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ClusterInvalidator;
 import org.nuxeo.ecm.core.storage.sql.Invalidations;
 import org.nuxeo.ecm.core.storage.sql.InvalidationsPropagator;
 import org.nuxeo.ecm.core.storage.sql.InvalidationsQueue;
@@ -26,6 +26,9 @@ import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
  * Encapsulates cluster node operations.
  * <p>
  * There is one cluster node handler per cluster node (repository).
+ * <p>
+ * Invalidations are exchanged with the other cluster nodes through a
+ * {@link ClusterInvalidator}, by default a {@link DatabaseClusterInvalidator}.
  */
 public class ClusterNodeHandler {
 
@@ -34,21 +37,27 @@ public class ClusterNodeHandler {
     /** Cluster node mapper. Used synchronized. */
     private final Mapper clusterNodeMapper;
 
-    private final long clusteringDelay;
-
-    // modified only under clusterMapper synchronization
-    private long clusterNodeLastInvalidationTimeMillis;
-
     /** Propagator of invalidations to the cluster node's mappers. */
     private final InvalidationsPropagator propagator;
 
+    /** Transport of invalidations to and from the other cluster nodes. */
+    private final ClusterInvalidator clusterInvalidator;
+
     public ClusterNodeHandler(Mapper clusterNodeMapper,
             RepositoryDescriptor repositoryDescriptor) throws StorageException {
         this.clusterNodeMapper = clusterNodeMapper;
-        clusterNodeMapper.createClusterNode();
-        clusteringDelay = repositoryDescriptor.clusteringDelay;
-        processClusterInvalidationsNext();
         propagator = new InvalidationsPropagator();
+        Class<? extends ClusterInvalidator> klass = repositoryDescriptor.clusteringInvalidatorClass;
+        if (klass == null) {
+            klass = DatabaseClusterInvalidator.class;
+        }
+        try {
+            clusterInvalidator = klass.newInstance();
+        } catch (Exception e) {
+            throw new StorageException(e);
+        }
+        clusterInvalidator.initialize(clusterNodeMapper, repositoryDescriptor,
+                propagator);
     }
 
     public JDBCConnection getConnection() {
@@ -56,31 +65,26 @@ public class ClusterNodeHandler {
     }
 
     public void close() throws StorageException {
+        try {
+            clusterInvalidator.close();
+        } catch (StorageException e) {
+            log.error(e.getMessage(), e);
+        }
         synchronized (clusterNodeMapper) {
-            try {
-                clusterNodeMapper.removeClusterNode();
-            } catch (StorageException e) {
-                log.error(e.getMessage(), e);
-            }
             clusterNodeMapper.close();
         }
     }
 
     public void connectionWasReset() throws StorageException {
-        synchronized (clusterNodeMapper) {
-            // cannot remove, old connection is gone
-            // create should do a cleanup anyway
-            clusterNodeMapper.createClusterNode();
-            // but all invalidations queued for us have been lost
-            // so reset all
-            propagator.propagateInvalidations(new Invalidations(true), null);
-        }
+        clusterInvalidator.connectionWasReset();
+        // all invalidations queued for us may have been lost
+        // so reset all
+        propagator.propagateInvalidations(new Invalidations(true), null);
     }
 
     // TODO should be called by RepositoryManagement
     public void processClusterInvalidationsNext() {
-        clusterNodeLastInvalidationTimeMillis = System.currentTimeMillis()
-                - clusteringDelay - 1;
+        clusterInvalidator.processInvalidationsNext();
     }
 
     /**
@@ -110,21 +114,7 @@ public class ClusterNodeHandler {
      */
     public Invalidations receiveClusterInvalidations()
             throws StorageException {
-        synchronized (clusterNodeMapper) {
-            if (clusterNodeLastInvalidationTimeMillis + clusteringDelay > System.currentTimeMillis()) {
-                // delay hasn't expired
-                return null;
-            }
-            Invalidations invalidations;
-            try {
-                invalidations = clusterNodeMapper.getClusterInvalidations();
-            } catch (ConnectionResetException e) {
-                // retry once
-                invalidations = clusterNodeMapper.getClusterInvalidations();
-            }
-            clusterNodeLastInvalidationTimeMillis = System.currentTimeMillis();
-            return invalidations;
-        }
+        return clusterInvalidator.receiveInvalidations();
     }
 
     /**
@@ -135,9 +125,7 @@ public class ClusterNodeHandler {
         if (invalidations == null || invalidations.isEmpty()) {
             return;
         }
-        synchronized (clusterNodeMapper) {
-            clusterNodeMapper.insertClusterInvalidations(invalidations);
-        }
+        clusterInvalidator.sendInvalidations(invalidations);
     }
 
 }
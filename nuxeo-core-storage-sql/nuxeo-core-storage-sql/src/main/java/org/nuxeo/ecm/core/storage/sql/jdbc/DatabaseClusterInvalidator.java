@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.storage.ConnectionResetException;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ClusterInvalidator;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsPropagator;
+import org.nuxeo.ecm.core.storage.sql.Mapper;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+
+/**
+ * Cluster invalidator exchanging invalidations through database tables,
+ * polled by each cluster node at most once every clustering delay.
+ *
+ * @since 5.6
+ */
+public class DatabaseClusterInvalidator implements ClusterInvalidator {
+
+    private static final Log log = LogFactory.getLog(DatabaseClusterInvalidator.class);
+
+    /** Cluster node mapper. Used synchronized. */
+    protected Mapper clusterNodeMapper;
+
+    protected long clusteringDelay;
+
+    // modified only under clusterNodeMapper synchronization
+    protected long clusterNodeLastInvalidationTimeMillis;
+
+    @Override
+    public void initialize(Mapper clusterNodeMapper,
+            RepositoryDescriptor repositoryDescriptor,
+            InvalidationsPropagator propagator) throws StorageException {
+        this.clusterNodeMapper = clusterNodeMapper;
+        clusteringDelay = repositoryDescriptor.clusteringDelay;
+        clusterNodeMapper.createClusterNode();
+        processInvalidationsNext();
+    }
+
+    @Override
+    public void close() throws StorageException {
+        synchronized (clusterNodeMapper) {
+            try {
+                clusterNodeMapper.removeClusterNode();
+            } catch (StorageException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void connectionWasReset() throws StorageException {
+        synchronized (clusterNodeMapper) {
+            // cannot remove, old connection is gone
+            // create should do a cleanup anyway
+            clusterNodeMapper.createClusterNode();
+        }
+    }
+
+    @Override
+    public void processInvalidationsNext() {
+        clusterNodeLastInvalidationTimeMillis = System.currentTimeMillis()
+                - clusteringDelay - 1;
+    }
+
+    @Override
+    public Invalidations receiveInvalidations() throws StorageException {
+        synchronized (clusterNodeMapper) {
+            if (clusterNodeLastInvalidationTimeMillis + clusteringDelay > System.currentTimeMillis()) {
+                // delay hasn't expired
+                return null;
+            }
+            Invalidations invalidations;
+            try {
+                invalidations = clusterNodeMapper.getClusterInvalidations();
+            } catch (ConnectionResetException e) {
+                // retry once
+                invalidations = clusterNodeMapper.getClusterInvalidations();
+            }
+            clusterNodeLastInvalidationTimeMillis = System.currentTimeMillis();
+            return invalidations;
+        }
+    }
+
+    @Override
+    public void sendInvalidations(Invalidations invalidations)
+            throws StorageException {
+        synchronized (clusterNodeMapper) {
+            clusterNodeMapper.insertClusterInvalidations(invalidations);
+        }
+    }
+
+}
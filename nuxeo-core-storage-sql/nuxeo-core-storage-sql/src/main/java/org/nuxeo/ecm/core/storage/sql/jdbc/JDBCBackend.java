@@ -49,6 +49,8 @@ public class JDBCBackend implements RepositoryBackend {
 
     private SQLInfo sqlInfo;
 
+    private QueryCache queryCache;
+
     private ClusterNodeHandler clusterNodeHandler;
 
     private JDBCConnectionPropagator connectionPropagator;
@@ -140,6 +142,13 @@ public class JDBCBackend implements RepositoryBackend {
     @Override
     public void initializeModel(Model model) throws StorageException {
         sqlInfo = new SQLInfo(model, dialect);
+        RepositoryDescriptor repositoryDescriptor = repository.getRepositoryDescriptor();
+        if (repositoryDescriptor.queryCacheEnabled) {
+            queryCache = new QueryCache(repository.getName(),
+                    repositoryDescriptor.queryCacheMaxSize);
+        } else {
+            queryCache = null;
+        }
     }
 
     @Override
@@ -172,7 +181,7 @@ public class JDBCBackend implements RepositoryBackend {
     protected JDBCMapper createMapper(Model model, PathResolver pathResolver)
             throws StorageException {
         return new JDBCMapper(model, pathResolver, sqlInfo, xadatasource,
-                clusterNodeHandler, connectionPropagator);
+                clusterNodeHandler, connectionPropagator, queryCache);
     }
 
     @Override
@@ -44,6 +44,7 @@ import javax.transaction.xa.Xid;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.StringUtils;
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.query.QueryFilter;
@@ -90,16 +91,32 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
     public static final String TEST_UPGRADE_FULLTEXT = "testUpgradeFulltext";
 
+    /**
+     * Number of cluster invalidations rows fetched at a time.
+     *
+     * @since 5.6
+     */
+    public static final int CLUSTER_INVALIDATIONS_FETCH_SIZE = 1000;
+
     protected TableUpgrader tableUpgrader;
 
     private final QueryMakerService queryMakerService;
 
     private final PathResolver pathResolver;
 
+    /** The cache of built queries, or {@code null}. */
+    private final QueryCache queryCache;
+
     private boolean limitedResults;
 
     private long maxResults;
 
+    /**
+     * Whether the user read acls prepared for a security check may not have
+     * been released yet.
+     */
+    protected boolean userReadAclsPrepared;
+
     /**
      * Creates a new Mapper.
      *
@@ -114,9 +131,30 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             XADataSource xadatasource, ClusterNodeHandler clusterNodeHandler,
             JDBCConnectionPropagator connectionPropagator)
             throws StorageException {
+        this(model, pathResolver, sqlInfo, xadatasource, clusterNodeHandler,
+                connectionPropagator, null);
+    }
+
+    /**
+     * Creates a new Mapper.
+     *
+     * @param model the model
+     * @param pathResolver the path resolver (used for startswith queries)
+     * @param sqlInfo the sql info
+     * @param xadatasource the XA datasource to use to get connections
+     * @param clusterNodeHandler the cluster node handler
+     * @param connectionPropagator the connection propagator
+     * @param queryCache the cache of built queries, or {@code null}
+     * @since 5.6
+     */
+    public JDBCMapper(Model model, PathResolver pathResolver, SQLInfo sqlInfo,
+            XADataSource xadatasource, ClusterNodeHandler clusterNodeHandler,
+            JDBCConnectionPropagator connectionPropagator,
+            QueryCache queryCache) throws StorageException {
         super(model, sqlInfo, xadatasource, clusterNodeHandler,
                 connectionPropagator);
         this.pathResolver = pathResolver;
+        this.queryCache = queryCache;
         try {
             queryMakerService = Framework.getService(QueryMakerService.class);
         } catch (Exception e) {
@@ -391,13 +429,23 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
     public void insertClusterInvalidations(Invalidations invalidations)
             throws StorageException {
         String sql = sqlInfo.dialect.getClusterInsertInvalidations();
+        boolean batched = supportsBatchUpdates
+                && sqlInfo.dialect.isClusteringInsertBatchable();
+        String loggedSql = batched ? sql + " -- BATCHED" : sql;
         List<Column> columns = sqlInfo.getClusterInvalidationsColumns();
+        boolean arrays = sqlInfo.dialect.supportsArrays()
+                && columns.get(1).getJdbcType() == Types.ARRAY;
         PreparedStatement ps = null;
         try {
             ps = connection.prepareStatement(sql);
+            int batch = 0;
             int kind = Invalidations.MODIFIED;
             while (true) {
-                Set<RowId> rowIds = invalidations.getKindSet(kind);
+                Set<RowId> rowIds = kind == Invalidations.MODIFIED ? invalidations.modified
+                        : invalidations.deleted;
+                if (rowIds == null) {
+                    rowIds = Collections.emptySet();
+                }
 
                 // reorganize by id
                 Map<Serializable, Set<String>> res = new HashMap<Serializable, Set<String>>();
@@ -410,26 +458,34 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 }
 
                 // do inserts
+                Long k = Long.valueOf(kind);
                 for (Entry<Serializable, Set<String>> en : res.entrySet()) {
                     Serializable id = en.getKey();
                     String fragments = join(en.getValue(), ' ');
                     if (logger.isLogEnabled()) {
-                        logger.logSQL(sql, Arrays.<Serializable> asList(id,
-                                fragments, Long.valueOf(kind)));
+                        logger.logSQL(loggedSql,
+                                Arrays.<Serializable> asList(id, fragments, k));
                     }
                     Serializable frags;
-                    if (sqlInfo.dialect.supportsArrays()
-                            && columns.get(1).getJdbcType() == Types.ARRAY) {
+                    if (arrays) {
                         frags = fragments.split(" ");
                     } else {
                         frags = fragments;
                     }
                     columns.get(0).setToPreparedStatement(ps, 1, id);
                     columns.get(1).setToPreparedStatement(ps, 2, frags);
-                    columns.get(2).setToPreparedStatement(ps, 3,
-                            Long.valueOf(kind));
-                    ps.execute();
-                    countExecute();
+                    columns.get(2).setToPreparedStatement(ps, 3, k);
+                    if (batched) {
+                        ps.addBatch();
+                        batch++;
+                        if (batch % UPDATE_BATCH_SIZE == 0) {
+                            ps.executeBatch();
+                            countExecute();
+                        }
+                    } else {
+                        ps.execute();
+                        countExecute();
+                    }
                 }
                 if (kind == Invalidations.MODIFIED) {
                     kind = Invalidations.DELETED;
@@ -437,6 +493,10 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                     break;
                 }
             }
+            if (batched && batch % UPDATE_BATCH_SIZE != 0) {
+                ps.executeBatch();
+                countExecute();
+            }
         } catch (Exception e) {
             checkConnectionReset(e);
             throw new StorageException("Could not invalidate", e);
@@ -478,9 +538,12 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         String sql = sqlInfo.dialect.getClusterGetInvalidations();
         String sqldel = sqlInfo.dialect.getClusterDeleteInvalidations();
         List<Column> columns = sqlInfo.getClusterInvalidationsColumns();
+        boolean arrays = sqlInfo.dialect.supportsArrays();
         Statement st = null;
         try {
             st = connection.createStatement();
+            // stream large sets of invalidations
+            st.setFetchSize(CLUSTER_INVALIDATIONS_FETCH_SIZE);
             if (logger.isLogEnabled()) {
                 logger.log(sql);
             }
@@ -493,8 +556,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 Serializable frags = columns.get(1).getFromResultSet(rs, 2);
                 int kind = ((Long) columns.get(2).getFromResultSet(rs, 3)).intValue();
                 String[] fragments;
-                if (sqlInfo.dialect.supportsArrays()
-                        && frags instanceof String[]) {
+                if (arrays && frags instanceof String[]) {
                     fragments = (String[]) frags;
                 } else {
                     fragments = ((String) frags).split(" ");
@@ -629,12 +691,49 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         return null;
     }
 
+    /**
+     * Checks if the user read acls must be prepared before running the query.
+     */
+    protected boolean needsPrepareUserReadAcls(QueryMaker.Query q) {
+        Dialect dialect = sqlInfo.dialect;
+        if (!dialect.needsPrepareUserReadAcls()) {
+            return false;
+        }
+        return q.securityCheck
+                || !dialect.isPrepareUserReadAclsForSecurityCheck();
+    }
+
     protected void prepareUserReadAcls(QueryFilter queryFilter)
             throws StorageException {
-        String sql = sqlInfo.dialect.getPrepareUserReadAclsSql();
         String principals = StringUtils.join(queryFilter.getPrincipals(),
                 Dialect.ARRAY_SEP);
-        if (sql == null || principals == null) {
+        if (principals == null) {
+            return;
+        }
+        callPrepareUserReadAcls(principals);
+        userReadAclsPrepared = sqlInfo.dialect.isPrepareUserReadAclsForSecurityCheck();
+    }
+
+    /**
+     * Releases the user read acls prepared for a query once it's done, if
+     * they are only used by the security check function.
+     */
+    protected void releaseUserReadAcls() {
+        if (!sqlInfo.dialect.isPrepareUserReadAclsForSecurityCheck()) {
+            return;
+        }
+        userReadAclsPrepared = false;
+        try {
+            callPrepareUserReadAcls(null);
+        } catch (StorageException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    protected void callPrepareUserReadAcls(String principals)
+            throws StorageException {
+        String sql = sqlInfo.dialect.getPrepareUserReadAclsSql();
+        if (sql == null) {
             return;
         }
         CallableStatement cs = null;
@@ -661,6 +760,20 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
     }
 
+    /**
+     * Builds the query, or gets it from the query cache if there is one.
+     */
+    protected QueryMaker.Query buildQuery(QueryMaker queryMaker, String query,
+            String queryType, QueryFilter queryFilter, Object... params)
+            throws StorageException {
+        if (queryCache == null) {
+            return queryMaker.buildQuery(sqlInfo, model, pathResolver, query,
+                    queryFilter, params);
+        }
+        return queryCache.getQuery(queryMaker, sqlInfo, model, pathResolver,
+                query, queryType, queryFilter, params);
+    }
+
     @Override
     public PartialList<Serializable> query(String query, String queryType,
             QueryFilter queryFilter, boolean countTotal)
@@ -671,16 +784,13 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
     @Override
     public PartialList<Serializable> query(String query, String queryType,
             QueryFilter queryFilter, long countUpTo) throws StorageException {
-        if (sqlInfo.dialect.needsPrepareUserReadAcls()) {
-            prepareUserReadAcls(queryFilter);
-        }
         QueryMaker queryMaker = findQueryMaker(queryType);
         if (queryMaker == null) {
             throw new StorageException("No QueryMaker accepts query: "
                     + queryType + ": " + query);
         }
-        QueryMaker.Query q = queryMaker.buildQuery(sqlInfo, model,
-                pathResolver, query, queryFilter);
+        QueryMaker.Query q = buildQuery(queryMaker, query, queryType,
+                queryFilter);
 
         if (q == null) {
             logger.log("Query cannot return anything due to conflicting clauses");
@@ -689,6 +799,15 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
         long limit = queryFilter.getLimit();
         long offset = queryFilter.getOffset();
+        ContinuationToken continuation = queryFilter.getContinuationToken();
+        int[] keysetColumns = null;
+        if (continuation != null) {
+            // keyset pagination: no count, seek or use the token's offset
+            countUpTo = 0;
+            offset = q.keysetSeek ? 0 : continuation.getOffset();
+            keysetColumns = q.keysetColumns;
+        }
+        long pageSize = limit;
 
         if (logger.isLogEnabled()) {
             String sql = q.selectInfo.sql;
@@ -715,6 +834,10 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                             Math.max(countUpTo + 1, limit + offset), 0);
         }
 
+        boolean prepared = needsPrepareUserReadAcls(q);
+        if (prepared) {
+            prepareUserReadAcls(queryFilter);
+        }
         PreparedStatement ps = null;
         try {
             ps = connection.prepareStatement(sql,
@@ -756,10 +879,15 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
             Column column = q.selectInfo.whatColumns.get(0);
             List<Serializable> ids = new LinkedList<Serializable>();
+            Serializable[] keysetValues = null;
             int rowNum = 0;
             while (available && (limit != 0)) {
                 Serializable id = column.getFromResultSet(rs, 1);
                 ids.add(id);
+                if (keysetColumns != null && ids.size() == pageSize) {
+                    // last row of the page
+                    keysetValues = getKeysetValues(q, keysetColumns, rs);
+                }
                 rowNum = rs.getRow();
                 available = rs.next();
                 limit--;
@@ -786,7 +914,12 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 logger.logIds(ids, countUpTo != 0, totalSize);
             }
 
-            return new PartialList<Serializable>(ids, totalSize);
+            ContinuationToken nextToken = null;
+            if (continuation != null && pageSize > 0 && ids.size() == pageSize) {
+                nextToken = new ContinuationToken(keysetValues,
+                        continuation.getOffset() + pageSize);
+            }
+            return new PartialList<Serializable>(ids, totalSize, nextToken);
         } catch (Exception e) {
             checkConnectionReset(e);
             throw new StorageException("Invalid query: " + query, e);
@@ -798,24 +931,46 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                     log.error("Cannot close connection", e);
                 }
             }
+            if (prepared) {
+                releaseUserReadAcls();
+            }
         }
     }
 
+    /**
+     * Gets the ORDER BY values and id of the current row, to be used as a
+     * continuation token for keyset pagination.
+     */
+    protected static Serializable[] getKeysetValues(QueryMaker.Query q,
+            int[] keysetColumns, ResultSet rs) throws SQLException {
+        Serializable[] values = new Serializable[keysetColumns.length];
+        for (int i = 0; i < keysetColumns.length; i++) {
+            int index = keysetColumns[i];
+            Column column = q.selectInfo.whatColumns.get(index - 1);
+            values[i] = column.getFromResultSet(rs, index);
+        }
+        return values;
+    }
+
     // queryFilter used for principals and permissions
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             QueryFilter queryFilter, Object... params) throws StorageException {
-        if (sqlInfo.dialect.needsPrepareUserReadAcls()) {
-            prepareUserReadAcls(queryFilter);
-        }
         QueryMaker queryMaker = findQueryMaker(queryType);
         if (queryMaker == null) {
             throw new StorageException("No QueryMaker accepts query: "
                     + queryType + ": " + query);
         }
         try {
-            return new ResultSetQueryResult(queryMaker, query, queryFilter,
-                    pathResolver, this, params);
+            QueryMaker.Query q = buildQuery(queryMaker, query, queryType,
+                    queryFilter, params);
+            // released when the result is closed
+            boolean prepared = q != null && needsPrepareUserReadAcls(q);
+            if (prepared) {
+                prepareUserReadAcls(queryFilter);
+            }
+            return new ResultSetQueryResult(q, this,
+                    queryFilter.isStreaming(), prepared);
         } catch (Exception e) {
             checkConnectionReset(e);
             throw new StorageException("Invalid query: " + queryType + ": "
@@ -1145,6 +1300,11 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
     @Override
     public void end(Xid xid, int flags) throws XAException {
+        if (userReadAclsPrepared) {
+            // a query result was not closed in this thread, don't let its
+            // memoized access checks outlive the transaction
+            releaseUserReadAcls();
+        }
         try {
             xaresource.end(xid, flags);
             if (logger.isLogEnabled()) {
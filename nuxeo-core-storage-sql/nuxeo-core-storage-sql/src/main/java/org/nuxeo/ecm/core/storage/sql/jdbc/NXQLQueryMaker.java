@@ -30,6 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.FullTextUtils;
 import org.nuxeo.common.utils.StringUtils;
+import org.nuxeo.ecm.core.api.ContinuationToken;
 import org.nuxeo.ecm.core.api.impl.FacetFilter;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.sql.NXQL;
@@ -228,6 +229,28 @@ public class NXQLQueryMaker implements QueryMaker {
         DIRECT, PROXY;
     }
 
+    /**
+     * Checks if the permissions to check are exactly those granting Browse,
+     * which are the ones the optimized read ACLs are computed for.
+     * <p>
+     * Queries checking other permissions, for instance Read when getting
+     * children, cannot use the read ACLs without widening access, and fall
+     * back to the generic per-document security check.
+     */
+    protected static boolean isBrowsePermissions(String[] permissions,
+            Set<String> browsePermissions) {
+        if (permissions == null
+                || permissions.length != browsePermissions.size()) {
+            return false;
+        }
+        for (String permission : permissions) {
+            if (!browsePermissions.contains(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public Query buildQuery(SQLInfo sqlInfo, Model model,
             PathResolver pathResolver, String query, QueryFilter queryFilter,
@@ -251,6 +274,31 @@ public class NXQLQueryMaker implements QueryMaker {
             sqlQuery.select.add(new Reference(NXQL.ECM_UUID));
         }
 
+        /*
+         * Paging with a continuation token needs a total order, whether it
+         * uses keyset pagination or falls back to the offset: add the id to
+         * the ORDER BY.
+         */
+
+        ContinuationToken continuation = queryFilter.getContinuationToken();
+        boolean paging = continuation != null && queryFilter.getLimit() > 0;
+        boolean keyset = paging && isKeysetPossible(sqlQuery);
+        boolean keysetDescending = false;
+        if (paging && sqlQuery.orderBy != null
+                && !sqlQuery.orderBy.elements.isEmpty()) {
+            OrderByList orderByList = sqlQuery.orderBy.elements;
+            if (keyset) {
+                keysetDescending = orderByList.get(0).isDescending;
+            }
+            // for DISTINCT the id must be selected to be ordered on
+            if (!isOrderedById(orderByList)
+                    && (!sqlQuery.select.isDistinct() || isSelected(sqlQuery,
+                            NXQL.ECM_UUID))) {
+                orderByList.add(new OrderByExpr(new Reference(NXQL.ECM_UUID),
+                        keysetDescending));
+            }
+        }
+
         /*
          * Find all relevant types and keys for the criteria.
          */
@@ -285,6 +333,9 @@ public class NXQLQueryMaker implements QueryMaker {
             docKinds = new DocKind[] { DocKind.DIRECT, DocKind.PROXY };
         }
         boolean doUnion = docKinds.length > 1;
+        if (hasWildcardIndex) {
+            keyset = false;
+        }
 
         /*
          * DISTINCT check and add additional selected columns for ORDER BY.
@@ -298,9 +349,10 @@ public class NXQLQueryMaker implements QueryMaker {
             distinct = true;
         }
 
-        if (doUnion || distinct) {
+        if (doUnion || distinct || keyset) {
             // if UNION, we need all the ORDER BY columns in the SELECT list
             // for aliasing
+            // if keyset pagination, we need to return the ORDER BY values
             if (distinct && !onlyOrderByColumnNames.isEmpty()) {
                 // if DISTINCT, check that the ORDER BY columns are all in the
                 // SELECT list
@@ -337,6 +389,9 @@ public class NXQLQueryMaker implements QueryMaker {
         List<String> withSelectsStatements = new LinkedList<String>();
         List<Serializable> withParams = new LinkedList<Serializable>();
         Table hier = database.getTable(model.HIER_TABLE_NAME);
+        int[] keysetColumns = null;
+        List<Serializable> keysetValues = null;
+        boolean securityCheck = false;
 
         for (DocKind docKind : docKinds) {
 
@@ -389,6 +444,17 @@ public class NXQLQueryMaker implements QueryMaker {
             whatColumns = whereBuilder.whatColumns;
             whatKeys = whereBuilder.whatKeys;
 
+            if (keyset && keysetColumns == null) {
+                keysetColumns = getKeysetColumns(sqlQuery.orderBy.elements,
+                        whatKeys);
+                if (keysetColumns == null) {
+                    keyset = false;
+                } else {
+                    keysetValues = getKeysetValues(continuation,
+                            keysetColumns.length);
+                }
+            }
+
             // alias columns in all cases to simplify logic
             List<String> whatNames = new ArrayList<String>(1);
             List<Serializable> whatNamesParams = new ArrayList<Serializable>(1);
@@ -426,6 +492,20 @@ public class NXQLQueryMaker implements QueryMaker {
                 }
             }
 
+            /*
+             * Process keyset pagination, seek after the continuation token.
+             */
+
+            if (keyset && keysetValues != null) {
+                List<String> keysetNames = new ArrayList<String>(
+                        keysetColumns.length);
+                for (int i : keysetColumns) {
+                    keysetNames.add(whatColumns.get(i - 1).getFullQuotedName());
+                }
+                whereClauses.add(dialect.getKeysetCondition(keysetNames,
+                        keysetValues, keysetDescending, whereParams));
+            }
+
             /*
              * Process ORDER BY.
              */
@@ -480,8 +560,10 @@ public class NXQLQueryMaker implements QueryMaker {
                 // when using WITH for the query, the main column is referenced
                 // through an alias because of the subselect
                 String id = dialect.supportsWith() ? mainAlias : hierId;
-                if (dialect.supportsReadAcl()) {
-                    /* optimized read acl */
+                if (dialect.supportsReadAcl()
+                        && isBrowsePermissions(queryFilter.getPermissions(),
+                                dialect.getBrowsePermissions())) {
+                    /* optimized read acl, only valid for Browse */
                     String racl = dialect.openQuote() + READ_ACL_ALIAS
                             + dialect.closeQuote();
                     securityClause = dialect.getReadAclsCheckSql(racl
@@ -494,6 +576,7 @@ public class NXQLQueryMaker implements QueryMaker {
                     securityClause = dialect.getSecurityCheckSql(id);
                     securityParams.add(principals);
                     securityParams.add(permissions);
+                    securityCheck = true;
                 }
             }
 
@@ -649,9 +732,95 @@ public class NXQLQueryMaker implements QueryMaker {
         q.selectInfo = new SQLInfoSelect(select.getStatement(), whatColumns,
                 mapMaker, null, null);
         q.selectParams = selectParams;
+        if (keyset) {
+            q.keysetColumns = keysetColumns;
+            q.keysetSeek = keysetValues != null;
+        }
+        q.securityCheck = securityCheck;
         return q;
     }
 
+    protected static boolean isOrderedById(OrderByList orderByList) {
+        for (OrderByExpr expr : orderByList) {
+            if (NXQL.ECM_UUID.equals(expr.reference.name)
+                    && expr.reference.cast == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isSelected(SQLQuery sqlQuery, String name) {
+        for (int i = 0; i < sqlQuery.select.count(); i++) {
+            Operand op = sqlQuery.select.get(i);
+            if (op instanceof Reference && name.equals(((Reference) op).name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if keyset pagination can be used for the query: the dialect must
+     * support it, and the query must have an ORDER BY on plain columns all in
+     * the same direction.
+     */
+    protected boolean isKeysetPossible(SQLQuery sqlQuery) {
+        if (!dialect.supportsRowValueComparison()) {
+            return false;
+        }
+        if (sqlQuery.select.isDistinct() || sqlQuery.orderBy == null
+                || sqlQuery.orderBy.elements.isEmpty()) {
+            return false;
+        }
+        boolean descending = sqlQuery.orderBy.elements.get(0).isDescending;
+        for (OrderByExpr expr : sqlQuery.orderBy.elements) {
+            if (expr.isDescending != descending || expr.reference.cast != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the 1-based indexes of the ORDER BY columns in the selected
+     * columns.
+     *
+     * @return the indexes, or {@code null} if a column is not selected
+     */
+    protected static int[] getKeysetColumns(OrderByList orderByList,
+            List<String> whatKeys) {
+        int[] keysetColumns = new int[orderByList.size()];
+        for (int i = 0; i < keysetColumns.length; i++) {
+            int index = whatKeys.indexOf(orderByList.get(i).reference.name);
+            if (index == -1) {
+                return null;
+            }
+            keysetColumns[i] = index + 1;
+        }
+        return keysetColumns;
+    }
+
+    /**
+     * Gets the values to seek after from a continuation token.
+     *
+     * @return the values, or {@code null} if the offset must be used instead
+     */
+    protected static List<Serializable> getKeysetValues(
+            ContinuationToken continuation, int size) {
+        Serializable[] values = continuation.getValues();
+        if (values == null || values.length != size) {
+            return null;
+        }
+        for (Serializable value : values) {
+            if (value == null) {
+                // cannot seek after NULL values
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
     // overridden by specialized query makers that need to tweak some joins
     protected void addJoin(int kind, String alias, Table table, String column,
             Table contextTable, String contextColumn, String name, int index) {
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.javasimon.SimonManager;
+import org.javasimon.Split;
+import org.nuxeo.ecm.core.api.impl.FacetFilter;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Model;
+import org.nuxeo.ecm.core.storage.sql.Session.PathResolver;
+
+/**
+ * Cache of the SQL queries built by a {@link QueryMaker}, shared by all the
+ * mappers of a repository.
+ * <p>
+ * The {@link QueryMaker.Query} built for a query string only depends on the
+ * query type, the security-relevant parts of the {@link QueryFilter}
+ * (principals, permissions, facet filter and query transformers) and on the
+ * model, as all literals are already passed as bind parameters. The
+ * exceptions are when the query resolves paths to ids, in which case the
+ * result depends on the repository content, and when keyset pagination is
+ * used, in which case it depends on the continuation token; these queries are
+ * not cached.
+ * <p>
+ * The built queries are never modified by their users.
+ */
+public class QueryCache {
+
+    private static final String PREFIX = "org.nuxeo.ecm.core.storage.sql.query.";
+
+    /** Marker for a query that cannot return anything. */
+    protected static final QueryMaker.Query NO_RESULT = new QueryMaker.Query();
+
+    protected final ConcurrentMap<Key, QueryMaker.Query> cache;
+
+    protected final int maxSize;
+
+    protected final AtomicLong hits = new AtomicLong();
+
+    protected final AtomicLong misses = new AtomicLong();
+
+    protected final AtomicLong uncacheable = new AtomicLong();
+
+    protected final AtomicLong buildTimeNanos = new AtomicLong();
+
+    protected final String hitsCounterName;
+
+    protected final String missesCounterName;
+
+    protected final String buildStopwatchName;
+
+    public QueryCache(String repositoryName, int maxSize) {
+        this.maxSize = maxSize;
+        cache = new ConcurrentHashMap<Key, QueryMaker.Query>();
+        String prefix = PREFIX + repositoryName + '.';
+        hitsCounterName = prefix + "cache.hits";
+        missesCounterName = prefix + "cache.misses";
+        buildStopwatchName = prefix + "build";
+    }
+
+    /**
+     * Gets the query for the given parameters, building it with the query
+     * maker if it's not already cached.
+     *
+     * @return the query, or {@code null} if the query cannot return anything
+     */
+    public QueryMaker.Query getQuery(QueryMaker queryMaker, SQLInfo sqlInfo,
+            Model model, PathResolver pathResolver, String query,
+            String queryType, QueryFilter queryFilter, Object... params)
+            throws StorageException {
+        // keyset pagination queries depend on the continuation token
+        Key key = params.length == 0
+                && queryFilter.getContinuationToken() == null ? new Key(query,
+                queryType, queryFilter) : null;
+        if (key != null) {
+            QueryMaker.Query q = cache.get(key);
+            if (q != null) {
+                hits.incrementAndGet();
+                SimonManager.getCounter(hitsCounterName).increase();
+                return q == NO_RESULT ? null : q;
+            }
+        }
+        misses.incrementAndGet();
+        SimonManager.getCounter(missesCounterName).increase();
+        RecordingPathResolver recordingPathResolver = new RecordingPathResolver(
+                pathResolver);
+        Split split = SimonManager.getStopwatch(buildStopwatchName).start();
+        QueryMaker.Query q;
+        try {
+            q = queryMaker.buildQuery(sqlInfo, model, recordingPathResolver,
+                    query, queryFilter, params);
+        } finally {
+            buildTimeNanos.addAndGet(split.stop());
+        }
+        if (key == null || recordingPathResolver.used) {
+            uncacheable.incrementAndGet();
+        } else {
+            if (cache.size() >= maxSize) {
+                evictOne();
+            }
+            cache.put(key, q == null ? NO_RESULT : q);
+        }
+        return q;
+    }
+
+    protected void evictOne() {
+        Iterator<Key> it = cache.keySet().iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The number of built queries that could not be cached.
+     */
+    public long getUncacheable() {
+        return uncacheable.get();
+    }
+
+    /**
+     * The total time spent building queries, in nanoseconds.
+     */
+    public long getBuildTimeNanos() {
+        return buildTimeNanos.get();
+    }
+
+    /**
+     * Path resolver that records if it was used.
+     */
+    protected static class RecordingPathResolver implements PathResolver {
+
+        protected final PathResolver pathResolver;
+
+        protected boolean used;
+
+        public RecordingPathResolver(PathResolver pathResolver) {
+            this.pathResolver = pathResolver;
+        }
+
+        @Override
+        public Serializable getIdForPath(String path) throws StorageException {
+            used = true;
+            return pathResolver.getIdForPath(path);
+        }
+    }
+
+    /**
+     * The cache key, made of the query and the parts of the query filter that
+     * influence the query building.
+     */
+    protected static class Key {
+
+        protected final String query;
+
+        protected final String queryType;
+
+        protected final List<String> principals;
+
+        protected final List<String> permissions;
+
+        protected final Collection<String> requiredFacets;
+
+        protected final Collection<String> excludedFacets;
+
+        protected final List<String> transformers;
+
+        /** Only set if there are transformers, which may depend on it. */
+        protected final String principalName;
+
+        protected final int hashCode;
+
+        public Key(String query, String queryType, QueryFilter queryFilter) {
+            this.query = query;
+            this.queryType = queryType;
+            principals = asList(queryFilter.getPrincipals());
+            permissions = asList(queryFilter.getPermissions());
+            FacetFilter facetFilter = queryFilter.getFacetFilter();
+            if (facetFilter == null) {
+                requiredFacets = null;
+                excludedFacets = null;
+            } else {
+                requiredFacets = facetFilter.required;
+                excludedFacets = facetFilter.excluded;
+            }
+            Collection<SQLQuery.Transformer> trans = queryFilter.getQueryTransformers();
+            if (trans == null || trans.isEmpty()) {
+                transformers = Collections.emptyList();
+                principalName = null;
+            } else {
+                transformers = new ArrayList<String>(trans.size());
+                for (SQLQuery.Transformer transformer : trans) {
+                    transformers.add(transformer.getClass().getName());
+                }
+                principalName = queryFilter.getPrincipal() == null ? null
+                        : queryFilter.getPrincipal().getName();
+            }
+            hashCode = Arrays.hashCode(new Object[] { query, queryType,
+                    principals, permissions, requiredFacets, excludedFacets,
+                    transformers, principalName });
+        }
+
+        protected static List<String> asList(String[] array) {
+            return array == null ? null : Arrays.asList(array);
+        }
+
+        protected static boolean eq(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hashCode == key.hashCode && query.equals(key.query)
+                    && queryType.equals(key.queryType)
+                    && eq(principals, key.principals)
+                    && eq(permissions, key.permissions)
+                    && eq(requiredFacets, key.requiredFacets)
+                    && eq(excludedFacets, key.excludedFacets)
+                    && transformers.equals(key.transformers)
+                    && eq(principalName, key.principalName);
+        }
+    }
+
+}
@@ -69,6 +69,31 @@ public interface QueryMaker {
 
         public List<Serializable> selectParams = new LinkedList<Serializable>();
 
+        /**
+         * For keyset pagination, the 1-based indexes in the selected columns
+         * of the ORDER BY values followed by the id, or {@code null} if
+         * keyset pagination is not possible for this query.
+         *
+         * @since 5.6
+         */
+        public int[] keysetColumns;
+
+        /**
+         * For keyset pagination, whether the query only returns the rows
+         * after the continuation token, or if an offset is still needed.
+         *
+         * @since 5.6
+         */
+        public boolean keysetSeek;
+
+        /**
+         * Whether the query calls the security check function of the dialect
+         * on each document, rather than using the read acls.
+         *
+         * @since 5.6
+         */
+        public boolean securityCheck;
+
     }
 
     public static class QueryMakerException extends RuntimeException {
@@ -27,9 +27,19 @@ import org.nuxeo.ecm.core.api.IterableQueryResult;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Session.PathResolver;
+import org.nuxeo.ecm.core.storage.sql.jdbc.dialect.Dialect;
 
 /**
  * Iterable query result implemented as a cursor on a SQL {@link ResultSet}.
+ * <p>
+ * In streaming mode the cursor is forward-only and rows are fetched from the
+ * server in batches as they are consumed, so that memory use doesn't depend
+ * on the result size; the size is then unknown and one can only skip forward.
+ * Databases that only stream inside a transaction (see
+ * {@link Dialect#streamingNeedsNoAutoCommit}) read all the rows at once when
+ * the connection is in auto-commit mode: the auto-commit of the shared
+ * connection is never changed, as switching it back would commit any pending
+ * work.
  */
 public class ResultSetQueryResult implements IterableQueryResult,
         Iterator<Map<String, Serializable>> {
@@ -50,13 +60,67 @@ public class ResultSetQueryResult implements IterableQueryResult,
 
     private final JDBCLogger logger;
 
+    private final boolean streaming;
+
+    /** Mapper whose user read acls must be released on close. */
+    private JDBCMapper userReadAclsMapper;
+
     public ResultSetQueryResult(QueryMaker queryMaker, String query,
             QueryFilter queryFilter, PathResolver pathResolver,
             JDBCMapper mapper, Object... params) throws StorageException,
             SQLException {
+        this(queryMaker.buildQuery(mapper.sqlInfo, mapper.model, pathResolver,
+                query, queryFilter, params), mapper);
+    }
+
+    /**
+     * Executes an already built query.
+     *
+     * @param q the query, or {@code null} if it cannot return anything
+     * @param mapper the mapper
+     * @since 5.6
+     */
+    public ResultSetQueryResult(QueryMaker.Query q, JDBCMapper mapper)
+            throws SQLException {
+        this(q, mapper, false);
+    }
+
+    /**
+     * Executes an already built query, maybe streaming its results.
+     *
+     * @param q the query, or {@code null} if it cannot return anything
+     * @param mapper the mapper
+     * @param streaming {@code true} for a forward-only cursor fetching rows
+     *            as they are consumed
+     * @since 5.6
+     */
+    public ResultSetQueryResult(QueryMaker.Query q, JDBCMapper mapper,
+            boolean streaming) throws SQLException {
+        this(q, mapper, streaming, false);
+    }
+
+    /**
+     * Executes an already built query, maybe streaming its results, for which
+     * the mapper may have prepared the user read acls.
+     *
+     * @param q the query, or {@code null} if it cannot return anything
+     * @param mapper the mapper
+     * @param streaming {@code true} for a forward-only cursor fetching rows
+     *            as they are consumed
+     * @param releaseUserReadAcls {@code true} if the user read acls prepared
+     *            for the query must be released on close
+     * @since 5.6
+     */
+    public ResultSetQueryResult(QueryMaker.Query q, JDBCMapper mapper,
+            boolean streaming, boolean releaseUserReadAcls)
+            throws SQLException {
         logger = mapper.logger;
-        q = queryMaker.buildQuery(mapper.sqlInfo, mapper.model, pathResolver,
-                query, queryFilter, params);
+        if (releaseUserReadAcls) {
+            // the rows may be computed as they are fetched
+            userReadAclsMapper = mapper;
+        }
+        this.q = q;
+        this.streaming = streaming;
         if (q == null) {
             logger.log("Query cannot return anything due to conflicting clauses");
             ps = null;
@@ -69,8 +133,40 @@ public class ResultSetQueryResult implements IterableQueryResult,
         if (logger.isLogEnabled()) {
             logger.logSQL(q.selectInfo.sql, q.selectParams);
         }
-        ps = mapper.connection.prepareStatement(q.selectInfo.sql,
-                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        if (streaming && logger.isLogEnabled()) {
+            Dialect dialect = mapper.sqlInfo.dialect;
+            if (dialect.streamingNeedsNoAutoCommit()
+                    && mapper.connection.getAutoCommit()) {
+                logger.log("Not in a transaction, rows fetched at once");
+            }
+        }
+        try {
+            execute(mapper);
+        } catch (SQLException e) {
+            if (ps != null) {
+                try {
+                    closePreparedStatement(ps);
+                } catch (SQLException ee) {
+                    logger.error("Error closing statement: " + ee.getMessage(),
+                            ee);
+                }
+                ps = null;
+            }
+            close();
+            throw e;
+        }
+    }
+
+    protected void execute(JDBCMapper mapper) throws SQLException {
+        if (streaming) {
+            ps = mapper.connection.prepareStatement(q.selectInfo.sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(mapper.sqlInfo.dialect.getStreamingFetchSize());
+        } else {
+            ps = mapper.connection.prepareStatement(q.selectInfo.sql,
+                    ResultSet.TYPE_SCROLL_INSENSITIVE,
+                    ResultSet.CONCUR_READ_ONLY);
+        }
         int i = 1;
         for (Object object : q.selectParams) {
             if (object instanceof Calendar) {
@@ -115,6 +211,10 @@ public class ResultSetQueryResult implements IterableQueryResult,
                 q = null;
             }
         }
+        if (userReadAclsMapper != null) {
+            userReadAclsMapper.releaseUserReadAcls();
+            userReadAclsMapper = null;
+        }
     }
 
     @Override
@@ -122,12 +222,15 @@ public class ResultSetQueryResult implements IterableQueryResult,
         if (rs != null) {
             logger.warn("Closing an IterableQueryResult for you. Please close them yourself.");
         }
+        // not in the thread of the mapper, released at the end of the
+        // transaction
+        userReadAclsMapper = null;
         close();
     }
 
     @Override
     public long size() {
-        if (size != -1) {
+        if (size != -1 || streaming) {
             return size;
         }
         try {
@@ -162,6 +265,10 @@ public class ResultSetQueryResult implements IterableQueryResult,
             this.pos = -1;
             return;
         }
+        if (streaming) {
+            skipForwardTo(pos);
+            return;
+        }
         try {
             boolean available = rs.absolute((int) pos + 1);
             if (available) {
@@ -179,6 +286,20 @@ public class ResultSetQueryResult implements IterableQueryResult,
         }
     }
 
+    protected void skipForwardTo(long pos) {
+        if (pos < this.pos) {
+            throw new UnsupportedOperationException(
+                    "Cannot skip backward in a streaming result");
+        }
+        while (this.pos < pos) {
+            if (!hasNext()) {
+                this.pos = -1;
+                return;
+            }
+            next();
+        }
+    }
+
     @Override
     public Iterator<Map<String, Serializable>> iterator() {
         return this;
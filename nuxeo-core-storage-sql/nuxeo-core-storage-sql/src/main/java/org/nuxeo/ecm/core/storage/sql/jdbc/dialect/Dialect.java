@@ -30,6 +30,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -70,6 +71,9 @@ public abstract class Dialect {
      */
     public static final String DIALECT_CLASS = "nuxeo.vcs.dialect";
 
+    /** @since 5.6 */
+    public static final int DEFAULT_STREAMING_FETCH_SIZE = 500;
+
     public static final Map<String, Class<? extends Dialect>> DIALECTS = new HashMap<String, Class<? extends Dialect>>();
     static {
         DIALECTS.put("H2", DialectH2.class);
@@ -111,6 +115,10 @@ public abstract class Dialect {
 
     protected final int readAclMaxSize;
 
+    protected final int streamingFetchSize;
+
+    protected final Set<String> browsePermissions;
+
     /**
      * Creates a {@code Dialect} by connecting to the datasource to check what
      * database is used.
@@ -184,10 +192,19 @@ public abstract class Dialect {
             fulltextDisabled = true;
             aclOptimizationsEnabled = false;
             readAclMaxSize = 0;
+            streamingFetchSize = DEFAULT_STREAMING_FETCH_SIZE;
+            browsePermissions = Collections.emptySet();
         } else {
             fulltextDisabled = repositoryDescriptor.fulltextDisabled;
             aclOptimizationsEnabled = repositoryDescriptor.aclOptimizationsEnabled;
             readAclMaxSize = repositoryDescriptor.readAclMaxSize;
+            int fetchSize = repositoryDescriptor.streamingFetchSize;
+            streamingFetchSize = fetchSize > 0 ? fetchSize
+                    : DEFAULT_STREAMING_FETCH_SIZE;
+            String[] browse = repositoryDescriptor.browsePermissions;
+            browsePermissions = browse == null ? Collections.<String> emptySet()
+                    : Collections.unmodifiableSet(new HashSet<String>(
+                            Arrays.asList(browse)));
         }
     }
 
@@ -830,6 +847,114 @@ public abstract class Dialect {
         throw new UnsupportedOperationException("paging is not supported");
     }
 
+    /**
+     * Gets the fetch size to use for result sets streamed with a
+     * forward-only cursor.
+     *
+     * @since 5.6
+     */
+    public int getStreamingFetchSize() {
+        return streamingFetchSize;
+    }
+
+    /**
+     * Does the database need auto-commit to be off for a forward-only cursor
+     * to be streamed from the server instead of being fully read in memory.
+     *
+     * @since 5.6
+     */
+    public boolean streamingNeedsNoAutoCommit() {
+        return false;
+    }
+
+    /**
+     * Does the dialect support row value comparisons, like
+     * {@code (a, b) > (?, ?)}, which are needed for keyset pagination.
+     *
+     * @since 5.6
+     */
+    public boolean supportsRowValueComparison() {
+        return false;
+    }
+
+    /**
+     * Are NULL values sorted after all other values in ascending order (and
+     * therefore before all other values in descending order).
+     *
+     * @since 5.6
+     */
+    public boolean nullsAreSortedHigh() {
+        return true;
+    }
+
+    /**
+     * Gets the condition selecting the rows that come strictly after a given
+     * row when ordering on the given columns, for keyset pagination.
+     * <p>
+     * The last column must be the non-null id. The values of the given row
+     * must not be null, but rows with NULL values in the other columns are
+     * matched according to {@link #nullsAreSortedHigh}.
+     *
+     * @param columns the quoted ORDER BY columns, the id being last
+     * @param values the values of the row for these columns
+     * @param descending whether the order is descending for all columns
+     * @param params the list to which the parameters of the condition are
+     *            added
+     * @return the SQL condition
+     * @since 5.6
+     */
+    public String getKeysetCondition(List<String> columns,
+            List<Serializable> values, boolean descending,
+            List<Serializable> params) {
+        if (!supportsRowValueComparison()) {
+            throw new UnsupportedOperationException(
+                    "row value comparison is not supported");
+        }
+        int n = columns.size();
+        StringBuilder buf = new StringBuilder();
+        buf.append('(');
+        // row value comparison for rows without NULLs
+        appendRowValueComparison(buf, columns, n, descending ? "<" : ">");
+        params.addAll(values);
+        if (descending != nullsAreSortedHigh()) {
+            // rows whose first NULL comes after an equal or following prefix
+            for (int k = 0; k < n - 1; k++) {
+                buf.append(" OR ");
+                if (k > 0) {
+                    appendRowValueComparison(buf, columns, k, descending ? "<="
+                            : ">=");
+                    params.addAll(values.subList(0, k));
+                    buf.append(" AND ");
+                }
+                buf.append(columns.get(k));
+                buf.append(" IS NULL");
+            }
+        }
+        buf.append(')');
+        return buf.toString();
+    }
+
+    protected void appendRowValueComparison(StringBuilder buf,
+            List<String> columns, int n, String op) {
+        buf.append('(');
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(columns.get(i));
+        }
+        buf.append(") ");
+        buf.append(op);
+        buf.append(" (");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append('?');
+        }
+        buf.append(')');
+    }
+
     /**
      * Gets the type of a fulltext column has known by JDBC.
      * <p>
@@ -1095,6 +1220,18 @@ public abstract class Dialect {
         return null;
     }
 
+    /**
+     * Can the statement sending invalidations to the cluster (
+     * {@link #getClusterInsertInvalidations}) be executed in a JDBC batch.
+     * <p>
+     * This is not the case for statements returning a result.
+     *
+     * @since 5.6
+     */
+    public boolean isClusteringInsertBatchable() {
+        return false;
+    }
+
     /**
      * Gets the SQL to query invalidations for this cluster node.
      *
@@ -1129,6 +1266,18 @@ public abstract class Dialect {
         return false;
     }
 
+    /**
+     * Gets the permissions granting Browse, for which the optimized read ACLs
+     * are computed, as given by the repository descriptor.
+     * <p>
+     * Empty if unknown, in which case the read ACLs are never used by queries.
+     *
+     * @since 5.6
+     */
+    public Set<String> getBrowsePermissions() {
+        return browsePermissions;
+    }
+
     /**
      * Does the dialect support SQL-99 WITH common table expressions.
      */
@@ -1196,6 +1345,20 @@ public abstract class Dialect {
         return null;
     }
 
+    /**
+     * Whether the user read acls are only used by the security check function
+     * of {@link #getSecurityCheckSql}.
+     * <p>
+     * If so they are only prepared for the queries calling that function, and
+     * released once the query is done by running
+     * {@link #getPrepareUserReadAclsSql} again with {@code null} principals.
+     *
+     * @since 5.6
+     */
+    public boolean isPrepareUserReadAclsForSecurityCheck() {
+        return false;
+    }
+
     /**
      * Called before a table is created, when it's been determined that it
      * doesn't exist yet.
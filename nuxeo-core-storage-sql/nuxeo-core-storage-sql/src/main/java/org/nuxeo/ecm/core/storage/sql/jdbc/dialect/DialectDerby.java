@@ -236,6 +236,23 @@ public class DialectDerby extends Dialect {
         return String.format("NX_ACCESS_ALLOWED(%s, ?, ?) = 1", idColumnName);
     }
 
+    @Override
+    public boolean needsPrepareUserReadAcls() {
+        // starts the scope of the memoized NX_ACCESS_ALLOWED decisions
+        return true;
+    }
+
+    @Override
+    public String getPrepareUserReadAclsSql() {
+        return "CALL NX_PREPARE_ACCESS_CHECKS(?)";
+    }
+
+    @Override
+    public boolean isPrepareUserReadAclsForSecurityCheck() {
+        // the memoized decisions and their statements are per thread
+        return true;
+    }
+
     @Override
     public String getInTreeSql(String idColumnName) {
         return String.format("NX_IN_TREE(%s, ?) = 1", idColumnName);
@@ -52,12 +52,16 @@ public class DialectH2 extends Dialect {
 
     protected final String usersSeparator;
 
+    protected final boolean pathOptimizationsEnabled;
+
     public DialectH2(DatabaseMetaData metadata, BinaryManager binaryManager,
             RepositoryDescriptor repositoryDescriptor) throws StorageException {
         super(metadata, binaryManager, repositoryDescriptor);
         usersSeparator = repositoryDescriptor == null ? null
                 : repositoryDescriptor.usersSeparatorKey == null ? DEFAULT_USERS_SEPARATOR
                         : repositoryDescriptor.usersSeparatorKey;
+        pathOptimizationsEnabled = repositoryDescriptor == null ? false
+                : repositoryDescriptor.pathOptimizationsEnabled;
     }
 
     @Override
@@ -283,7 +287,51 @@ public class DialectH2 extends Dialect {
 
     @Override
     public String getInTreeSql(String idColumnName) {
-        return String.format("NX_IN_TREE(%s, ?)", idColumnName);
+        if (pathOptimizationsEnabled) {
+            return String.format(
+                    "EXISTS(SELECT 1 FROM ancestors WHERE hierarchy_id = %s AND ancestor = ?)",
+                    idColumnName);
+        } else {
+            return String.format("NX_IN_TREE(%s, ?)", idColumnName);
+        }
+    }
+
+    @Override
+    public boolean supportsReadAcl() {
+        return aclOptimizationsEnabled;
+    }
+
+    @Override
+    public boolean needsPrepareUserReadAcls() {
+        // starts the scope of the memoized NX_ACCESS_ALLOWED decisions
+        return true;
+    }
+
+    @Override
+    public String getPrepareUserReadAclsSql() {
+        return "CALL NX_PREPARE_ACCESS_CHECKS(?)";
+    }
+
+    @Override
+    public boolean isPrepareUserReadAclsForSecurityCheck() {
+        // the memoized decisions and their statements are per thread
+        return true;
+    }
+
+    @Override
+    public String getReadAclsCheckSql(String idColumnName) {
+        return String.format("%s IN (SELECT * FROM NX_GET_READ_ACLS_FOR(?))",
+                idColumnName);
+    }
+
+    @Override
+    public String getUpdateReadAclsSql() {
+        return "CALL NX_UPDATE_READ_ACLS()";
+    }
+
+    @Override
+    public String getRebuildReadAclsSql() {
+        return "CALL NX_REBUILD_READ_ACLS()";
     }
 
     @Override
@@ -313,6 +361,10 @@ public class DialectH2 extends Dialect {
             permsList.add("('" + perm + "')");
         }
         properties.put("fulltextEnabled", Boolean.valueOf(!fulltextDisabled));
+        properties.put("aclOptimizationsEnabled",
+                Boolean.valueOf(aclOptimizationsEnabled));
+        properties.put("pathOptimizationsEnabled",
+                Boolean.valueOf(pathOptimizationsEnabled));
         properties.put("readPermissions", StringUtils.join(permsList, ", "));
         properties.put("h2Functions",
                 "org.nuxeo.ecm.core.storage.sql.db.H2Functions");
@@ -332,6 +384,11 @@ public class DialectH2 extends Dialect {
         return "CALL NX_CLUSTER_INVAL(?, ?, ?)";
     }
 
+    @Override
+    public boolean isClusteringInsertBatchable() {
+        return true;
+    }
+
     @Override
     public String getClusterGetInvalidations() {
         return "SELECT * FROM NX_CLUSTER_GET_INVALS()";
@@ -347,6 +404,16 @@ public class DialectH2 extends Dialect {
         return String.format("LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public boolean supportsRowValueComparison() {
+        return true;
+    }
+
+    @Override
+    public boolean nullsAreSortedHigh() {
+        return false;
+    }
+
     public String getUsersSeparator() {
         if (usersSeparator == null) {
             return DEFAULT_USERS_SEPARATOR;
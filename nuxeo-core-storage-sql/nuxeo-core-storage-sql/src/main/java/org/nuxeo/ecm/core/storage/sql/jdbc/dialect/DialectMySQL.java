@@ -418,6 +418,11 @@ public class DialectMySQL extends Dialect {
         return "CALL NX_CLUSTER_INVAL(?, ?, ?)";
     }
 
+    @Override
+    public boolean isClusteringInsertBatchable() {
+        return true;
+    }
+
     @Override
     public String getClusterGetInvalidations() {
         return "SELECT id, fragments, kind FROM cluster_invals WHERE nodeid = @@PSEUDO_THREAD_ID";
@@ -438,6 +443,22 @@ public class DialectMySQL extends Dialect {
         return String.format("LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public boolean supportsRowValueComparison() {
+        return true;
+    }
+
+    @Override
+    public boolean nullsAreSortedHigh() {
+        return false;
+    }
+
+    @Override
+    public int getStreamingFetchSize() {
+        // the driver only streams rows one by one with this magic value
+        return Integer.MIN_VALUE;
+    }
+
     @Override
     public boolean isIdentityAlreadyPrimary() {
         return true;
@@ -990,6 +990,17 @@ public class DialectPostgreSQL extends Dialect {
         return String.format("LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public boolean supportsRowValueComparison() {
+        return true;
+    }
+
+    @Override
+    public boolean streamingNeedsNoAutoCommit() {
+        // the driver only uses a server-side cursor inside a transaction
+        return true;
+    }
+
     @Override
     public boolean supportsWith() {
         return false; // don't activate until proven useful
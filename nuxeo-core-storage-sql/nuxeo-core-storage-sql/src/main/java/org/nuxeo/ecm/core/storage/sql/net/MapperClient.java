@@ -11,10 +11,16 @@
  */
 package org.nuxeo.ecm.core.storage.sql.net;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.transaction.xa.Xid;
 
@@ -22,6 +28,7 @@ import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.ProtocolException;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.nuxeo.common.utils.XidImpl;
 import org.nuxeo.ecm.core.storage.Credentials;
@@ -68,11 +75,27 @@ public class MapperClient implements InvocationHandler {
 
     protected final Header httpPrincipalHeader; // TODO should be replaced by an identification context in mapper
 
+    /**
+     * System property to set to {@code true} to send calls using the compact
+     * {@link MapperCodec} encoding, which allows several calls per request.
+     * <p>
+     * Off by default, as servers older than this client only understand Java
+     * serialization and there is no negotiation. Enable it only when all the
+     * servers understand the compact encoding.
+     *
+     * @since 5.6
+     */
+    public static final String COMPACT_PROP = "org.nuxeo.vcs.net.compact";
+
+    /** Whether calls are sent using {@link MapperCodec}. */
+    protected final boolean compact;
+
     protected MapperClient(RepositoryImpl repository, Credentials credentials) {
         httpClient = repository.getHttpClient();
         RepositoryDescriptor desc = repository.getRepositoryDescriptor();
         url = getUrl(desc);
         httpPrincipalHeader = getHttpPrincipalHeader(credentials);
+        compact = Boolean.parseBoolean(System.getProperty(COMPACT_PROP));
     }
 
 
@@ -106,19 +129,85 @@ public class MapperClient implements InvocationHandler {
             return null;
         }
 
-        // copying the transaction id implementation object that may not be
-        // known by the class loader on server side.
-        if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                if (args[i] instanceof Xid) {
-                    args[i] = new XidImpl((Xid) args[i]);
+        // send through network
+        return invokeAll(Collections.singletonList(new Call(method, args))).get(
+                0);
+    }
+
+    /**
+     * A mapper method call, to be sent along with others by
+     * {@link #invokeAll(Mapper, List)}.
+     *
+     * @since 5.6
+     */
+    public static final class Call {
+
+        public final Method method;
+
+        public final String methodName;
+
+        public final Object[] args;
+
+        /**
+         * @param method the {@link Mapper} method, which identifies the
+         *            overload to call
+         * @param args the arguments
+         */
+        public Call(Method method, Object... args) {
+            this.method = method;
+            methodName = method.getName();
+            this.args = args;
+        }
+    }
+
+    /**
+     * Calls several mapper methods in order and returns their results.
+     * <p>
+     * For a remote mapper using the compact encoding (see
+     * {@link #COMPACT_PROP}), all the calls are sent to the server in one
+     * round trip. Otherwise they are simply invoked one after the other.
+     * <p>
+     * Note that the session itself doesn't group its calls yet: its row
+     * caches read through the mapper one call at a time, so for instance a
+     * read and the following selection read are still two round trips. This
+     * is for callers that already know the calls they need.
+     *
+     * @param mapper the mapper
+     * @param calls the calls
+     * @return the list of results, in the same order as the calls
+     * @throws StorageException if one of the calls fails, in which case the
+     *             following ones are not executed
+     * @since 5.6
+     */
+    public static List<Object> invokeAll(Mapper mapper, List<Call> calls)
+            throws StorageException {
+        if (Proxy.isProxyClass(mapper.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(mapper);
+            if (handler instanceof MapperClient) {
+                return ((MapperClient) handler).invokeAll(calls);
+            }
+        }
+        List<Object> results = new ArrayList<Object>(calls.size());
+        for (Call call : calls) {
+            try {
+                results.add(call.method.invoke(mapper, call.args));
+            } catch (InvocationTargetException e) {
+                Throwable t = e.getCause();
+                if (t instanceof StorageException) {
+                    throw (StorageException) t;
                 }
+                throw new StorageException(t);
+            } catch (IllegalAccessException e) {
+                throw new StorageException(e);
+            } catch (IllegalArgumentException e) {
+                throw new StorageException("Cannot call Mapper method: "
+                        + call.method, e);
             }
         }
+        return results;
+    }
 
-        // send through network
-        // this is decoded by NetServlet
-
+    protected String getPostUrl() {
         String postUrl = url;
         if (identification != null) {
             postUrl += '?' + MapperServlet.PARAM_RID + '='
@@ -127,11 +216,87 @@ public class MapperClient implements InvocationHandler {
         } else if (repositoryId != null) {
             postUrl += '?' + MapperServlet.PARAM_RID + '=' + repositoryId;
         }
-        PostMethod m = new PostMethod(postUrl);
+        return postUrl;
+    }
+
+    /**
+     * Sends the calls through the network in one request, decoded by
+     * {@link MapperServlet}.
+     */
+    protected List<Object> invokeAll(List<Call> calls) throws StorageException {
+        if (!compact) {
+            List<Object> results = new ArrayList<Object>(calls.size());
+            for (Call call : calls) {
+                results.add(invokeSerialized(call));
+            }
+            return results;
+        }
+        PostMethod m = new PostMethod(getPostUrl());
+        m.setRequestHeader(httpPrincipalHeader);
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            MapperCodec.Output out = new MapperCodec.Output(baos);
+            out.writeHeader(calls.size());
+            for (Call call : calls) {
+                out.writeCall(call.methodName, fixArgs(call.args));
+            }
+            m.setRequestEntity(new ByteArrayRequestEntity(baos.toByteArray(),
+                    MapperCodec.CONTENT_TYPE));
+            int status = httpClient.executeMethod(m);
+            if (status != HttpStatus.SC_OK) {
+                throw new ProtocolException(String.valueOf(status));
+            }
+            MapperCodec.Input in = new MapperCodec.Input(
+                    new BufferedInputStream(m.getResponseBodyAsStream()));
+            int count = in.readHeader();
+            List<Object> results = new ArrayList<Object>(count);
+            for (int i = 0; i < count; i++) {
+                Object res = in.readObject();
+                if (res instanceof Throwable) {
+                    Throwable t = (Throwable) res;
+                    throw new StorageException("Remote exception: " + t, t);
+                }
+                results.add(res);
+            }
+            if (count != calls.size()) {
+                throw new ProtocolException("Expected " + calls.size()
+                        + " results, got " + count);
+            }
+            return results;
+        } catch (StorageException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new StorageException(e);
+        } finally {
+            m.releaseConnection();
+        }
+    }
+
+    /**
+     * Copies the transaction id implementation objects that may not be known
+     * by the class loader on the server side.
+     */
+    protected static Object[] fixArgs(Object[] args) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof Xid) {
+                    args[i] = new XidImpl((Xid) args[i]);
+                }
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Sends one call through the network using Java serialization, for
+     * servers not knowing about {@link MapperCodec}.
+     */
+    protected Object invokeSerialized(Call call) throws StorageException {
+        PostMethod m = new PostMethod(getPostUrl());
         m.setRequestHeader(httpPrincipalHeader);
         try {
             ObjectWriterRequestEntity writer = new ObjectWriterRequestEntity();
-            writer.add(methodName, args);
+            writer.add(call.methodName, fixArgs(call.args));
             m.setRequestEntity(writer);
             int status = httpClient.executeMethod(m);
             if (status != HttpStatus.SC_OK) {
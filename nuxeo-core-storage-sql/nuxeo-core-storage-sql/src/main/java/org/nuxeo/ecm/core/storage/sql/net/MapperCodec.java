@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.Row;
+import org.nuxeo.ecm.core.storage.sql.RowId;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowBatch;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowUpdate;
+
+/**
+ * Compact binary encoding of the objects exchanged between a
+ * {@link MapperClient} and a {@link MapperServlet}.
+ * <p>
+ * {@link Row}, {@link RowId}, {@link Invalidations} and {@link RowBatch} are
+ * written field by field, as are the usual column values (strings, numbers,
+ * booleans, calendars and arrays of them) and the standard collections. Short
+ * strings (table names, column keys, ids) are only written the first time
+ * they appear in a stream, later occurrences are back-references. Other
+ * objects fall back to Java serialization.
+ * <p>
+ * A request is a sequence of calls, each being a method name followed by its
+ * arguments. A response is the sequence of results, stopping after the first
+ * one that is a {@link Throwable}.
+ *
+ * @since 5.6
+ */
+public class MapperCodec {
+
+    /** The content type of requests using this encoding. */
+    public static final String CONTENT_TYPE = "application/x-nuxeo-vcs-mapper";
+
+    public static final int VERSION = 1;
+
+    /** Strings longer than this are not shared through back-references. */
+    public static final int MAX_SHARED_STRING = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int NULL = 0;
+
+    private static final int STRING = 1;
+
+    private static final int STRING_REF = 2;
+
+    private static final int LONG = 3;
+
+    private static final int INTEGER = 4;
+
+    private static final int TRUE = 5;
+
+    private static final int FALSE = 6;
+
+    private static final int DOUBLE = 7;
+
+    private static final int CALENDAR = 8;
+
+    private static final int ARRAY = 9;
+
+    private static final int ROW = 10;
+
+    private static final int COLLECTION_ROW = 11;
+
+    private static final int ROW_ID = 12;
+
+    private static final int INVALIDATIONS = 13;
+
+    private static final int ROW_BATCH = 14;
+
+    private static final int LIST = 15;
+
+    private static final int SET = 16;
+
+    private static final int MAP = 17;
+
+    private static final int SERIALIZED = 18;
+
+    /** Array component types, indexed by their code. */
+    private static final Class<?>[] ARRAY_TYPES = { String.class, Long.class,
+            Double.class, Boolean.class, Calendar.class, Integer.class,
+            Serializable.class, Object.class };
+
+    private static final Map<Class<?>, Integer> ARRAY_TYPE_CODES = new HashMap<Class<?>, Integer>();
+    static {
+        for (int i = 0; i < ARRAY_TYPES.length; i++) {
+            ARRAY_TYPE_CODES.put(ARRAY_TYPES[i], Integer.valueOf(i));
+        }
+    }
+
+    private MapperCodec() {
+    }
+
+    /**
+     * Encodes objects to a stream.
+     */
+    public static class Output {
+
+        protected final OutputStream out;
+
+        protected final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        public Output(OutputStream out) {
+            this.out = out;
+        }
+
+        public void writeHeader(int count) throws IOException {
+            writeVarInt(VERSION);
+            writeVarInt(count);
+        }
+
+        public void writeCall(String methodName, Object[] args)
+                throws IOException {
+            writeString(methodName);
+            if (args == null) {
+                writeVarInt(0);
+            } else {
+                writeVarInt(args.length);
+                for (Object arg : args) {
+                    writeObject(arg);
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void writeObject(Object object) throws IOException {
+            if (object == null) {
+                out.write(NULL);
+                return;
+            }
+            Class<?> klass = object.getClass();
+            if (klass == String.class) {
+                writeString((String) object);
+            } else if (klass == Long.class) {
+                out.write(LONG);
+                writeVarLong(((Long) object).longValue());
+            } else if (klass == Integer.class) {
+                out.write(INTEGER);
+                writeVarLong(((Integer) object).intValue());
+            } else if (klass == Boolean.class) {
+                out.write(((Boolean) object).booleanValue() ? TRUE : FALSE);
+            } else if (klass == Double.class) {
+                out.write(DOUBLE);
+                writeLong(Double.doubleToLongBits(((Double) object).doubleValue()));
+            } else if (klass == GregorianCalendar.class) {
+                out.write(CALENDAR);
+                writeCalendar((Calendar) object);
+            } else if (klass.isArray()
+                    && ARRAY_TYPE_CODES.containsKey(klass.getComponentType())) {
+                out.write(ARRAY);
+                writeArray(object);
+            } else if (klass == Row.class) {
+                Row row = (Row) object;
+                if (!row.isCollection()) {
+                    out.write(ROW);
+                    writeRow(row);
+                } else if (ARRAY_TYPE_CODES.containsKey(row.values.getClass().getComponentType())) {
+                    out.write(COLLECTION_ROW);
+                    writeString(row.tableName);
+                    writeObject(row.id);
+                    writeArray(row.values);
+                } else {
+                    // arrays of ACLRow for instance
+                    writeSerialized(row);
+                }
+            } else if (klass == RowId.class) {
+                out.write(ROW_ID);
+                writeRowId((RowId) object);
+            } else if (klass == Invalidations.class) {
+                out.write(INVALIDATIONS);
+                writeInvalidations((Invalidations) object);
+            } else if (klass == RowBatch.class) {
+                out.write(ROW_BATCH);
+                writeRowBatch((RowBatch) object);
+            } else if (klass == ArrayList.class || klass == LinkedList.class) {
+                out.write(LIST);
+                writeCollection((Collection<?>) object);
+            } else if (klass == HashSet.class || klass == LinkedHashSet.class) {
+                out.write(SET);
+                writeCollection((Collection<?>) object);
+            } else if (klass == HashMap.class || klass == LinkedHashMap.class) {
+                out.write(MAP);
+                Map<?, ?> map = (Map<?, ?>) object;
+                writeVarInt(map.size());
+                for (Entry<?, ?> es : map.entrySet()) {
+                    writeObject(es.getKey());
+                    writeObject(es.getValue());
+                }
+            } else {
+                writeSerialized(object);
+            }
+        }
+
+        protected void writeSerialized(Object object) throws IOException {
+            out.write(SERIALIZED);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(object);
+            oos.close();
+            writeVarInt(baos.size());
+            baos.writeTo(out);
+        }
+
+        protected void writeString(String string) throws IOException {
+            if (string.length() <= MAX_SHARED_STRING) {
+                Integer ref = strings.get(string);
+                if (ref != null) {
+                    out.write(STRING_REF);
+                    writeVarInt(ref.intValue());
+                    return;
+                }
+                strings.put(string, Integer.valueOf(strings.size()));
+            }
+            out.write(STRING);
+            byte[] bytes = string.getBytes(UTF8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        protected void writeCalendar(Calendar cal) throws IOException {
+            writeVarLong(cal.getTimeInMillis());
+            writeString(cal.getTimeZone().getID());
+        }
+
+        protected void writeArray(Object array) throws IOException {
+            Class<?> type = array.getClass().getComponentType();
+            writeVarInt(ARRAY_TYPE_CODES.get(type).intValue());
+            int length = Array.getLength(array);
+            writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writeObject(Array.get(array, i));
+            }
+        }
+
+        protected void writeRowId(RowId rowId) throws IOException {
+            writeString(rowId.tableName);
+            writeObject(rowId.id);
+        }
+
+        protected void writeRowIds(Collection<RowId> rowIds)
+                throws IOException {
+            if (rowIds == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(rowIds.size());
+            for (RowId rowId : rowIds) {
+                writeRowId(rowId);
+            }
+        }
+
+        protected void writeRow(Row row) throws IOException {
+            writeRowId(row);
+            List<String> keys = row.getKeys();
+            List<Serializable> values = row.getValues();
+            writeVarInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                writeString(keys.get(i));
+                writeObject(values.get(i));
+            }
+        }
+
+        protected void writeInvalidations(Invalidations invalidations)
+                throws IOException {
+            out.write(invalidations.all ? TRUE : FALSE);
+            writeRowIds(invalidations.modified);
+            writeRowIds(invalidations.deleted);
+        }
+
+        protected void writeRowBatch(RowBatch batch) throws IOException {
+            writeVarInt(batch.creates.size());
+            for (Row row : batch.creates) {
+                writeObject(row);
+            }
+            writeVarInt(batch.updates.size());
+            for (RowUpdate update : batch.updates) {
+                writeObject(update.row);
+                writeVarInt(update.keys.size());
+                for (String key : update.keys) {
+                    writeString(key);
+                }
+            }
+            writeRowIds(batch.deletes);
+            writeRowIds(batch.deletesDependent);
+        }
+
+        protected void writeCollection(Collection<?> collection)
+                throws IOException {
+            writeVarInt(collection.size());
+            for (Object object : collection) {
+                writeObject(object);
+            }
+        }
+
+        protected void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        protected void writeVarLong(long value) throws IOException {
+            // zigzag so that small negative numbers stay small
+            value = (value << 1) ^ (value >> 63);
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        protected void writeLong(long value) throws IOException {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Decodes objects from a stream.
+     */
+    public static class Input {
+
+        protected final InputStream in;
+
+        protected final List<String> strings = new ArrayList<String>();
+
+        /**
+         * Whether only the tags of {@link Invalidations} are accepted, so that
+         * untrusted input never reaches Java deserialization.
+         */
+        protected boolean invalidationsOnly;
+
+        public Input(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads an {@link Invalidations} from an untrusted source. Only the
+         * tags making up invalidations and their row ids are accepted, any
+         * other tag, and in particular a serialized object, fails.
+         *
+         * @since 5.6
+         */
+        public Invalidations readInvalidationsOnly() throws IOException {
+            invalidationsOnly = true;
+            int tag = readByte();
+            if (tag != INVALIDATIONS) {
+                throw new StreamCorruptedException("Expected invalidations: "
+                        + tag);
+            }
+            try {
+                return readInvalidations();
+            } catch (ClassNotFoundException e) {
+                // cannot happen without serialized objects
+                throw new StreamCorruptedException(e.toString());
+            }
+        }
+
+        /**
+         * Reads the header and returns the number of calls or results that
+         * follow.
+         */
+        public int readHeader() throws IOException {
+            int version = readVarInt();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported version: "
+                        + version);
+            }
+            return readVarInt();
+        }
+
+        public String readMethodName() throws IOException,
+                ClassNotFoundException {
+            return (String) readObject();
+        }
+
+        public Object[] readArgs() throws IOException,
+                ClassNotFoundException {
+            Object[] args = new Object[readVarInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readObject();
+            }
+            return args;
+        }
+
+        public Object readObject() throws IOException, ClassNotFoundException {
+            int tag = readByte();
+            if (invalidationsOnly) {
+                switch (tag) {
+                case NULL:
+                case STRING:
+                case STRING_REF:
+                case LONG:
+                case INTEGER:
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unexpected tag: " + tag);
+                }
+            }
+            switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+            case STRING_REF:
+                return readString(tag);
+            case LONG:
+                return Long.valueOf(readVarLong());
+            case INTEGER:
+                return Integer.valueOf((int) readVarLong());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(readLong()));
+            case CALENDAR:
+                return readCalendar();
+            case ARRAY:
+                return readArray();
+            case ROW:
+                return readRow();
+            case COLLECTION_ROW:
+                String tableName = readString();
+                Serializable id = (Serializable) readObject();
+                return new Row(tableName, id, (Serializable[]) readArray());
+            case ROW_ID:
+                return readRowId();
+            case INVALIDATIONS:
+                return readInvalidations();
+            case ROW_BATCH:
+                return readRowBatch();
+            case LIST:
+                return readCollection(new ArrayList<Object>());
+            case SET:
+                return readCollection(new LinkedHashSet<Object>());
+            case MAP:
+                int size = readVarInt();
+                Map<Object, Object> map = new LinkedHashMap<Object, Object>(
+                        size * 2);
+                for (int i = 0; i < size; i++) {
+                    Object key = readObject();
+                    map.put(key, readObject());
+                }
+                return map;
+            case SERIALIZED:
+                byte[] bytes = readBytes(readVarInt());
+                ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(bytes));
+                return ois.readObject();
+            default:
+                throw new StreamCorruptedException("Unknown tag: " + tag);
+            }
+        }
+
+        protected String readString() throws IOException {
+            return readString(readByte());
+        }
+
+        protected String readString(int tag) throws IOException {
+            if (tag == STRING_REF) {
+                return strings.get(readVarInt());
+            }
+            if (tag != STRING) {
+                throw new StreamCorruptedException("Expected string: " + tag);
+            }
+            String string = new String(readBytes(readVarInt()), UTF8);
+            if (string.length() <= MAX_SHARED_STRING) {
+                strings.add(string);
+            }
+            return string;
+        }
+
+        protected Calendar readCalendar() throws IOException {
+            long millis = readVarLong();
+            Calendar cal = new GregorianCalendar(
+                    TimeZone.getTimeZone(readString()));
+            cal.setTimeInMillis(millis);
+            return cal;
+        }
+
+        protected Object readArray() throws IOException,
+                ClassNotFoundException {
+            Class<?> type = ARRAY_TYPES[readVarInt()];
+            int length = readVarInt();
+            Object array = Array.newInstance(type, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, readObject());
+            }
+            return array;
+        }
+
+        protected RowId readRowId() throws IOException,
+                ClassNotFoundException {
+            String tableName = readString();
+            return new RowId(tableName, (Serializable) readObject());
+        }
+
+        protected Set<RowId> readRowIds() throws IOException,
+                ClassNotFoundException {
+            int size = readVarInt();
+            if (size == 0) {
+                return null;
+            }
+            if (size < 0) {
+                throw new StreamCorruptedException("Invalid size: " + size);
+            }
+            // the size is not trusted for the initial capacity
+            Set<RowId> rowIds = new HashSet<RowId>(Math.min(size, 1024) * 2);
+            for (int i = 0; i < size; i++) {
+                rowIds.add(readRowId());
+            }
+            return rowIds;
+        }
+
+        protected Row readRow() throws IOException, ClassNotFoundException {
+            String tableName = readString();
+            Row row = new Row(tableName, (Serializable) readObject());
+            int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                row.putNew(key, (Serializable) readObject());
+            }
+            return row;
+        }
+
+        protected Invalidations readInvalidations() throws IOException,
+                ClassNotFoundException {
+            Invalidations invalidations = new Invalidations(
+                    readByte() == TRUE);
+            invalidations.modified = readRowIds();
+            invalidations.deleted = readRowIds();
+            return invalidations;
+        }
+
+        protected RowBatch readRowBatch() throws IOException,
+                ClassNotFoundException {
+            RowBatch batch = new RowBatch();
+            int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                batch.creates.add((Row) readObject());
+            }
+            size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                Row row = (Row) readObject();
+                int n = readVarInt();
+                List<String> keys = new ArrayList<String>(n);
+                for (int j = 0; j < n; j++) {
+                    keys.add(readString());
+                }
+                batch.updates.add(new RowUpdate(row, keys));
+            }
+            Set<RowId> deletes = readRowIds();
+            if (deletes != null) {
+                batch.deletes.addAll(deletes);
+            }
+            Set<RowId> deletesDependent = readRowIds();
+            if (deletesDependent != null) {
+                batch.deletesDependent.addAll(deletesDependent);
+            }
+            return batch;
+        }
+
+        protected Collection<Object> readCollection(
+                Collection<Object> collection) throws IOException,
+                ClassNotFoundException {
+            int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                collection.add(readObject());
+            }
+            return collection;
+        }
+
+        protected int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        protected byte[] readBytes(int length) throws IOException {
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid length: " + length);
+            }
+            byte[] bytes = new byte[length];
+            int off = 0;
+            while (off < length) {
+                int n = in.read(bytes, off, length - off);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                off += n;
+            }
+            return bytes;
+        }
+
+        protected int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        protected long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        protected long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+    }
+
+}
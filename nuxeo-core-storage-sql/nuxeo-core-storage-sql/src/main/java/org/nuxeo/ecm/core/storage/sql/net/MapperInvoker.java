@@ -13,7 +13,9 @@ package org.nuxeo.ecm.core.storage.sql.net;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.SynchronousQueue;
@@ -35,13 +37,31 @@ public class MapperInvoker extends Thread {
 
     private static final String INVOKER_CLOSE = "__close";
 
-    private static final Map<String, Method> mapperMethods = new HashMap<String, Method>();
+    /** Mapper methods by name, several for overloaded methods. */
+    private static final Map<String, List<Method>> mapperMethods = new HashMap<String, List<Method>>();
     static {
         for (Method m : Mapper.class.getMethods()) {
-            mapperMethods.put(m.getName(), m);
+            List<Method> methods = mapperMethods.get(m.getName());
+            if (methods == null) {
+                mapperMethods.put(m.getName(),
+                        methods = new ArrayList<Method>(1));
+            }
+            methods.add(m);
         }
     }
 
+    private static final Map<Class<?>, Class<?>> primitiveWrappers = new HashMap<Class<?>, Class<?>>();
+    static {
+        primitiveWrappers.put(Boolean.TYPE, Boolean.class);
+        primitiveWrappers.put(Byte.TYPE, Byte.class);
+        primitiveWrappers.put(Character.TYPE, Character.class);
+        primitiveWrappers.put(Short.TYPE, Short.class);
+        primitiveWrappers.put(Integer.TYPE, Integer.class);
+        primitiveWrappers.put(Long.TYPE, Long.class);
+        primitiveWrappers.put(Float.TYPE, Float.class);
+        primitiveWrappers.put(Double.TYPE, Double.class);
+    }
+
     protected static final class MethodCall {
         public final String methodName;
 
@@ -152,12 +172,48 @@ public class MapperInvoker extends Thread {
             // (we must not close the mapper directly as it may be in a pool)
             return null;
         }
-        Method method = mapperMethods.get(methodName);
-        if (method == null) {
+        return getMapperMethod(methodName, args).invoke(mapper, args);
+    }
+
+    /**
+     * Finds the Mapper method of the given name whose parameters accept the
+     * arguments, as the protocol only transmits the method name.
+     */
+    protected static Method getMapperMethod(String methodName, Object[] args)
+            throws StorageException {
+        List<Method> methods = mapperMethods.get(methodName);
+        if (methods == null) {
             throw new StorageException("Unknown Mapper method: " + methodName);
-        } else {
-            return method.invoke(mapper, args);
         }
+        if (methods.size() == 1) {
+            return methods.get(0);
+        }
+        int nargs = args == null ? 0 : args.length;
+        for (Method method : methods) {
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length != nargs) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 0; i < nargs && match; i++) {
+                match = isAssignable(types[i], args[i]);
+            }
+            if (match) {
+                return method;
+            }
+        }
+        throw new StorageException("No Mapper method " + methodName
+                + " for the given arguments");
+    }
+
+    protected static boolean isAssignable(Class<?> type, Object arg) {
+        if (arg == null) {
+            return !type.isPrimitive();
+        }
+        if (type.isPrimitive()) {
+            return primitiveWrappers.get(type) == arg.getClass();
+        }
+        return type.isInstance(arg);
     }
 
 }
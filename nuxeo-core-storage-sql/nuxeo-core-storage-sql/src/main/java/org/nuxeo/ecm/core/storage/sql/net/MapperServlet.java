@@ -11,6 +11,8 @@
  */
 package org.nuxeo.ecm.core.storage.sql.net;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -149,6 +151,13 @@ public class MapperServlet extends HttpServlet {
                 }
             }
             invoker.clientInfo.handledRequest(req);
+            String contentType = req.getContentType();
+            if (contentType != null
+                    && contentType.startsWith(MapperCodec.CONTENT_TYPE)) {
+                doCompact(invoker, rid, mid, is, resp);
+                return;
+            }
+
             // set up output stream
             resp.setContentType("application/octet-stream");
             // resp.setCharacterEncoding("ISO-8859-1"); // important
@@ -169,19 +178,7 @@ public class MapperServlet extends HttpServlet {
             }
 
             // invoke method
-            Object res = invoker.call(methodName, args.toArray());
-            // close?
-            if (Mapper.CLOSE.equals(methodName)) {
-                // close session
-                invoker.close();
-                invokers.remove(mid);
-            }
-            // getIdentification
-            else if (Mapper.GET_IDENTIFICATION.equals(methodName)) {
-                // add repositoryId to identification
-                Identification id = (Identification) res;
-                res = new Identification(rid, id.mapperId);
-            }
+            Object res = call(invoker, rid, mid, methodName, args.toArray());
             // write result
             oos.writeObject(res);
             oos.flush();
@@ -193,6 +190,53 @@ public class MapperServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Executes the calls of a request encoded with {@link MapperCodec}, in
+     * order, stopping at the first one that fails.
+     */
+    protected void doCompact(MapperInvoker invoker, String rid, String mid,
+            InputStream is, HttpServletResponse resp) throws Throwable {
+        MapperCodec.Input in = new MapperCodec.Input(new BufferedInputStream(
+                is));
+        int count = in.readHeader();
+        List<Object> results = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            String methodName = in.readMethodName();
+            Object[] args = in.readArgs();
+            Object res = call(invoker, rid, mid, methodName, args);
+            results.add(res);
+            if (res instanceof Throwable) {
+                break;
+            }
+        }
+        resp.setContentType(MapperCodec.CONTENT_TYPE);
+        MapperCodec.Output out = new MapperCodec.Output(
+                new BufferedOutputStream(resp.getOutputStream()));
+        out.writeHeader(results.size());
+        for (Object res : results) {
+            out.writeObject(res);
+        }
+        out.flush();
+    }
+
+    protected Object call(MapperInvoker invoker, String rid, String mid,
+            String methodName, Object[] args) throws Throwable {
+        Object res = invoker.call(methodName, args);
+        // close?
+        if (Mapper.CLOSE.equals(methodName)) {
+            // close session
+            invoker.close();
+            invokers.remove(mid);
+        }
+        // getIdentification
+        else if (Mapper.GET_IDENTIFICATION.equals(methodName)) {
+            // add repositoryId to identification
+            Identification id = (Identification) res;
+            res = new Identification(rid, id.mapperId);
+        }
+        return res;
+    }
+
     public Collection<MapperClientInfo> getClientInfos() {
         if (invokers == null) {
             return Collections.emptyList();
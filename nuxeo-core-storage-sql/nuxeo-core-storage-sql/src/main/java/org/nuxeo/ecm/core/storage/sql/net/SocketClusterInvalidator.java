@@ -0,0 +1,595 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.ClusterInvalidator;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsPropagator;
+import org.nuxeo.ecm.core.storage.sql.Mapper;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.ServerDescriptor;
+
+/**
+ * Cluster invalidator pushing invalidations directly to the other cluster
+ * nodes through sockets, instead of going through the database.
+ * <p>
+ * Each node listens on the {@code clustering/invalidator/listen} address and
+ * connects to the {@code clustering/invalidator/connect} addresses of the
+ * other nodes. Invalidations sent after a commit are queued for each node and
+ * written by a background sender, so a slow or unreachable node never delays
+ * a commit. They are delivered to the sessions of the other nodes as soon as
+ * they are received, so there is no polling and no clustering delay.
+ * <p>
+ * When a {@code clustering/invalidator/secret} is configured, a connecting
+ * node must answer a challenge with the HMAC of a random nonce keyed by the
+ * secret before any invalidation is accepted from it. All the nodes must be
+ * configured with the same secret. The secret is mandatory when listening on
+ * another interface than loopback. Only encoded invalidations are accepted,
+ * never serialized objects, and messages are limited to
+ * {@link #MAX_MESSAGE_SIZE}.
+ * <p>
+ * Invalidations may be lost while a node is unreachable or too slow, so when
+ * sending to a node fails or its queue overflows, a full invalidation is sent
+ * to it first once it is reached again. This is also done on the first
+ * connection after startup.
+ *
+ * @since 5.6
+ */
+public class SocketClusterInvalidator implements ClusterInvalidator {
+
+    private static final Log log = LogFactory.getLog(SocketClusterInvalidator.class);
+
+    public static final int CONNECT_TIMEOUT = 2000; // ms
+
+    /** Time allowed to write a message before the connection is closed. */
+    public static final int WRITE_TIMEOUT = 5000; // ms
+
+    /** Time allowed to read a message or the authentication once started. */
+    public static final int READ_TIMEOUT = 5000; // ms
+
+    /** Time after which a silent connection is closed by the reader. */
+    public static final int IDLE_TIMEOUT = 60000; // ms
+
+    /** Interval at which an empty message is sent on an idle connection. */
+    public static final int KEEPALIVE_INTERVAL = 20000; // ms
+
+    /** Delay before connecting again to a node after a failure. */
+    public static final int RETRY_DELAY = 1000; // ms
+
+    /** Time a closed connection lingers to send unsent data. */
+    public static final int LINGER_TIME = 1; // s
+
+    /**
+     * Maximum size of an encoded message. Larger invalidations are replaced
+     * by a full invalidation.
+     */
+    public static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    /**
+     * Maximum number of messages queued for a node, after which they are
+     * replaced by a full invalidation.
+     */
+    public static final int MAX_QUEUE_SIZE = 1000;
+
+    /** Maximum number of connections read from concurrently. */
+    public static final int MAX_READERS = 16;
+
+    protected static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    protected static final int NONCE_SIZE = 16;
+
+    /** The encoded invalidation of everything. */
+    protected static final byte[] FULL_INVALIDATION;
+
+    static {
+        try {
+            FULL_INVALIDATION = encode(new Invalidations(true));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected String repositoryName;
+
+    protected InvalidationsPropagator propagator;
+
+    /** The shared secret, or {@code null} if connections are not authenticated. */
+    protected byte[] secret;
+
+    protected final SecureRandom random = new SecureRandom();
+
+    protected ServerSocket serverSocket;
+
+    protected Thread acceptor;
+
+    protected ThreadPoolExecutor readers;
+
+    /** Closes the connections whose writes take too long. */
+    protected Timer writeTimer;
+
+    protected final List<Peer> peers = new ArrayList<Peer>();
+
+    /** Sockets accepted from other nodes. */
+    protected final Set<Socket> accepted = new CopyOnWriteArraySet<Socket>();
+
+    protected volatile boolean closed;
+
+    /**
+     * Connection to another cluster node, written to by its own sender thread
+     * from the queue filled by {@link #enqueue}.
+     */
+    protected class Peer implements Runnable {
+
+        protected final InetSocketAddress address;
+
+        protected final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(
+                MAX_QUEUE_SIZE);
+
+        /** Set when a message could not be queued. */
+        protected final AtomicBoolean overflowed = new AtomicBoolean();
+
+        protected Thread sender;
+
+        protected volatile Socket socket;
+
+        protected DataOutputStream out;
+
+        /**
+         * Whether invalidations may have been lost, in which case the peer
+         * must invalidate everything. Initially set as this node may have
+         * failed to send some before a restart.
+         */
+        protected boolean needsFullInvalidation = true;
+
+        protected Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        protected void start() {
+            sender = new Thread(this, "Nuxeo-VCS-Invalidations-Sender-"
+                    + repositoryName + "-" + address);
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        /** Queues a message, never blocks. */
+        protected void enqueue(byte[] message) {
+            if (!queue.offer(message)) {
+                overflowed.set(true);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    byte[] message = queue.poll(KEEPALIVE_INTERVAL,
+                            TimeUnit.MILLISECONDS);
+                    if (overflowed.getAndSet(false)) {
+                        // the full invalidation covers what was queued
+                        queue.clear();
+                        message = FULL_INVALIDATION;
+                    }
+                    if (message == null && socket == null) {
+                        // no keepalive needed without a connection
+                        continue;
+                    }
+                    try {
+                        send(message);
+                    } catch (IOException e) {
+                        if (closed) {
+                            break;
+                        }
+                        // the peer will be sent a full invalidation when
+                        // next reached, which covers what was queued
+                        close();
+                        queue.clear();
+                        log.warn("Cannot send cluster invalidations to "
+                                + this + ": " + e.getMessage());
+                        Thread.sleep(RETRY_DELAY);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Sends a message, or an empty keepalive message if {@code null}.
+         */
+        protected void send(byte[] message) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            final Socket s = socket;
+            TimerTask timeout = new TimerTask() {
+                @Override
+                public void run() {
+                    // unblocks the write
+                    closeQuietly(s);
+                }
+            };
+            writeTimer.schedule(timeout, WRITE_TIMEOUT);
+            try {
+                if (needsFullInvalidation) {
+                    out.writeInt(FULL_INVALIDATION.length);
+                    out.write(FULL_INVALIDATION);
+                }
+                if (message == null) {
+                    out.writeInt(0);
+                } else if (message != FULL_INVALIDATION
+                        || !needsFullInvalidation) {
+                    out.writeInt(message.length);
+                    out.write(message);
+                }
+                out.flush();
+            } finally {
+                timeout.cancel();
+            }
+            needsFullInvalidation = false;
+        }
+
+        protected void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT);
+            socket.setSoLinger(true, LINGER_TIME);
+            socket.connect(address, CONNECT_TIMEOUT);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    socket.getOutputStream()));
+            if (secret != null) {
+                // answer the challenge
+                DataInputStream in = new DataInputStream(
+                        socket.getInputStream());
+                byte[] nonce = new byte[NONCE_SIZE];
+                in.readFully(nonce);
+                out.write(hmac(nonce));
+                out.flush();
+            }
+        }
+
+        /** Closes the connection, what was not flushed may be lost. */
+        protected void close() {
+            needsFullInvalidation = true;
+            Socket s = socket;
+            socket = null;
+            out = null;
+            closeQuietly(s);
+        }
+
+        /** Stops the sender, called from another thread. */
+        protected void shutdown() {
+            if (sender != null) {
+                sender.interrupt();
+            }
+            // unblocks a write in progress
+            closeQuietly(socket);
+        }
+
+        @Override
+        public String toString() {
+            return address.toString();
+        }
+    }
+
+    protected static class ReaderThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        protected ReaderThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    @Override
+    public void initialize(Mapper clusterNodeMapper,
+            RepositoryDescriptor repositoryDescriptor,
+            InvalidationsPropagator propagator) throws StorageException {
+        repositoryName = repositoryDescriptor.name;
+        this.propagator = propagator;
+        ServerDescriptor listen = repositoryDescriptor.clusteringListen;
+        if (listen == null || listen.disabled) {
+            throw new StorageException("Repository " + repositoryName
+                    + ": missing clustering invalidator listen address");
+        }
+        String sec = repositoryDescriptor.clusteringSecret;
+        if (sec != null && sec.trim().length() != 0) {
+            try {
+                secret = sec.trim().getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new StorageException(e);
+            }
+        }
+        for (ServerDescriptor connect : repositoryDescriptor.clusteringConnect) {
+            if (!connect.disabled) {
+                peers.add(new Peer(new InetSocketAddress(connect.host,
+                        connect.port)));
+            }
+        }
+        try {
+            // loopback unless configured
+            InetAddress host = InetAddress.getByName(listen.host == null
+                    || listen.host.trim().length() == 0 ? null
+                    : listen.host.trim());
+            if (!host.isLoopbackAddress() && secret == null) {
+                throw new StorageException("Repository " + repositoryName
+                        + ": a clustering invalidator secret is required to"
+                        + " listen on " + host);
+            }
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(host, listen.port));
+        } catch (IOException e) {
+            throw new StorageException("Cannot listen on " + listen.host + ':'
+                    + listen.port, e);
+        }
+        readers = new ThreadPoolExecutor(0, MAX_READERS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ReaderThreadFactory(
+                        "Nuxeo-VCS-Invalidations-Reader-" + repositoryName
+                                + "-"));
+        writeTimer = new Timer("Nuxeo-VCS-Invalidations-Timeout-"
+                + repositoryName, true);
+        for (Peer peer : peers) {
+            peer.start();
+        }
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Nuxeo-VCS-Invalidations-Acceptor-" + repositoryName);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Repository " + repositoryName
+                + ": listening for cluster invalidations on "
+                + serverSocket.getLocalSocketAddress() + ", peers: " + peers);
+    }
+
+    protected void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Cannot accept cluster connection", e);
+                }
+                return;
+            }
+            accepted.add(socket);
+            try {
+                readers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            read(socket);
+                        } finally {
+                            accepted.remove(socket);
+                            closeQuietly(socket);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                accepted.remove(socket);
+                closeQuietly(socket);
+                if (!closed) {
+                    log.warn("Too many cluster connections, refusing "
+                            + socket.getRemoteSocketAddress());
+                }
+            }
+        }
+    }
+
+    protected void read(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream()));
+            if (secret != null) {
+                authenticate(socket, in);
+            }
+            while (!closed) {
+                int length;
+                socket.setSoTimeout(IDLE_TIMEOUT);
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                socket.setSoTimeout(READ_TIMEOUT);
+                if (length == 0) {
+                    // keepalive
+                    continue;
+                }
+                if (length < 0 || length > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Invalid message length: " + length);
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                Invalidations invalidations = new MapperCodec.Input(
+                        new ByteArrayInputStream(message)).readInvalidationsOnly();
+                if (log.isTraceEnabled()) {
+                    log.trace("Received cluster invalidations from "
+                            + socket.getRemoteSocketAddress() + ": "
+                            + invalidations);
+                }
+                propagator.propagateInvalidations(invalidations, null);
+            }
+        } catch (SocketException e) {
+            if (!closed) {
+                log.warn("Cluster connection from "
+                        + socket.getRemoteSocketAddress() + " closed: "
+                        + e.getMessage());
+            }
+        } catch (SocketTimeoutException e) {
+            log.warn("Cluster connection from "
+                    + socket.getRemoteSocketAddress() + " timed out");
+        } catch (Exception e) {
+            log.error("Cannot read cluster invalidations from "
+                    + socket.getRemoteSocketAddress(), e);
+        }
+    }
+
+    /**
+     * Challenges the connecting node to prove it knows the secret.
+     */
+    protected void authenticate(Socket socket, DataInputStream in)
+            throws IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.write(nonce);
+        out.flush();
+        byte[] expected = hmac(nonce);
+        byte[] answer = new byte[expected.length];
+        in.readFully(answer);
+        if (!MessageDigest.isEqual(expected, answer)) {
+            throw new IOException("Authentication failed");
+        }
+    }
+
+    protected byte[] hmac(byte[] nonce) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, HMAC_ALGORITHM));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    protected static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    protected static byte[] encode(Invalidations invalidations)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MapperCodec.Output out = new MapperCodec.Output(baos);
+        out.writeObject(invalidations);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() throws StorageException {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        readers.shutdownNow();
+        for (Socket socket : accepted) {
+            closeQuietly(socket);
+        }
+        for (Peer peer : peers) {
+            peer.shutdown();
+        }
+        writeTimer.cancel();
+    }
+
+    @Override
+    public void connectionWasReset() {
+        // the database connection is not used
+    }
+
+    @Override
+    public void processInvalidationsNext() {
+        // invalidations are pushed
+    }
+
+    @Override
+    public Invalidations receiveInvalidations() {
+        // invalidations are pushed
+        return null;
+    }
+
+    /**
+     * Queues the invalidations for each node, the sending is done in the
+     * background.
+     */
+    @Override
+    public void sendInvalidations(Invalidations invalidations)
+            throws StorageException {
+        byte[] message;
+        try {
+            message = encode(invalidations);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        if (message.length > MAX_MESSAGE_SIZE) {
+            message = FULL_INVALIDATION;
+        }
+        for (Peer peer : peers) {
+            peer.enqueue(message);
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.transaction.xa.XAResource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowBatch;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowUpdate;
+
+/**
+ * Two caching mappers sharing a {@link SharedRowCache}, over a database
+ * whose transactions read from a snapshot taken when they start.
+ */
+public class TestCachingRowMapper {
+
+    protected static final RowId ROW_ID = new RowId("hierarchy", "1");
+
+    /** The committed rows. */
+    protected Map<RowId, Row> database;
+
+    protected SharedRowCache sharedCache;
+
+    protected InvalidationsPropagator cachePropagator;
+
+    protected InvalidationsPropagator eventPropagator;
+
+    @Before
+    public void setUp() {
+        database = new HashMap<RowId, Row>();
+        database.put(ROW_ID, row("v1"));
+        sharedCache = new SharedRowCache(100);
+        cachePropagator = new InvalidationsPropagator();
+        eventPropagator = new InvalidationsPropagator();
+    }
+
+    protected static Row row(String name) {
+        Row row = new Row(ROW_ID.tableName, ROW_ID.id);
+        row.put("name", name);
+        return row;
+    }
+
+    /**
+     * A mapper reading from the snapshot of its transaction, or from the
+     * committed rows outside a transaction, and applying its writes to the
+     * committed rows on commit.
+     */
+    protected class SnapshotMapper implements InvocationHandler {
+
+        protected Map<RowId, Row> snapshot;
+
+        protected Map<RowId, Row> writes = new HashMap<RowId, Row>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("start")) {
+                snapshot = new HashMap<RowId, Row>(database);
+            } else if (name.equals("readSimpleRow")) {
+                Map<RowId, Row> rows = snapshot == null ? database : snapshot;
+                Row row = rows.get(args[0]);
+                return row == null ? null : row.clone();
+            } else if (name.equals("write")) {
+                for (RowUpdate rowu : ((RowBatch) args[0]).updates) {
+                    writes.put(new RowId(rowu.row), rowu.row.clone());
+                }
+            } else if (name.equals("commit")) {
+                database.putAll(writes);
+                writes.clear();
+                snapshot = null;
+            } else if (name.equals("rollback")) {
+                writes.clear();
+                snapshot = null;
+            } else if (name.equals("prepare")) {
+                return Integer.valueOf(XAResource.XA_OK);
+            } else if (method.getReturnType() == boolean.class) {
+                return Boolean.FALSE;
+            } else if (method.getReturnType() == int.class) {
+                return Integer.valueOf(0);
+            }
+            return null;
+        }
+    }
+
+    protected CachingMapper newMapper() {
+        Mapper mapper = (Mapper) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Mapper.class },
+                new SnapshotMapper());
+        CachingMapper cachingMapper = new CachingMapper(null, mapper,
+                cachePropagator, eventPropagator, new InvalidationsQueue(
+                        "events"), sharedCache);
+        // no session to send invalidation events to
+        cachingMapper.setEventQueue(new InvalidationsQueue("client"));
+        return cachingMapper;
+    }
+
+    protected static String getName(Row row) {
+        return (String) row.get("name");
+    }
+
+    @Test
+    public void testSnapshotReadNotShared() throws Exception {
+        CachingMapper reader = newMapper();
+        CachingMapper writer = newMapper();
+
+        // the reader's transaction starts before the writer's commit
+        reader.start(null, XAResource.TMNOFLAGS);
+
+        writer.start(null, XAResource.TMNOFLAGS);
+        Row row = row("v2");
+        RowBatch batch = new RowBatch();
+        batch.updates.add(new RowUpdate(row,
+                Collections.<String> singleton("name")));
+        writer.write(batch);
+        writer.commit(null, true);
+        writer.sendInvalidations(null);
+
+        // the reader sees its snapshot, read after the invalidation
+        assertEquals("v1", getName(reader.readSimpleRow(ROW_ID)));
+        // which must not be shared
+        assertNull(sharedCache.get(ROW_ID));
+        reader.commit(null, true);
+
+        // a new session sees the committed row
+        CachingMapper other = newMapper();
+        other.start(null, XAResource.TMNOFLAGS);
+        assertEquals("v2", getName(other.readSimpleRow(ROW_ID)));
+        other.commit(null, true);
+        assertEquals("v2", getName(sharedCache.get(ROW_ID)));
+    }
+
+    @Test
+    public void testTransactionReadShared() throws Exception {
+        CachingMapper reader = newMapper();
+        reader.start(null, XAResource.TMNOFLAGS);
+        assertEquals("v1", getName(reader.readSimpleRow(ROW_ID)));
+        reader.commit(null, true);
+        assertEquals("v1", getName(sharedCache.get(ROW_ID)));
+
+        // seen by another session without reading the database
+        database.clear();
+        CachingMapper other = newMapper();
+        assertEquals("v1", getName(other.readSimpleRow(ROW_ID)));
+    }
+
+}
@@ -24,6 +24,7 @@ import org.nuxeo.common.xmap.XMap;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.FieldDescriptor;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.FulltextIndexDescriptor;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.ServerDescriptor;
+import org.nuxeo.ecm.core.storage.sql.net.SocketClusterInvalidator;
 
 public class TestRepositoryDescriptor {
 
@@ -49,6 +50,29 @@ public class TestRepositoryDescriptor {
         assertEquals(1234, desc.clusteringDelay);
     }
 
+    @Test
+    public void testClusteringInvalidator() throws Exception {
+        assertEquals(SocketClusterInvalidator.class,
+                desc.clusteringInvalidatorClass);
+        assertEquals("node1", desc.clusteringListen.host);
+        assertEquals(8282, desc.clusteringListen.port);
+        assertEquals(1, desc.clusteringConnect.size());
+        assertEquals("node2", desc.clusteringConnect.get(0).host);
+        assertEquals(8283, desc.clusteringConnect.get(0).port);
+        assertEquals("s3cr3t", desc.clusteringSecret);
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        assertTrue(desc.sharedCacheEnabled);
+        assertEquals(5000, desc.sharedCacheMaxSize);
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        assertEquals(200, desc.streamingFetchSize);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testFulltext() throws Exception {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSharedRowCache {
+
+    protected static Row row(String id) {
+        Row row = new Row("hierarchy", id);
+        row.put("name", "doc" + id);
+        return row;
+    }
+
+    @Test
+    public void testGetPut() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100);
+        RowId rowId = new RowId("hierarchy", "1");
+        assertNull(cache.get(rowId));
+        Row row = row("1");
+        cache.put(rowId, row, cache.getGeneration());
+        assertSame(row, cache.get(rowId));
+        RowCacheStatus status = cache.getStatus();
+        assertEquals(1, status.getSize());
+        assertEquals(1, status.getHits());
+        assertEquals(1, status.getMisses());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100);
+        RowId rowId1 = new RowId("hierarchy", "1");
+        RowId rowId2 = new RowId("hierarchy", "2");
+        cache.put(rowId1, row("1"), cache.getGeneration());
+        cache.put(rowId2, row("2"), cache.getGeneration());
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(rowId1);
+        cache.invalidate(invalidations);
+        assertNull(cache.get(rowId1));
+        assertNotNull(cache.get(rowId2));
+        cache.invalidate(new Invalidations(true));
+        assertNull(cache.get(rowId2));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testPutAfterInvalidationIgnored() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100);
+        RowId rowId = new RowId("hierarchy", "1");
+        long gen = cache.getGeneration();
+        // concurrent commit between database read and put
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(rowId);
+        cache.invalidate(invalidations);
+        cache.put(rowId, row("1"), gen);
+        assertNull(cache.get(rowId));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        SharedRowCache cache = new SharedRowCache(64, 4);
+        for (int i = 0; i < 1000; i++) {
+            String id = String.valueOf(i);
+            cache.put(new RowId("hierarchy", id), row(id),
+                    cache.getGeneration());
+        }
+        assertTrue(cache.getSize() <= 64);
+        assertEquals(1000 - cache.getSize(), cache.getStatus().getEvictions());
+    }
+
+}
@@ -12,9 +12,13 @@
 
 package org.nuxeo.ecm.core.storage.sql.jdbc.dialect;
 
+import java.io.Serializable;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.jmock.Mockery;
 import org.jmock.Expectations;
@@ -451,4 +455,42 @@ public class TestDialectQuerySyntax {
         assertDialectFT("\"foo bar*\"", "\"foo bar*\"");
     }
 
+    @Test
+    public void testKeysetCondition() throws Exception {
+        List<String> columns = Arrays.asList("a", "b", "id");
+        List<Serializable> values = Arrays.<Serializable> asList("x",
+                Long.valueOf(2), "id3");
+        List<Serializable> params = new ArrayList<Serializable>();
+
+        // NULLs sorted high
+        dialect = new DialectPostgreSQL(metadata, binaryManager,
+                repositoryDescriptor);
+        assertTrue(dialect.supportsRowValueComparison());
+        assertEquals("((a, b, id) > (?, ?, ?)"
+                + " OR a IS NULL OR (a) >= (?) AND b IS NULL)",
+                dialect.getKeysetCondition(columns, values, false, params));
+        assertEquals(Arrays.asList("x", Long.valueOf(2), "id3", "x"), params);
+        params.clear();
+        assertEquals("((a, b, id) < (?, ?, ?))", dialect.getKeysetCondition(
+                columns, values, true, params));
+        assertEquals(values, params);
+        params.clear();
+
+        // NULLs sorted low
+        dialect = new DialectH2(metadata, binaryManager, repositoryDescriptor);
+        assertEquals("((a, b, id) > (?, ?, ?))", dialect.getKeysetCondition(
+                columns, values, false, params));
+        assertEquals(values, params);
+        params.clear();
+        assertEquals("((a, b, id) < (?, ?, ?)"
+                + " OR a IS NULL OR (a) <= (?) AND b IS NULL)",
+                dialect.getKeysetCondition(columns, values, true, params));
+        assertEquals(Arrays.asList("x", Long.valueOf(2), "id3", "x"), params);
+
+        // no row values
+        dialect = new DialectOracle(metadata, binaryManager,
+                repositoryDescriptor);
+        assertFalse(dialect.supportsRowValueComparison());
+    }
+
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.Row;
+import org.nuxeo.ecm.core.storage.sql.RowId;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowBatch;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowUpdate;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.ServerDescriptor;
+
+public class TestMapperCodec {
+
+    private static final Log log = LogFactory.getLog(TestMapperCodec.class);
+
+    private static final int TEST_PORT = 9737;
+
+    private static final String TEST_CTX = "/nuxeotest";
+
+    private static final String TEST_PATH = "/echo";
+
+    protected static Object roundTrip(Object object) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MapperCodec.Output out = new MapperCodec.Output(baos);
+        out.writeObject(object);
+        out.writeObject(object); // second time with shared strings
+        MapperCodec.Input in = new MapperCodec.Input(new ByteArrayInputStream(
+                baos.toByteArray()));
+        Object res = in.readObject();
+        assertEquals(String.valueOf(res), String.valueOf(in.readObject()));
+        return res;
+    }
+
+    protected static Row row(int i) {
+        Row row = new Row("dublincore", "12345678-1234-1234-1234-12345678900"
+                + (i % 10));
+        row.putNew("dc:title", "title " + i);
+        row.putNew("dc:description", null);
+        row.putNew("dc:modified", new GregorianCalendar(2012, 1, 2));
+        row.putNew("dc:contributors", new String[] { "bob", "pete" });
+        row.putNew("major_version", Long.valueOf(i));
+        row.putNew("ratio", Double.valueOf(i / 3.0));
+        row.putNew("isCheckedIn", Boolean.valueOf(i % 2 == 0));
+        return row;
+    }
+
+    protected static List<Row> rows(int n) {
+        List<Row> rows = new ArrayList<Row>(n);
+        for (int i = 0; i < n; i++) {
+            rows.add(row(i));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        assertEquals(null, roundTrip(null));
+        assertEquals("foo", roundTrip("foo"));
+        char[] chars = new char[1000];
+        Arrays.fill(chars, '\u00e9');
+        String big = new String(chars);
+        assertEquals(big, roundTrip(big));
+        assertEquals(Long.valueOf(-1), roundTrip(Long.valueOf(-1)));
+        assertEquals(Long.valueOf(Long.MIN_VALUE),
+                roundTrip(Long.valueOf(Long.MIN_VALUE)));
+        assertEquals(Long.valueOf(Long.MAX_VALUE),
+                roundTrip(Long.valueOf(Long.MAX_VALUE)));
+        assertEquals(Integer.valueOf(123456), roundTrip(Integer.valueOf(123456)));
+        assertEquals(Boolean.TRUE, roundTrip(Boolean.TRUE));
+        assertEquals(Double.valueOf(-1.5), roundTrip(Double.valueOf(-1.5)));
+        Calendar cal = new GregorianCalendar(
+                TimeZone.getTimeZone("Europe/Paris"));
+        cal.setTimeInMillis(1234567890123L);
+        assertEquals(cal, roundTrip(cal));
+        String[] strings = { "a", null, "b" };
+        assertTrue(Arrays.equals(strings, (String[]) roundTrip(strings)));
+        Serializable[] objects = { "a", Long.valueOf(1) };
+        assertTrue(Arrays.equals(objects, (Serializable[]) roundTrip(objects)));
+        // fallback to serialization
+        TreeSet<String> set = new TreeSet<String>(Arrays.asList("x", "y"));
+        assertEquals(set, roundTrip(set));
+    }
+
+    @Test
+    public void testRows() throws Exception {
+        Row row = row(1);
+        Row res = (Row) roundTrip(row);
+        assertEquals(row.toString(), res.toString());
+        assertEquals(row.id, res.id);
+        assertEquals(row.tableName, res.tableName);
+
+        Row coll = new Row("dc:subjects", "id1", new String[] { "a", "b" });
+        res = (Row) roundTrip(coll);
+        assertTrue(res.isCollection());
+        assertTrue(res.values instanceof String[]);
+        assertEquals(coll.toString(), res.toString());
+
+        RowId rowId = new RowId("hierarchy", "id2");
+        Object rid = roundTrip(rowId);
+        assertEquals(RowId.class, rid.getClass());
+        assertEquals(rowId, rid);
+
+        List<Row> rows = rows(5);
+        assertEquals(rows.toString(), roundTrip(rows).toString());
+    }
+
+    @Test
+    public void testInvalidationsAndBatch() throws Exception {
+        Invalidations invals = new Invalidations();
+        invals.addModified(new RowId("hierarchy", "id1"));
+        invals.addDeleted(new RowId("dublincore", "id2"));
+        Invalidations res = (Invalidations) roundTrip(invals);
+        assertEquals(invals.modified, res.modified);
+        assertEquals(invals.deleted, res.deleted);
+        assertTrue(((Invalidations) roundTrip(new Invalidations(true))).all);
+        assertTrue(((Invalidations) roundTrip(new Invalidations())).isEmpty());
+
+        RowBatch batch = new RowBatch();
+        batch.creates.add(row(1));
+        batch.updates.add(new RowUpdate(row(2), Arrays.asList("dc:title")));
+        batch.deletes.add(new RowId("hierarchy", "id3"));
+        RowBatch rb = (RowBatch) roundTrip(batch);
+        assertEquals(batch.toString(), rb.toString());
+    }
+
+    protected static byte[] encode(Object object) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MapperCodec.Output out = new MapperCodec.Output(baos);
+        out.writeObject(object);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testInvalidationsOnly() throws Exception {
+        Invalidations invals = new Invalidations();
+        invals.addModified(new RowId("hierarchy", "id1"));
+        invals.addDeleted(new RowId("dublincore", Long.valueOf(2)));
+        Invalidations res = new MapperCodec.Input(new ByteArrayInputStream(
+                encode(invals))).readInvalidationsOnly();
+        assertEquals(invals.modified, res.modified);
+        assertEquals(invals.deleted, res.deleted);
+
+        // other objects are refused
+        try {
+            byte[] bytes = encode(new RowId("hierarchy", "id1"));
+            new MapperCodec.Input(new ByteArrayInputStream(bytes)).readInvalidationsOnly();
+            fail();
+        } catch (StreamCorruptedException e) {
+            // ok
+        }
+        // serialized objects are never deserialized
+        invals = new Invalidations();
+        invals.addModified(new RowId("hierarchy", new Date()));
+        try {
+            byte[] bytes = encode(invals);
+            new MapperCodec.Input(new ByteArrayInputStream(bytes)).readInvalidationsOnly();
+            fail();
+        } catch (StreamCorruptedException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testCalls() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MapperCodec.Output out = new MapperCodec.Output(baos);
+        out.writeHeader(2);
+        out.writeCall("read", new Object[] {
+                new ArrayList<RowId>(Arrays.asList(new RowId("hierarchy",
+                        "id1"))), Boolean.FALSE });
+        out.writeCall("getRootId", null);
+        MapperCodec.Input in = new MapperCodec.Input(new ByteArrayInputStream(
+                baos.toByteArray()));
+        assertEquals(2, in.readHeader());
+        assertEquals("read", in.readMethodName());
+        assertEquals(2, in.readArgs().length);
+        assertEquals("getRootId", in.readMethodName());
+        assertEquals(0, in.readArgs().length);
+    }
+
+    @Test
+    public void testOverloadedCalls() throws Exception {
+        // the protocol only carries the name, the arguments pick the overload
+        Method method = MapperInvoker.getMapperMethod("query", new Object[] {
+                "SELECT * FROM Document", "NXQL", null, Boolean.TRUE });
+        assertEquals(Boolean.TYPE, method.getParameterTypes()[3]);
+        method = MapperInvoker.getMapperMethod("query", new Object[] {
+                "SELECT * FROM Document", "NXQL", null, Long.valueOf(-1) });
+        assertEquals(Long.TYPE, method.getParameterTypes()[3]);
+        try {
+            MapperInvoker.getMapperMethod("query", new Object[] {
+                    "SELECT * FROM Document", "NXQL", null, "foo" });
+            fail();
+        } catch (StorageException e) {
+            // ok
+        }
+    }
+
+    /**
+     * Servlet sending back what it receives, decoded and re-encoded with the
+     * same format.
+     */
+    public static class EchoServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            InputStream is = req.getInputStream();
+            OutputStream os = resp.getOutputStream();
+            try {
+                if (MapperCodec.CONTENT_TYPE.equals(req.getContentType())) {
+                    MapperCodec.Input in = new MapperCodec.Input(is);
+                    Object object = in.readObject();
+                    MapperCodec.Output out = new MapperCodec.Output(os);
+                    out.writeObject(object);
+                    out.flush();
+                } else {
+                    Object object = new ObjectInputStream(is).readObject();
+                    ObjectOutputStream oos = new ObjectOutputStream(os);
+                    oos.writeObject(object);
+                    oos.flush();
+                }
+            } catch (ClassNotFoundException e) {
+                throw new ServletException(e);
+            }
+        }
+    }
+
+    protected static long echo(HttpClient httpClient, String url,
+            Object object, boolean compact, int n) throws Exception {
+        long size = 0;
+        for (int i = 0; i < n; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            String contentType;
+            if (compact) {
+                MapperCodec.Output out = new MapperCodec.Output(baos);
+                out.writeObject(object);
+                contentType = MapperCodec.CONTENT_TYPE;
+            } else {
+                ObjectOutputStream oos = new ObjectOutputStream(baos);
+                oos.writeObject(object);
+                oos.close();
+                contentType = "application/octet-stream";
+            }
+            size = baos.size();
+            PostMethod m = new PostMethod(url);
+            try {
+                m.setRequestEntity(new ByteArrayRequestEntity(
+                        baos.toByteArray(), contentType));
+                assertEquals(HttpStatus.SC_OK, httpClient.executeMethod(m));
+                InputStream is = m.getResponseBodyAsStream();
+                Object res;
+                if (compact) {
+                    res = new MapperCodec.Input(is).readObject();
+                } else {
+                    res = new ObjectInputStream(is).readObject();
+                }
+                assertEquals(((List<?>) object).size(), ((List<?>) res).size());
+            } finally {
+                m.releaseConnection();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Compares the compact encoding with Java serialization through a local
+     * {@link NetServer}.
+     */
+    @Test
+    public void testCompareWithSerialization() throws Exception {
+        ServerDescriptor descr = new ServerDescriptor();
+        descr.host = "127.0.0.1";
+        descr.port = TEST_PORT;
+        descr.path = TEST_CTX;
+        NetServer.add(descr, "echo", new EchoServlet(), TEST_PATH);
+        try {
+            HttpClient httpClient = new HttpClient();
+            String url = descr.getUrl() + TEST_PATH;
+            List<Row> rows = rows(100);
+            int n = 200;
+            // warm up
+            echo(httpClient, url, rows, true, 20);
+            echo(httpClient, url, rows, false, 20);
+
+            long t0 = System.nanoTime();
+            long serializedSize = echo(httpClient, url, rows, false, n);
+            long t1 = System.nanoTime();
+            long compactSize = echo(httpClient, url, rows, true, n);
+            long t2 = System.nanoTime();
+            log.info(String.format(
+                    "%d round trips of %d rows: serialization %d bytes %.1fms,"
+                            + " compact %d bytes %.1fms", n, rows.size(),
+                    serializedSize, (t1 - t0) / 1000000.0, compactSize,
+                    (t2 - t1) / 1000000.0));
+            assertTrue(compactSize < serializedSize);
+        } finally {
+            NetServer.remove(descr, "echo");
+        }
+    }
+
+}
@@ -44,10 +44,12 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -83,6 +85,8 @@ import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.core.event.impl.EventContextImpl;
 import org.nuxeo.ecm.core.lifecycle.LifeCycleException;
 import org.nuxeo.ecm.core.lifecycle.LifeCycleService;
+import org.nuxeo.ecm.core.model.ChunkedQuery;
+import org.nuxeo.ecm.core.model.ChunkedQueryResult;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.DocumentIterator;
 import org.nuxeo.ecm.core.model.DocumentProxy;
@@ -91,10 +95,12 @@ import org.nuxeo.ecm.core.model.PathComparator;
 import org.nuxeo.ecm.core.model.Session;
 import org.nuxeo.ecm.core.query.FilterableQuery;
 import org.nuxeo.ecm.core.query.Query;
+import org.nuxeo.ecm.core.query.QueryException;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.QueryParseException;
 import org.nuxeo.ecm.core.query.QueryResult;
 import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
 import org.nuxeo.ecm.core.schema.DocumentType;
 import org.nuxeo.ecm.core.schema.FacetNames;
@@ -139,6 +145,14 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
 
     public static final String LIMIT_RESULTS_PROPETY = "org.nuxeo.ecm.core.limit.results";
 
+    /**
+     * Number of documents loaded at a time when query results have to be
+     * filtered after the query.
+     *
+     * @since 5.6
+     */
+    public static final int POST_FILTER_CHUNK_SIZE = 100;
+
     // the repository name
     protected String repositoryName;
 
@@ -785,6 +799,29 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 checkPermission(folder, ADD_CHILDREN);
             }
 
+            Map<String, Serializable> options = getContextMapEventInfo(docModel);
+            notifyEvent(DocumentEventTypes.ABOUT_TO_CREATE, docModel, options,
+                    null, null, false, true); // no lifecycle yet
+            String name = generateDocumentName(folder, docModel.getName());
+            return createDocument(docModel, folder, name, options);
+        } catch (DocumentException e) {
+            throw new ClientException("Failed to create document: "
+                    + docModel.getName(), e);
+        }
+    }
+
+    /**
+     * Creates a document once its parent is resolved and checked, the
+     * {@link DocumentEventTypes#ABOUT_TO_CREATE} event is sent and its name
+     * is chosen.
+     *
+     * @since 5.6
+     */
+    protected DocumentModel createDocument(DocumentModel docModel,
+            Document folder, String name, Map<String, Serializable> options)
+            throws ClientException {
+        String typeName = docModel.getType();
+        try {
             // get initial life cycle state info
             String initialLifecycleState = null;
             Object lifecycleStateInfo = docModel.getContextData(LifeCycleConstants.INITIAL_LIFECYCLE_STATE_OPTION_NAME);
@@ -792,11 +829,6 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 initialLifecycleState = (String) lifecycleStateInfo;
             }
 
-            Map<String, Serializable> options = getContextMapEventInfo(docModel);
-            notifyEvent(DocumentEventTypes.ABOUT_TO_CREATE, docModel, options,
-                    null, null, false, true); // no lifecycle yet
-            String name = docModel.getName();
-            name = generateDocumentName(folder, name);
             if (folder == null) {
                 folder = getSession().getNullDocument();
             }
@@ -845,12 +877,43 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         }
     }
 
+    /**
+     * Imports documents in bulk.
+     * <p>
+     * The documents are imported in order, so that a document can be
+     * imported under, or as a proxy to, one imported before it in the same
+     * batch. Each distinct parent is resolved once, when first used, and the
+     * names are chosen using {@link BatchNames}.
+     */
     @Override
     public void importDocuments(List<DocumentModel> docModels)
             throws ClientException {
+        if (!isAdministrator()) {
+            throw new DocumentSecurityException("Only Administrator can import");
+        }
+        BatchNames names = new BatchNames();
+        for (DocumentModel docModel : docModels) {
+            checkImportedDocument(docModel);
+            names.want(docModel.getParentRef(), docModel.getName());
+        }
+        Map<DocumentRef, Document> resolved = new HashMap<DocumentRef, Document>();
         try {
+            names.prepare();
             for (DocumentModel docModel : docModels) {
-                importDocument(docModel);
+                DocumentRef parentRef = docModel.getParentRef();
+                Document parent = null;
+                if (parentRef != null && !EMPTY_PATH.equals(parentRef)) {
+                    parent = resolved.get(parentRef);
+                    if (parent == null) {
+                        // may have been imported earlier in the batch
+                        parent = resolveReference(parentRef);
+                        resolved.put(parentRef, parent);
+                    }
+                }
+                String name = names.generate(parent, parentRef,
+                        docModel.getName());
+                importDocument(docModel, parent, name);
+                names.created(docModel.getId());
             }
         } catch (DocumentException e) {
             throw new ClientException("Failed to import documents", e);
@@ -864,6 +927,18 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         if (!isAdministrator()) {
             throw new DocumentSecurityException("Only Administrator can import");
         }
+        checkImportedDocument(docModel);
+        DocumentRef parentRef = docModel.getParentRef();
+        Document parent = parentRef == null || EMPTY_PATH.equals(parentRef) ? null
+                : resolveReference(parentRef);
+        String name = docModel.getName();
+        if (parent != null) {
+            name = generateDocumentName(parent, name);
+        }
+        importDocument(docModel, parent, name);
+    }
+
+    protected void checkImportedDocument(DocumentModel docModel) {
         String name = docModel.getName();
         if (name == null || name.length() == 0) {
             throw new IllegalArgumentException("Invalid empty name");
@@ -876,18 +951,21 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         if (id == null || id.length() == 0) {
             throw new IllegalArgumentException("Invalid empty id");
         }
-        DocumentRef parentRef = docModel.getParentRef();
-        Document parent = parentRef == null || EMPTY_PATH.equals(parentRef) ? null
-                : resolveReference(parentRef);
-        Map<String, Serializable> props = docModel.getContextData().getDefaultScopeValues();
+    }
 
-        if (parent != null) {
-            name = generateDocumentName(parent, name);
-        }
+    /**
+     * Imports a document once its parent is resolved and its name is chosen.
+     *
+     * @since 5.6
+     */
+    protected void importDocument(DocumentModel docModel, Document parent,
+            String name) throws DocumentException, ClientException {
+        String typeName = docModel.getType();
+        Map<String, Serializable> props = docModel.getContextData().getDefaultScopeValues();
 
         // create the document
-        Document doc = getSession().importDocument(id, parent, name, typeName,
-                props);
+        Document doc = getSession().importDocument(docModel.getId(), parent,
+                name, typeName, props);
 
         if (typeName.equals(CoreSession.IMPORT_PROXY_TYPE)) {
             // just reread the final document
@@ -921,14 +999,213 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         return name;
     }
 
+    /**
+     * Unique names for documents created or imported together, like
+     * {@link #generateDocumentName} chooses for a single document.
+     * <p>
+     * The names wanted in the batch under a parent are checked with one
+     * query (see {@link #getChildrenNames}) when the parent is first used,
+     * instead of one {@link Document#hasChild} per document, and the names of
+     * the batch are checked against each other. A name not known beforehand,
+     * for instance set by an event listener, is checked with
+     * {@link Document#hasChild}.
+     *
+     * @since 5.6
+     */
+    protected class BatchNames {
+
+        /** The names wanted under each parent reference. */
+        protected final Map<DocumentRef, Set<String>> wanted = new HashMap<DocumentRef, Set<String>>();
+
+        /** The names known to be used, by parent id. */
+        protected final Map<String, Set<String>> used = new HashMap<String, Set<String>>();
+
+        /**
+         * The names already checked, by parent id. A {@code null} value means
+         * that the parent was created by the batch, so that all its children
+         * are known.
+         */
+        protected final Map<String, Set<String>> checked = new HashMap<String, Set<String>>();
+
+        protected final long time = System.currentTimeMillis();
+
+        /**
+         * Declares a name wanted in the batch, to be checked together with
+         * the other names under the same parent.
+         */
+        public void want(DocumentRef parentRef, String name) {
+            if (parentRef == null || name == null || name.length() == 0) {
+                return;
+            }
+            Set<String> names = wanted.get(parentRef);
+            if (names == null) {
+                names = new HashSet<String>();
+                wanted.put(parentRef, names);
+            }
+            names.add(name);
+        }
+
+        /**
+         * Saves the session before the first document of the batch is
+         * created, if needed, as the queries only see saved children.
+         */
+        public void prepare() throws DocumentException {
+            if (!wanted.isEmpty()) {
+                getSession().save();
+            }
+        }
+
+        /**
+         * Records a document created by the batch. It has no children other
+         * than the ones the batch creates after it.
+         */
+        public void created(String id) {
+            used.put(id, new HashSet<String>());
+            checked.put(id, null);
+        }
+
+        /**
+         * Generates a non-null unique name within the given parent's children.
+         *
+         * @param parent the parent, or {@code null}
+         * @param parentRef the reference the parent was resolved from
+         * @param name the wanted name, or {@code null}
+         */
+        public String generate(Document parent, DocumentRef parentRef,
+                String name) throws DocumentException {
+            if (name == null || name.length() == 0) {
+                return IdUtils.generateStringId();
+            }
+            if (parent == null) {
+                return name;
+            }
+            String id = parent.getUUID();
+            Set<String> usedNames = used.get(id);
+            if (usedNames == null) {
+                Set<String> names = wanted.get(parentRef);
+                names = names == null ? new HashSet<String>()
+                        : new HashSet<String>(names);
+                usedNames = getChildrenNames(parent, names);
+                used.put(id, usedNames);
+                checked.put(id, names);
+            }
+            Set<String> checkedNames = checked.get(id);
+            if (checkedNames != null && checkedNames.add(name)
+                    && parent.hasChild(name)) {
+                usedNames.add(name);
+            }
+            String unique = name;
+            for (long suffix = time; usedNames.contains(unique); suffix++) {
+                unique = name + '.' + String.valueOf(suffix);
+            }
+            usedNames.add(unique);
+            return unique;
+        }
+    }
+
+    /**
+     * Maximum number of names checked by one query in
+     * {@link #getChildrenNames}.
+     */
+    protected static final int CHILDREN_NAMES_BATCH_SIZE = 100;
+
+    /**
+     * Finds which of the given names are already used by children of a
+     * document.
+     *
+     * @return the used names, in a modifiable set
+     * @since 5.6
+     */
+    protected Set<String> getChildrenNames(Document parent,
+            Collection<String> names) throws DocumentException {
+        Set<String> used = new HashSet<String>();
+        List<String> list = new ArrayList<String>(names);
+        for (int i = 0; i < list.size(); i += CHILDREN_NAMES_BATCH_SIZE) {
+            List<String> batch = list.subList(i,
+                    Math.min(i + CHILDREN_NAMES_BATCH_SIZE, list.size()));
+            StringBuilder query = new StringBuilder("SELECT ");
+            query.append(NXQL.ECM_NAME);
+            query.append(" FROM Document WHERE ");
+            query.append(NXQL.ECM_PARENTID);
+            query.append(" = ");
+            query.append(SQLQueryParser.prepareStringLiteral(parent.getUUID()));
+            query.append(" AND ");
+            query.append(NXQL.ECM_NAME);
+            query.append(" IN (");
+            for (int j = 0; j < batch.size(); j++) {
+                if (j != 0) {
+                    query.append(", ");
+                }
+                query.append(SQLQueryParser.prepareStringLiteral(batch.get(j)));
+            }
+            query.append(')');
+            IterableQueryResult res = getSession().queryAndFetch(
+                    query.toString(), NXQL.NXQL, QueryFilter.EMPTY);
+            try {
+                for (Map<String, Serializable> map : res) {
+                    used.add((String) map.get(NXQL.ECM_NAME));
+                }
+            } finally {
+                res.close();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Creates documents in bulk.
+     * <p>
+     * The documents are created in order, each one with its own events as
+     * in {@link #createDocument(DocumentModel)}, so that a document can be
+     * created under one created before it in the same batch. Each distinct
+     * parent is resolved and checked once, when first used, and the names are
+     * chosen using {@link BatchNames}.
+     */
     @Override
     public DocumentModel[] createDocument(DocumentModel[] docModels)
             throws ClientException {
-        DocumentModel[] models = new DocumentModel[docModels.length];
-        int i = 0;
-        // TODO: optimize this (do not call at each iteration createDocument())
+        int size = docModels.length;
+        DocumentModel[] models = new DocumentModel[size];
+        BatchNames names = new BatchNames();
         for (DocumentModel docModel : docModels) {
-            models[i++] = createDocument(docModel);
+            names.want(docModel.getParentRef(), docModel.getName());
+        }
+        Map<DocumentRef, Document> resolved = new HashMap<DocumentRef, Document>();
+        try {
+            names.prepare();
+            for (int i = 0; i < size; i++) {
+                DocumentModel docModel = docModels[i];
+                if (docModel.getType() == null) {
+                    throw new ClientException(String.format(
+                            "cannot create document '%s' with undefined type name",
+                            docModel.getTitle()));
+                }
+                DocumentRef parentRef = docModel.getParentRef();
+                Document folder = null;
+                if (parentRef == null) {
+                    if (!isAdministrator()) {
+                        throw new ClientException(
+                                "Only Administrators can create placeless documents");
+                    }
+                } else {
+                    folder = resolved.get(parentRef);
+                    if (folder == null) {
+                        // may have been created earlier in the batch
+                        folder = resolveReference(parentRef);
+                        checkPermission(folder, ADD_CHILDREN);
+                        resolved.put(parentRef, folder);
+                    }
+                }
+                Map<String, Serializable> options = getContextMapEventInfo(docModel);
+                notifyEvent(DocumentEventTypes.ABOUT_TO_CREATE, docModel,
+                        options, null, null, false, true); // no lifecycle yet
+                String name = names.generate(folder, parentRef,
+                        docModel.getName());
+                models[i] = createDocument(docModel, folder, name, options);
+                names.created(models[i].getId());
+            }
+        } catch (DocumentException e) {
+            throw new ClientException("Failed to create documents", e);
         }
         return models;
     }
@@ -1026,8 +1303,15 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
             }
             Document doc = resolveReference(parent);
             checkPermission(doc, READ_CHILDREN);
+            DocumentModelList docs = getChildrenInBulk(doc, type, perm, filter);
+            if (docs != null) {
+                if (sorter != null) {
+                    Collections.sort(docs, sorter);
+                }
+                return docs;
+            }
             Iterator<Document> children = doc.getChildren();
-            DocumentModelList docs = new DocumentModelListImpl();
+            docs = new DocumentModelListImpl();
             while (children.hasNext()) {
                 Document child = children.next();
                 if (hasPermission(child, perm)) {
@@ -1050,6 +1334,75 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         }
     }
 
+    /**
+     * Gets the children of a document with a single query when the backend
+     * can filter it, so that the children are loaded in bulk and their
+     * security is checked by the backend for all of them at once, instead of
+     * merging the ACP of each child. The type and a {@link FacetFilter} are
+     * also checked by the backend, other filters are applied afterwards.
+     *
+     * @return the children, or {@code null} if the backend cannot do it
+     * @since 5.6
+     */
+    protected DocumentModelList getChildrenInBulk(Document parent,
+            String type, String perm, Filter filter) throws ClientException {
+        SecurityService securityService = getSecurityService();
+        String repoName = getRepositoryName();
+        if (!securityService.arePoliciesExpressibleInQuery(repoName)) {
+            return null;
+        }
+        try {
+            StringBuilder query = new StringBuilder(
+                    "SELECT * FROM Document WHERE ");
+            query.append(NXQL.ECM_PARENTID);
+            query.append(" = ");
+            query.append(SQLQueryParser.prepareStringLiteral(parent.getUUID()));
+            if (type != null) {
+                query.append(" AND ");
+                query.append(NXQL.ECM_PRIMARYTYPE);
+                query.append(" = ");
+                query.append(SQLQueryParser.prepareStringLiteral(type));
+            }
+            // keep the order of ordered folders
+            query.append(" ORDER BY ");
+            query.append(NXQL.ECM_POS);
+            Query compiledQuery = getSession().createQuery(query.toString(),
+                    NXQL.NXQL);
+            if (!(compiledQuery instanceof FilterableQuery)) {
+                return null;
+            }
+            Principal principal = getPrincipal();
+            String[] principals;
+            if (isAdministrator()) {
+                principals = null; // means: no security check needed
+            } else {
+                principals = SecurityService.getPrincipalsToCheck(principal);
+            }
+            QueryFilter queryFilter = new QueryFilter(principal, principals,
+                    securityService.getPermissionsToCheck(perm),
+                    filter instanceof FacetFilter ? (FacetFilter) filter
+                            : null,
+                    securityService.getPoliciesQueryTransformers(repoName), 0,
+                    0);
+            QueryResult results = ((FilterableQuery) compiledQuery).execute(
+                    queryFilter, 0);
+            DocumentModelList dms = results.getDocumentModels();
+            if (filter == null || filter instanceof FacetFilter) {
+                return dms;
+            }
+            DocumentModelList docs = new DocumentModelListImpl(dms.size());
+            for (DocumentModel model : dms) {
+                if (filter.accept(model)) {
+                    docs.add(model);
+                }
+            }
+            return docs;
+        } catch (Exception e) {
+            throw new ClientException("Failed to get children for "
+                    + parent.getUUID(), e);
+        }
+    }
+
     @Override
     public List<DocumentRef> getChildrenRefs(DocumentRef parentRef, String perm)
             throws ClientException {
@@ -1454,6 +1807,22 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     public DocumentModelList query(String query, String queryType,
             Filter filter, long limit, long offset, long countUpTo)
             throws ClientException {
+        return query(query, queryType, filter, limit, offset, countUpTo, null);
+    }
+
+    @Override
+    public DocumentModelList query(String query, String queryType,
+            Filter filter, long limit, ContinuationToken continuationToken)
+            throws ClientException {
+        if (continuationToken == null) {
+            continuationToken = ContinuationToken.FIRST;
+        }
+        return query(query, queryType, filter, limit, 0, 0, continuationToken);
+    }
+
+    protected DocumentModelList query(String query, String queryType,
+            Filter filter, long limit, long offset, long countUpTo,
+            ContinuationToken continuationToken) throws ClientException {
         SecurityService securityService = getSecurityService();
         Principal principal = getPrincipal();
         try {
@@ -1483,8 +1852,12 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                         filter instanceof FacetFilter ? (FacetFilter) filter
                                 : null,
                         securityService.getPoliciesQueryTransformers(repoName),
-                        postFilter ? 0 : limit, postFilter ? 0 : offset);
-                if (postFilter) {
+                        postFilter ? 0 : limit, postFilter ? 0 : offset,
+                        postFilter ? null : continuationToken);
+                if (postFilter && compiledQuery instanceof ChunkedQuery) {
+                    // fetch the ids from the backend page by page
+                    results = ((ChunkedQuery) compiledQuery).executeChunked(queryFilter);
+                } else if (postFilter) {
                     results = ((FilterableQuery) compiledQuery).execute(
                             queryFilter, -1);
                 } else {
@@ -1499,15 +1872,25 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 results = compiledQuery.execute();
             }
 
-            DocumentModelList dms = results.getDocumentModels();
-
             if (!postFilter) {
                 // the backend has done all the needed filtering
-                return dms;
+                return results.getDocumentModels();
             }
 
             // post-filter the results "by hand", the backend couldn't do it
+            if (continuationToken != null) {
+                // cannot seek, use the number of documents already returned
+                offset = continuationToken.getOffset();
+            }
             long start = limit == 0 || offset < 0 ? 0 : offset;
+            if (results instanceof ChunkedQueryResult) {
+                return postFilterChunked((ChunkedQueryResult) results,
+                        postFilterPermission || postFilterPolicies,
+                        !postFilterPermission, permission,
+                        postFilterFilter ? filter : null, limit, start,
+                        countUpTo, continuationToken != null);
+            }
+            DocumentModelList dms = results.getDocumentModels();
             long stop = start + (limit == 0 ? dms.size() : limit);
             int n = 0;
             DocumentModelListImpl docs = new DocumentModelListImpl();
@@ -1540,6 +1923,11 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
             if (countUpTo != 0) {
                 docs.setTotalSize(n);
             }
+            if (continuationToken != null && limit != 0
+                    && docs.size() == limit) {
+                docs.setContinuationToken(new ContinuationToken(null, start
+                        + limit));
+            }
             return docs;
         } catch (Exception e) {
             throw new ClientException("Failed to execute query: "
@@ -1547,9 +1935,93 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
         }
     }
 
+    /**
+     * Post-filters the results of a query chunk by chunk, loading only the
+     * documents needed to fill the page and to count up to {@code countUpTo}.
+     * <p>
+     * The permission is checked once per chunk on the core documents, so that
+     * document models are only created for the documents that are kept, or
+     * that the filter needs to see.
+     *
+     * @param aclChecked {@code true} if the query already checked the
+     *            permission against the ACLs, so that only the security
+     *            policies remain to be checked
+     * @since 5.6
+     */
+    protected DocumentModelList postFilterChunked(ChunkedQueryResult results,
+            boolean checkPermission, boolean aclChecked, String permission,
+            Filter filter, long limit, long start, long countUpTo,
+            boolean continuation) throws QueryException, DocumentException,
+            ClientException {
+        SecurityService securityService = getSecurityService();
+        Principal principal = getPrincipal();
+        long stop = limit == 0 ? Long.MAX_VALUE : start + limit;
+        long n = 0;
+        boolean truncated = false;
+        DocumentModelListImpl docs = new DocumentModelListImpl();
+        chunks: for (;;) {
+            List<Document> chunk = results.nextDocuments(POST_FILTER_CHUNK_SIZE);
+            if (chunk.isEmpty()) {
+                break;
+            }
+            if (checkPermission) {
+                chunk = securityService.filterPermitted(chunk, principal,
+                        permission, aclChecked);
+            }
+            for (Document doc : chunk) {
+                DocumentModel model = null;
+                if (filter != null) {
+                    model = readModel(doc);
+                    if (!filter.accept(model)) {
+                        continue;
+                    }
+                }
+                if (n < start) {
+                    n++;
+                    continue;
+                }
+                if (n >= stop) {
+                    if (countUpTo == 0) {
+                        // can break early
+                        break chunks;
+                    }
+                    if (countUpTo > 0 && n >= countUpTo) {
+                        // there are more than countUpTo documents
+                        truncated = true;
+                        break chunks;
+                    }
+                    n++;
+                    continue;
+                }
+                n++;
+                docs.add(model == null ? readModel(doc) : model);
+            }
+        }
+        if (countUpTo != 0) {
+            docs.setTotalSize(truncated ? -2 : n);
+        }
+        if (continuation && limit != 0 && docs.size() == limit) {
+            docs.setContinuationToken(new ContinuationToken(null, start
+                    + limit));
+        }
+        return docs;
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             Object... params) throws ClientException {
+        return doQueryAndFetch(query, queryType, false, params);
+    }
+
+    @Override
+    public IterableQueryResult queryAndFetchStreaming(String query,
+            String queryType, Object... params) throws ClientException {
+        return doQueryAndFetch(query, queryType, true, params);
+    }
+
+    protected IterableQueryResult doQueryAndFetch(String query,
+            String queryType, boolean streaming, Object... params)
+            throws ClientException {
         try {
             SecurityService securityService = getSecurityService();
             Principal principal = getPrincipal();
@@ -1572,7 +2044,7 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 transformers = Collections.emptyList();
             }
             QueryFilter queryFilter = new QueryFilter(principal, principals,
-                    permissions, null, transformers, 0, 0);
+                    permissions, null, transformers, 0, 0, null, streaming);
             return getSession().queryAndFetch(query, queryType, queryFilter,
                     params);
         } catch (Exception e) {
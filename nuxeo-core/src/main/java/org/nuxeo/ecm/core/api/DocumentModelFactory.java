@@ -410,6 +410,7 @@ public class DocumentModelFactory {
             prefetchValues((Property) doc, null, prefixedName, prefetch,
                     docSchemas);
         }
+        prefetch.trimToSize();
 
         return prefetch;
     }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.model;
+
+import org.nuxeo.ecm.core.query.FilterableQuery;
+import org.nuxeo.ecm.core.query.QueryException;
+import org.nuxeo.ecm.core.query.QueryFilter;
+
+/**
+ * A {@link FilterableQuery} whose results can be fetched from the backend
+ * page by page, instead of getting all the matching ids at once.
+ *
+ * @since 5.6
+ */
+public interface ChunkedQuery extends FilterableQuery {
+
+    /**
+     * Executes the query without limit nor offset, each call to
+     * {@link ChunkedQueryResult#nextDocuments} fetching the next page.
+     *
+     * @param queryFilter the query filter, whose limit and offset are ignored
+     * @return the result
+     */
+    ChunkedQueryResult executeChunked(QueryFilter queryFilter)
+            throws QueryException;
+
+}
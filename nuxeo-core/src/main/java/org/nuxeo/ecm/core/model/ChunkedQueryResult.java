@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.model;
+
+import java.util.List;
+
+import org.nuxeo.ecm.core.query.QueryException;
+import org.nuxeo.ecm.core.query.QueryResult;
+
+/**
+ * A {@link QueryResult} whose documents can be loaded chunk by chunk, in
+ * bulk, instead of all at once.
+ * <p>
+ * This is used when the results have to be filtered after the query, so that
+ * only the documents needed to fill a page are actually loaded.
+ *
+ * @since 5.6
+ */
+public interface ChunkedQueryResult extends QueryResult {
+
+    /**
+     * Loads the next documents of the result.
+     *
+     * @param max the maximum number of documents to load
+     * @return the documents, or an empty list if there are no more documents
+     */
+    List<Document> nextDocuments(int max) throws QueryException;
+
+}
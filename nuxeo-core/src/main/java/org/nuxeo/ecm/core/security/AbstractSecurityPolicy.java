@@ -29,6 +29,22 @@ public abstract class AbstractSecurityPolicy implements SecurityPolicy {
         return true;
     }
 
+    /**
+     * Checks if this policy looks at the merged ACP passed to
+     * {@link #checkPermission}.
+     * <p>
+     * If no policy does, permission checks don't compute a copy of the merged
+     * ACP, and {@code null} is passed instead. Policies not extending this
+     * class are assumed to use it.
+     *
+     * @return {@code true} if the policy needs the merged ACP
+     * @since 5.6
+     */
+    public boolean isUsingMergedACP() {
+        // by default, we don't know, so yes
+        return true;
+    }
+
     @Override
     public Transformer getQueryTransformer(String repositoryName) {
         return getQueryTransformer();
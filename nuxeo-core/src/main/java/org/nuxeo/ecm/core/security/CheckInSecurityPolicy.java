@@ -35,6 +35,11 @@ public class CheckInSecurityPolicy extends AbstractSecurityPolicy {
 
     private static final Log log = LogFactory.getLog(CheckInSecurityPolicy.class);
 
+    @Override
+    public boolean isUsingMergedACP() {
+        return false;
+    }
+
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp,
             Principal principal, String permission,
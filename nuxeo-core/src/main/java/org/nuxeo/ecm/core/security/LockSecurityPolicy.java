@@ -36,6 +36,11 @@ public class LockSecurityPolicy extends AbstractSecurityPolicy {
 
     private static final Log log = LogFactory.getLog(LockSecurityPolicy.class);
 
+    @Override
+    public boolean isUsingMergedACP() {
+        return false;
+    }
+
     @Override
     public Access checkPermission(Document doc, ACP mergedAcp,
             Principal principal, String permission,
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.security;
+
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+
+/**
+ * Optional capability of a {@link SecurityManager} able to check several
+ * principals and permissions against the merged ACP of a document without
+ * building a new merged ACP for each check.
+ * <p>
+ * Security managers not implementing it are checked through
+ * {@link SecurityManager#getMergedACP}.
+ *
+ * @since 5.6
+ */
+public interface MultipleAccessSecurityManager extends SecurityManager {
+
+    /**
+     * Checks whether the merged ACP of a document grants or denies one of the
+     * given permissions to one of the given principals, or doesn't specify a
+     * rule.
+     * <p>
+     * This is equivalent to calling {@link ACP#getAccess(String[], String[])}
+     * on the merged ACP.
+     *
+     * @param doc the document
+     * @param principals the principals to check
+     * @param permissions the permissions to check
+     * @return Access.GRANT if granted, Access.DENY if denied or
+     *         Access.UNKNOWN if no rule exists. Never returns null
+     */
+    Access getAccess(Document doc, String[] principals, String[] permissions)
+            throws SecurityException;
+
+}
@@ -65,6 +65,15 @@ public interface SecurityPolicyService extends Serializable {
      */
     boolean arePoliciesRestrictingPermission(String permission);
 
+    /**
+     * Checks if any policy looks at the merged ACP.
+     * <p>
+     * If not, permission checks don't need to compute a copy of it.
+     *
+     * @since 5.6
+     */
+    boolean arePoliciesUsingMergedACP();
+
     /**
      * Checks if the policies can be expressed in a query for a given
      * repository.
@@ -48,12 +48,15 @@ public class SecurityPolicyServiceImpl implements SecurityPolicyService {
 
     private List<SecurityPolicy> policies;
 
+    /** Whether a policy uses the merged ACP, computed with the policies. */
+    private boolean usingMergedACP;
+
     public SecurityPolicyServiceImpl() {
         policyDescriptors = new Hashtable<String, SecurityPolicyDescriptor>();
     }
 
     private void computePolicies() {
-        policies = new ArrayList<SecurityPolicy>();
+        List<SecurityPolicy> policies = new ArrayList<SecurityPolicy>();
         List<SecurityPolicyDescriptor> orderedDescriptors = new ArrayList<SecurityPolicyDescriptor>();
         for (SecurityPolicyDescriptor descriptor : policyDescriptors.values()) {
             if (descriptor.isEnabled()) {
@@ -81,6 +84,22 @@ public class SecurityPolicyServiceImpl implements SecurityPolicyService {
             }
         }
         log.debug("Ordered security policies: " + policyNames.toString());
+        usingMergedACP = false;
+        for (SecurityPolicy policy : policies) {
+            if (isUsingMergedACP(policy)) {
+                usingMergedACP = true;
+                break;
+            }
+        }
+        this.policies = policies;
+    }
+
+    protected static boolean isUsingMergedACP(SecurityPolicy policy) {
+        if (policy instanceof AbstractSecurityPolicy) {
+            return ((AbstractSecurityPolicy) policy).isUsingMergedACP();
+        }
+        // by default, we don't know, so yes
+        return true;
     }
 
     private List<SecurityPolicy> getPolicies() {
@@ -94,6 +113,12 @@ public class SecurityPolicyServiceImpl implements SecurityPolicyService {
         policies = null;
     }
 
+    @Override
+    public boolean arePoliciesUsingMergedACP() {
+        getPolicies();
+        return usingMergedACP;
+    }
+
     @Override
     public boolean arePoliciesRestrictingPermission(String permission) {
         for (SecurityPolicy policy : getPolicies()) {
@@ -153,10 +153,12 @@ public class SecurityService extends DefaultComponent {
         String[] resolvedPermissions = getPermissionsToCheck(permission);
         String[] additionalPrincipals = getPrincipalsToCheck(principal);
 
-        // get the ordered list of ACE
-        ACP acp = securityManager.getMergedACP(doc);
-
-        // check pluggable policies
+        // check pluggable policies, the merged ACP is only copied for them if
+        // one of them uses it
+        ACP acp = null;
+        if (securityPolicyService.arePoliciesUsingMergedACP()) {
+            acp = securityManager.getMergedACP(doc);
+        }
         Access access = securityPolicyService.checkPermission(doc, acp,
                 principal, permission, resolvedPermissions,
                 additionalPrincipals);
@@ -164,12 +166,76 @@ public class SecurityService extends DefaultComponent {
             return access.toBoolean();
         }
 
+        // no ACP on that doc or no matching ACE - by default deny
+        access = getAccess(securityManager, doc, acp, additionalPrincipals,
+                resolvedPermissions);
+        return access.toBoolean();
+    }
+
+    /**
+     * Checks the merged ACP of a document, without building it if the
+     * security manager can check it directly.
+     *
+     * @param acp the merged ACP if already computed, or {@code null}
+     */
+    protected static Access getAccess(SecurityManager securityManager,
+            Document doc, ACP acp, String[] principals, String[] permissions)
+            throws SecurityException {
+        if (securityManager instanceof MultipleAccessSecurityManager) {
+            return ((MultipleAccessSecurityManager) securityManager).getAccess(
+                    doc, principals, permissions);
+        }
         if (acp == null) {
-            return false; // no ACP on that doc - by default deny
+            acp = securityManager.getMergedACP(doc);
         }
-        access = acp.getAccess(additionalPrincipals, resolvedPermissions);
+        return acp == null ? Access.UNKNOWN : acp.getAccess(principals,
+                permissions);
+    }
 
-        return access.toBoolean();
+    /**
+     * Checks a permission on several documents at once, computing the
+     * principals and permissions to check only once.
+     *
+     * @param aclChecked {@code true} if the documents are already known to be
+     *            granted the permission by their ACLs, for instance because a
+     *            query checking it returned them, in which case only the
+     *            security policies are evaluated
+     * @return the documents on which the permission is granted, in order
+     * @since 5.6
+     */
+    public List<Document> filterPermitted(List<Document> docs,
+            Principal principal, String permission, boolean aclChecked)
+            throws SecurityException {
+        if (docs.isEmpty()) {
+            return docs;
+        }
+        // system bypass
+        if (SecurityConstants.SYSTEM_USERNAME.equals(principal.getName())) {
+            return docs;
+        }
+        if (principal instanceof NuxeoPrincipal
+                && ((NuxeoPrincipal) principal).isAdministrator()) {
+            return docs;
+        }
+        SecurityManager securityManager = docs.get(0).getSession().getRepository().getNuxeoSecurityManager();
+        String[] resolvedPermissions = getPermissionsToCheck(permission);
+        String[] additionalPrincipals = getPrincipalsToCheck(principal);
+        boolean useMergedACP = securityPolicyService.arePoliciesUsingMergedACP();
+        List<Document> permitted = new ArrayList<Document>(docs.size());
+        for (Document doc : docs) {
+            ACP acp = useMergedACP ? securityManager.getMergedACP(doc) : null;
+            Access access = securityPolicyService.checkPermission(doc, acp,
+                    principal, permission, resolvedPermissions,
+                    additionalPrincipals);
+            if (access == null || Access.UNKNOWN.equals(access)) {
+                access = aclChecked ? Access.GRANT : getAccess(securityManager,
+                        doc, acp, additionalPrincipals, resolvedPermissions);
+            }
+            if (access.toBoolean()) {
+                permitted.add(doc);
+            }
+        }
+        return permitted;
     }
 
     /**
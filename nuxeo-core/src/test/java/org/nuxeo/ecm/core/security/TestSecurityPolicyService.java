@@ -87,8 +87,12 @@ public class TestSecurityPolicyService extends NXRuntimeTestCase {
         assertSame(UNKNOWN, service.checkPermission(doc, null, userPrincipal,
                 permission, permissions, null));
 
+        // the default policies don't need the merged ACP
+        assertFalse(service.arePoliciesUsingMergedACP());
+
         // test creator policy with lower order takes over lock
         deployContrib(CORE_TESTS_BUNDLE, "test-security-policy-contrib.xml");
+        assertTrue(service.arePoliciesUsingMergedACP());
         assertSame(GRANT, service.checkPermission(doc, null, creatorPrincipal,
                 permission, permissions, null));
         assertSame(UNKNOWN, service.checkPermission(doc, null, userPrincipal,